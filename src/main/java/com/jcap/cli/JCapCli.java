@@ -0,0 +1,446 @@
+package com.jcap.cli;
+
+import com.jcap.model.PacketStore;
+import com.jcap.service.CaptureFilter;
+import com.jcap.service.CaptureListener;
+import com.jcap.service.CapturePipeline;
+import com.jcap.service.CaptureSession;
+import com.jcap.service.DatabaseService;
+import com.jcap.service.DisplayFilter;
+import com.jcap.service.FilterSyntaxException;
+import com.jcap.service.FrameWriter;
+import com.jcap.service.OverflowPolicy;
+import com.jcap.service.PcapFileWriter;
+import com.jcap.service.PcapFiles;
+import com.jcap.service.Progress;
+import com.jcap.service.RotatingFileWriter;
+import com.jcap.service.SessionWriter;
+import com.jcap.service.TrafficStatistics;
+import com.jcap.service.TrafficStatistics.Endpoint;
+import com.jcap.service.TrafficStatistics.ProtocolNode;
+import com.jcap.service.TrafficStatistics.Snapshot;
+import org.pcap4j.core.PcapAddress;
+import org.pcap4j.core.PcapNativeException;
+import org.pcap4j.core.PcapNetworkInterface;
+import org.pcap4j.core.Pcaps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Captures without the JavaFX UI, for headless sensors. Frames come from live interfaces or a
+ * capture file and go to pcap or pcapng files, rotated on request and optionally kept as a ring
+ * buffer of the latest files, and to a saved session. Traffic totals are printed while it runs and
+ * summed up at the end. Runs until the packet count or duration is reached, or until it is
+ * interrupted. A live capture to files only keeps no packets in memory, so it can run for days.
+ */
+public final class JCapCli {
+
+    private static final Logger logger = LoggerFactory.getLogger(JCapCli.class);
+
+    private static final OverflowPolicy BUFFER_POLICY = OverflowPolicy.fromProperty();
+
+    private static final int RING_SIZE = Integer.getInteger("jcap.buffer.capacity", 16384);
+    private static final long POLL_MILLIS = 100;
+    private static final long SHUTDOWN_MILLIS = 10_000;
+
+    private static final String USAGE = """
+            Usage: jcap-cli [options]
+              -D                    list the capture interfaces and exit
+              -i NAME               capture on interface NAME; repeat for several (default: the first one)
+              -r FILE               read frames from a pcap or pcapng file instead of capturing
+              -f FILTER             capture filter, display filter or BPF syntax (display filter syntax with -r)
+              -w FILE               write frames to FILE, pcapng when it ends in .pcapng
+              -b filesize:KB        with -w, start a new file every KB kilobytes
+              -b duration:SECONDS   with -w, start a new file every SECONDS of capture time
+              -b packets:N          with -w, start a new file every N packets
+              -b files:N            with a rotation condition, keep only the latest N files
+              -b budget:MB          with a rotation condition, keep only the latest files within MB megabytes
+              -s NAME               record into the saved session NAME
+              -c N                  stop after N packets
+              -a duration:SECONDS   stop after SECONDS
+              -q SECONDS            print totals every SECONDS, 0 for none (default 1)
+              -t N                  hosts and ports in the summary (default 10)
+              -h                    show this help
+            """;
+
+    private final Options options;
+    private final PrintStream out = System.out;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    private volatile CaptureSession session;
+    private volatile String failure;
+
+    private JCapCli(Options options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("jcap-cli: " + e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        if (options.help) {
+            System.out.print(USAGE);
+            return;
+        }
+
+        int status;
+        try {
+            JCapCli cli = new JCapCli(options);
+            status = options.list ? cli.list() : options.readFile != null ? cli.replay() : cli.capture();
+        } catch (UnsatisfiedLinkError e) {
+            logger.debug("Cannot load libpcap.", e);
+            System.err.println("jcap-cli: libpcap is not installed or cannot be loaded");
+            status = 1;
+        } catch (Exception e) {
+            logger.debug("Capture failed.", e);
+            System.err.println("jcap-cli: " + e.getMessage());
+            status = 1;
+        }
+        System.exit(status);
+    }
+
+    private int list() throws PcapNativeException {
+        List<PcapNetworkInterface> devices = Pcaps.findAllDevs();
+        for (int i = 0; i < devices.size(); i++) {
+            PcapNetworkInterface nif = devices.get(i);
+            StringBuilder line = new StringBuilder().append(i + 1).append(". ").append(nif.getName());
+            if (nif.getDescription() != null) line.append(" (").append(nif.getDescription()).append(')');
+            for (PcapAddress address : nif.getAddresses()) {
+                if (address.getAddress() != null) line.append(' ').append(address.getAddress().getHostAddress());
+            }
+            out.println(line);
+        }
+        return 0;
+    }
+
+    private int capture() throws Exception {
+        List<PcapNetworkInterface> devices = selectInterfaces();
+        CaptureFilter filter = CaptureFilter.parse(options.filter);
+
+        PacketStore store = new PacketStore();
+        SessionWriter writer = null;
+        FrameWriter files = null;
+        try {
+            writer = startRecording(store);
+            files = openFiles();
+
+            CaptureSession capture = new CaptureSession(devices, store, BUFFER_POLICY, filter, new CaptureListener() {
+                @Override
+                public void captureFailed(String message) {
+                    fail(message);
+                }
+
+                @Override
+                public void captureStopped() {
+                    stopped.countDown();
+                }
+            });
+            if (writer != null) capture.recordTo(writer);
+            if (files != null) capture.teeTo(files);
+            if (files != null && writer == null) capture.recordOnly();
+            session = capture;
+
+            Thread hook = new Thread(this::interrupted, "jcap-shutdown");
+            Runtime.getRuntime().addShutdownHook(hook);
+
+            long start = System.nanoTime();
+            capture.start();
+            if (filter != null) out.println("Capture filter: " + filter.describe());
+            out.println("Capturing on " + String.join(", ", devices.stream().map(PcapNetworkInterface::getName).toList()) + "...");
+
+            run(capture, store, start);
+            summarize(capture.getStatistics(), System.nanoTime() - start);
+            out.printf(Locale.ROOT, "Dropped %d in JCap, %d by the kernel, %d by the interface%n",
+                    capture.getDroppedCount(), capture.getKernelDroppedCount(), capture.getInterfaceDroppedCount());
+            printOutputs(writer, files);
+        }
+        finally {
+            // the capture has stopped and drained by now, unless it never started
+            if (session == null) {
+                if (writer != null) writer.stop();
+                if (files != null) files.close();
+            }
+            store.close();
+            if (options.session != null) DatabaseService.shutdown();
+            finished.countDown();
+        }
+        return failure == null ? 0 : 1;
+    }
+
+    private void run(CaptureSession capture, PacketStore store, long start) throws InterruptedException {
+        long statsNanos = options.statsSeconds * 1_000_000_000L;
+        long nextStats = start + statsNanos;
+        long lastPackets = 0;
+        long lastBytes = 0;
+        long lastNanos = start;
+        boolean stopping = false;
+        TrafficStatistics statistics = capture.getStatistics();
+
+        while (!stopped.await(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            long now = System.nanoTime();
+            if (!stopping && (options.count > 0 && statistics.getPackets() >= options.count
+                    || options.durationNanos > 0 && now - start >= options.durationNanos)) {
+                stopping = true;
+                capture.stop();
+            }
+
+            if (statsNanos > 0 && now >= nextStats) {
+                long packets = statistics.getPackets();
+                long bytes = statistics.getBytes();
+                double seconds = (now - lastNanos) / 1e9;
+                out.printf(Locale.ROOT, "%8.1f s %12d packets %10.0f packets/s %10.2f Mbit/s %8d dropped%n",
+                        (now - start) / 1e9, packets, (packets - lastPackets) / seconds,
+                        (bytes - lastBytes) * 8 / seconds / 1e6,
+                        capture.getDroppedCount() + capture.getKernelDroppedCount() + capture.getInterfaceDroppedCount());
+                lastPackets = packets;
+                lastBytes = bytes;
+                lastNanos = now;
+                nextStats = now + statsNanos;
+            }
+        }
+    }
+
+    // on Ctrl+C or a kill: stop the capture and let main write out what it has
+    private void interrupted() {
+        CaptureSession current = session;
+        if (current == null || finished.getCount() == 0) return;
+        current.stop();
+        try {
+            finished.await(SHUTDOWN_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void fail(String message) {
+        if (failure == null) failure = message;
+        System.err.println("jcap-cli: " + message);
+        CaptureSession current = session;
+        if (current != null) current.stop();
+    }
+
+    private int replay() throws Exception {
+        DisplayFilter filter = null;
+        if (options.filter != null) {
+            try {
+                filter = DisplayFilter.compile(options.filter);
+            } catch (FilterSyntaxException e) {
+                throw new IllegalArgumentException("Files are filtered with display filter syntax only: " + e.getMessage());
+            }
+        }
+
+        PacketStore store = new PacketStore();
+        SessionWriter writer = null;
+        FrameWriter files = null;
+        try {
+            writer = startRecording(store);
+            files = openFiles();
+
+            CapturePipeline pipeline = new CapturePipeline(RING_SIZE, store, OverflowPolicy.BLOCK);
+            TrafficStatistics statistics = new TrafficStatistics();
+            pipeline.trackStatistics(statistics);
+            if (files != null) pipeline.teeTo(files);
+
+            long start = System.nanoTime();
+            long records = PcapFiles.replay(options.readFile, pipeline, store, filter, Progress.NONE);
+            out.printf(Locale.ROOT, "Read %d frames from %s, kept %d%n", records, options.readFile, store.size());
+            summarize(statistics, System.nanoTime() - start);
+
+            if (writer != null) writer.stop();
+            if (files != null) files.close();
+            printOutputs(writer, files);
+            writer = null;
+            files = null;
+        }
+        finally {
+            if (writer != null) writer.stop();
+            if (files != null) files.close();
+            store.close();
+            if (options.session != null) DatabaseService.shutdown();
+        }
+        return failure == null ? 0 : 1;
+    }
+
+    private List<PcapNetworkInterface> selectInterfaces() throws PcapNativeException {
+        List<PcapNetworkInterface> devices = new ArrayList<>();
+        if (options.interfaces.isEmpty()) {
+            List<PcapNetworkInterface> all = Pcaps.findAllDevs();
+            if (all.isEmpty()) throw new IllegalStateException("No capture interfaces found. Are you allowed to capture?");
+            devices.add(all.get(0));
+        }
+        for (String name : options.interfaces) {
+            PcapNetworkInterface nif = Pcaps.getDevByName(name);
+            if (nif == null) throw new IllegalArgumentException("No such interface: " + name);
+            devices.add(nif);
+        }
+        return devices;
+    }
+
+    private SessionWriter startRecording(PacketStore store) throws SQLException {
+        if (options.session == null) return null;
+        DatabaseService.initialize();
+        SessionWriter writer = new SessionWriter(options.session, store, this::fail);
+        writer.start();
+        return writer;
+    }
+
+    private FrameWriter openFiles() throws IOException {
+        if (options.writeFile == null) return null;
+        if (options.rotation == null) return PcapFileWriter.create(options.writeFile);
+        return new RotatingFileWriter(options.writeFile, options.rotation, options.retention);
+    }
+
+    private void printOutputs(SessionWriter writer, FrameWriter files) {
+        if (files instanceof RotatingFileWriter rotating) {
+            out.println("Wrote " + rotating.getFileCount() + " file(s), the last " + rotating.getPath()
+                    + ", listed in " + rotating.getManifestPath());
+            if (rotating.getLostCount() > 0) {
+                out.println(rotating.getLostCount() + " packets were not written, the disk could not keep up");
+            }
+        }
+        else if (files != null) {
+            out.println("Wrote " + files.getPath());
+        }
+        if (writer != null) out.println("Recorded " + writer.getWrittenCount() + " packets to session '" + writer.getSessionName() + "'");
+    }
+
+    private void summarize(TrafficStatistics statistics, long nanos) {
+        Snapshot snapshot = statistics.snapshot(options.top);
+        double seconds = nanos / 1e9;
+        out.printf(Locale.ROOT, "%n%d packets, %d bytes in %.1f s (%.0f packets/s, %.2f Mbit/s)%n",
+                snapshot.packets(), snapshot.bytes(), seconds,
+                snapshot.packets() / seconds, snapshot.bytes() * 8 / seconds / 1e6);
+        if (snapshot.packets() == 0) return;
+
+        out.println("\nProtocol hierarchy:");
+        printProtocol(snapshot.protocols(), 1, snapshot.packets());
+        printEndpoints("Top hosts:", snapshot.hosts());
+        printEndpoints("Top ports:", snapshot.ports());
+    }
+
+    private void printProtocol(ProtocolNode node, int depth, long total) {
+        String name = "  ".repeat(depth) + node.name();
+        out.printf(Locale.ROOT, "%-40s %12d %6.1f%% %14d bytes%n", name, node.packets(), node.packets() * 100.0 / total, node.bytes());
+        for (ProtocolNode child : node.children()) {
+            printProtocol(child, depth + 1, total);
+        }
+    }
+
+    private void printEndpoints(String title, List<Endpoint> endpoints) {
+        out.println("\n" + title);
+        for (Endpoint e : endpoints) {
+            out.printf(Locale.ROOT, "  %-40s %12d packets %14d bytes%s%n", e.name(), e.packets(), e.bytes(),
+                    e.error() == 0 ? "" : " (±" + e.error() + ")");
+        }
+    }
+
+    /**
+     * The parsed command line.
+     */
+    static final class Options {
+        final List<String> interfaces = new ArrayList<>();
+        String filter;
+        Path readFile;
+        Path writeFile;
+        String session;
+        RotatingFileWriter.Limits rotation;
+        RotatingFileWriter.Retention retention = RotatingFileWriter.Retention.KEEP_ALL;
+        long count;
+        long durationNanos;
+        int statsSeconds = 1;
+        int top = 10;
+        boolean list;
+        boolean help;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            long rotateBytes = 0;
+            long rotateNanos = 0;
+            long rotateFrames = 0;
+            long keepFiles = 0;
+            long keepBytes = 0;
+
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "-D" -> options.list = true;
+                    case "-h", "--help" -> options.help = true;
+                    case "-i" -> options.interfaces.add(value(args, ++i, arg));
+                    case "-r" -> options.readFile = Path.of(value(args, ++i, arg));
+                    case "-f" -> options.filter = value(args, ++i, arg);
+                    case "-w" -> options.writeFile = Path.of(value(args, ++i, arg));
+                    case "-s" -> options.session = value(args, ++i, arg);
+                    case "-c" -> options.count = number(value(args, ++i, arg), arg);
+                    case "-q" -> options.statsSeconds = (int) number(value(args, ++i, arg), arg);
+                    case "-t" -> options.top = (int) number(value(args, ++i, arg), arg);
+                    case "-a" -> {
+                        String condition = value(args, ++i, arg);
+                        if (!condition.startsWith("duration:")) throw new IllegalArgumentException("Unknown stop condition: " + condition);
+                        options.durationNanos = number(condition.substring(9), arg) * 1_000_000_000L;
+                    }
+                    case "-b" -> {
+                        String condition = value(args, ++i, arg);
+                        int colon = condition.indexOf(':');
+                        String key = colon > 0 ? condition.substring(0, colon) : condition;
+                        long amount = number(condition.substring(colon + 1), arg);
+                        switch (key) {
+                            case "filesize" -> rotateBytes = amount * 1000;
+                            case "duration" -> rotateNanos = amount * 1_000_000_000L;
+                            case "packets" -> rotateFrames = amount;
+                            case "files" -> keepFiles = amount;
+                            case "budget" -> keepBytes = amount * 1_000_000;
+                            default -> throw new IllegalArgumentException("Unknown rotation condition: " + condition);
+                        }
+                    }
+                    default -> throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            }
+
+            if (rotateBytes > 0 || rotateNanos > 0 || rotateFrames > 0) {
+                if (options.writeFile == null) throw new IllegalArgumentException("-b needs -w");
+                options.rotation = new RotatingFileWriter.Limits(rotateBytes, rotateNanos, rotateFrames);
+            }
+            if (keepFiles > 0 || keepBytes > 0) {
+                if (options.rotation == null) throw new IllegalArgumentException("-b files and -b budget need a filesize, duration or packets condition");
+                options.retention = new RotatingFileWriter.Retention((int) Math.min(keepFiles, Integer.MAX_VALUE), keepBytes);
+            }
+            if (options.readFile != null && !options.interfaces.isEmpty()) {
+                throw new IllegalArgumentException("-r and -i cannot be combined");
+            }
+            return options;
+        }
+
+        private static String value(String[] args, int i, String option) {
+            if (i >= args.length) throw new IllegalArgumentException(option + " needs a value");
+            return args[i];
+        }
+
+        private static long number(String text, String option) {
+            try {
+                long n = Long.parseLong(text);
+                if (n < 0) throw new NumberFormatException();
+                return n;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(option + " needs a number, not '" + text + "'");
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.jcap.controller;
+
+import com.jcap.service.Progress;
+import javafx.concurrent.Task;
+
+/**
+ * Runs engine work as a JavaFX task: its {@link Progress} reports end up in the task's progress
+ * and message properties, and cancelling the task tells the work to stop.
+ */
+final class BackgroundTask<T> extends Task<T> implements Progress {
+
+    interface Work<T> {
+        T run(Progress progress) throws Exception;
+    }
+
+    private final Work<T> work;
+
+    private BackgroundTask(Work<T> work) {
+        this.work = work;
+    }
+
+    static <T> Task<T> of(Work<T> work) {
+        return new BackgroundTask<>(work);
+    }
+
+    @Override
+    protected T call() throws Exception {
+        return work.run(this);
+    }
+
+    @Override
+    public void update(long done, long total) {
+        updateProgress(done, total);
+    }
+
+    @Override
+    public void message(String message) {
+        updateMessage(message);
+    }
+}
@@ -0,0 +1,149 @@
+package com.jcap.controller;
+
+import com.jcap.service.FlowTable;
+import com.jcap.service.FlowTable.Conversation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.SortedList;
+import javafx.scene.Scene;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.layout.BorderPane;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+import javafx.util.Duration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Conversations of the shown capture, largest first. A live table is polled twice a second and
+ * only the conversations that changed since the previous poll are updated.
+ */
+final class ConversationsWindow {
+
+    private static final Duration REFRESH_INTERVAL = Duration.millis(500);
+
+    private final Stage stage = new Stage();
+    private final TableView<Conversation> table = new TableView<>();
+    private final Label status = new Label();
+    private final ObservableList<Conversation> items = FXCollections.observableArrayList();
+    private final Map<Long, Integer> positions = new HashMap<>();
+    private final Timeline refresh = new Timeline(new KeyFrame(REFRESH_INTERVAL, e -> poll()));
+
+    private FlowTable flows;
+    private long baseNanos;
+
+    ConversationsWindow(Window owner) {
+        SortedList<Conversation> sorted = new SortedList<>(items);
+        sorted.comparatorProperty().bind(table.comparatorProperty());
+        table.setItems(sorted);
+        table.setPlaceholder(new Label("No conversations"));
+
+        table.getColumns().addAll(List.of(
+                column("Address A", Conversation::addressA),
+                column("Port A", c -> c.portA() == 0 && c.portB() == 0 ? null : c.portA()),
+                column("Address B", Conversation::addressB),
+                column("Port B", c -> c.portA() == 0 && c.portB() == 0 ? null : c.portB()),
+                column("Protocol", Conversation::protocolName),
+                column("Packets", Conversation::packets),
+                column("Bytes", Conversation::bytes),
+                column("Packets A→B", Conversation::packetsAToB),
+                column("Bytes A→B", Conversation::bytesAToB),
+                column("Packets B→A", Conversation::packetsBToA),
+                column("Bytes B→A", Conversation::bytesBToA),
+                column("Rel Start", c -> seconds(c.firstNanos() - baseNanos)),
+                column("Duration", c -> seconds(c.durationNanos())),
+                column("State", c -> c.ended() ? c.state() + " (ended)" : c.state().toString()),
+                column("Retrans.", Conversation::retransmissions)
+        ));
+
+        TableColumn<Conversation, ?> bytes = table.getColumns().get(6);
+        bytes.setSortType(TableColumn.SortType.DESCENDING);
+        table.getSortOrder().add(bytes);
+
+        BorderPane root = new BorderPane(table);
+        root.setBottom(status);
+        stage.setTitle("Conversations");
+        stage.initOwner(owner);
+        stage.setScene(new Scene(root, 1100, 500));
+        stage.setOnHidden(e -> refresh.stop());
+        refresh.setCycleCount(Timeline.INDEFINITE);
+    }
+
+    private static <T> TableColumn<Conversation, T> column(String title, Function<Conversation, T> value) {
+        TableColumn<Conversation, T> column = new TableColumn<>(title);
+        column.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(value.apply(cell.getValue())));
+        return column;
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+    }
+
+    void show() {
+        stage.show();
+        stage.toFront();
+        if (flows != null) refresh.play();
+    }
+
+    boolean isShowing() {
+        return stage.isShowing();
+    }
+
+    /**
+     * Shows the conversations of {@code table}, or none while it is null (still being analyzed).
+     */
+    void setFlows(FlowTable table, String message) {
+        this.flows = table;
+        positions.clear();
+        refresh.stop();
+
+        List<Conversation> all = table != null ? table.snapshot() : List.of();
+        baseNanos = table != null && table.getFirstNanos() != Long.MAX_VALUE ? table.getFirstNanos() : 0;
+        for (int i = 0; i < all.size(); i++) {
+            positions.put(all.get(i).id(), i);
+        }
+        items.setAll(all);
+        status.setText(message != null ? message : all.size() + " conversations");
+
+        if (table != null && stage.isShowing()) refresh.play();
+    }
+
+    void setMessage(String message) {
+        status.setText(message);
+    }
+
+    private void poll() {
+        if (flows == null) return;
+        List<Conversation> changes = flows.changes();
+        if (changes.isEmpty()) return;
+
+        if (baseNanos == 0 && flows.getFirstNanos() != Long.MAX_VALUE) baseNanos = flows.getFirstNanos();
+
+        // many changes at once: one replace (and one sort) instead of an update each
+        boolean bulk = changes.size() > 64 && changes.size() > items.size() / 8;
+        List<Conversation> target = bulk ? new ArrayList<>(items) : items;
+        for (Conversation c : changes) {
+            Integer position = positions.get(c.id());
+            if (position != null) {
+                target.set(position, c);
+            }
+            else {
+                positions.put(c.id(), target.size());
+                target.add(c);
+            }
+        }
+        if (bulk) items.setAll(target);
+
+        status.setText(items.size() + " conversations, " + flows.getOpenCount() + " open");
+    }
+}
@@ -0,0 +1,197 @@
+package com.jcap.controller;
+
+import com.jcap.service.TcpReassembler.Chunk;
+import com.jcap.service.TcpReassembler.Stream;
+import com.jcap.service.TcpReassembler.Transcript;
+import javafx.collections.FXCollections;
+import javafx.concurrent.Task;
+import javafx.geometry.Insets;
+import javafx.scene.Scene;
+import javafx.scene.control.ChoiceBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The reassembled payload of one TCP connection as text, client bytes in red and server bytes in
+ * blue. Only the lines on screen are turned into text; the window keeps an index of where each
+ * line starts.
+ */
+final class FollowStreamWindow {
+
+    private static final int MAX_LINE = 256;
+    private static final String CLIENT_STYLE = "-fx-text-fill: #8b1a1a; -fx-background-color: #fbeded;";
+    private static final String SERVER_STYLE = "-fx-text-fill: #1a3d8b; -fx-background-color: #edf1fb;";
+    private static final String GAP_STYLE = "-fx-text-fill: #6e7781; -fx-font-style: italic;";
+
+    private static final String BOTH = "Entire conversation";
+    private static final String CLIENT = "Client → server";
+    private static final String SERVER = "Server → client";
+
+    private final Stage stage = new Stage();
+    private final ListView<Integer> lines = new ListView<>();
+    private final ChoiceBox<String> show = new ChoiceBox<>(FXCollections.observableArrayList(BOTH, CLIENT, SERVER));
+    private final Label status = new Label();
+
+    private Transcript transcript;
+
+    // line i is bytes [lineStart[i], lineEnd[i]) of chunk lineChunk[i]
+    private int lineCount;
+    private int[] lineChunk = new int[0];
+    private int[] lineStart = new int[0];
+    private int[] lineEnd = new int[0];
+
+    FollowStreamWindow(Window owner, Task<Transcript> task) {
+        lines.setStyle("-fx-font-family: 'Monospaced'; -fx-font-size: 13;");
+        lines.setFixedCellSize(18);
+        lines.setCellFactory(list -> new ListCell<>() {
+            @Override
+            protected void updateItem(Integer line, boolean empty) {
+                super.updateItem(line, empty);
+                if (empty || line == null) {
+                    setText(null);
+                    setStyle(null);
+                    return;
+                }
+                Chunk chunk = transcript.chunks().get(lineChunk[line]);
+                if (chunk.missing() > 0) {
+                    setText("[" + chunk.missing() + " bytes missing in capture]");
+                    setStyle(GAP_STYLE);
+                }
+                else {
+                    setText(text(chunk.data(), lineStart[line], lineEnd[line]));
+                    setStyle(chunk.fromClient() ? CLIENT_STYLE : SERVER_STYLE);
+                }
+            }
+        });
+
+        show.setValue(BOTH);
+        show.setDisable(true);
+        show.valueProperty().addListener((obs, was, value) -> index());
+
+        HBox bar = new HBox(8, new Label("Show:"), show, status);
+        bar.setPadding(new Insets(6));
+        BorderPane root = new BorderPane(lines);
+        root.setBottom(bar);
+
+        stage.setTitle("Follow TCP Stream");
+        stage.initOwner(owner);
+        stage.setScene(new Scene(root, 900, 600));
+        stage.setOnHidden(e -> task.cancel());
+
+        status.textProperty().bind(task.messageProperty());
+        task.setOnSucceeded(e -> {
+            status.textProperty().unbind();
+            setTranscript(task.getValue());
+        });
+        task.setOnFailed(e -> {
+            status.textProperty().unbind();
+            status.setText("Failed to reassemble the stream: " + task.getException().getMessage());
+        });
+    }
+
+    void show() {
+        stage.show();
+    }
+
+    private void setTranscript(Transcript transcript) {
+        this.transcript = transcript;
+        if (transcript == null) {
+            status.setText("No TCP payload in this conversation.");
+            return;
+        }
+
+        Stream s = transcript.stream();
+        stage.setTitle("Follow TCP Stream (" + s.getClientAddress() + ":" + s.getClientPort() + " → "
+                + s.getServerAddress() + ":" + s.getServerPort() + ")");
+        show.getItems().setAll(BOTH + " (" + (s.getBytes(true) + s.getBytes(false)) + " bytes)",
+                CLIENT + " (" + s.getBytes(true) + " bytes)",
+                SERVER + " (" + s.getBytes(false) + " bytes)");
+        show.setValue(show.getItems().getFirst());
+        show.setDisable(false);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(s.getClientAddress()).append(':').append(s.getClientPort()).append(" → ")
+                .append(s.getServerAddress()).append(':').append(s.getServerPort());
+        long missing = s.getMissing(true) + s.getMissing(false);
+        long retransmitted = s.getRetransmitted(true) + s.getRetransmitted(false);
+        if (missing > 0) sb.append(",  ").append(missing).append(" bytes missing");
+        if (retransmitted > 0) sb.append(",  ").append(retransmitted).append(" bytes retransmitted");
+        if (s.isReset()) sb.append(",  reset");
+        if (transcript.truncated()) sb.append(",  only the beginning is shown");
+        status.setText(sb.toString());
+    }
+
+    /**
+     * Splits the chunks shown into lines at line feeds, and at {@value #MAX_LINE} bytes.
+     */
+    private void index() {
+        if (transcript == null) return;
+        int selected = show.getItems().indexOf(show.getValue());
+        List<Chunk> chunks = transcript.chunks();
+        lineCount = 0;
+
+        for (int c = 0; c < chunks.size(); c++) {
+            Chunk chunk = chunks.get(c);
+            if (selected == 1 && !chunk.fromClient() || selected == 2 && chunk.fromClient()) continue;
+            if (chunk.missing() > 0) {
+                addLine(c, 0, 0);
+                continue;
+            }
+
+            byte[] data = chunk.data();
+            int start = 0;
+            for (int i = 0; i < data.length; i++) {
+                if (data[i] == '\n' || i - start == MAX_LINE) {
+                    addLine(c, start, i);
+                    start = data[i] == '\n' ? i + 1 : i;
+                }
+            }
+            if (start < data.length) addLine(c, start, data.length);
+        }
+
+        // a view over the index rather than a copy: a long stream has millions of lines
+        lines.setItems(FXCollections.observableList(new AbstractList<>() {
+            @Override
+            public Integer get(int index) {
+                return index;
+            }
+
+            @Override
+            public int size() {
+                return lineCount;
+            }
+        }));
+    }
+
+    private void addLine(int chunk, int start, int end) {
+        if (lineCount == lineChunk.length) {
+            int capacity = Math.max(1024, lineCount * 2);
+            lineChunk = Arrays.copyOf(lineChunk, capacity);
+            lineStart = Arrays.copyOf(lineStart, capacity);
+            lineEnd = Arrays.copyOf(lineEnd, capacity);
+        }
+        lineChunk[lineCount] = chunk;
+        lineStart[lineCount] = start;
+        lineEnd[lineCount] = end;
+        lineCount++;
+    }
+
+    private static String text(byte[] data, int start, int end) {
+        if (end > start && data[end - 1] == '\r') end--;
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; i++) {
+            int b = data[i] & 0xFF;
+            chars[i - start] = b >= 0x20 && b < 0x7F || b == '\t' ? (char) b : '.';
+        }
+        return new String(chars);
+    }
+}
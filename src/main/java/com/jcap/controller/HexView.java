@@ -0,0 +1,224 @@
+package com.jcap.controller;
+
+import com.jcap.service.HexFormatter;
+import javafx.geometry.Bounds;
+import javafx.geometry.Orientation;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+import java.nio.ByteBuffer;
+import java.util.function.IntConsumer;
+
+/**
+ * The hex dump of the selected frame. Only the lines in view are formatted and drawn, so a
+ * jumbo frame shows as quickly as a small one. The bytes of the selected field are highlighted,
+ * and clicking a byte tells which one it was.
+ */
+final class HexView extends Region {
+
+    private static final Font FONT = Font.font("Monospaced", 14);
+    private static final Color BACKGROUND = Color.WHITE;
+    private static final Color TEXT = Color.web("#1f2328");
+    private static final Color HIGHLIGHT = Color.web("#0969da", 0.25);
+    private static final double PADDING = 6;
+
+    private final Canvas canvas = new Canvas();
+    private final ScrollBar scrollBar = new ScrollBar();
+    private final double charWidth;
+    private final double lineHeight;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private ByteBuffer data = EMPTY;
+    private int lines;
+    private int offsetDigits = 4;
+    private char[] line = new char[HexFormatter.lineLength(8)];
+    private int highlightOffset = -1;
+    private int highlightLength;
+    private IntConsumer onByteClicked;
+
+    HexView() {
+        Text probe = new Text("0");
+        probe.setFont(FONT);
+        Bounds bounds = probe.getLayoutBounds();
+        charWidth = bounds.getWidth();
+        lineHeight = Math.ceil(bounds.getHeight());
+
+        scrollBar.setOrientation(Orientation.VERTICAL);
+        scrollBar.setUnitIncrement(1);
+        scrollBar.valueProperty().addListener((obs, old, value) -> draw());
+        getChildren().addAll(canvas, scrollBar);
+
+        setOnScroll(e -> scrollTo(scrollBar.getValue() - e.getDeltaY() / lineHeight));
+        setOnKeyPressed(e -> {
+            switch (e.getCode()) {
+                case UP -> scrollTo(scrollBar.getValue() - 1);
+                case DOWN -> scrollTo(scrollBar.getValue() + 1);
+                case PAGE_UP -> scrollTo(scrollBar.getValue() - visibleLines());
+                case PAGE_DOWN -> scrollTo(scrollBar.getValue() + visibleLines());
+                case HOME -> scrollTo(0);
+                case END -> scrollTo(scrollBar.getMax());
+                default -> {
+                    return;
+                }
+            }
+            e.consume();
+        });
+        setOnMousePressed(e -> {
+            requestFocus();
+            int position = byteAt(e.getX(), e.getY());
+            if (position >= 0 && onByteClicked != null && e.isPrimaryButtonDown()) onByteClicked.accept(position);
+        });
+        setFocusTraversable(true);
+
+        MenuItem copy = new MenuItem("Copy as Hex Dump");
+        copy.setOnAction(e -> {
+            ClipboardContent content = new ClipboardContent();
+            content.putString(new HexFormatter().format(data));
+            Clipboard.getSystemClipboard().setContent(content);
+        });
+        ContextMenu menu = new ContextMenu(copy);
+        setOnContextMenuRequested(e -> menu.show(this, e.getScreenX(), e.getScreenY()));
+    }
+
+    /**
+     * Shows the remaining bytes of {@code frame}, such as a payload slice of the store, which the
+     * view keeps until the next call.
+     */
+    void setData(ByteBuffer frame) {
+        data = frame.slice();
+        lines = HexFormatter.lineCount(data.remaining());
+        offsetDigits = HexFormatter.offsetDigits(data.remaining());
+        highlightOffset = -1;
+        updateScrollBar();
+        scrollBar.setValue(0);
+        draw();
+    }
+
+    void clear() {
+        setData(EMPTY);
+    }
+
+    /**
+     * Highlights {@code length} bytes from {@code offset} and scrolls them into view; an offset
+     * of -1 removes the highlight.
+     */
+    void highlight(int offset, int length) {
+        highlightOffset = offset;
+        highlightLength = length;
+        if (offset >= 0) {
+            int first = offset / HexFormatter.BYTES_PER_LINE;
+            int top = (int) scrollBar.getValue();
+            if (first < top || first >= top + visibleLines()) scrollTo(first);
+        }
+        draw();
+    }
+
+    /**
+     * Called with the offset of a byte clicked in the hex or the ASCII column.
+     */
+    void setOnByteClicked(IntConsumer handler) {
+        onByteClicked = handler;
+    }
+
+    private int byteAt(double x, double y) {
+        if (y < PADDING || x < PADDING) return -1;
+        int row = (int) scrollBar.getValue() + (int) ((y - PADDING) / lineHeight);
+        int column = (int) ((x - PADDING) / charWidth);
+
+        int hex = HexFormatter.hexColumn(offsetDigits, 0);
+        int text = HexFormatter.textColumn(offsetDigits, 0);
+        int index;
+        if (column >= hex && column < HexFormatter.hexColumn(offsetDigits, HexFormatter.BYTES_PER_LINE)) {
+            index = (column - hex) / 3;
+        }
+        else if (column >= text && column < text + HexFormatter.BYTES_PER_LINE) {
+            index = column - text;
+        }
+        else {
+            return -1;
+        }
+        int position = row * HexFormatter.BYTES_PER_LINE + index;
+        return row < lines && position < data.remaining() ? position : -1;
+    }
+
+    private void scrollTo(double value) {
+        scrollBar.setValue(Math.max(0, Math.min(scrollBar.getMax(), value)));
+    }
+
+    private int visibleLines() {
+        return Math.max(1, (int) ((canvas.getHeight() - 2 * PADDING) / lineHeight));
+    }
+
+    private void updateScrollBar() {
+        int visible = visibleLines();
+        scrollBar.setMax(Math.max(0, lines - visible));
+        scrollBar.setVisibleAmount(Math.min(visible, Math.max(1, lines)));
+        scrollBar.setBlockIncrement(visible);
+        scrollBar.setVisible(lines > visible);
+    }
+
+    @Override
+    protected void layoutChildren() {
+        double width = getWidth();
+        double height = getHeight();
+        double barWidth = scrollBar.prefWidth(-1);
+        canvas.setWidth(Math.max(0, width - barWidth));
+        canvas.setHeight(height);
+        scrollBar.resizeRelocate(width - barWidth, 0, barWidth, height);
+        updateScrollBar();
+        draw();
+    }
+
+    @Override
+    protected double computePrefWidth(double height) {
+        return HexFormatter.lineLength(offsetDigits) * charWidth + 2 * PADDING + scrollBar.prefWidth(-1);
+    }
+
+    private void draw() {
+        GraphicsContext g = canvas.getGraphicsContext2D();
+        g.setFill(BACKGROUND);
+        g.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+
+        int first = (int) scrollBar.getValue();
+        int last = Math.min(lines, first + visibleLines() + 1);
+        if (line.length < HexFormatter.lineLength(offsetDigits)) line = new char[HexFormatter.lineLength(offsetDigits)];
+
+        if (highlightOffset >= 0) drawHighlight(g, first, last);
+
+        g.setFont(FONT);
+        g.setTextBaseline(VPos.TOP);
+        g.setFill(TEXT);
+        for (int i = first; i < last; i++) {
+            int length = HexFormatter.formatLine(data, i, offsetDigits, line, 0);
+            g.fillText(new String(line, 0, length), PADDING, PADDING + (i - first) * lineHeight);
+        }
+    }
+
+    private void drawHighlight(GraphicsContext g, int first, int last) {
+        int end = Math.min(highlightOffset + highlightLength, data.remaining());
+        g.setFill(HIGHLIGHT);
+        for (int i = Math.max(first, highlightOffset / HexFormatter.BYTES_PER_LINE); i < last; i++) {
+            int lineStart = i * HexFormatter.BYTES_PER_LINE;
+            int from = Math.max(highlightOffset, lineStart) - lineStart;
+            int to = Math.min(end, lineStart + HexFormatter.BYTES_PER_LINE) - lineStart;
+            if (to <= from) break;
+
+            double y = PADDING + (i - first) * lineHeight;
+            g.fillRect(PADDING + HexFormatter.hexColumn(offsetDigits, from) * charWidth, y,
+                    ((to - from) * 3 - 1) * charWidth, lineHeight);
+            g.fillRect(PADDING + HexFormatter.textColumn(offsetDigits, from) * charWidth, y,
+                    (to - from) * charWidth, lineHeight);
+        }
+    }
+}
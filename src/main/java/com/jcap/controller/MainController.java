@@ -1,26 +1,58 @@
 package com.jcap.controller;
 
 import com.jcap.model.PacketModel;
+import com.jcap.model.PacketStore;
+import com.jcap.model.Protocols;
+import com.jcap.service.CaptureFilter;
+import com.jcap.service.CaptureProfile;
+import com.jcap.service.CaptureSession;
 import com.jcap.service.DatabaseService;
-import com.jcap.service.SnifferService;
+import com.jcap.service.FilterEngine;
+import com.jcap.service.FilterSyntaxException;
+import com.jcap.service.FlowTable;
+import com.jcap.service.FrameWriter;
+import com.jcap.service.OverflowPolicy;
+import com.jcap.service.PacketDetail;
+import com.jcap.service.PcapFileWriter;
+import com.jcap.service.PcapFiles;
+import com.jcap.service.RotatingFileWriter;
+import com.jcap.service.SessionSearch;
+import com.jcap.service.SessionWriter;
+import com.jcap.service.TcpReassembler;
+import com.jcap.service.TrafficStatistics;
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
-import javafx.collections.transformation.FilteredList;
 import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
-import javafx.scene.control.cell.PropertyValueFactory;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
+import javafx.stage.FileChooser;
 import org.pcap4j.core.PcapNativeException;
 import org.pcap4j.core.PcapNetworkInterface;
 import org.pcap4j.core.Pcaps;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.SQLException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
-import org.pcap4j.packet.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,14 +60,24 @@ public class MainController {
 
     private static final Logger logger = LoggerFactory.getLogger(MainController.class);
 
-    @FXML private ComboBox<String> deviceCombo;
+    private static final int DETAIL_CACHE_PACKETS = 256;
+
+    private static final OverflowPolicy BUFFER_POLICY = OverflowPolicy.fromProperty();
+
+    @FXML private MenuButton deviceMenu;
+    @FXML private TextField captureFilterField;
     @FXML private Button startBtn;
     @FXML private Button stopBtn;
     @FXML private TextField filterField;
+    @FXML private Label statusLabel;
+    @FXML private CheckMenuItem recordItem;
+    @FXML private CheckMenuItem teeItem;
+    @FXML private CheckMenuItem ringItem;
 
     @FXML private TableView<PacketModel> table;
     @FXML private TableColumn<PacketModel, Integer> colNo;
-    @FXML private TableColumn<PacketModel, Double> colTime;
+    @FXML private TableColumn<PacketModel, String> colTime;
+    @FXML private TableColumn<PacketModel, String> colIface;
     @FXML private TableColumn<PacketModel, String> colSrc;
     @FXML private TableColumn<PacketModel, String> colDst;
     @FXML private TableColumn<PacketModel, String> colProto;
@@ -43,12 +85,42 @@ public class MainController {
     @FXML private TableColumn<PacketModel, String> colInfo;
 
     @FXML TreeView<String> packetTree;
-    @FXML TextArea hexDump;
+    @FXML StackPane hexPane;
+    private final HexView hexDump = new HexView();
 
     private List<PcapNetworkInterface> interfaces;
-    private SnifferService service;
-    private final ObservableList<PacketModel> masterList = FXCollections.observableArrayList();
-    private FilteredList<PacketModel> filteredList;
+    private CaptureSession session;
+    private FlowTable flows;
+    private ConversationsWindow conversations;
+    private Task<FlowTable> analyzeTask;
+    private TrafficStatistics statistics;
+    private StatisticsWindow statisticsWindow;
+    private Task<TrafficStatistics> countTask;
+    private int shownCount = -1;
+    private int shownTotal = -1;
+    private long shownDropped = -1;
+    private long shownKernelReceived = -1;
+    private long shownKernelDropped = -1;
+    private long shownInterfaceDropped = -1;
+    private CaptureSession shownSession;
+    // the row whose details were asked for last, and recently shown ones by row
+    private volatile int detailRow = -1;
+    private PacketDetail shownDetail;
+    private final List<TreeItem<String>> detailItems = new ArrayList<>();
+    private final Map<Integer, PacketDetail> details = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, PacketDetail> eldest) {
+            return size() > DETAIL_CACHE_PACKETS;
+        }
+    };
+    private final ExecutorService detailExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "jcap-detail");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final PacketList masterList = new PacketList(new PacketStore());
+    private final FilterEngine filterEngine = new FilterEngine(result -> Platform.runLater(() ->
+            masterList.applyFilter(result.store(), result.rows(), result.count(), result.append())));
 
     @FXML
     public void initialize() {
@@ -56,35 +128,82 @@ public class MainController {
 
         setupTableColumns();
 
+        hexPane.getChildren().add(hexDump);
+        setupFieldHighlighting();
+
         setupUIStyling();
 
         setupSearchFilter();
 
         table.getSelectionModel().selectedItemProperty().addListener((obs, oldSelection, newSelection) -> {
             if (newSelection != null) {
-                buildPacketTree(newSelection.getPayload());
-                hexDump.setText(formatHex(newSelection.getPayload()));
+                showPacket(newSelection);
             }
             else {
+                detailRow = -1;
                 hexDump.clear();
                 packetTree.setRoot(null);
             }
         });
 
         loadNetworkInterfaces();
+
+        startPacketPump();
+    }
+
+    private void startPacketPump() {
+        new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                int total = masterList.getStore().size();
+                if (masterList.isFiltered()) {
+                    if (total != shownTotal) filterEngine.refresh();
+                }
+                else {
+                    masterList.sync();
+                }
+
+                long dropped = session != null ? session.getDroppedCount() : 0;
+                long kernelReceived = session != null ? session.getKernelReceivedCount() : 0;
+                long kernelDropped = session != null ? session.getKernelDroppedCount() : 0;
+                long interfaceDropped = session != null ? session.getInterfaceDroppedCount() : 0;
+                if (masterList.size() != shownCount || total != shownTotal || dropped != shownDropped
+                        || kernelReceived != shownKernelReceived || kernelDropped != shownKernelDropped
+                        || interfaceDropped != shownInterfaceDropped || session != shownSession) {
+                    shownSession = session;
+                    shownCount = masterList.size();
+                    shownTotal = total;
+                    shownDropped = dropped;
+                    shownKernelReceived = kernelReceived;
+                    shownKernelDropped = kernelDropped;
+                    shownInterfaceDropped = interfaceDropped;
+
+                    String packets = masterList.isFiltered()
+                            ? "Displayed: " + shownCount + " of " + shownTotal
+                            : "Packets: " + shownTotal;
+                    // the kernel only counts what passed the capture filter of this capture
+                    CaptureFilter filter = session != null ? session.getCaptureFilter() : null;
+                    String kernel = filter != null ? "Kernel [" + filter.getText() + "]: " : "Kernel: ";
+                    statusLabel.setText(packets + "   Dropped: " + shownDropped
+                            + "   " + kernel + kernelReceived + " accepted, " + kernelDropped + " dropped, "
+                            + interfaceDropped + " dropped by interface");
+                }
+            }
+        }.start();
     }
 
     private void setupTableColumns() {
-        colNo.setCellValueFactory(new PropertyValueFactory<>("Number"));
-        colTime.setCellValueFactory(new PropertyValueFactory<>("Timestamp"));
-        colSrc.setCellValueFactory(new PropertyValueFactory<>("Source"));
-        colDst.setCellValueFactory(new PropertyValueFactory<>("Destination"));
-        colProto.setCellValueFactory(new PropertyValueFactory<>("Protocol"));
-        colLen.setCellValueFactory(new PropertyValueFactory<>("Length"));
-        colInfo.setCellValueFactory(new PropertyValueFactory<>("Info"));
-
-        filteredList = new FilteredList<>(masterList, p -> true);
-        table.setItems(filteredList);
+        // property views are only created for the rows the table is rendering; rows still being read stay blank
+        colNo.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().isLoaded() ? c.getValue().getNumber() : null));
+        colTime.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().getTimestamp()));
+        colIface.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().getInterface()));
+        colSrc.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().getSource()));
+        colDst.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().getDestination()));
+        colProto.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().getProtocol()));
+        colLen.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().isLoaded() ? c.getValue().getLength() : null));
+        colInfo.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().getInfo()));
+
+        table.setItems(masterList);
         table.setPlaceholder(new Label(""));
 
         table.setRowFactory(tv -> {
@@ -99,6 +218,15 @@ public class MainController {
             row.selectedProperty().addListener((obs, wasSelected, isSelected) -> styleRow(row));
             return row;
         });
+
+        MenuItem follow = new MenuItem("Follow TCP Stream");
+        follow.setOnAction(e -> onFollowTcpStream());
+        ContextMenu menu = new ContextMenu(follow);
+        menu.setOnShowing(e -> {
+            PacketModel selected = table.getSelectionModel().getSelectedItem();
+            follow.setDisable(selected == null || selected.getProtocolId() != Protocols.TCP);
+        });
+        table.setContextMenu(menu);
     }
 
     private void setupUIStyling() {
@@ -116,8 +244,6 @@ public class MainController {
         stopBtn.setGraphic(stopSquare);
         stopBtn.setOnMouseEntered(e -> stopBtn.setStyle(getButtonStyle(true)));
         stopBtn.setOnMouseExited(e -> stopBtn.setStyle(getButtonStyle(false)));
-
-        hexDump.setStyle("-fx-font-family: 'Monospaced'; -fx-font-size: 16;");
     }
 
     private String getButtonStyle(boolean hover) {
@@ -137,9 +263,11 @@ public class MainController {
             } else {
                 for (PcapNetworkInterface dev : interfaces) {
                     String desc = (dev.getDescription() != null) ? dev.getDescription() : dev.getName();
-                    deviceCombo.getItems().add(desc);
+                    CheckMenuItem item = new CheckMenuItem(desc);
+                    item.selectedProperty().addListener((obs, was, isOn) -> updateDeviceMenuText());
+                    deviceMenu.getItems().add(item);
                 }
-                deviceCombo.getSelectionModel().select(0);
+                ((CheckMenuItem) deviceMenu.getItems().getFirst()).setSelected(true);
                 logger.info("Loaded {} interfaces.", interfaces.size());
             }
         }
@@ -148,40 +276,253 @@ public class MainController {
         }
     }
 
+    private List<PcapNetworkInterface> getSelectedInterfaces() {
+        List<PcapNetworkInterface> selected = new ArrayList<>();
+        for (int i = 0; i < deviceMenu.getItems().size(); i++) {
+            if (((CheckMenuItem) deviceMenu.getItems().get(i)).isSelected()) selected.add(interfaces.get(i));
+        }
+        return selected;
+    }
+
+    private void updateDeviceMenuText() {
+        List<String> names = new ArrayList<>();
+        for (MenuItem item : deviceMenu.getItems()) {
+            if (((CheckMenuItem) item).isSelected()) names.add(item.getText());
+        }
+        deviceMenu.setText(names.isEmpty() ? "None selected"
+                : names.size() == 1 ? names.getFirst()
+                : names.size() + " interfaces");
+    }
+
     @FXML
     private void onStart() {
-        int index = deviceCombo.getSelectionModel().getSelectedIndex();
-        if (index < 0) return;
+        List<PcapNetworkInterface> selected = getSelectedInterfaces();
+        if (selected.isEmpty()) {
+            showAlert("Select at least one interface.");
+            return;
+        }
+
+        CaptureFilter captureFilter = CaptureFilter.parse(captureFilterField.getText());
+
+        String recordName = null;
+        if (recordItem.isSelected()) {
+            TextInputDialog dialog = new TextInputDialog("Capture_" + System.currentTimeMillis());
+            dialog.setTitle("Record Capture");
+            dialog.setHeaderText(null);
+            dialog.setContentText("Record into session:");
 
-        masterList.clear();
+            Optional<String> result = dialog.showAndWait();
+            if (result.isEmpty() || result.get().trim().isEmpty()) return;
+            recordName = result.get().trim();
+        }
+
+        File teeFile = null;
+        if (teeItem.isSelected()) {
+            teeFile = captureFileChooser("Write Capture to File").showSaveDialog(table.getScene().getWindow());
+            if (teeFile == null) return;
+        }
+
+        RingBuffer ring = null;
+        if (teeFile != null && ringItem.isSelected()) {
+            Optional<RingBuffer> result = askRingBuffer();
+            if (result.isEmpty()) return;
+            ring = result.get();
+        }
+
+        PacketStore store = new PacketStore();
+        Consumer<String> onError = errorMessage -> Platform.runLater(() -> {
+            showAlert(errorMessage);
+            onStop();
+            filterField.clear();
+        });
+
+        SessionWriter writer = null;
+        if (recordName != null) {
+            writer = new SessionWriter(recordName, store, onError);
+            try {
+                writer.start();
+            } catch (SQLException e) {
+                logger.error("Failed to start recording to '{}'.", recordName, e);
+                showAlert("Cannot record to '" + recordName + "': " + e.getMessage());
+                store.close();
+                return;
+            }
+        }
+
+        FrameWriter fileWriter = null;
+        if (teeFile != null) {
+            try {
+                fileWriter = ring != null
+                        ? new RotatingFileWriter(teeFile.toPath(), ring.limits(), ring.retention())
+                        : PcapFileWriter.create(teeFile.toPath());
+            } catch (IOException e) {
+                logger.error("Failed to create {}.", teeFile, e);
+                showAlert("Cannot write to '" + teeFile.getName() + "': " + e.getMessage());
+                if (writer != null) writer.stop();
+                store.close();
+                return;
+            }
+        }
+
+        replaceStore(store);
         hexDump.clear();
 
-        service = new SnifferService(
-                interfaces.get(index),
-                masterList::add,
-                errorMessage -> {
-                    showAlert(errorMessage);
-                    onStop();
-                    filterField.clear();
-                }
-        );
-        service.start();
+        session = new CaptureSession(selected, store, BUFFER_POLICY, captureFilter, onError::accept);
+        if (writer != null) session.recordTo(writer);
+        if (fileWriter != null) session.teeTo(fileWriter);
+        setFlows(session.getFlows());
+        setStatistics(session.getStatistics());
+        session.start();
 
-        deviceCombo.setDisable(true);
+        deviceMenu.setDisable(true);
+        captureFilterField.setDisable(true);
+        recordItem.setDisable(true);
+        teeItem.setDisable(true);
+        ringItem.setDisable(true);
 
         startBtn.setDisable(true);
         stopBtn.setDisable(false);
     }
 
+    private void replaceStore(PacketStore store) {
+        PacketStore previous = masterList.getStore();
+        store.setOnRowsLoaded(() -> Platform.runLater(() -> {
+            if (masterList.getStore() == store) table.refresh();
+        }));
+        masterList.setStore(store);
+        filterEngine.setStore(store);
+        hexDump.clear();
+        details.clear();
+        // after the payload fetches still queued for it
+        detailExecutor.execute(previous::close);
+    }
+
     @FXML void onStop() {
-        if (service != null) service.cancel();
+        if (session != null) session.stop();
 
-        deviceCombo.setDisable(false);
+        deviceMenu.setDisable(false);
+        captureFilterField.setDisable(false);
+        recordItem.setDisable(false);
+        teeItem.setDisable(false);
+        ringItem.setDisable(false);
 
         startBtn.setDisable(false);
         stopBtn.setDisable(true);
     }
 
+    private record RingBuffer(RotatingFileWriter.Limits limits, RotatingFileWriter.Retention retention) {
+    }
+
+    private Optional<RingBuffer> askRingBuffer() {
+        Spinner<Integer> fileSize = new Spinner<>(1, 100_000, 100, 10);
+        Spinner<Integer> fileMinutes = new Spinner<>(0, 10_080, 0, 5);
+        Spinner<Integer> files = new Spinner<>(0, 100_000, 10, 1);
+        Spinner<Integer> budget = new Spinner<>(0, 10_000_000, 0, 100);
+        fileSize.setEditable(true);
+        fileMinutes.setEditable(true);
+        files.setEditable(true);
+        budget.setEditable(true);
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(8);
+        grid.addRow(0, new Label("New file every (MB):"), fileSize);
+        grid.addRow(1, new Label("or every (minutes, 0 = no limit):"), fileMinutes);
+        grid.addRow(2, new Label("Keep files (0 = no limit):"), files);
+        grid.addRow(3, new Label("Keep at most (MB, 0 = no limit):"), budget);
+
+        Dialog<RingBuffer> dialog = new Dialog<>();
+        dialog.setTitle("Ring Buffer");
+        dialog.setHeaderText("The oldest files are written over once the limits are reached.");
+        dialog.getDialogPane().setContent(grid);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+        dialog.setResultConverter(button -> button != ButtonType.OK ? null : new RingBuffer(
+                new RotatingFileWriter.Limits(fileSize.getValue() * 1_000_000L, fileMinutes.getValue() * 60_000_000_000L, 0),
+                new RotatingFileWriter.Retention(files.getValue(), budget.getValue() * 1_000_000L)
+        ));
+        return dialog.showAndWait();
+    }
+
+    @FXML
+    private void onCaptureOptions() {
+        List<PcapNetworkInterface> selected = getSelectedInterfaces();
+        if (selected.isEmpty()) {
+            showAlert("Select an interface first.");
+            return;
+        }
+
+        PcapNetworkInterface nif = selected.getFirst();
+        if (selected.size() > 1) {
+            // profiles are per interface, so ask which one to edit
+            List<String> names = selected.stream().map(PcapNetworkInterface::getName).toList();
+            ChoiceDialog<String> choice = new ChoiceDialog<>(names.getFirst(), names);
+            choice.setTitle("Capture Options");
+            choice.setHeaderText(null);
+            choice.setContentText("Interface:");
+
+            Optional<String> picked = choice.showAndWait();
+            if (picked.isEmpty()) return;
+            nif = selected.get(names.indexOf(picked.get()));
+        }
+
+        String interfaceName = nif.getName();
+        CaptureProfile current = CaptureProfile.load(interfaceName);
+
+        Spinner<Integer> snapLength = new Spinner<>(64, CaptureProfile.MAX_SNAP_LENGTH, current.snapLength(), 64);
+        Spinner<Integer> bufferSize = new Spinner<>(0, 4096, current.bufferSizeMb(), 8);
+        Spinner<Integer> readTimeout = new Spinner<>(1, 10_000, current.readTimeoutMillis(), 10);
+        snapLength.setEditable(true);
+        bufferSize.setEditable(true);
+        readTimeout.setEditable(true);
+
+        CheckBox promiscuous = new CheckBox("Promiscuous mode");
+        promiscuous.setSelected(current.promiscuous());
+        CheckBox immediate = new CheckBox("Immediate mode (deliver packets without batching)");
+        immediate.setSelected(current.immediate());
+        CheckBox nanoseconds = new CheckBox("Nanosecond timestamps");
+        nanoseconds.setSelected(current.nanosecondTimestamps());
+
+        // turning it on applies the whole headers-only preset, which can then be adjusted
+        CheckBox headersOnly = new CheckBox("Headers only (" + CaptureProfile.HEADERS_ONLY_SNAP_LENGTH + " bytes)");
+        headersOnly.setSelected(current.isHeadersOnly());
+        headersOnly.selectedProperty().addListener((obs, was, isOn) -> {
+            CaptureProfile preset = isOn ? CaptureProfile.HEADERS_ONLY : CaptureProfile.DEFAULT;
+            snapLength.getValueFactory().setValue(preset.snapLength());
+            bufferSize.getValueFactory().setValue(preset.bufferSizeMb());
+            immediate.setSelected(preset.immediate());
+            nanoseconds.setSelected(preset.nanosecondTimestamps());
+            snapLength.setDisable(isOn);
+        });
+        snapLength.setDisable(current.isHeadersOnly());
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(8);
+        grid.addRow(0, new Label("Snap length (bytes):"), snapLength);
+        grid.add(headersOnly, 1, 1);
+        grid.addRow(2, new Label("Kernel buffer (MB, 0 = default):"), bufferSize);
+        grid.addRow(3, new Label("Read timeout (ms):"), readTimeout);
+        grid.add(promiscuous, 0, 4, 2, 1);
+        grid.add(immediate, 0, 5, 2, 1);
+        grid.add(nanoseconds, 0, 6, 2, 1);
+
+        Dialog<CaptureProfile> dialog = new Dialog<>();
+        dialog.setTitle("Capture Options");
+        dialog.setHeaderText(nif.getDescription() != null ? nif.getDescription() : interfaceName);
+        dialog.getDialogPane().setContent(grid);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+        dialog.setResultConverter(button -> button != ButtonType.OK ? null : new CaptureProfile(
+                snapLength.getValue(),
+                bufferSize.getValue(),
+                promiscuous.isSelected(),
+                immediate.isSelected(),
+                nanoseconds.isSelected(),
+                readTimeout.getValue()
+        ));
+
+        dialog.showAndWait().ifPresent(profile -> profile.save(interfaceName));
+    }
+
     @FXML
     private void onSaveCapture() {
         if (masterList.isEmpty()) {
@@ -203,7 +544,7 @@ public class MainController {
                 return;
             }
 
-            Task<Boolean> saveTask = DatabaseService.saveCapture(name, masterList);
+            Task<Boolean> saveTask = BackgroundTask.of(progress -> DatabaseService.saveCapture(name, masterList.getStore(), progress));
 
             saveTask.setOnSucceeded(e -> {
                 table.setDisable(false);
@@ -222,8 +563,10 @@ public class MainController {
 
     @FXML
     private void onLoadCapture() {
-        List<String> sessions = DatabaseService.getCaptureNames();
+        withCaptureNames(this::chooseCaptureToOpen);
+    }
 
+    private void chooseCaptureToOpen(List<String> sessions) {
         if (sessions.isEmpty()) {
             Alert alert = new Alert(Alert.AlertType.INFORMATION);
             alert.setTitle("Load Capture");
@@ -239,23 +582,253 @@ public class MainController {
         dialog.setContentText("Capture Name:");
 
         Optional<String> result = dialog.showAndWait();
-        result.ifPresent(name -> {
-            onStop();
+        result.ifPresent(name -> openSavedCapture(name, -1));
+    }
 
-            masterList.clear();
-            packetTree.setRoot(null);
-            hexDump.clear();
+    /**
+     * Opens a saved capture and, when {@code packetNumber} is not -1, selects that packet.
+     */
+    private void openSavedCapture(String name, int packetNumber) {
+        onStop();
+        session = null;
+
+        packetTree.setRoot(null);
+        hexDump.clear();
+        // rows and table indexes only line up without a display filter
+        if (packetNumber >= 0) filterField.clear();
+
+        Task<PacketStore> openTask = BackgroundTask.of(progress -> {
+            PacketStore store = DatabaseService.openCapture(name, progress);
+            // reads the pages around the packet here rather than on the FX thread
+            if (packetNumber >= 0) store.findRow(packetNumber);
+            return store;
+        });
+
+        openTask.messageProperty().addListener((obs, was, message) -> statusLabel.setText(message));
+
+        openTask.setOnSucceeded(e -> {
+            PacketStore store = openTask.getValue();
+            replaceStore(store);
+            setFlows(null);
+            setStatistics(null);
+            table.setDisable(false);
+            table.refresh();
+
+            int row = packetNumber >= 0 && !masterList.isFiltered() ? store.findRow(packetNumber) : -1;
+            if (row >= 0) {
+                table.getSelectionModel().clearAndSelect(row);
+                table.scrollTo(Math.max(0, row - 3));
+            }
+        });
+
+        openTask.setOnFailed(e -> {
+            Throwable error = openTask.getException();
+            logger.error("Failed to open capture '{}'.", name, error);
+            showAlert("Database Error: " + error.getMessage());
+            table.setDisable(false);
+        });
+
+        table.setDisable(true);
+        new Thread(openTask, "jcap-open-capture").start();
+    }
+
+    @FXML
+    private void onSearchSaved() {
+        TextField queryField = new TextField();
+        queryField.setPromptText("e.g. ip.addr == 10.0.0.1 && tcp.port == 443, info contains \"GET /login\"");
+        queryField.setPrefColumnCount(40);
+        Button searchButton = new Button("Search");
+        Label searchStatus = new Label();
+
+        ListView<SessionSearch.Result> sessionList = new ListView<>();
+        sessionList.setCellFactory(list -> new ListCell<>() {
+            @Override
+            protected void updateItem(SessionSearch.Result item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty || item == null ? null : item.sessionName() + "  (" + item.hits() + ")");
+            }
+        });
+        ListView<Integer> numberList = new ListView<>();
+        sessionList.getSelectionModel().selectedItemProperty().addListener((obs, was, selected) ->
+                numberList.setItems(selected == null ? FXCollections.emptyObservableList() : numbersOf(selected)));
+
+        Task<?>[] running = new Task<?>[1];
+        int[] generation = new int[1];
+        Runnable search = () -> {
+            if (running[0] != null) running[0].cancel();
+            sessionList.getItems().clear();
+            int current = ++generation[0];
+
+            String query = queryField.getText();
+            try {
+                SessionSearch.validate(query);
+            } catch (FilterSyntaxException e) {
+                searchStatus.setText(e.getMessage());
+                return;
+            }
+
+            // results of a cancelled search may still be on their way
+            Task<Integer> task = BackgroundTask.of(progress -> SessionSearch.search(query, result -> Platform.runLater(() -> {
+                if (generation[0] == current) sessionList.getItems().add(result);
+            }), progress));
+            task.messageProperty().addListener((obs, was, message) -> searchStatus.setText(message));
+            task.setOnFailed(e -> {
+                logger.error("Search '{}' failed.", query, task.getException());
+                searchStatus.setText("Search failed: " + task.getException().getMessage());
+            });
+            running[0] = task;
+            new Thread(task, "jcap-search").start();
+        };
+        searchButton.setOnAction(e -> search.run());
+        queryField.setOnAction(e -> search.run());
+        queryField.textProperty().addListener((obs, was, text) -> {
+            boolean valid = true;
+            try {
+                SessionSearch.validate(text);
+            } catch (FilterSyntaxException e) {
+                valid = text.isBlank();
+            }
+            queryField.setStyle(valid ? "" : "-fx-border-color: #d73a49; -fx-border-radius: 4;");
+        });
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(8);
+        grid.addRow(0, queryField, searchButton);
+        grid.add(searchStatus, 0, 1, 2, 1);
+        grid.addRow(2, sessionList, numberList);
+
+        ButtonType open = new ButtonType("Open", ButtonBar.ButtonData.OK_DONE);
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.setTitle("Search Saved Captures");
+        dialog.setHeaderText(null);
+        dialog.getDialogPane().setContent(grid);
+        dialog.getDialogPane().getButtonTypes().addAll(open, ButtonType.CLOSE);
+        dialog.getDialogPane().lookupButton(open).disableProperty()
+                .bind(sessionList.getSelectionModel().selectedItemProperty().isNull());
+
+        Optional<ButtonType> answer = dialog.showAndWait();
+        if (running[0] != null) running[0].cancel();
+
+        SessionSearch.Result selected = sessionList.getSelectionModel().getSelectedItem();
+        if (answer.isPresent() && answer.get() == open && selected != null) {
+            Integer number = numberList.getSelectionModel().getSelectedItem();
+            openSavedCapture(selected.sessionName(), number != null ? number : selected.packetNumbers()[0]);
+        }
+    }
+
+    private static ObservableList<Integer> numbersOf(SessionSearch.Result result) {
+        int[] numbers = result.packetNumbers();
+        return FXCollections.observableList(new AbstractList<>() {
+            @Override
+            public Integer get(int index) {
+                return numbers[index];
+            }
+
+            @Override
+            public int size() {
+                return numbers.length;
+            }
+        });
+    }
+
+    @FXML
+    private void onImportFile() {
+        File file = captureFileChooser("Import Capture File").showOpenDialog(table.getScene().getWindow());
+        if (file == null) return;
 
-            List<PacketModel> loadedPackets = DatabaseService.loadCapture(name);
-            masterList.addAll(loadedPackets);
+        onStop();
+        session = null;
+
+        packetTree.setRoot(null);
+        hexDump.clear();
+
+        Task<PacketStore> importTask = BackgroundTask.of(progress -> PcapFiles.importFile(file.toPath(), progress));
 
+        importTask.messageProperty().addListener((obs, was, message) -> statusLabel.setText(message));
+
+        importTask.setOnSucceeded(e -> {
+            replaceStore(importTask.getValue());
+            setFlows(null);
+            setStatistics(null);
+            table.setDisable(false);
             table.refresh();
         });
+
+        importTask.setOnFailed(e -> {
+            Throwable error = importTask.getException();
+            logger.error("Failed to import {}.", file, error);
+            showAlert("Cannot import '" + file.getName() + "': " + error.getMessage());
+            table.setDisable(false);
+        });
+
+        table.setDisable(true);
+        new Thread(importTask, "jcap-import").start();
+    }
+
+    @FXML
+    private void onExportFile() {
+        if (masterList.isEmpty()) {
+            showAlert("Nothing to export!");
+            return;
+        }
+
+        File file = captureFileChooser("Export Capture File").showSaveDialog(table.getScene().getWindow());
+        if (file == null) return;
+
+        onStop();
+
+        Task<Long> exportTask = BackgroundTask.of(progress -> PcapFiles.exportFile(masterList.getStore(), file.toPath(), progress));
+
+        exportTask.messageProperty().addListener((obs, was, message) -> statusLabel.setText(message));
+
+        exportTask.setOnSucceeded(e -> table.setDisable(false));
+
+        exportTask.setOnFailed(e -> {
+            Throwable error = exportTask.getException();
+            logger.error("Failed to export to {}.", file, error);
+            showAlert("Cannot export to '" + file.getName() + "': " + error.getMessage());
+            table.setDisable(false);
+        });
+
+        table.setDisable(true);
+        new Thread(exportTask, "jcap-export").start();
+    }
+
+    private FileChooser captureFileChooser(String title) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle(title);
+        chooser.getExtensionFilters().addAll(
+                new FileChooser.ExtensionFilter("pcapng files", "*.pcapng"),
+                new FileChooser.ExtensionFilter("pcap files", "*.pcap", "*.cap"),
+                new FileChooser.ExtensionFilter("All files", "*.*")
+        );
+        return chooser;
+    }
+
+    /**
+     * Lists the saved captures off the FX thread and hands them to {@code then} on it.
+     */
+    private void withCaptureNames(Consumer<List<String>> then) {
+        Task<List<String>> listTask = BackgroundTask.of(progress -> DatabaseService.getCaptureNames());
+
+        listTask.setOnSucceeded(e -> then.accept(listTask.getValue()));
+
+        listTask.setOnFailed(e -> {
+            Throwable error = listTask.getException();
+            logger.error("Failed to list saved captures.", error);
+            showAlert("Database Error: " + error.getMessage());
+        });
+
+        new Thread(listTask, "jcap-sessions").start();
     }
 
     @FXML
     private void onDeleteCapture() {
-        List<String> sessions = DatabaseService.getCaptureNames();
+        withCaptureNames(this::chooseCaptureToDelete);
+    }
+
+    private void chooseCaptureToDelete(List<String> sessions) {
         if (sessions.isEmpty()) {
             showAlert("No saved captures to delete.");
             return;
@@ -276,12 +849,139 @@ public class MainController {
 
             Optional<ButtonType> answer = confirm.showAndWait();
             if (answer.isPresent() && answer.get() == ButtonType.OK) {
-                DatabaseService.deleteCapture(name);
+                deleteCapture(name);
             }
         });
     }
 
+    private void deleteCapture(String name) {
+        Task<Void> deleteTask = BackgroundTask.of(progress -> {
+            DatabaseService.deleteCapture(name);
+            return null;
+        });
+
+        deleteTask.setOnSucceeded(e -> statusLabel.setText("Deleted '" + name + "'."));
+
+        deleteTask.setOnFailed(e -> {
+            Throwable error = deleteTask.getException();
+            logger.error("Failed to delete capture '{}'.", name, error);
+            showAlert("Cannot delete '" + name + "': " + error.getMessage());
+        });
+
+        statusLabel.setText("Deleting '" + name + "'...");
+        new Thread(deleteTask, "jcap-delete").start();
+    }
+
+    @FXML
+    private void onShowConversations() {
+        if (conversations == null) conversations = new ConversationsWindow(table.getScene().getWindow());
+        conversations.show();
+
+        if (flows != null) conversations.setFlows(flows, null);
+        else analyzeFlows();
+    }
+
+    /**
+     * The conversations of the shown store; null when they have not been worked out yet.
+     */
+    private void setFlows(FlowTable table) {
+        flows = table;
+        if (analyzeTask != null) {
+            analyzeTask.cancel();
+            analyzeTask = null;
+        }
+        if (conversations == null || !conversations.isShowing()) return;
+
+        if (table != null) conversations.setFlows(table, null);
+        else analyzeFlows();
+    }
+
+    private void analyzeFlows() {
+        PacketStore store = masterList.getStore();
+        Task<FlowTable> task = BackgroundTask.of(progress -> FlowTable.analyze(store, progress));
+        analyzeTask = task;
+        conversations.setFlows(null, "Finding conversations...");
+
+        task.messageProperty().addListener((obs, was, message) -> conversations.setMessage(message));
+
+        task.setOnSucceeded(e -> {
+            if (analyzeTask != task) return;
+            analyzeTask = null;
+            flows = task.getValue();
+            conversations.setFlows(flows, null);
+        });
+
+        task.setOnFailed(e -> {
+            logger.error("Failed to find conversations.", task.getException());
+            conversations.setMessage("Failed to find conversations: " + task.getException().getMessage());
+        });
+
+        new Thread(task, "jcap-conversations").start();
+    }
+
+    @FXML
+    private void onShowStatistics() {
+        if (statisticsWindow == null) statisticsWindow = new StatisticsWindow(table.getScene().getWindow());
+        statisticsWindow.show();
+
+        if (statistics != null) statisticsWindow.setStatistics(statistics, null);
+        else countStatistics();
+    }
+
+    /**
+     * The traffic statistics of the shown store; null when they have not been counted yet.
+     */
+    private void setStatistics(TrafficStatistics counted) {
+        statistics = counted;
+        if (countTask != null) {
+            countTask.cancel();
+            countTask = null;
+        }
+        if (statisticsWindow == null || !statisticsWindow.isShowing()) return;
+
+        if (counted != null) statisticsWindow.setStatistics(counted, null);
+        else countStatistics();
+    }
+
+    private void countStatistics() {
+        PacketStore store = masterList.getStore();
+        Task<TrafficStatistics> task = BackgroundTask.of(progress -> TrafficStatistics.analyze(store, progress));
+        countTask = task;
+        statisticsWindow.setStatistics(null, "Counting packets...");
+
+        task.messageProperty().addListener((obs, was, message) -> statisticsWindow.setMessage(message));
+
+        task.setOnSucceeded(e -> {
+            if (countTask != task) return;
+            countTask = null;
+            statistics = task.getValue();
+            statisticsWindow.setStatistics(statistics, null);
+        });
+
+        task.setOnFailed(e -> {
+            logger.error("Failed to count traffic statistics.", task.getException());
+            statisticsWindow.setMessage("Failed to count packets: " + task.getException().getMessage());
+        });
+
+        new Thread(task, "jcap-statistics").start();
+    }
+
+    @FXML
+    private void onFollowTcpStream() {
+        PacketModel selected = table.getSelectionModel().getSelectedItem();
+        if (selected == null || selected.getProtocolId() != Protocols.TCP) {
+            showAlert("Select a TCP packet first.");
+            return;
+        }
+
+        Task<TcpReassembler.Transcript> task = BackgroundTask.of(progress -> TcpReassembler.follow(selected.getStore(), selected.getRow(), progress));
+        task.addEventHandler(WorkerStateEvent.WORKER_STATE_FAILED, e -> logger.error("Failed to follow TCP stream.", task.getException()));
+        new FollowStreamWindow(table.getScene().getWindow(), task).show();
+        new Thread(task, "jcap-follow").start();
+    }
+
     @FXML void onExit() {
+        DatabaseService.shutdown();
         Platform.exit();
         System.exit(0);
     }
@@ -294,75 +994,70 @@ public class MainController {
         alert.showAndWait();
     }
 
-    private void buildPacketTree(byte[] data) {
-        TreeItem<String> root = new TreeItem<>("Packet");
-        packetTree.setRoot(root);
-
-        if (data == null || data.length == 0) return;
+    private void showPacket(PacketModel packet) {
+        PacketStore store = packet.getStore();
+        int row = packet.getRow();
 
-        try {
-            Packet current = EthernetPacket.newPacket(data, 0, data.length);
-
-            while (current != null) {
-                TreeItem<String> layerItem = null;
-
-                switch (current) {
-                    case EthernetPacket eth -> {
-                        layerItem = new TreeItem<>("Ethernet II");
-                        layerItem.getChildren().add(new TreeItem<>("Source:  " + eth.getHeader().getSrcAddr()));
-                        layerItem.getChildren().add(new TreeItem<>("Destination:  " + eth.getHeader().getDstAddr()));
-                        layerItem.getChildren().add(new TreeItem<>("Type:  " + eth.getHeader().getType()));
-                    }
-                    case IpV4Packet ip4 -> {
-                        layerItem = new TreeItem<>("Internet Protocol Version 4");
-                        layerItem.getChildren().add(new TreeItem<>("Source:  " + ip4.getHeader().getSrcAddr().getHostAddress()));
-                        layerItem.getChildren().add(new TreeItem<>("Destination:  " + ip4.getHeader().getDstAddr().getHostAddress()));
-                        layerItem.getChildren().add(new TreeItem<>("Protocol:  " + ip4.getHeader().getProtocol()));
-                    }
-                    case IpV6Packet ip6 -> {
-                        layerItem = new TreeItem<>("Internet Protocol Version 6");
-                        layerItem.getChildren().add(new TreeItem<>("Source:  " + ip6.getHeader().getSrcAddr().getHostAddress()));
-                        layerItem.getChildren().add(new TreeItem<>("Destination:  " + ip6.getHeader().getDstAddr().getHostAddress()));
-                    }
-                    case TcpPacket tcp -> {
-                        layerItem = new TreeItem<>("Transmission Control Protocol");
-                        layerItem.getChildren().add(new TreeItem<>("Source Port:  " + tcp.getHeader().getSrcPort().valueAsInt()));
-                        layerItem.getChildren().add(new TreeItem<>("Destination Port:  " + tcp.getHeader().getDstPort().valueAsInt()));
-                        layerItem.getChildren().add(new TreeItem<>("Sequence:  " + tcp.getHeader().getSequenceNumberAsLong()));
-                    }
-                    case UdpPacket udp -> {
-                        layerItem = new TreeItem<>("User Datagram Protocol");
-                        layerItem.getChildren().add(new TreeItem<>("Source Port:  " + udp.getHeader().getSrcPort().valueAsInt()));
-                        layerItem.getChildren().add(new TreeItem<>("Destination Port:  " + udp.getHeader().getDstPort().valueAsInt()));
-                        layerItem.getChildren().add(new TreeItem<>("Length:  " + udp.getHeader().getLength()));
-                    }
-                    case ArpPacket arp -> {
-                        layerItem = new TreeItem<>("Address Resolution Protocol");
-                        layerItem.getChildren().add(new TreeItem<>("Operation Code:  " + arp.getHeader().getOperation()));
-                        layerItem.getChildren().add(new TreeItem<>("Sender MAC:  " + arp.getHeader().getSrcHardwareAddr()));
-                        layerItem.getChildren().add(new TreeItem<>("Sender IP:  " + arp.getHeader().getSrcProtocolAddr().getHostAddress()));
-                        layerItem.getChildren().add(new TreeItem<>("Target MAC:  " + arp.getHeader().getDstHardwareAddr()));
-                        layerItem.getChildren().add(new TreeItem<>("Target IP:  " + arp.getHeader().getDstProtocolAddr().getHostAddress()));
-                    }
-                    case IcmpV4CommonPacket icmp -> {
-                        layerItem = new TreeItem<>("Internet Control Message Protocol");
-                        layerItem.getChildren().add(new TreeItem<>("Type:  " + icmp.getHeader().getType()));
-                        layerItem.getChildren().add(new TreeItem<>("Code:  " + icmp.getHeader().getCode()));
-                        layerItem.getChildren().add(new TreeItem<>("Checksum:  " + icmp.getHeader().getChecksum()));
-                    }
-                    default -> {
-                    }
-                }
+        detailRow = row;
+        PacketDetail cached = details.get(row);
+        if (cached == null) {
+            packetTree.setRoot(null);
+            shownDetail = null;
+            detailItems.clear();
+            hexDump.clear();
+        }
+        // a saved session reads rows and payloads from the database, so they are fetched here
+        detailExecutor.execute(() -> {
+            // arrowing through the table queues packets that are no longer selected
+            if (detailRow != row) return;
+            ByteBuffer payload = store.getPayload(row);
+            PacketDetail detail = cached != null ? cached : PacketDetail.dissect(payload, packet.getLinkType());
+            Platform.runLater(() -> {
+                if (masterList.getStore() != store) return;
+                details.put(row, detail);
+                if (detailRow != row) return;
+                hexDump.setData(payload);
+                showDetail(detail);
+            });
+        });
+    }
 
-                if (layerItem != null) {
-                    layerItem.setExpanded(true);
-                    root.getChildren().add(layerItem);
-                }
-                current = current.getPayload();
+    private void showDetail(PacketDetail detail) {
+        TreeItem<String> root = new TreeItem<>("Packet");
+        List<TreeItem<String>> items = detailItems;
+        items.clear();
+        for (int node = 0; node < detail.size(); node++) {
+            TreeItem<String> item = new TreeItem<>(detail.label(node));
+            int parent = detail.parent(node);
+            if (parent < 0) {
+                item.setExpanded(true);
+                root.getChildren().add(item);
             }
-        } catch (Exception e) {
-            root.getChildren().add(new TreeItem<>("Raw Data (Parsing Failed)"));
+            else {
+                items.get(parent).getChildren().add(item);
+            }
+            items.add(item);
         }
+        shownDetail = detail;
+        packetTree.setRoot(root);
+    }
+
+    // a field selected in the tree is highlighted in the hex dump, a byte clicked there selects its field
+    private void setupFieldHighlighting() {
+        packetTree.getSelectionModel().selectedItemProperty().addListener((obs, old, item) -> {
+            int node = shownDetail != null ? detailItems.indexOf(item) : -1;
+            if (node >= 0) hexDump.highlight(shownDetail.offset(node), shownDetail.length(node));
+            else hexDump.highlight(-1, 0);
+        });
+
+        hexDump.setOnByteClicked(position -> {
+            if (shownDetail == null) return;
+            int node = shownDetail.nodeAt(position);
+            if (node < 0) return;
+            TreeItem<String> item = detailItems.get(node);
+            packetTree.getSelectionModel().select(item);
+            packetTree.scrollTo(packetTree.getRow(item));
+        });
     }
 
     private void styleRow(TableRow<PacketModel> row) {
@@ -376,7 +1071,7 @@ public class MainController {
             return;
         }
 
-        String proto = row.getItem().protocolProperty().get().toUpperCase();
+        String proto = row.getItem().getProtocol().toUpperCase(Locale.ROOT);
 
         String color = switch (proto) {
             case "TCP" -> "rgba(50, 205, 50, 0.25)";
@@ -391,18 +1086,19 @@ public class MainController {
     }
 
     private void setupSearchFilter() {
-        filterField.textProperty().addListener((observable, oldVal, newVal) -> filteredList.setPredicate(packet -> {
-            if (newVal == null || newVal.isEmpty()) {
-                return true;
-            }
+        filterEngine.setStore(masterList.getStore());
 
-            String lower = newVal.toLowerCase();
-
-            return safeContains(packet.getSource(), lower) ||
-                    safeContains(packet.getDestination(), lower) ||
-                    safeContains(packet.getProtocol(), lower) ||
-                    safeContains(packet.getInfo(), lower);
-        }));
+        Tooltip captureHint = new Tooltip("Display filter expression or BPF syntax");
+        captureFilterField.setTooltip(captureHint);
+        captureFilterField.textProperty().addListener((observable, oldVal, newVal) -> {
+            CaptureFilter filter = CaptureFilter.parse(newVal);
+            captureHint.setText(filter != null ? filter.describe() : "Display filter expression or BPF syntax");
+        });
+        filterField.textProperty().addListener((observable, oldVal, newVal) -> {
+            // expressions get a green border, anything else is a plain search
+            boolean expression = filterEngine.setQuery(newVal);
+            filterField.setStyle(expression ? "-fx-border-color: #2ea043; -fx-border-radius: 4;" : "");
+        });
     }
 
     private void showAlert(String message) {
@@ -411,45 +1107,4 @@ public class MainController {
         alert.setContentText(message);
         alert.showAndWait();
     }
-
-    private String formatHex(byte[] data) {
-        if (data == null || data.length == 0) return "";
-
-        StringBuilder sb = new StringBuilder();
-
-        // iterate in chunks of 16 bytes
-        for (int i = 0; i < data.length; i += 16) {
-            // offset
-            sb.append(String.format("%04X   ", i));
-
-            StringBuilder hexPart = new StringBuilder();
-            StringBuilder textPart = new StringBuilder();
-
-            for (int j = 0; j < 16; j++) {
-                if (i + j < data.length) {
-                    byte b = data[i + j];
-
-                    hexPart.append(String.format("%02X ", b));
-
-                    if (b >= 32 && b <= 126) {
-                        textPart.append((char) b);
-                    } else {
-                        textPart.append(".");
-                    }
-                }
-                else {
-                    hexPart.append("   ");
-                }
-            }
-            sb.append(hexPart);
-            sb.append("   ");
-            sb.append(textPart);
-            sb.append("\n");
-        }
-        return sb.toString();
-    }
-
-    private boolean safeContains(String text, String filter) {
-        return text != null && text.toLowerCase().contains(filter);
-    }
-}
\ No newline at end of file
+}
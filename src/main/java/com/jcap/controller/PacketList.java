@@ -0,0 +1,154 @@
+package com.jcap.controller;
+
+import com.jcap.model.PacketModel;
+import com.jcap.model.PacketStore;
+import javafx.collections.ObservableListBase;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Observable adapter that exposes a {@link PacketStore} to the TableView. It only creates
+ * {@link PacketModel} views for the indices that are asked for and reports growth of the
+ * store as one addition per {@link #sync()} call. While a display filter is applied the
+ * list maps its indices through the matching row numbers instead. Rows the store has not loaded
+ * yet are asked for in the background and shown as {@linkplain PacketModel#loading stand-ins}.
+ * Must be used from the FX thread.
+ */
+public class PacketList extends ObservableListBase<PacketModel> {
+
+    private PacketStore store;
+    private int visibleSize;
+
+    private int[] filterRows; // null while unfiltered
+    private int filterCount;
+
+    public PacketList(PacketStore store) {
+        this.store = store;
+    }
+
+    public PacketStore getStore() {
+        return store;
+    }
+
+    public boolean isFiltered() {
+        return filterRows != null;
+    }
+
+    /**
+     * Publishes rows appended to the store since the last call. Returns the number of new rows.
+     * Does nothing while filtered; new matches arrive through {@link #applyFilter}.
+     */
+    public int sync() {
+        if (filterRows != null) return 0;
+
+        int newSize = store.size();
+        int added = newSize - visibleSize;
+        if (added <= 0) return 0;
+
+        int from = visibleSize;
+        visibleSize = newSize;
+
+        beginChange();
+        nextAdd(from, newSize);
+        endChange();
+        return added;
+    }
+
+    public void setStore(PacketStore newStore) {
+        List<PacketModel> removed = snapshot();
+
+        store = newStore;
+        visibleSize = 0;
+        if (filterRows != null) {
+            // stays empty until the filter has been evaluated against the new store
+            filterRows = new int[0];
+            filterCount = 0;
+        }
+
+        fireReplaced(removed);
+        sync();
+    }
+
+    /**
+     * Shows the given ascending rows of {@code target}, or the whole store when {@code rows} is null.
+     * With {@code append} the rows are added after the current matches. Results for a store that
+     * is no longer shown are ignored.
+     */
+    public void applyFilter(PacketStore target, int[] rows, int count, boolean append) {
+        if (target != store) return;
+
+        if (append && filterRows != null) {
+            if (count == 0) return;
+            if (filterCount + count > filterRows.length) {
+                filterRows = Arrays.copyOf(filterRows, Math.max(filterCount + count, filterRows.length * 2));
+            }
+            System.arraycopy(rows, 0, filterRows, filterCount, count);
+
+            int from = filterCount;
+            filterCount += count;
+            beginChange();
+            nextAdd(from, filterCount);
+            endChange();
+            return;
+        }
+
+        if (rows == null && filterRows == null) return;
+
+        List<PacketModel> removed = snapshot();
+        if (rows == null) {
+            filterRows = null;
+            filterCount = 0;
+            visibleSize = store.size();
+        }
+        else {
+            filterRows = rows;
+            filterCount = count;
+        }
+        fireReplaced(removed);
+    }
+
+    @Override
+    public PacketModel get(int index) {
+        if (index < 0 || index >= size()) throw new IndexOutOfBoundsException(index);
+        int row = filterRows != null ? filterRows[index] : index;
+        if (store.isLoaded(row)) return new PacketModel(store, row);
+
+        store.prefetch(row);
+        return PacketModel.loading(store, row);
+    }
+
+    @Override
+    public int size() {
+        return filterRows != null ? filterCount : visibleSize;
+    }
+
+    private void fireReplaced(List<PacketModel> removed) {
+        if (removed.isEmpty() && size() == 0) return;
+
+        beginChange();
+        if (!removed.isEmpty()) nextRemove(0, removed);
+        if (size() > 0) nextAdd(0, size());
+        endChange();
+    }
+
+    // the arrays are replaced rather than rewritten, so the view stays valid after the switch
+    private List<PacketModel> snapshot() {
+        PacketStore oldStore = store;
+        int[] oldRows = filterRows;
+        int oldSize = size();
+
+        return new AbstractList<>() {
+            @Override
+            public PacketModel get(int index) {
+                return new PacketModel(oldStore, oldRows != null ? oldRows[index] : index);
+            }
+
+            @Override
+            public int size() {
+                return oldSize;
+            }
+        };
+    }
+}
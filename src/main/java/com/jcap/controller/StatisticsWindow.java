@@ -0,0 +1,208 @@
+package com.jcap.controller;
+
+import com.jcap.service.TrafficStatistics;
+import com.jcap.service.TrafficStatistics.Endpoint;
+import com.jcap.service.TrafficStatistics.ProtocolNode;
+import com.jcap.service.TrafficStatistics.Series;
+import com.jcap.service.TrafficStatistics.Snapshot;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.Scene;
+import javafx.scene.chart.LineChart;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.chart.XYChart;
+import javafx.scene.control.Label;
+import javafx.scene.control.Tab;
+import javafx.scene.control.TabPane;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.control.TreeItem;
+import javafx.scene.control.TreeTableColumn;
+import javafx.scene.control.TreeTableView;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+import javafx.util.Duration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * Protocol hierarchy, top hosts and ports, and packets and bytes per second of the shown capture.
+ * Snapshots are taken once a second from the statistics, not from the packet table, so they keep
+ * coming while the table is filtered or scrolled back.
+ */
+final class StatisticsWindow {
+
+    private static final Duration REFRESH_INTERVAL = Duration.millis(1000);
+    private static final int TOP = 25;
+
+    private final Stage stage = new Stage();
+    private final TreeTableView<ProtocolNode> protocols = new TreeTableView<>();
+    private final ObservableList<Endpoint> hosts = FXCollections.observableArrayList();
+    private final ObservableList<Endpoint> ports = FXCollections.observableArrayList();
+    private final XYChart.Series<Number, Number> packetRate = new XYChart.Series<>();
+    private final XYChart.Series<Number, Number> byteRate = new XYChart.Series<>();
+    private final Label status = new Label();
+    private final Timeline refresh = new Timeline(new KeyFrame(REFRESH_INTERVAL, e -> poll()));
+
+    private TrafficStatistics statistics;
+    private long shownPackets = -1;
+    private long total = 1;
+    private long totalBytes = 1;
+
+    StatisticsWindow(Window owner) {
+        protocols.setShowRoot(true);
+        protocols.setPlaceholder(new Label("No packets"));
+        protocols.getColumns().addAll(List.of(
+                treeColumn("Protocol", 260, ProtocolNode::name),
+                treeColumn("Packets", 100, ProtocolNode::packets),
+                treeColumn("% Packets", 90, n -> percent(n.packets(), total)),
+                treeColumn("Bytes", 120, ProtocolNode::bytes),
+                treeColumn("% Bytes", 90, n -> percent(n.bytes(), totalBytes))
+        ));
+
+        LineChart<Number, Number> packetChart = chart("Packets/s", packetRate);
+        LineChart<Number, Number> byteChart = chart("Bytes/s", byteRate);
+        VBox charts = new VBox(packetChart, byteChart);
+        VBox.setVgrow(packetChart, Priority.ALWAYS);
+        VBox.setVgrow(byteChart, Priority.ALWAYS);
+
+        TabPane tabs = new TabPane(
+                new Tab("Protocol Hierarchy", protocols),
+                new Tab("Hosts", endpointTable("Address", hosts)),
+                new Tab("Ports", endpointTable("Port", ports)),
+                new Tab("Throughput", charts));
+        tabs.setTabClosingPolicy(TabPane.TabClosingPolicy.UNAVAILABLE);
+
+        BorderPane root = new BorderPane(tabs);
+        root.setBottom(status);
+        stage.setTitle("Traffic Statistics");
+        stage.initOwner(owner);
+        stage.setScene(new Scene(root, 800, 560));
+        stage.setOnHidden(e -> refresh.stop());
+        refresh.setCycleCount(Timeline.INDEFINITE);
+    }
+
+    private static <T> TreeTableColumn<ProtocolNode, T> treeColumn(String title, double width, Function<ProtocolNode, T> value) {
+        TreeTableColumn<ProtocolNode, T> column = new TreeTableColumn<>(title);
+        column.setPrefWidth(width);
+        column.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(value.apply(cell.getValue().getValue())));
+        return column;
+    }
+
+    private static TableView<Endpoint> endpointTable(String title, ObservableList<Endpoint> items) {
+        TableView<Endpoint> table = new TableView<>(items);
+        table.setPlaceholder(new Label("No packets"));
+        table.getColumns().addAll(List.of(
+                column(title, 260, Endpoint::name),
+                column("Packets", 100, Endpoint::packets),
+                column("Bytes", 120, Endpoint::bytes),
+                column("Bytes ±", 100, e -> e.error() == 0 ? null : e.error())
+        ));
+        return table;
+    }
+
+    private static <T> TableColumn<Endpoint, T> column(String title, double width, Function<Endpoint, T> value) {
+        TableColumn<Endpoint, T> column = new TableColumn<>(title);
+        column.setPrefWidth(width);
+        column.setSortable(false);
+        column.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(value.apply(cell.getValue())));
+        return column;
+    }
+
+    private static LineChart<Number, Number> chart(String title, XYChart.Series<Number, Number> series) {
+        NumberAxis time = new NumberAxis();
+        time.setLabel("Seconds");
+        time.setForceZeroInRange(false);
+        LineChart<Number, Number> chart = new LineChart<>(time, new NumberAxis());
+        chart.setTitle(title);
+        chart.setAnimated(false);
+        chart.setCreateSymbols(false);
+        chart.setLegendVisible(false);
+        chart.getData().add(series);
+        return chart;
+    }
+
+    private static String percent(long part, long whole) {
+        return String.format(Locale.ROOT, "%.1f%%", whole == 0 ? 0 : part * 100.0 / whole);
+    }
+
+    void show() {
+        stage.show();
+        stage.toFront();
+        if (statistics != null) refresh.play();
+    }
+
+    boolean isShowing() {
+        return stage.isShowing();
+    }
+
+    /**
+     * Shows {@code statistics}, or nothing while it is null (still being counted).
+     */
+    void setStatistics(TrafficStatistics statistics, String message) {
+        this.statistics = statistics;
+        shownPackets = -1;
+        refresh.stop();
+        protocols.setRoot(null);
+        hosts.clear();
+        ports.clear();
+        packetRate.getData().clear();
+        byteRate.getData().clear();
+        status.setText(message != null ? message : "");
+
+        if (statistics != null) {
+            poll();
+            if (stage.isShowing()) refresh.play();
+        }
+    }
+
+    void setMessage(String message) {
+        status.setText(message);
+    }
+
+    private void poll() {
+        if (statistics == null || statistics.getPackets() == shownPackets) return;
+
+        Snapshot snapshot = statistics.snapshot(TOP);
+        shownPackets = snapshot.packets();
+        total = snapshot.packets();
+        totalBytes = snapshot.bytes();
+
+        protocols.setRoot(treeItem(snapshot.protocols()));
+        hosts.setAll(snapshot.hosts());
+        ports.setAll(snapshot.ports());
+        showSeries(snapshot.series(), snapshot.firstNanos());
+        status.setText(snapshot.packets() + " packets, " + snapshot.bytes() + " bytes");
+    }
+
+    private static TreeItem<ProtocolNode> treeItem(ProtocolNode node) {
+        TreeItem<ProtocolNode> item = new TreeItem<>(node);
+        for (ProtocolNode child : node.children()) {
+            item.getChildren().add(treeItem(child));
+        }
+        item.setExpanded(true);
+        return item;
+    }
+
+    private void showSeries(Series series, long firstNanos) {
+        double perSecond = 1e9 / series.intervalNanos();
+        List<XYChart.Data<Number, Number>> packets = new ArrayList<>(series.packets().length);
+        List<XYChart.Data<Number, Number>> bytes = new ArrayList<>(series.bytes().length);
+        for (int i = 0; i < series.packets().length; i++) {
+            double seconds = (series.startNanos() + i * series.intervalNanos() - firstNanos) / 1e9;
+            packets.add(new XYChart.Data<>(seconds, series.packets()[i] * perSecond));
+            bytes.add(new XYChart.Data<>(seconds, series.bytes()[i] * perSecond));
+        }
+        packetRate.getData().setAll(packets);
+        byteRate.getData().setAll(bytes);
+    }
+}
@@ -0,0 +1,174 @@
+package com.jcap.model;
+
+/**
+ * Formatting and parsing of the primitive address encodings kept by {@link PacketStore}.
+ * IPv4 addresses and MACs live in the low word, IPv6 uses both words.
+ */
+public final class Addresses {
+
+    public static final byte NONE = 0;
+    public static final byte MAC = 1;
+    public static final byte IPV4 = 2;
+    public static final byte IPV6 = 3;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Addresses() {
+    }
+
+    public static void append(byte kind, long hi, long lo, StringBuilder sb) {
+        switch (kind) {
+            case MAC -> appendMac(lo, sb);
+            case IPV4 -> appendIpV4((int) lo, sb);
+            case IPV6 -> appendIpV6(hi, lo, sb);
+            default -> {
+            }
+        }
+    }
+
+    public static void appendIpV4(int address, StringBuilder sb) {
+        sb.append(address >>> 24).append('.')
+                .append((address >>> 16) & 0xFF).append('.')
+                .append((address >>> 8) & 0xFF).append('.')
+                .append(address & 0xFF);
+    }
+
+    // same layout as Inet6Address.getHostAddress(): eight groups, no zero compression
+    public static void appendIpV6(long hi, long lo, StringBuilder sb) {
+        for (int i = 0; i < 8; i++) {
+            long word = i < 4 ? hi : lo;
+            int group = (int) (word >>> (48 - (i & 3) * 16)) & 0xFFFF;
+            if (i > 0) sb.append(':');
+            boolean leading = true;
+            for (int shift = 12; shift >= 0; shift -= 4) {
+                int digit = (group >>> shift) & 0x0F;
+                if (leading && digit == 0 && shift > 0) continue;
+                leading = false;
+                sb.append(HEX[digit]);
+            }
+        }
+    }
+
+    public static void appendMac(long mac, StringBuilder sb) {
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            int b = (int) (mac >>> shift) & 0xFF;
+            sb.append(HEX[b >>> 4]).append(HEX[b & 0x0F]);
+            if (shift > 0) sb.append(':');
+        }
+    }
+
+    /**
+     * Parses a textual address into {@code out[0]} (hi) and {@code out[1]} (lo) and returns its kind,
+     * or {@link #NONE} when the text is not an IPv4, IPv6 or MAC address.
+     */
+    public static byte parse(String text, long[] out) {
+        out[0] = 0;
+        out[1] = 0;
+        if (text == null || text.isEmpty()) return NONE;
+
+        if (text.indexOf('.') >= 0 && text.indexOf(':') < 0) {
+            long v4 = parseIpV4(text);
+            if (v4 < 0) return NONE;
+            out[1] = v4;
+            return IPV4;
+        }
+
+        if (text.length() == 17 && text.charAt(2) == ':' && text.indexOf("::") < 0) {
+            long mac = 0;
+            for (int i = 0; i < 6; i++) {
+                int hi = Character.digit(text.charAt(i * 3), 16);
+                int lo = Character.digit(text.charAt(i * 3 + 1), 16);
+                if (hi < 0 || lo < 0) return NONE;
+                mac = (mac << 8) | (hi << 4) | lo;
+            }
+            out[1] = mac;
+            return MAC;
+        }
+
+        return parseIpV6(text, out) ? IPV6 : NONE;
+    }
+
+    // returns the unsigned address, or -1 on malformed input
+    public static long parseIpV4(String text) {
+        long result = 0;
+        int octet = 0;
+        int digits = 0;
+        int dots = 0;
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = octet * 10 + (c - '0');
+                if (++digits > 3 || octet > 255) return -1;
+            }
+            else if (c == '.' && digits > 0 && dots < 3) {
+                result = (result << 8) | octet;
+                octet = 0;
+                digits = 0;
+                dots++;
+            }
+            else {
+                return -1;
+            }
+        }
+        if (dots != 3 || digits == 0) return -1;
+        return (result << 8) | octet;
+    }
+
+    public static boolean parseIpV6(String text, long[] out) {
+        int[] groups = new int[8];
+        int count = 0;
+        int gap = -1;
+        int i = 0;
+        int len = text.length();
+        int scope = text.indexOf('%');
+        if (scope >= 0) len = scope;
+
+        if (len >= 2 && text.startsWith("::")) {
+            gap = 0;
+            i = 2;
+        }
+
+        while (i < len) {
+            if (count == 8) return false;
+
+            int value = 0;
+            int digits = 0;
+            while (i < len && text.charAt(i) != ':') {
+                int d = Character.digit(text.charAt(i), 16);
+                if (d < 0 || ++digits > 4) return false;
+                value = (value << 4) | d;
+                i++;
+            }
+            if (digits == 0) return false;
+            groups[count++] = value;
+
+            if (i < len) {
+                i++;
+                if (i < len && text.charAt(i) == ':') {
+                    if (gap >= 0) return false;
+                    gap = count;
+                    i++;
+                }
+                else if (i == len) {
+                    return false;
+                }
+            }
+        }
+
+        if (gap < 0 && count != 8) return false;
+        if (gap >= 0) {
+            int shift = 8 - count;
+            System.arraycopy(groups, gap, groups, gap + shift, count - gap);
+            for (int g = gap; g < gap + shift; g++) groups[g] = 0;
+        }
+
+        long hi = 0;
+        long lo = 0;
+        for (int g = 0; g < 4; g++) hi = (hi << 16) | groups[g];
+        for (int g = 4; g < 8; g++) lo = (lo << 16) | groups[g];
+        out[0] = hi;
+        out[1] = lo;
+        return true;
+    }
+}
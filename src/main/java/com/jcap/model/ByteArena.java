@@ -0,0 +1,64 @@
+package com.jcap.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Append-only byte storage addressed by (chunk, position) packed into a long.
+ * One writer thread may append while other threads read anything that was
+ * published to them through a volatile write (see {@link PacketStore#commitRow()}).
+ */
+public class ByteArena {
+
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private volatile byte[][] chunks = new byte[16][];
+    private int chunkCount;
+    private int position = CHUNK_SIZE;
+    private long usedBytes;
+
+    public long append(byte[] data, int offset, int length) {
+        byte[] chunk = reserve(length);
+        long address = address(chunkCount - 1, position);
+
+        System.arraycopy(data, offset, chunk, position, length);
+        position += length;
+        usedBytes += length;
+        return address;
+    }
+
+    public String readUtf8(long address, int length) {
+        return new String(chunks[chunkIndex(address)], chunkPosition(address), length, StandardCharsets.UTF_8);
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    private byte[] reserve(int length) {
+        if (chunkCount > 0 && CHUNK_SIZE - position >= length) {
+            return chunks[chunkCount - 1];
+        }
+
+        byte[][] current = chunks;
+        if (chunkCount == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[chunkCount++] = new byte[Math.max(CHUNK_SIZE, length)];
+        chunks = current;
+        position = 0;
+        return current[chunkCount - 1];
+    }
+
+    private static long address(int chunk, int position) {
+        return ((long) chunk << 32) | position;
+    }
+
+    private static int chunkIndex(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int chunkPosition(long address) {
+        return (int) address;
+    }
+}
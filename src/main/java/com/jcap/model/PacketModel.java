@@ -1,45 +1,82 @@
 package com.jcap.model;
 
-import javafx.beans.property.SimpleIntegerProperty;
-import javafx.beans.property.SimpleStringProperty;
+import java.nio.ByteBuffer;
 
+/**
+ * Lightweight row view over a {@link PacketStore}. Instances are created on demand for the
+ * rows the table actually shows and hold no data of their own. A view of a row that is
+ * {@linkplain #loading still being read} shows blank columns instead of reading the store.
+ */
 public class PacketModel {
 
-    private final SimpleIntegerProperty number;
-    private final SimpleStringProperty timestamp;
-    private final SimpleStringProperty source;
-    private final SimpleStringProperty destination;
-    private final SimpleStringProperty protocol;
-    private final SimpleIntegerProperty length;
-    private final SimpleStringProperty info;
-    private final byte[] payload;
-
-    public PacketModel(int num, String timestamp, String src, String dst,
-                       String proto, int len, String info, byte[] data) {
-        this.number = new SimpleIntegerProperty(num);
-        this.timestamp = new SimpleStringProperty(timestamp);
-        this.source = new SimpleStringProperty(src);
-        this.destination = new SimpleStringProperty(dst);
-        this.protocol = new SimpleStringProperty(proto);
-        this.length = new SimpleIntegerProperty(len);
-        this.info = new SimpleStringProperty(info);
-        this.payload = data;
+    private final PacketStore store;
+    private final int row;
+    private final boolean loaded;
+
+    public PacketModel(PacketStore store, int row) {
+        this(store, row, true);
+    }
+
+    private PacketModel(PacketStore store, int row, boolean loaded) {
+        this.store = store;
+        this.row = row;
+        this.loaded = loaded;
     }
 
-    public int getNumber() { return number.get(); }
-    public String getTimestamp() { return timestamp.get(); }
-    public String getSource() { return source.get(); }
-    public String getDestination() { return destination.get(); }
-    public String getProtocol() { return protocol.get(); }
-    public int getLength() { return length.get(); }
-    public byte[] getPayload() { return payload.clone(); }
-    public String getInfo() { return info.get(); }
-
-    public SimpleIntegerProperty numberProperty() { return number; }
-    public SimpleStringProperty timestampProperty() { return timestamp; }
-    public SimpleStringProperty sourceProperty() { return source; }
-    public SimpleStringProperty destinationProperty() { return destination; }
-    public SimpleStringProperty protocolProperty() { return protocol; }
-    public SimpleIntegerProperty lengthProperty() { return length; }
-    public SimpleStringProperty infoProperty() { return info; }
+    /**
+     * A stand-in for a row that is not loaded yet.
+     */
+    public static PacketModel loading(PacketStore store, int row) {
+        return new PacketModel(store, row, false);
+    }
+
+    public int getRow() { return row; }
+    public PacketStore getStore() { return store; }
+    public boolean isLoaded() { return loaded; }
+
+    public int getNumber() { return loaded ? store.getNumber(row) : 0; }
+    public String getInterface() { return loaded ? store.getInterfaceName(row) : ""; }
+    public String getTimestamp() { return loaded ? formatSeconds(store.getRelativeTimestampNanos(row)) : ""; }
+    public String getSource() { return loaded ? store.getSource(row) : ""; }
+    public String getDestination() { return loaded ? store.getDestination(row) : ""; }
+    public int getProtocolId() { return loaded ? store.getProtocol(row) : Protocols.UNKNOWN; }
+    public String getProtocol() { return loaded ? Protocols.name(store.getProtocol(row)) : ""; }
+    public int getLength() { return loaded ? store.getLength(row) : 0; }
+    public ByteBuffer getPayload() { return store.getPayload(row); }
+    public int getLinkType() { return store.getInterfaceLinkType(store.getInterface(row)); }
+    public String getInfo() { return loaded ? store.getInfo(row) : ""; }
+
+    /**
+     * Seconds with six decimals, the text of {@code "%.6f"} in a '.' locale without the cost of
+     * String.format.
+     */
+    public static String formatSeconds(long nanos) {
+        long micros = Math.round(nanos / 1000.0);
+        char[] text = new char[27];
+        int p = text.length;
+        boolean negative = micros < 0;
+        if (negative) micros = -micros;
+
+        for (int i = 0; i < 6; i++) {
+            text[--p] = (char) ('0' + micros % 10);
+            micros /= 10;
+        }
+        text[--p] = '.';
+        do {
+            text[--p] = (char) ('0' + micros % 10);
+            micros /= 10;
+        } while (micros > 0);
+        if (negative) text[--p] = '-';
+        return new String(text, p, text.length - p);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof PacketModel other && other.store == store && other.row == row;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(store) * 31 + row;
+    }
 }
@@ -0,0 +1,526 @@
+package com.jcap.model;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Column store for captured packets. Every column is a list of fixed-size primitive chunks
+ * so that growing never copies existing rows. Payloads live in an off-heap {@link PayloadArena}.
+ * Info text is either set per row and kept in an append-only heap arena, or left out and produced
+ * from the payload by an {@link InfoRenderer} when a row is read; the info columns of a chunk are
+ * only allocated once a row in it sets one, so captured rows do not pay for them. Likewise the high
+ * halves of addresses, which only IPv6 uses.
+ *
+ * <p>A single writer appends rows with {@link #newRow}, the setters and {@link #commitRow()};
+ * any thread may read rows below {@link #size()}.
+ */
+public class PacketStore implements Closeable {
+
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_ROWS = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_ROWS - 1;
+
+    public static final int LINKTYPE_ETHERNET = 1;
+
+    private static final int RENDERED_INFO_ROWS = Integer.getInteger("jcap.table.infoCacheRows", 1024);
+
+    /**
+     * Produces the info text of rows stored without one. Called from whichever thread reads the row.
+     */
+    public interface InfoRenderer {
+        void appendInfo(PacketStore store, int row, StringBuilder sb);
+    }
+
+    private volatile Columns columns = new Columns(16);
+    private volatile int size;
+    private int pending = -1;
+
+    private static final ByteBuffer EMPTY_PAYLOAD = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+    private final PayloadArena payloads = new PayloadArena();
+    private final ByteArena texts = new ByteArena();
+    private byte[] scratch = new byte[256];
+    private long baseTimestampNanos = Long.MIN_VALUE;
+    private volatile String[] interfaceNames = new String[0];
+    private volatile int[] interfaceLinkTypes = new int[0];
+
+    private volatile InfoRenderer infoRenderer;
+    // the rows the table shows, so scrolling back and forth does not render them again
+    private final Map<Integer, String> renderedInfo = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+            return size() > RENDERED_INFO_ROWS;
+        }
+    };
+
+    private static final class Columns {
+        final int[][] numbers;
+        final long[][] timestamps;
+        final int[][] lengths;
+        final short[][] protocols;
+        final byte[][] srcKinds;
+        final byte[][] dstKinds;
+        final long[][] srcHi;
+        final long[][] srcLo;
+        final long[][] dstHi;
+        final long[][] dstLo;
+        final int[][] ports;
+        final byte[][] tcpFlags;
+        final byte[][] interfaces;
+        final long[][] infoAddress;
+        final char[][] infoLength;
+        final long[][] payloadAddress;
+        final int[][] payloadLength;
+
+        Columns(int capacity) {
+            numbers = new int[capacity][];
+            timestamps = new long[capacity][];
+            lengths = new int[capacity][];
+            protocols = new short[capacity][];
+            srcKinds = new byte[capacity][];
+            dstKinds = new byte[capacity][];
+            srcHi = new long[capacity][];
+            srcLo = new long[capacity][];
+            dstHi = new long[capacity][];
+            dstLo = new long[capacity][];
+            ports = new int[capacity][];
+            tcpFlags = new byte[capacity][];
+            interfaces = new byte[capacity][];
+            infoAddress = new long[capacity][];
+            infoLength = new char[capacity][];
+            payloadAddress = new long[capacity][];
+            payloadLength = new int[capacity][];
+        }
+
+        Columns(Columns old, int capacity) {
+            numbers = Arrays.copyOf(old.numbers, capacity);
+            timestamps = Arrays.copyOf(old.timestamps, capacity);
+            lengths = Arrays.copyOf(old.lengths, capacity);
+            protocols = Arrays.copyOf(old.protocols, capacity);
+            srcKinds = Arrays.copyOf(old.srcKinds, capacity);
+            dstKinds = Arrays.copyOf(old.dstKinds, capacity);
+            srcHi = Arrays.copyOf(old.srcHi, capacity);
+            srcLo = Arrays.copyOf(old.srcLo, capacity);
+            dstHi = Arrays.copyOf(old.dstHi, capacity);
+            dstLo = Arrays.copyOf(old.dstLo, capacity);
+            ports = Arrays.copyOf(old.ports, capacity);
+            tcpFlags = Arrays.copyOf(old.tcpFlags, capacity);
+            interfaces = Arrays.copyOf(old.interfaces, capacity);
+            infoAddress = Arrays.copyOf(old.infoAddress, capacity);
+            infoLength = Arrays.copyOf(old.infoLength, capacity);
+            payloadAddress = Arrays.copyOf(old.payloadAddress, capacity);
+            payloadLength = Arrays.copyOf(old.payloadLength, capacity);
+        }
+
+        void allocate(int chunk) {
+            numbers[chunk] = new int[CHUNK_ROWS];
+            timestamps[chunk] = new long[CHUNK_ROWS];
+            lengths[chunk] = new int[CHUNK_ROWS];
+            protocols[chunk] = new short[CHUNK_ROWS];
+            srcKinds[chunk] = new byte[CHUNK_ROWS];
+            dstKinds[chunk] = new byte[CHUNK_ROWS];
+            srcLo[chunk] = new long[CHUNK_ROWS];
+            dstLo[chunk] = new long[CHUNK_ROWS];
+            ports[chunk] = new int[CHUNK_ROWS];
+            tcpFlags[chunk] = new byte[CHUNK_ROWS];
+            interfaces[chunk] = new byte[CHUNK_ROWS];
+            payloadAddress[chunk] = new long[CHUNK_ROWS];
+            payloadLength[chunk] = new int[CHUNK_ROWS];
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the id rows captured on {@code name} are tagged with, registering the name if needed.
+     */
+    public synchronized int addInterface(String name) {
+        String[] names = interfaceNames;
+        for (int id = 0; id < names.length; id++) {
+            if (names[id].equals(name)) return id;
+        }
+        if (names.length == 256) throw new IllegalStateException("Too many capture interfaces");
+
+        String[] updated = Arrays.copyOf(names, names.length + 1);
+        updated[names.length] = name;
+        int[] linkTypes = Arrays.copyOf(interfaceLinkTypes, names.length + 1);
+        linkTypes[names.length] = LINKTYPE_ETHERNET;
+        interfaceLinkTypes = linkTypes;
+        interfaceNames = updated;
+        return names.length;
+    }
+
+    public int getInterfaceCount() {
+        return interfaceNames.length;
+    }
+
+    /**
+     * The name an interface id was registered with, empty for unknown ids.
+     */
+    public String getInterfaceNameOf(int interfaceId) {
+        String[] names = interfaceNames;
+        return interfaceId < names.length ? names[interfaceId] : "";
+    }
+
+    /**
+     * Records the link-layer header type (a pcap LINKTYPE value) of the frames of an interface.
+     */
+    public synchronized void setInterfaceLinkType(int interfaceId, int linkType) {
+        int[] linkTypes = interfaceLinkTypes.clone();
+        linkTypes[interfaceId] = linkType;
+        interfaceLinkTypes = linkTypes;
+    }
+
+    /**
+     * Ethernet unless recorded otherwise; stores without interfaces only ever held Ethernet frames.
+     */
+    public int getInterfaceLinkType(int interfaceId) {
+        int[] linkTypes = interfaceLinkTypes;
+        return interfaceId < linkTypes.length ? linkTypes[interfaceId] : LINKTYPE_ETHERNET;
+    }
+
+    public void setInfoRenderer(InfoRenderer infoRenderer) {
+        this.infoRenderer = infoRenderer;
+    }
+
+    // ---- writer side ----
+
+    public int newRow(int number, long timestampNanos, int length, int protocol) {
+        int row = size;
+        int chunk = row >>> CHUNK_BITS;
+        int i = row & CHUNK_MASK;
+
+        Columns c = columns;
+        if (chunk == c.numbers.length) {
+            c = new Columns(c, chunk * 2);
+            columns = c;
+        }
+        if (c.numbers[chunk] == null) {
+            c.allocate(chunk);
+        }
+
+        if (baseTimestampNanos == Long.MIN_VALUE) {
+            baseTimestampNanos = timestampNanos;
+        }
+
+        c.numbers[chunk][i] = number;
+        c.timestamps[chunk][i] = timestampNanos;
+        c.lengths[chunk][i] = length;
+        c.protocols[chunk][i] = (short) protocol;
+        c.srcKinds[chunk][i] = Addresses.NONE;
+        c.dstKinds[chunk][i] = Addresses.NONE;
+        c.srcLo[chunk][i] = 0;
+        c.dstLo[chunk][i] = 0;
+        if (c.srcHi[chunk] != null) c.srcHi[chunk][i] = 0;
+        if (c.dstHi[chunk] != null) c.dstHi[chunk][i] = 0;
+        c.ports[chunk][i] = 0;
+        c.tcpFlags[chunk][i] = 0;
+        c.interfaces[chunk][i] = 0;
+        if (c.infoLength[chunk] != null) c.infoLength[chunk][i] = 0;
+        c.payloadLength[chunk][i] = 0;
+
+        pending = row;
+        return row;
+    }
+
+    public void setSource(int row, byte kind, long hi, long lo) {
+        Columns c = columns;
+        int chunk = row >>> CHUNK_BITS;
+        int i = row & CHUNK_MASK;
+        c.srcKinds[chunk][i] = kind;
+        c.srcLo[chunk][i] = lo;
+        if (hi != 0 && c.srcHi[chunk] == null) c.srcHi[chunk] = new long[CHUNK_ROWS];
+        if (c.srcHi[chunk] != null) c.srcHi[chunk][i] = hi;
+    }
+
+    public void setDestination(int row, byte kind, long hi, long lo) {
+        Columns c = columns;
+        int chunk = row >>> CHUNK_BITS;
+        int i = row & CHUNK_MASK;
+        c.dstKinds[chunk][i] = kind;
+        c.dstLo[chunk][i] = lo;
+        if (hi != 0 && c.dstHi[chunk] == null) c.dstHi[chunk] = new long[CHUNK_ROWS];
+        if (c.dstHi[chunk] != null) c.dstHi[chunk][i] = hi;
+    }
+
+    public void setPorts(int row, int sourcePort, int destinationPort) {
+        columns.ports[row >>> CHUNK_BITS][row & CHUNK_MASK] = (sourcePort << 16) | (destinationPort & 0xFFFF);
+    }
+
+    public void setTcpFlags(int row, int flags) {
+        columns.tcpFlags[row >>> CHUNK_BITS][row & CHUNK_MASK] = (byte) flags;
+    }
+
+    public void setInterface(int row, int interfaceId) {
+        columns.interfaces[row >>> CHUNK_BITS][row & CHUNK_MASK] = (byte) interfaceId;
+    }
+
+    public void setInfo(int row, CharSequence info) {
+        int length = encodeUtf8(info);
+        if (length == 0) return;
+
+        Columns c = columns;
+        int chunk = row >>> CHUNK_BITS;
+        int i = row & CHUNK_MASK;
+        if (c.infoLength[chunk] == null) {
+            c.infoAddress[chunk] = new long[CHUNK_ROWS];
+            c.infoLength[chunk] = new char[CHUNK_ROWS];
+        }
+        c.infoAddress[chunk][i] = texts.append(scratch, 0, length);
+        c.infoLength[chunk][i] = (char) length;
+    }
+
+    public void setPayload(int row, byte[] data, int offset, int length) {
+        if (data == null || length == 0) return;
+
+        Columns c = columns;
+        int chunk = row >>> CHUNK_BITS;
+        int i = row & CHUNK_MASK;
+        long address = payloads.append(data, offset, length);
+        if (address < 0) return;
+
+        c.payloadAddress[chunk][i] = address;
+        c.payloadLength[chunk][i] = length;
+    }
+
+    public void commitRow() {
+        if (pending < 0) return;
+        size = pending + 1;
+        pending = -1;
+    }
+
+    // relative timestamps from saved sessions are stored as-is
+    public void setBaseTimestampNanos(long baseTimestampNanos) {
+        this.baseTimestampNanos = baseTimestampNanos;
+    }
+
+    // ---- reader side ----
+
+    /**
+     * Whether {@code row} can be read without waiting for storage; rows held in memory always can.
+     */
+    public boolean isLoaded(int row) {
+        return true;
+    }
+
+    /**
+     * Starts reading {@code row} in the background if it is not loaded yet.
+     */
+    public void prefetch(int row) {
+    }
+
+    /**
+     * Runs {@code listener} on the reading thread whenever prefetched rows have arrived.
+     */
+    public void setOnRowsLoaded(Runnable listener) {
+    }
+
+    /**
+     * Returns the first row with packet number {@code number}, or -1 when there is none.
+     * Rows are in number order.
+     */
+    public int findRow(int number) {
+        int row = lowerBound(0, size(), number);
+        return row < size() && getNumber(row) == number ? row : -1;
+    }
+
+    protected int lowerBound(int from, int to, int number) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (getNumber(mid) < number) from = mid + 1;
+            else to = mid;
+        }
+        return from;
+    }
+
+    public int getNumber(int row) {
+        return columns.numbers[row >>> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    public long getTimestampNanos(int row) {
+        return columns.timestamps[row >>> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    public long getRelativeTimestampNanos(int row) {
+        return getTimestampNanos(row) - baseTimestampNanos;
+    }
+
+    public int getLength(int row) {
+        return columns.lengths[row >>> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    public int getProtocol(int row) {
+        return columns.protocols[row >>> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    public byte getSourceKind(int row) {
+        return columns.srcKinds[row >>> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    public long getSourceHi(int row) {
+        long[] hi = columns.srcHi[row >>> CHUNK_BITS];
+        return hi == null ? 0 : hi[row & CHUNK_MASK];
+    }
+
+    public long getSourceLo(int row) {
+        return columns.srcLo[row >>> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    public byte getDestinationKind(int row) {
+        return columns.dstKinds[row >>> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    public long getDestinationHi(int row) {
+        long[] hi = columns.dstHi[row >>> CHUNK_BITS];
+        return hi == null ? 0 : hi[row & CHUNK_MASK];
+    }
+
+    public long getDestinationLo(int row) {
+        return columns.dstLo[row >>> CHUNK_BITS][row & CHUNK_MASK];
+    }
+
+    public int getSourcePort(int row) {
+        return columns.ports[row >>> CHUNK_BITS][row & CHUNK_MASK] >>> 16;
+    }
+
+    public int getDestinationPort(int row) {
+        return columns.ports[row >>> CHUNK_BITS][row & CHUNK_MASK] & 0xFFFF;
+    }
+
+    public int getTcpFlags(int row) {
+        return columns.tcpFlags[row >>> CHUNK_BITS][row & CHUNK_MASK] & 0xFF;
+    }
+
+    public int getInterface(int row) {
+        return columns.interfaces[row >>> CHUNK_BITS][row & CHUNK_MASK] & 0xFF;
+    }
+
+    /**
+     * Empty for rows of a store no interface was registered with.
+     */
+    public String getInterfaceName(int row) {
+        String[] names = interfaceNames;
+        int id = getInterface(row);
+        return id < names.length ? names[id] : "";
+    }
+
+    public String getSource(int row) {
+        StringBuilder sb = new StringBuilder(40);
+        Addresses.append(getSourceKind(row), getSourceHi(row), getSourceLo(row), sb);
+        return sb.toString();
+    }
+
+    public String getDestination(int row) {
+        StringBuilder sb = new StringBuilder(40);
+        Addresses.append(getDestinationKind(row), getDestinationHi(row), getDestinationLo(row), sb);
+        return sb.toString();
+    }
+
+    /**
+     * The info text for display. Rendered text is kept for the most recently shown rows; code that
+     * walks many rows should use {@link #appendInfo} so it does not push those out.
+     */
+    public String getInfo(int row) {
+        String stored = getStoredInfo(row);
+        InfoRenderer renderer = infoRenderer;
+        if (stored != null || renderer == null) return stored != null ? stored : "";
+
+        synchronized (renderedInfo) {
+            String info = renderedInfo.get(row);
+            if (info != null) return info;
+        }
+        StringBuilder sb = new StringBuilder(96);
+        renderer.appendInfo(this, row, sb);
+        String info = sb.toString();
+        synchronized (renderedInfo) {
+            renderedInfo.put(row, info);
+        }
+        return info;
+    }
+
+    /**
+     * Appends the info text without caching it.
+     */
+    public void appendInfo(int row, StringBuilder sb) {
+        String stored = getStoredInfo(row);
+        InfoRenderer renderer = infoRenderer;
+        if (stored != null) sb.append(stored);
+        else if (renderer != null) renderer.appendInfo(this, row, sb);
+    }
+
+    private String getStoredInfo(int row) {
+        Columns c = columns;
+        int chunk = row >>> CHUNK_BITS;
+        char[] lengths = c.infoLength[chunk];
+        int length = lengths == null ? 0 : lengths[row & CHUNK_MASK];
+        return length == 0 ? null : texts.readUtf8(c.infoAddress[chunk][row & CHUNK_MASK], length);
+    }
+
+    /**
+     * Read-only view of the stored frame; no bytes are copied.
+     */
+    public ByteBuffer getPayload(int row) {
+        Columns c = columns;
+        int chunk = row >>> CHUNK_BITS;
+        int i = row & CHUNK_MASK;
+        int length = c.payloadLength[chunk][i];
+        return length == 0 ? EMPTY_PAYLOAD : payloads.slice(c.payloadAddress[chunk][i], length);
+    }
+
+    public byte[] copyPayload(int row) {
+        ByteBuffer view = getPayload(row);
+        byte[] copy = new byte[view.remaining()];
+        view.get(0, copy);
+        return copy;
+    }
+
+    public long getStoredPayloadBytes() {
+        return payloads.getUsedBytes();
+    }
+
+    public long getSpilledPayloadBytes() {
+        return payloads.getSpilledBytes();
+    }
+
+    @Override
+    public void close() {
+        payloads.close();
+    }
+
+    /**
+     * Encodes {@code text} into {@code scratch}, up to the {@link Character#MAX_VALUE} bytes an info
+     * length holds; a longer text ends at the last character that fits whole.
+     */
+    private int encodeUtf8(CharSequence text) {
+        int max = Math.min(text.length() * 3, Character.MAX_VALUE);
+        if (scratch.length < max) {
+            scratch = new byte[Math.max(max, scratch.length * 2)];
+        }
+
+        int n = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            int bytes = ch < 0x80 || Character.isSurrogate(ch) ? 1 : ch < 0x800 ? 2 : 3;
+            if (n + bytes > max) break;
+
+            if (bytes == 1) {
+                scratch[n++] = ch < 0x80 ? (byte) ch : (byte) '?';
+            }
+            else if (bytes == 2) {
+                scratch[n++] = (byte) (0xC0 | (ch >> 6));
+                scratch[n++] = (byte) (0x80 | (ch & 0x3F));
+            }
+            else {
+                scratch[n++] = (byte) (0xE0 | (ch >> 12));
+                scratch[n++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+                scratch[n++] = (byte) (0x80 | (ch & 0x3F));
+            }
+        }
+        return n;
+    }
+}
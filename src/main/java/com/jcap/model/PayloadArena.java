@@ -0,0 +1,147 @@
+package com.jcap.model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Append-only payload storage outside the Java heap. Frames are packed into direct buffer
+ * segments until the memory budget is used up; after that new segments are memory-mapped
+ * from a spill file, so long captures are bounded by disk space rather than heap.
+ *
+ * <p>Same threading contract as {@link ByteArena}: one writer, readers only look at
+ * addresses published to them. Readers get read-only slices, never copies.
+ */
+public class PayloadArena implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PayloadArena.class);
+
+    public static final long DEFAULT_MEMORY_BUDGET =
+            Long.getLong("jcap.payload.memoryBudgetMb", 256) * 1024 * 1024;
+    public static final Path DEFAULT_SPILL_DIRECTORY =
+            Path.of(System.getProperty("jcap.payload.spillDir", System.getProperty("java.io.tmpdir")));
+
+    private static final int SEGMENT_SIZE = 64 << 20;
+
+    private final long memoryBudget;
+    private final Path spillDirectory;
+
+    private volatile ByteBuffer[] segments = new ByteBuffer[16];
+    private int segmentCount;
+    private int position = SEGMENT_SIZE;
+    private long usedBytes;
+    private long directBytes;
+
+    private Path spillFile;
+    private FileChannel spillChannel;
+    private long spilledBytes;
+    private volatile boolean closed;
+
+    public PayloadArena() {
+        this(DEFAULT_MEMORY_BUDGET, DEFAULT_SPILL_DIRECTORY);
+    }
+
+    public PayloadArena(long memoryBudget, Path spillDirectory) {
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Returns the address of the stored copy, or -1 if the frame could not be stored.
+     */
+    public long append(byte[] data, int offset, int length) {
+        if (length > SEGMENT_SIZE) throw new IllegalArgumentException("Frame larger than a segment: " + length);
+        if (closed) return -1;
+
+        ByteBuffer segment = reserve(length);
+        if (segment == null) return -1;
+
+        long address = ((long) (segmentCount - 1) << 32) | position;
+        segment.put(position, data, offset, length);
+        position += length;
+        usedBytes += length;
+        return address;
+    }
+
+    public ByteBuffer slice(long address, int length) {
+        ByteBuffer segment = segments[(int) (address >>> 32)];
+        return segment.slice((int) address, length).asReadOnlyBuffer();
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+
+        if (spillChannel != null) {
+            try {
+                spillChannel.close();
+                Files.deleteIfExists(spillFile);
+            } catch (IOException e) {
+                // mapped regions can keep the file locked on some platforms; it is marked delete-on-exit
+                logger.debug("Could not remove spill file {}: {}", spillFile, e.getMessage());
+            }
+        }
+    }
+
+    private ByteBuffer reserve(int length) {
+        if (segmentCount > 0 && SEGMENT_SIZE - position >= length) {
+            return segments[segmentCount - 1];
+        }
+
+        ByteBuffer segment;
+        if (directBytes + SEGMENT_SIZE <= memoryBudget) {
+            segment = ByteBuffer.allocateDirect(SEGMENT_SIZE);
+            directBytes += SEGMENT_SIZE;
+        }
+        else {
+            segment = mapSpillSegment();
+            if (segment == null) return null;
+        }
+
+        ByteBuffer[] current = segments;
+        if (segmentCount == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[segmentCount++] = segment;
+        segments = current;
+        position = 0;
+        return segment;
+    }
+
+    private ByteBuffer mapSpillSegment() {
+        try {
+            if (spillChannel == null) {
+                spillFile = Files.createTempFile(spillDirectory, "jcap-payload-", ".spill");
+                spillFile.toFile().deleteOnExit();
+                spillChannel = FileChannel.open(spillFile,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                logger.info("Payload memory budget of {} MB reached, spilling to {}", memoryBudget >> 20, spillFile);
+            }
+
+            ByteBuffer segment = spillChannel.map(FileChannel.MapMode.READ_WRITE, spilledBytes, SEGMENT_SIZE);
+            spilledBytes += SEGMENT_SIZE;
+            return segment;
+        } catch (IOException e) {
+            logger.error("Failed to extend payload spill file, further payloads are discarded.", e);
+            closed = true;
+            return null;
+        }
+    }
+}
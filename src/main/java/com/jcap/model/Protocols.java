@@ -0,0 +1,55 @@
+package com.jcap.model;
+
+import org.pcap4j.packet.namednumber.IpNumber;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compact protocol ids used by the packet store. Values 0-255 are IP protocol numbers,
+ * link-level protocols are numbered above that.
+ */
+public final class Protocols {
+
+    public static final int UNKNOWN = -1;
+    public static final int ICMPV4 = 1;
+    public static final int IGMP = 2;
+    public static final int TCP = 6;
+    public static final int UDP = 17;
+    public static final int ICMPV6 = 58;
+    public static final int ARP = 256;
+    public static final int ETHERNET = 257;
+
+    private static final String[] IP_PROTOCOL_NAMES = new String[256];
+    private static final Map<String, Integer> IDS_BY_NAME = new HashMap<>();
+
+    static {
+        for (int i = 255; i >= 0; i--) {
+            IP_PROTOCOL_NAMES[i] = IpNumber.getInstance((byte) i).name();
+            if (!IP_PROTOCOL_NAMES[i].equals("unknown")) {
+                IDS_BY_NAME.put(IP_PROTOCOL_NAMES[i].toUpperCase(Locale.ROOT), i);
+            }
+        }
+        IDS_BY_NAME.put("ARP", ARP);
+        IDS_BY_NAME.put("ETHERNET", ETHERNET);
+    }
+
+    private Protocols() {
+    }
+
+    public static String name(int protocol) {
+        if (protocol >= 0 && protocol < 256) return IP_PROTOCOL_NAMES[protocol];
+
+        return switch (protocol) {
+            case ARP -> "ARP";
+            case ETHERNET -> "ETHERNET";
+            default -> "Unknown";
+        };
+    }
+
+    public static int idOf(String name) {
+        if (name == null) return UNKNOWN;
+        return IDS_BY_NAME.getOrDefault(name.toUpperCase(Locale.ROOT), UNKNOWN);
+    }
+}
@@ -0,0 +1,73 @@
+package com.jcap.service;
+
+import java.util.List;
+
+/**
+ * Decodes one application protocol from the transport payload of a frame. Implementations are
+ * found with {@link java.util.ServiceLoader}; they are tried for the ports they list and, for
+ * payloads no port claims, through {@link #looksLike}. A dissector records what it finds in an
+ * {@link ApplicationFields} as offsets into the frame, and must not allocate per packet: it runs
+ * on every captured frame. Instances are shared by all dissector threads and must be stateless.
+ */
+public interface ApplicationDissector {
+
+    /**
+     * How a field's value is stored and shown.
+     */
+    enum Type {
+        /** A number. */
+        NUMBER,
+        /** Bytes of ASCII text. */
+        TEXT,
+        /** A DNS name in wire format; compression pointers count from the field's number. */
+        LABELS
+    }
+
+    /**
+     * A field as named in display filters, such as {@code dns.qry.name}, and labelled in the detail view.
+     */
+    record Field(String name, String label, Type type) {
+    }
+
+    /**
+     * Short name, lower case: the display filter keyword, such as {@code dns}.
+     */
+    String name();
+
+    /**
+     * Name of the protocol in the detail view.
+     */
+    String title();
+
+    /**
+     * Fields in the order they are shown, at most {@value ApplicationFields#MAX_FIELDS}; a field is
+     * identified by its index in this list.
+     */
+    List<Field> fields();
+
+    default int[] tcpPorts() {
+        return new int[0];
+    }
+
+    default int[] udpPorts() {
+        return new int[0];
+    }
+
+    /**
+     * Cheap check whether a payload on a port nobody registered is this protocol.
+     */
+    default boolean looksLike(PacketHeaders headers, byte[] data, int offset, int length) {
+        return false;
+    }
+
+    /**
+     * Decodes {@code length} payload bytes at {@code offset} into {@code out}. Returns false when the
+     * payload is not this protocol after all.
+     */
+    boolean dissect(PacketHeaders headers, byte[] data, int offset, int length, ApplicationFields out);
+
+    /**
+     * Appends the summary of dissected fields for the info column.
+     */
+    void appendInfo(ApplicationFields fields, StringBuilder sb);
+}
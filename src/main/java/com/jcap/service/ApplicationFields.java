@@ -0,0 +1,144 @@
+package com.jcap.service;
+
+import com.jcap.service.ApplicationDissector.Field;
+
+import java.util.List;
+
+/**
+ * What an {@link ApplicationDissector} found in one frame. Text fields are kept as offset and
+ * length into the frame bytes and only turned into characters when shown or filtered on. Reused
+ * from frame to frame, so values are only valid until the next dissection.
+ */
+public final class ApplicationFields {
+
+    public static final int MAX_FIELDS = 32;
+
+    private ApplicationDissector dissector;
+    private int dissectorIndex = -1;
+    private byte[] data;
+    private int present;
+    private final int[] offsets = new int[MAX_FIELDS];
+    private final int[] lengths = new int[MAX_FIELDS];
+    private final long[] numbers = new long[MAX_FIELDS];
+    private final StringBuilder text = new StringBuilder(64);
+
+    void reset(byte[] data) {
+        this.dissector = null;
+        this.dissectorIndex = -1;
+        this.data = data;
+        this.present = 0;
+    }
+
+    void setDissector(ApplicationDissector dissector, int index) {
+        this.dissector = dissector;
+        this.dissectorIndex = index;
+    }
+
+    /**
+     * The dissector that decoded the frame, or null when none did.
+     */
+    public ApplicationDissector dissector() {
+        return dissector;
+    }
+
+    /**
+     * Index of {@link #dissector()} in {@link ApplicationLayer#getDissectors()}, or -1.
+     */
+    public int dissectorIndex() {
+        return dissectorIndex;
+    }
+
+    public byte[] data() {
+        return data;
+    }
+
+    public void setNumber(int field, long value) {
+        numbers[field] = value;
+        present |= 1 << field;
+    }
+
+    /**
+     * Sets a text or labels field to {@code length} bytes of the frame at {@code offset}.
+     */
+    public void setSpan(int field, int offset, int length) {
+        offsets[field] = offset;
+        lengths[field] = length;
+        present |= 1 << field;
+    }
+
+    /**
+     * Sets a labels field, whose compression pointers count from {@code messageOffset}.
+     */
+    public void setLabels(int field, int offset, int length, int messageOffset) {
+        setSpan(field, offset, length);
+        numbers[field] = messageOffset;
+    }
+
+    public boolean has(int field) {
+        return (present & 1 << field) != 0;
+    }
+
+    public long getNumber(int field) {
+        return numbers[field];
+    }
+
+    public int getOffset(int field) {
+        return offsets[field];
+    }
+
+    public int getLength(int field) {
+        return lengths[field];
+    }
+
+    /**
+     * The value as text in a buffer that the next call reuses.
+     */
+    public CharSequence getText(int field) {
+        text.setLength(0);
+        appendValue(field, text);
+        return text;
+    }
+
+    public void appendValue(int field, StringBuilder sb) {
+        List<Field> fields = dissector.fields();
+        switch (fields.get(field).type()) {
+            case NUMBER -> sb.append(numbers[field]);
+            case TEXT -> appendAscii(data, offsets[field], lengths[field], sb);
+            case LABELS -> appendLabels(data, (int) numbers[field], offsets[field], offsets[field] + lengths[field], sb);
+        }
+    }
+
+    public static void appendAscii(byte[] data, int offset, int length, StringBuilder sb) {
+        for (int i = offset; i < offset + length; i++) {
+            int b = data[i] & 0xFF;
+            sb.append(b >= 0x20 && b < 0x7F ? (char) b : '.');
+        }
+    }
+
+    /**
+     * Appends a DNS name whose wire form ends before {@code limit}, following compression pointers
+     * that count from {@code message}; prints {@code <Root>} for the empty name.
+     */
+    public static void appendLabels(byte[] data, int message, int offset, int limit, StringBuilder sb) {
+        int start = sb.length();
+        int end = Math.min(limit, data.length);
+        while (offset < end) {
+            int length = data[offset] & 0xFF;
+            if (length == 0) break;
+            if ((length & 0xC0) == 0xC0) {
+                if (offset + 1 >= end) break;
+                int target = message + ((length & 0x3F) << 8 | data[offset + 1] & 0xFF);
+                // pointers only lead backwards, which also rules out loops
+                if (target < message || target >= offset) break;
+                end = offset;
+                offset = target;
+                continue;
+            }
+            if ((length & 0xC0) != 0 || offset + 1 + length > end) break;
+            if (sb.length() > start) sb.append('.');
+            appendAscii(data, offset + 1, length, sb);
+            offset += 1 + length;
+        }
+        if (sb.length() == start) sb.append("<Root>");
+    }
+}
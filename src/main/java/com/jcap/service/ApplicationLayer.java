@@ -0,0 +1,173 @@
+package com.jcap.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * The {@link ApplicationDissector}s on the module path and class path, with one dispatch table per
+ * transport indexed by port. A payload goes to the dissector of its lower port first, then of the
+ * other port, then to every dissector whose heuristic claims it. When two dissectors register the
+ * same port the first one loaded keeps it.
+ */
+public final class ApplicationLayer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ApplicationLayer.class);
+
+    /**
+     * A display filter field: the dissector that sets it and its index there.
+     */
+    record FieldRef(ApplicationDissector dissector, int index, ApplicationDissector.Field field) {
+    }
+
+    private final List<ApplicationDissector> dissectors;
+    // by index into dissectors, so that statistics can count by index without looking it up
+    private final ApplicationDissector[] byIndex;
+    // per port the index of its dissector plus one, 0 for none
+    private final short[] tcpPorts = new short[65536];
+    private final short[] udpPorts = new short[65536];
+    private final Map<String, ApplicationDissector> byName = new HashMap<>();
+    private final Map<String, FieldRef> fields = new HashMap<>();
+
+    private static final class Holder {
+        static final ApplicationLayer INSTANCE = new ApplicationLayer(load());
+    }
+
+    public static ApplicationLayer get() {
+        return Holder.INSTANCE;
+    }
+
+    ApplicationLayer(List<ApplicationDissector> dissectors) {
+        this.dissectors = List.copyOf(dissectors);
+        this.byIndex = this.dissectors.toArray(new ApplicationDissector[0]);
+        if (byIndex.length > Short.MAX_VALUE - 1) throw new IllegalArgumentException("Too many application dissectors");
+
+        for (int index = 0; index < byIndex.length; index++) {
+            ApplicationDissector d = byIndex[index];
+            if (d.fields().size() > ApplicationFields.MAX_FIELDS) {
+                throw new IllegalArgumentException(d.name() + " has more than " + ApplicationFields.MAX_FIELDS + " fields");
+            }
+            register(tcpPorts, d.tcpPorts(), index);
+            register(udpPorts, d.udpPorts(), index);
+            byName.putIfAbsent(d.name(), d);
+            for (int i = 0; i < d.fields().size(); i++) {
+                ApplicationDissector.Field field = d.fields().get(i);
+                fields.putIfAbsent(field.name(), new FieldRef(d, i, field));
+            }
+        }
+    }
+
+    private void register(short[] table, int[] ports, int index) {
+        for (int port : ports) {
+            if (table[port] == 0) table[port] = (short) (index + 1);
+            else logger.debug("Port {} stays with {}, not {}.", port, byIndex[table[port] - 1].name(), byIndex[index].name());
+        }
+    }
+
+    private static List<ApplicationDissector> load() {
+        List<ApplicationDissector> found = new ArrayList<>();
+        Iterator<ApplicationDissector> it = ServiceLoader.load(ApplicationDissector.class).iterator();
+        while (true) {
+            try {
+                if (!it.hasNext()) break;
+                found.add(it.next());
+            } catch (ServiceConfigurationError e) {
+                logger.warn("Skipping application dissector: {}", e.getMessage());
+            }
+        }
+        logger.info("Application dissectors: {}.", found.stream().map(ApplicationDissector::name).toList());
+        return found;
+    }
+
+    public List<ApplicationDissector> getDissectors() {
+        return dissectors;
+    }
+
+    /**
+     * The dissector with the given filter keyword, or null.
+     */
+    ApplicationDissector dissector(String name) {
+        return byName.get(name);
+    }
+
+    /**
+     * The filter field of the given name, or null.
+     */
+    FieldRef field(String name) {
+        return fields.get(name);
+    }
+
+    /**
+     * Decodes the application payload of a frame whose transport headers are decoded. Returns
+     * whether some dissector took it; {@code out} is reset either way.
+     */
+    public boolean dissect(PacketHeaders headers, byte[] data, ApplicationFields out) {
+        out.reset(data);
+        short[] table = table(headers);
+        if (table == null) return false;
+
+        int first = table[Math.min(headers.srcPort, headers.dstPort)] - 1;
+        int second = table[Math.max(headers.srcPort, headers.dstPort)] - 1;
+        if (first >= 0 && run(first, headers, data, out)) return true;
+        if (second >= 0 && second != first && run(second, headers, data, out)) return true;
+
+        for (int index = 0; index < byIndex.length; index++) {
+            if (index != first && index != second
+                    && byIndex[index].looksLike(headers, data, headers.payloadOffset, headers.payloadLength)
+                    && run(index, headers, data, out)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Index in {@link #getDissectors()} of the dissector {@link #dissect} would try first, judged
+     * by the ports and the heuristic checks without decoding the payload; -1 when none would take
+     * it. Wrong only for a payload that dissector then rejects.
+     */
+    public int classify(PacketHeaders headers, byte[] data) {
+        short[] table = table(headers);
+        if (table == null) return -1;
+
+        int first = table[Math.min(headers.srcPort, headers.dstPort)] - 1;
+        if (first >= 0) return first;
+        int second = table[Math.max(headers.srcPort, headers.dstPort)] - 1;
+        if (second >= 0) return second;
+
+        for (int index = 0; index < byIndex.length; index++) {
+            if (byIndex[index].looksLike(headers, data, headers.payloadOffset, headers.payloadLength)) return index;
+        }
+        return -1;
+    }
+
+    private short[] table(PacketHeaders headers) {
+        if (!headers.hasTransport || headers.payloadLength <= 0) return null;
+        if (headers.isTcp()) return tcpPorts;
+        if (headers.isUdp()) return udpPorts;
+        return null;
+    }
+
+    private boolean run(int index, PacketHeaders headers, byte[] data, ApplicationFields out) {
+        ApplicationDissector dissector = byIndex[index];
+        out.reset(data);
+        try {
+            if (dissector.dissect(headers, data, headers.payloadOffset, headers.payloadLength, out)) {
+                out.setDissector(dissector, index);
+                return true;
+            }
+        } catch (RuntimeException e) {
+            // a broken dissector costs its own protocol, not the capture
+            logger.trace("{} failed on a frame: {}", dissector.name(), e.toString());
+        }
+        out.reset(data);
+        return false;
+    }
+}
@@ -0,0 +1,214 @@
+package com.jcap.service;
+
+import com.jcap.model.Addresses;
+import com.jcap.service.FilterExpression.Operator;
+
+import java.util.Locale;
+
+/**
+ * Translates the subset of display filter expressions that libpcap understands into BPF syntax.
+ * A translation should not reject a packet the display filter would accept (libpcap does not
+ * walk every IPv6 extension header or a second VLAN tag, which are the known exceptions); when
+ * it is only an approximation the display filter still has to run on what the kernel lets
+ * through. Parts that cannot be expressed are left out of an {@code &&} and make an {@code ||}
+ * or {@code !} untranslatable.
+ */
+final class BpfTranslator {
+
+    /**
+     * @param exact   whether the expression accepts exactly what the display filter does, VLAN tags aside
+     * @param negated whether it tests for something being absent, which a tagged frame also passes
+     */
+    record Translation(String bpf, boolean exact, boolean negated) {
+
+        /**
+         * The expression for a capture of {@code linkType}. libpcap matches the protocols of an
+         * Ethernet frame in front of its VLAN tag, and the {@code vlan} keyword moves every later
+         * offset past one, so tagged frames are matched by a second copy behind it.
+         */
+        String bpf(int linkType) {
+            return linkType == HeaderDecoder.DLT_EN10MB ? "(" + bpf + ") or (vlan and (" + bpf + "))" : bpf;
+        }
+
+        /**
+         * Whether the kernel does all the work on a capture of {@code linkType}. The untagged copy
+         * of a negated expression also passes tagged frames the display filter would reject.
+         */
+        boolean exact(int linkType) {
+            return exact && !(negated && linkType == HeaderDecoder.DLT_EN10MB);
+        }
+    }
+
+    private static final int MAX_PORT = 65535;
+
+    private BpfTranslator() {
+    }
+
+    /**
+     * Returns null when nothing of the expression can be pushed down.
+     */
+    static Translation translate(FilterExpression expression) {
+        return switch (expression) {
+            case FilterExpression.And and -> {
+                Translation left = translate(and.left());
+                Translation right = translate(and.right());
+                if (left == null) yield right == null ? null : new Translation(right.bpf(), false, right.negated());
+                if (right == null) yield new Translation(left.bpf(), false, left.negated());
+                yield new Translation("(" + left.bpf() + ") and (" + right.bpf() + ")", left.exact() && right.exact(),
+                        left.negated() || right.negated());
+            }
+            case FilterExpression.Or or -> {
+                Translation left = translate(or.left());
+                Translation right = translate(or.right());
+                if (left == null || right == null) yield null;
+                yield new Translation("(" + left.bpf() + ") or (" + right.bpf() + ")", left.exact() && right.exact(),
+                        left.negated() || right.negated());
+            }
+            case FilterExpression.Not not -> {
+                Translation operand = translate(not.operand());
+                yield operand != null && operand.exact() ? new Translation("not (" + operand.bpf() + ")", true, true) : null;
+            }
+            case FilterExpression.Exists exists -> translateExists(exists.field());
+            case FilterExpression.Compare compare -> translateCompare(compare);
+        };
+    }
+
+    private static Translation translateExists(String field) {
+        String flag = tcpFlag(field);
+        if (flag != null) {
+            // tcp[] offsets only work over IPv4, so IPv6 TCP is let through for the display filter to decide
+            return new Translation("(ip and tcp[tcpflags] & " + flag + " != 0) or (ip6 and tcp)", false, false);
+        }
+
+        return switch (field) {
+            case "tcp" -> new Translation("tcp", true, false);
+            case "udp" -> new Translation("udp", true, false);
+            case "arp" -> new Translation("arp", true, false);
+            case "icmp", "icmpv4" -> new Translation("icmp", true, false);
+            case "icmpv6" -> new Translation("icmp6", true, false);
+            case "igmp" -> new Translation("igmp", true, false);
+            case "ip" -> new Translation("ip", true, false);
+            case "ipv6" -> new Translation("ip6", true, false);
+            default -> null;
+        };
+    }
+
+    private static Translation translateCompare(FilterExpression.Compare compare) {
+        String field = compare.field();
+        Operator operator = compare.operator();
+
+        return switch (field) {
+            case "frame.len", "len" -> {
+                Integer value = number(compare.value());
+                String op = comparison(operator);
+                yield value == null || op == null ? null : new Translation("len " + op + " " + value, true, false);
+            }
+            case "tcp.srcport" -> port("tcp", "src ", operator, compare.value());
+            case "tcp.dstport" -> port("tcp", "dst ", operator, compare.value());
+            case "tcp.port" -> port("tcp", "", operator, compare.value());
+            case "udp.srcport" -> port("udp", "src ", operator, compare.value());
+            case "udp.dstport" -> port("udp", "dst ", operator, compare.value());
+            case "udp.port" -> port("udp", "", operator, compare.value());
+            case "ip.src" -> address("ip", "src ", Addresses.IPV4, operator, compare.value());
+            case "ip.dst" -> address("ip", "dst ", Addresses.IPV4, operator, compare.value());
+            case "ip.addr" -> address("ip", "", Addresses.IPV4, operator, compare.value());
+            case "ipv6.src" -> address("ip6", "src ", Addresses.IPV6, operator, compare.value());
+            case "ipv6.dst" -> address("ip6", "dst ", Addresses.IPV6, operator, compare.value());
+            case "ipv6.addr" -> address("ip6", "", Addresses.IPV6, operator, compare.value());
+            default -> null;
+        };
+    }
+
+    private static Translation port(String protocol, String direction, Operator operator, String text) {
+        Integer port = number(text);
+        if (port == null || port < 0 || port > MAX_PORT) return null;
+
+        String match = switch (operator) {
+            case EQ, NE -> protocol + " " + direction + "port " + port;
+            case GT -> range(protocol, direction, port + 1, MAX_PORT);
+            case GE -> range(protocol, direction, port, MAX_PORT);
+            case LT -> range(protocol, direction, 0, port - 1);
+            case LE -> range(protocol, direction, 0, port);
+            default -> null;
+        };
+        if (match == null) return null;
+
+        return operator == Operator.NE
+                ? new Translation(protocol + " and not " + match, true, true)
+                : new Translation(match, true, false);
+    }
+
+    private static String range(String protocol, String direction, int from, int to) {
+        if (from > to) return protocol + " and not " + protocol;
+        return protocol + " " + direction + "portrange " + from + "-" + to;
+    }
+
+    private static Translation address(String protocol, String direction, byte kind, Operator operator, String text) {
+        if (operator != Operator.EQ && operator != Operator.NE) return null;
+
+        int slash = text.indexOf('/');
+        String host = slash < 0 ? text : text.substring(0, slash);
+        long[] address = new long[2];
+        if (Addresses.parse(host, address) != kind) return null;
+
+        String match;
+        if (slash < 0) {
+            match = protocol + " " + direction + "host " + host;
+        }
+        else {
+            Integer prefix = number(text.substring(slash + 1));
+            int bits = kind == Addresses.IPV4 ? 32 : 128;
+            if (prefix == null || prefix < 0 || prefix > bits) return null;
+
+            // libpcap rejects networks with host bits set, the display filter just masks them
+            StringBuilder network = new StringBuilder();
+            Addresses.append(kind, mask(address[0], prefix, bits - 64), mask(address[1], prefix, bits), network);
+            match = protocol + " " + direction + "net " + network + "/" + prefix;
+        }
+
+        return operator == Operator.EQ
+                ? new Translation(match, true, false)
+                : new Translation(protocol + " and not " + match, true, true);
+    }
+
+    // keeps the bits of a 64-bit half that fall inside the prefix; 'end' is the bit position the half ends at
+    private static long mask(long half, int prefix, int end) {
+        int keep = prefix - (end - 64);
+        if (keep <= 0) return 0;
+        if (keep >= 64) return half;
+        return half & (-1L << (64 - keep));
+    }
+
+    private static String comparison(Operator operator) {
+        return switch (operator) {
+            case EQ -> "==";
+            case NE -> "!=";
+            case GT -> ">";
+            case GE -> ">=";
+            case LT -> "<";
+            case LE -> "<=";
+            default -> null;
+        };
+    }
+
+    private static Integer number(String text) {
+        String value = text.toLowerCase(Locale.ROOT);
+        try {
+            return value.startsWith("0x") ? Integer.parseInt(value.substring(2), 16) : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String tcpFlag(String field) {
+        return switch (field) {
+            case "tcp.flags.fin" -> "tcp-fin";
+            case "tcp.flags.syn" -> "tcp-syn";
+            case "tcp.flags.rst", "tcp.flags.reset" -> "tcp-rst";
+            case "tcp.flags.psh", "tcp.flags.push" -> "tcp-push";
+            case "tcp.flags.ack" -> "tcp-ack";
+            case "tcp.flags.urg" -> "tcp-urg";
+            default -> null;
+        };
+    }
+}
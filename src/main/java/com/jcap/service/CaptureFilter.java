@@ -0,0 +1,69 @@
+package com.jcap.service;
+
+/**
+ * What the capture filter field asks for, split between the kernel and JCap. A display filter
+ * expression is translated to BPF as far as possible and checked again in the dissectors when
+ * the translation is only approximate; any other text is passed to libpcap as a BPF expression.
+ * On Ethernet the translation is repeated behind a VLAN tag, so tagged traffic is not lost.
+ */
+public final class CaptureFilter {
+
+    private final String text;
+    private final String bpf;
+    private final BpfTranslator.Translation translation;
+    private final DisplayFilter displayFilter;
+
+    private CaptureFilter(String text, String bpf, BpfTranslator.Translation translation, DisplayFilter displayFilter) {
+        this.text = text;
+        this.bpf = bpf;
+        this.translation = translation;
+        this.displayFilter = displayFilter;
+    }
+
+    /**
+     * Returns null for blank text.
+     */
+    public static CaptureFilter parse(String text) {
+        if (text == null || text.isBlank()) return null;
+        text = text.trim();
+
+        DisplayFilter filter;
+        try {
+            filter = DisplayFilter.compile(text);
+        } catch (FilterSyntaxException e) {
+            return new CaptureFilter(text, text, null, null);
+        }
+
+        BpfTranslator.Translation translation = BpfTranslator.translate(filter.getExpression());
+        return new CaptureFilter(text, null, translation, filter);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Expression installed on a capture handle of {@code linkType}, or null when the kernel cannot help.
+     */
+    public String getBpf(int linkType) {
+        if (translation == null) return bpf;
+        return translation.bpf(linkType);
+    }
+
+    /**
+     * Filter the dissectors still have to apply on a capture of {@code linkType}, or null when the
+     * kernel does all the work.
+     */
+    public DisplayFilter getDisplayFilter(int linkType) {
+        if (translation != null && translation.exact(linkType)) return null;
+        return displayFilter;
+    }
+
+    public String describe() {
+        if (translation != null) {
+            boolean refined = !translation.exact(HeaderDecoder.DLT_EN10MB);
+            return "BPF: " + translation.bpf() + (refined ? " (refined by JCap)" : "");
+        }
+        return bpf != null ? "BPF: " + bpf : "Applied by JCap (no BPF equivalent)";
+    }
+}
@@ -0,0 +1,164 @@
+package com.jcap.service;
+
+import com.jcap.model.Addresses;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One preallocated slot of the capture ring. The capture thread fills the raw part,
+ * a dissector worker fills the decoded part and the sequencer appends it to the store.
+ * The {@link PacketView} methods expose the decoded part with the same address mapping
+ * the store uses. The application layer and info text are only worked out if a capture
+ * filter asks for them; the store renders its own when a row is shown.
+ */
+class CaptureFrame implements PacketView {
+
+    private static final int INITIAL_CAPACITY = 2048;
+
+    byte[] data = new byte[INITIAL_CAPACITY];
+    int length;
+    int originalLength;
+    long timestampNanos;
+    long arrivalNanos;
+    int linkType;
+    int interfaceId;
+
+    final PacketHeaders headers = new PacketHeaders();
+    // only allocated once a capture filter asks for them
+    private ApplicationFields application;
+    private StringBuilder text;
+    boolean applicationDecoded;
+    boolean textRendered;
+    boolean valid;
+
+    volatile boolean dissected;
+
+    void copyFrom(byte[] raw, int len, int origLen, long tsNanos) {
+        if (data.length < len) {
+            data = new byte[Math.max(len, data.length << 1)];
+        }
+        System.arraycopy(raw, 0, data, 0, len);
+        length = len;
+        originalLength = origLen;
+        timestampNanos = tsNanos;
+    }
+
+    void copyFrom(ByteBuffer buffer, int offset, int len, int origLen, long tsNanos) {
+        if (data.length < len) {
+            data = new byte[Math.max(len, data.length << 1)];
+        }
+        buffer.get(offset, data, 0, len);
+        length = len;
+        originalLength = origLen;
+        timestampNanos = tsNanos;
+    }
+
+    void reset() {
+        valid = false;
+    }
+
+    @Override
+    public int length() {
+        return originalLength;
+    }
+
+    @Override
+    public int protocol() {
+        return headers.protocol;
+    }
+
+    @Override
+    public byte sourceKind() {
+        return kindOf(headers.l3);
+    }
+
+    @Override
+    public long sourceHi() {
+        return headers.l3 == PacketHeaders.L3_IPV6 ? headers.ip6SrcHi : 0;
+    }
+
+    @Override
+    public long sourceLo() {
+        return switch (headers.l3) {
+            case PacketHeaders.L3_IPV4 -> headers.ipSrc & 0xFFFFFFFFL;
+            case PacketHeaders.L3_IPV6 -> headers.ip6SrcLo;
+            case PacketHeaders.L3_ARP -> headers.arpSenderMac;
+            default -> headers.srcMac;
+        };
+    }
+
+    @Override
+    public byte destinationKind() {
+        return kindOf(headers.l3);
+    }
+
+    @Override
+    public long destinationHi() {
+        return headers.l3 == PacketHeaders.L3_IPV6 ? headers.ip6DstHi : 0;
+    }
+
+    @Override
+    public long destinationLo() {
+        return switch (headers.l3) {
+            case PacketHeaders.L3_IPV4 -> headers.ipDst & 0xFFFFFFFFL;
+            case PacketHeaders.L3_IPV6 -> headers.ip6DstLo;
+            case PacketHeaders.L3_ARP -> headers.arpTargetMac;
+            default -> headers.dstMac;
+        };
+    }
+
+    @Override
+    public int sourcePort() {
+        return headers.hasTransport ? headers.srcPort : 0;
+    }
+
+    @Override
+    public int destinationPort() {
+        return headers.hasTransport ? headers.dstPort : 0;
+    }
+
+    @Override
+    public int tcpFlags() {
+        return headers.isTcp() ? headers.tcpFlags : 0;
+    }
+
+    @Override
+    public CharSequence info() {
+        if (!textRendered) {
+            textRendered = true;
+            if (text == null) text = new StringBuilder(128);
+            text.setLength(0);
+            PacketFormatter.appendInfo(headers, application(), text);
+        }
+        return text;
+    }
+
+    @Override
+    public ApplicationFields application() {
+        if (!applicationDecoded) {
+            applicationDecoded = true;
+            if (application == null) application = new ApplicationFields();
+            ApplicationLayer.get().dissect(headers, data, application);
+        }
+        return application;
+    }
+
+    /**
+     * Index of the application dissector for traffic statistics: the one that took the payload
+     * if a capture filter already dissected it, otherwise the one its ports or heuristics point
+     * to; -1 for none.
+     */
+    int applicationIndex() {
+        if (!headers.isTcp() && !headers.isUdp()) return -1;
+        if (applicationDecoded) return application.dissectorIndex();
+        return ApplicationLayer.get().classify(headers, data);
+    }
+
+    private static byte kindOf(int l3) {
+        return switch (l3) {
+            case PacketHeaders.L3_IPV4 -> Addresses.IPV4;
+            case PacketHeaders.L3_IPV6 -> Addresses.IPV6;
+            default -> Addresses.MAC;
+        };
+    }
+}
@@ -0,0 +1,19 @@
+package com.jcap.service;
+
+/**
+ * Hears about the end of a {@link CaptureSession}. Called on the capture or writer thread that
+ * ran into it, never on a UI thread.
+ */
+public interface CaptureListener {
+
+    /**
+     * An interface could not be opened or failed while capturing, or a recording failed.
+     */
+    void captureFailed(String message);
+
+    /**
+     * Every interface has stopped and the pipeline, recording and file have been drained.
+     */
+    default void captureStopped() {
+    }
+}
@@ -0,0 +1,366 @@
+package com.jcap.service;
+
+import com.jcap.model.PacketStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Staged capture pipeline: each capture thread only copies frames into the preallocated ring of
+ * its {@link Source}, a shared pool of dissector workers parses them in parallel and a single
+ * sequencer thread appends the results to the {@link PacketStore}. Rows go in without info text;
+ * the store renders it from the frame when a row is read.
+ *
+ * <p>With several sources the sequencer merges them by capture timestamp. A source with nothing
+ * queued may still deliver an older frame, so the oldest head is held back for up to the reorder
+ * window ({@code jcap.merge.windowMs}) before the merge moves on without that source.
+ */
+public class CapturePipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(CapturePipeline.class);
+
+    private static final long IDLE_PARK_NANOS = 50_000;
+    private static final long DRAIN_TIMEOUT_MILLIS = 2000;
+    private static final long REORDER_WINDOW_NANOS = Long.getLong("jcap.merge.windowMs", 50) * 1_000_000L;
+
+    private final int ringSize;
+    private final PacketStore store;
+    private final OverflowPolicy policy;
+    private final int workerCount;
+
+    private volatile Source[] sources = new Source[0];
+    private volatile FrameWriter tee;
+    private volatile FlowTable flows;
+    private volatile TrafficStatistics statistics;
+    private volatile boolean storing = true;
+
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running;
+    private int packetCounter = 1;
+
+    /**
+     * One capture input with its own single-producer ring.
+     */
+    public final class Source {
+
+        private final CaptureFrame[] ring;
+        private final int mask;
+        private final PacketDissector dissector;
+        private final int interfaceId;
+        private int teeInterface = -1;
+
+        private final AtomicLong published = new AtomicLong(); // next sequence to be written by the capture thread
+        private final AtomicLong claimed = new AtomicLong();   // next sequence to be taken by a dissector
+        private final AtomicLong sequenced = new AtomicLong(); // next sequence to be delivered
+        private final LongAdder dropped = new LongAdder();
+        private volatile boolean closed;
+
+        private Source(PacketDissector dissector, int interfaceId) {
+            int size = Integer.highestOneBit(Math.max(ringSize, 2) - 1) << 1;
+            this.ring = new CaptureFrame[size];
+            for (int i = 0; i < size; i++) {
+                ring[i] = new CaptureFrame();
+            }
+            this.mask = size - 1;
+            this.dissector = dissector;
+            this.interfaceId = interfaceId;
+        }
+
+        /**
+         * Called from this source's capture thread only. Under {@link OverflowPolicy#DROP} this never
+         * blocks: when the ring is full the frame is dropped and counted.
+         */
+        public boolean publish(byte[] raw, int length, int originalLength, long timestampNanos) {
+            CaptureFrame frame = claim();
+            if (frame == null) return false;
+
+            frame.copyFrom(raw, length, originalLength, timestampNanos);
+            commit(frame, dissector.getLinkType(), interfaceId);
+            return true;
+        }
+
+        /**
+         * Publishes a frame read from a file buffer, which may carry its own link type and interface.
+         */
+        public boolean publish(ByteBuffer buffer, int offset, int length, int originalLength, long timestampNanos,
+                               int linkType, int frameInterfaceId) {
+            CaptureFrame frame = claim();
+            if (frame == null) return false;
+
+            frame.copyFrom(buffer, offset, length, originalLength, timestampNanos);
+            commit(frame, linkType, frameInterfaceId);
+            return true;
+        }
+
+        private CaptureFrame claim() {
+            long seq = published.get();
+
+            while (seq - sequenced.get() >= ring.length) {
+                if (policy == OverflowPolicy.DROP || !running || closed || Thread.currentThread().isInterrupted()) {
+                    dropped.increment();
+                    return null;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+            return ring[(int) seq & mask];
+        }
+
+        private void commit(CaptureFrame frame, int linkType, int frameInterfaceId) {
+            frame.linkType = linkType;
+            frame.interfaceId = frameInterfaceId;
+            frame.arrivalNanos = System.nanoTime();
+            published.lazySet(published.get() + 1);
+        }
+
+        /**
+         * Marks the end of this input, so the merge no longer waits for it. Queued frames are still delivered.
+         */
+        public void close() {
+            closed = true;
+        }
+
+        public long getDroppedCount() {
+            return dropped.sum();
+        }
+
+        private boolean isDrained() {
+            return sequenced.get() >= published.get();
+        }
+    }
+
+    public CapturePipeline(int ringSize, PacketStore store, OverflowPolicy policy) {
+        this.ringSize = ringSize;
+        this.store = store;
+        this.policy = policy;
+        store.setInfoRenderer(RowDecoder.INFO_RENDERER);
+        // the sequencer keeps a core busy, and so does at least one capture thread
+        this.workerCount = Math.max(1, Runtime.getRuntime().availableProcessors() - 2);
+    }
+
+    /**
+     * Registers a capture input; frames are tagged with {@code interfaceId} in the store.
+     */
+    public synchronized Source addSource(PacketDissector dissector, int interfaceId) {
+        Source source = new Source(dissector, interfaceId);
+        store.setInterfaceLinkType(interfaceId, dissector.getLinkType());
+
+        FrameWriter writer = tee;
+        if (writer != null) {
+            try {
+                source.teeInterface = writer.addInterface(store.getInterfaceNameOf(interfaceId), dissector.getLinkType());
+            } catch (IOException e) {
+                logger.error("Frames of interface {} cannot be written to {}. {}", interfaceId, writer.getPath(), e.getMessage());
+            }
+        }
+        Source[] current = sources;
+        Source[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = source;
+        sources = updated;
+        return source;
+    }
+
+    /**
+     * Also writes every stored frame to {@code writer}; set it before the sources are added.
+     * The writer is not closed by the pipeline.
+     */
+    public void teeTo(FrameWriter writer) {
+        this.tee = writer;
+    }
+
+    /**
+     * Also counts every stored frame into {@code table}. Frames are added by the sequencer, in
+     * the order they are stored, which retransmission hints depend on.
+     */
+    public void trackFlows(FlowTable table) {
+        this.flows = table;
+    }
+
+    /**
+     * Also counts every stored frame into {@code statistics}, from the dissector workers.
+     */
+    public void trackStatistics(TrafficStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * Leaves frames out of the store, for captures that only go to files and statistics and would
+     * otherwise fill memory when left running.
+     */
+    public void discardRows() {
+        this.storing = false;
+    }
+
+    public void start() {
+        running = true;
+
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::runDissector, "jcap-dissector-" + i);
+            worker.setDaemon(true);
+            threads.add(worker);
+        }
+
+        Thread sequencer = new Thread(this::runSequencer, "jcap-sequencer");
+        sequencer.setDaemon(true);
+        threads.add(sequencer);
+
+        threads.forEach(Thread::start);
+        logger.debug("Capture pipeline started with {} dissector workers and {} ring slots per source.", workerCount, ringSize);
+    }
+
+    /**
+     * Closes every source, delivers what is still queued and stops the threads.
+     */
+    public void stop() {
+        for (Source source : sources) {
+            source.close();
+        }
+
+        long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+        while (!isDrained() && System.currentTimeMillis() < deadline) {
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+
+        running = false;
+        for (Thread thread : threads) {
+            try {
+                thread.join(DRAIN_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        threads.clear();
+
+        long published = 0;
+        for (Source source : sources) {
+            published += source.published.get();
+        }
+        logger.debug("Capture pipeline stopped after {} frames ({} dropped).", published, getDroppedCount());
+    }
+
+    public long getDroppedCount() {
+        long total = 0;
+        for (Source source : sources) {
+            total += source.getDroppedCount();
+        }
+        return total;
+    }
+
+    private boolean isDrained() {
+        for (Source source : sources) {
+            if (!source.isDrained()) return false;
+        }
+        return true;
+    }
+
+    private void runDissector() {
+        while (running) {
+            boolean worked = false;
+
+            for (Source source : sources) {
+                long seq = source.claimed.get();
+                if (seq >= source.published.get()) continue;
+                worked = true;
+                if (!source.claimed.compareAndSet(seq, seq + 1)) continue;
+
+                CaptureFrame frame = source.ring[(int) seq & source.mask];
+                try {
+                    source.dissector.dissect(frame);
+                    TrafficStatistics counts = statistics;
+                    if (counts != null && frame.valid) counts.add(frame, frame.applicationIndex(), frame.timestampNanos);
+                } catch (Exception e) {
+                    logger.debug("Failed to dissect frame {}: {}", seq, e.getMessage());
+                    frame.reset();
+                }
+                frame.dissected = true;
+            }
+
+            if (!worked) LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    private void runSequencer() {
+        while (running) {
+            Source[] current = sources;
+            Source next = null;
+            long oldest = Long.MAX_VALUE;
+            boolean waiting = false;
+
+            // k-way merge over the ring heads
+            for (Source source : current) {
+                long seq = source.sequenced.get();
+                if (seq < source.published.get()) {
+                    long timestamp = source.ring[(int) seq & source.mask].timestampNanos;
+                    if (next == null || timestamp < oldest) {
+                        next = source;
+                        oldest = timestamp;
+                    }
+                }
+                else if (!source.closed) {
+                    waiting = true;
+                }
+            }
+
+            if (next == null) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+
+            long seq = next.sequenced.get();
+            CaptureFrame frame = next.ring[(int) seq & next.mask];
+
+            if (!frame.dissected
+                    || waiting && System.nanoTime() - frame.arrivalNanos < REORDER_WINDOW_NANOS) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+
+            if (frame.valid) {
+                if (storing) append(frame);
+                if (next.teeInterface >= 0) writeTee(frame, next.teeInterface);
+                FlowTable table = flows;
+                if (table != null) table.add(frame);
+            }
+
+            frame.reset();
+            frame.dissected = false;
+            next.sequenced.lazySet(seq + 1);
+        }
+    }
+
+    private void writeTee(CaptureFrame frame, int teeInterface) {
+        try {
+            tee.write(teeInterface, frame.timestampNanos, frame.data, 0, frame.length, frame.originalLength);
+        } catch (IOException e) {
+            logger.error("Writing to {} failed, no longer writing frames to it. {}", tee.getPath(), e.getMessage());
+            for (Source source : sources) {
+                source.teeInterface = -1;
+            }
+        }
+    }
+
+    private void append(CaptureFrame frame) {
+        PacketHeaders h = frame.headers;
+        int row = store.newRow(packetCounter++, frame.timestampNanos, frame.originalLength, h.protocol);
+
+        store.setInterface(row, frame.interfaceId);
+        store.setSource(row, frame.sourceKind(), frame.sourceHi(), frame.sourceLo());
+        store.setDestination(row, frame.destinationKind(), frame.destinationHi(), frame.destinationLo());
+
+        if (h.hasTransport) {
+            store.setPorts(row, h.srcPort, h.dstPort);
+            if (h.isTcp()) store.setTcpFlags(row, h.tcpFlags);
+        }
+
+        store.setPayload(row, frame.data, 0, frame.length);
+        store.commitRow();
+    }
+}
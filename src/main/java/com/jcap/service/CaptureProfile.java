@@ -0,0 +1,81 @@
+package com.jcap.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
+
+/**
+ * Settings used to open a live capture handle. Profiles are remembered per interface in the
+ * user preferences, so a busy uplink can keep a headers-only profile while others capture
+ * full frames.
+ *
+ * @param snapLength           bytes kept per frame, the rest is only counted in the original length
+ * @param bufferSizeMb         kernel capture buffer, 0 leaves the libpcap default
+ * @param immediate            deliver every frame as it arrives instead of batching until the timeout
+ * @param nanosecondTimestamps ask libpcap for nanosecond instead of microsecond timestamps
+ */
+public record CaptureProfile(int snapLength, int bufferSizeMb, boolean promiscuous, boolean immediate,
+                             boolean nanosecondTimestamps, int readTimeoutMillis) {
+
+    private static final Logger logger = LoggerFactory.getLogger(CaptureProfile.class);
+
+    public static final int MAX_SNAP_LENGTH = 262144;
+    public static final int HEADERS_ONLY_SNAP_LENGTH = 128;
+
+    public static final CaptureProfile DEFAULT = new CaptureProfile(65536, 0, true, false, false, 10);
+    /**
+     * The preset "Headers only" applies: short frames, a larger kernel buffer and immediate
+     * delivery, so a busy link loses as few frames as possible.
+     */
+    public static final CaptureProfile HEADERS_ONLY =
+            new CaptureProfile(HEADERS_ONLY_SNAP_LENGTH, 64, true, true, true, 10);
+
+    private static final Preferences ROOT = Preferences.userNodeForPackage(CaptureProfile.class).node("profiles");
+
+    public CaptureProfile {
+        snapLength = Math.clamp(snapLength, 64, MAX_SNAP_LENGTH);
+        bufferSizeMb = Math.clamp(bufferSizeMb, 0, 4096);
+        readTimeoutMillis = Math.clamp(readTimeoutMillis, 1, 10_000);
+    }
+
+    public boolean isHeadersOnly() {
+        return snapLength <= HEADERS_ONLY_SNAP_LENGTH;
+    }
+
+    public static CaptureProfile load(String interfaceName) {
+        Preferences node = ROOT.node(nodeName(interfaceName));
+        return new CaptureProfile(
+                node.getInt("snapLength", DEFAULT.snapLength),
+                node.getInt("bufferSizeMb", DEFAULT.bufferSizeMb),
+                node.getBoolean("promiscuous", DEFAULT.promiscuous),
+                node.getBoolean("immediate", DEFAULT.immediate),
+                node.getBoolean("nanosecondTimestamps", DEFAULT.nanosecondTimestamps),
+                node.getInt("readTimeoutMillis", DEFAULT.readTimeoutMillis)
+        );
+    }
+
+    public void save(String interfaceName) {
+        Preferences node = ROOT.node(nodeName(interfaceName));
+        node.putInt("snapLength", snapLength);
+        node.putInt("bufferSizeMb", bufferSizeMb);
+        node.putBoolean("promiscuous", promiscuous);
+        node.putBoolean("immediate", immediate);
+        node.putBoolean("nanosecondTimestamps", nanosecondTimestamps);
+        node.putInt("readTimeoutMillis", readTimeoutMillis);
+
+        try {
+            node.flush();
+            logger.info("Saved capture profile for {}: {}", interfaceName, this);
+        } catch (BackingStoreException e) {
+            logger.error("Failed to save capture profile for {}.", interfaceName, e);
+        }
+    }
+
+    // preference node names are limited in length and may not contain '/'
+    private static String nodeName(String interfaceName) {
+        String name = interfaceName.replace('/', '_');
+        return name.length() <= Preferences.MAX_NAME_LENGTH ? name : Integer.toHexString(interfaceName.hashCode());
+    }
+}
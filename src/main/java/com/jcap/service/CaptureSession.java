@@ -0,0 +1,153 @@
+package com.jcap.service;
+
+import com.jcap.model.PacketStore;
+import org.pcap4j.core.PcapNetworkInterface;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A live capture on one or more interfaces. Every interface gets its own {@link SnifferService}
+ * and capture thread, all feeding one {@link CapturePipeline} that merges them into the store
+ * in timestamp order and tags each row with its interface.
+ */
+public class CaptureSession {
+
+    private static final Logger logger = LoggerFactory.getLogger(CaptureSession.class);
+
+    private static final int RING_SIZE = Integer.getInteger("jcap.buffer.capacity", 16384);
+
+    private final CapturePipeline pipeline;
+    private final FlowTable flows = new FlowTable();
+    private final TrafficStatistics statistics = new TrafficStatistics();
+    private final List<SnifferService> services = new ArrayList<>();
+    private final AtomicInteger running = new AtomicInteger();
+    private volatile SessionWriter writer;
+    private volatile FrameWriter fileWriter;
+    private final CaptureFilter captureFilter;
+    private final CaptureListener listener;
+
+    public CaptureSession(List<PcapNetworkInterface> interfaces, PacketStore store, OverflowPolicy policy,
+                          CaptureFilter captureFilter, CaptureListener listener) {
+        this.captureFilter = captureFilter;
+        this.listener = listener;
+        // a busy interface should not push the others out of the ring, so each source gets its own
+        this.pipeline = new CapturePipeline(RING_SIZE, store, policy);
+        pipeline.trackFlows(flows);
+        pipeline.trackStatistics(statistics);
+
+        for (PcapNetworkInterface nif : interfaces) {
+            int interfaceId = store.addInterface(nif.getName());
+            services.add(new SnifferService(nif, pipeline, interfaceId, captureFilter,
+                    CaptureProfile.load(nif.getName()), listener::captureFailed, this::onServiceFinished));
+        }
+    }
+
+    /**
+     * Hands the capture to an already started writer, which is stopped once the pipeline has drained.
+     */
+    public void recordTo(SessionWriter writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Also writes the capture to pcap or pcapng files; call before {@link #start()}. The writer is
+     * closed once the pipeline has drained.
+     */
+    public void teeTo(FrameWriter fileWriter) {
+        this.fileWriter = fileWriter;
+        pipeline.teeTo(fileWriter);
+    }
+
+    /**
+     * Keeps neither rows nor conversations, only statistics, so that a capture to files can run
+     * for as long as the disk allows; call before {@link #start()}.
+     */
+    public void recordOnly() {
+        pipeline.discardRows();
+        pipeline.trackFlows(null);
+    }
+
+    public void start() {
+        running.set(services.size());
+        pipeline.start();
+        services.forEach(SnifferService::start);
+        logger.info("Capture started on {} interface(s).", services.size());
+    }
+
+    public void stop() {
+        services.forEach(SnifferService::cancel);
+    }
+
+    // the last capture thread to finish drains the pipeline
+    private void onServiceFinished() {
+        if (running.decrementAndGet() == 0) {
+            pipeline.stop();
+            if (writer != null) writer.stop();
+            if (fileWriter != null) closeFileWriter();
+            logger.info("Capture stopped on all interfaces.");
+            listener.captureStopped();
+        }
+    }
+
+    private void closeFileWriter() {
+        try {
+            fileWriter.close();
+        } catch (IOException e) {
+            logger.error("Failed to finish writing {}.", fileWriter.getPath(), e);
+        }
+    }
+
+    /**
+     * Conversations of this capture, updated as packets are stored.
+     */
+    public FlowTable getFlows() {
+        return flows;
+    }
+
+    /**
+     * Traffic totals of this capture, updated as packets are dissected.
+     */
+    public TrafficStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * The filter the kernel counts apply to, or null when the capture is unfiltered.
+     */
+    public CaptureFilter getCaptureFilter() {
+        return captureFilter;
+    }
+
+    public long getDroppedCount() {
+        return pipeline.getDroppedCount();
+    }
+
+    public long getKernelReceivedCount() {
+        long total = 0;
+        for (SnifferService service : services) {
+            total += service.getKernelReceivedCount();
+        }
+        return total;
+    }
+
+    public long getKernelDroppedCount() {
+        long total = 0;
+        for (SnifferService service : services) {
+            total += service.getKernelDroppedCount();
+        }
+        return total;
+    }
+
+    public long getInterfaceDroppedCount() {
+        long total = 0;
+        for (SnifferService service : services) {
+            total += service.getInterfaceDroppedCount();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,179 @@
+package com.jcap.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A small pool of long-lived SQLite connections. Each connection is configured with the given
+ * pragmas once when it is opened and keeps its prepared statements, so repeated calls skip both
+ * the open and the SQL compilation.
+ */
+final class ConnectionPool implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionPool.class);
+
+    private final String url;
+    private final int maxSize;
+    private final List<String> pragmas;
+    private final long waitMillis;
+
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final List<PooledConnection> all = new ArrayList<>();
+    private boolean closed;
+
+    ConnectionPool(String url, int maxSize, List<String> pragmas, long waitMillis) {
+        this.url = url;
+        this.maxSize = maxSize;
+        this.pragmas = pragmas;
+        this.waitMillis = waitMillis;
+    }
+
+    /**
+     * Borrows a connection, opening a new one while the pool is below its size and otherwise
+     * waiting up to the pool's wait time for one to be returned.
+     */
+    Lease acquire() throws SQLException {
+        PooledConnection pooled = idle.pollFirst();
+        if (pooled == null) {
+            synchronized (this) {
+                if (closed) throw new SQLException("Connection pool is closed");
+                if (all.size() < maxSize) {
+                    pooled = open();
+                    all.add(pooled);
+                }
+            }
+        }
+
+        if (pooled == null) {
+            try {
+                pooled = idle.pollFirst(waitMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a database connection", e);
+            }
+            if (pooled == null) {
+                throw new SQLException("No database connection became free within " + waitMillis + " ms");
+            }
+        }
+        return new Lease(pooled);
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection conn = DriverManager.getConnection(url);
+        try (Statement stmt = conn.createStatement()) {
+            for (String pragma : pragmas) {
+                stmt.execute(pragma);
+            }
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
+        logger.debug("Opened database connection {} of {}.", all.size() + 1, maxSize);
+        return new PooledConnection(conn);
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (PooledConnection pooled : all) {
+            pooled.close();
+        }
+        all.clear();
+        idle.clear();
+    }
+
+    private static final class PooledConnection {
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        void close() {
+            try {
+                for (PreparedStatement stmt : statements.values()) {
+                    stmt.close();
+                }
+                connection.close();
+            } catch (SQLException e) {
+                logger.debug("Failed to close database connection. {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A borrowed connection; closing it returns the connection to the pool, rolling back
+     * anything left uncommitted.
+     */
+    final class Lease implements AutoCloseable {
+        private PooledConnection pooled;
+
+        private Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        Connection connection() {
+            return pooled.connection;
+        }
+
+        /**
+         * Returns the cached statement for {@code sql} with its parameters cleared. Statements
+         * belong to the connection and must not be closed by the caller.
+         */
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement stmt = pooled.statements.get(sql);
+            if (stmt == null) {
+                stmt = pooled.connection.prepareStatement(sql);
+                pooled.statements.put(sql, stmt);
+            }
+            else {
+                stmt.clearParameters();
+                stmt.clearBatch();
+            }
+            return stmt;
+        }
+
+        @Override
+        public void close() {
+            if (pooled == null) return;
+            PooledConnection released = pooled;
+            pooled = null;
+
+            try {
+                if (!released.connection.getAutoCommit()) {
+                    released.connection.rollback();
+                    released.connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                // a connection that cannot be reset is not handed out again
+                logger.warn("Discarding database connection. {}", e.getMessage());
+                released.close();
+                synchronized (ConnectionPool.this) {
+                    all.remove(released);
+                }
+                return;
+            }
+
+            synchronized (ConnectionPool.this) {
+                if (closed) {
+                    released.close();
+                    return;
+                }
+            }
+            idle.offerFirst(released);
+        }
+    }
+}
@@ -1,7 +1,8 @@
 package com.jcap.service;
 
 import com.jcap.model.PacketModel;
-import javafx.concurrent.Task;
+import com.jcap.model.PacketStore;
+import com.jcap.model.Protocols;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,29 +15,117 @@ public class DatabaseService {
     private static final Logger logger = LoggerFactory.getLogger(DatabaseService.class);
     private static final String DB_URL = "jdbc:sqlite:jcap_history.db";
 
+    static final String INSERT_PACKET = "INSERT INTO packets(session_id, num, time, src, dst, proto, len, info, payload, iface, " +
+            "sport, dport, tcp_flags, block, block_index) VALUES(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+
+    /**
+     * Every connection gets the same settings. The page size only takes effect on a new database,
+     * so it has to come before the journal mode switch writes the first page.
+     */
+    private static final List<String> PRAGMAS = List.of(
+            "PRAGMA page_size=8192",
+            "PRAGMA journal_mode=WAL",
+            "PRAGMA synchronous=NORMAL",
+            "PRAGMA mmap_size=268435456",
+            "PRAGMA cache_size=-16384",
+            "PRAGMA temp_store=MEMORY"
+    );
+
+    /**
+     * How long a call waits for a free connection; a save holds its connection for the whole save.
+     */
+    private static final long POOL_WAIT_MILLIS = Integer.getInteger("jcap.database.waitSeconds", 120) * 1000L;
+
+    private static final ConnectionPool pool = new ConnectionPool(DB_URL, 4, PRAGMAS, POOL_WAIT_MILLIS);
+
+    @FunctionalInterface
+    private interface Migration {
+        void apply(Statement stmt) throws SQLException;
+    }
+
+    /**
+     * Schema upgrades; {@code PRAGMA user_version} holds how many of them a database has had.
+     * Only ever append to this list.
+     */
+    private static final List<Migration> MIGRATIONS = List.of(
+            stmt -> {
+                stmt.execute("CREATE TABLE IF NOT EXISTS sessions (" +
+                        "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        "name TEXT UNIQUE, " +
+                        "timestamp DATETIME DEFAULT CURRENT_TIMESTAMP)");
+                stmt.execute("CREATE TABLE IF NOT EXISTS packets (" +
+                        "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        "session_id INTEGER, " +
+                        "num INTEGER, " +
+                        "time TEXT, " +
+                        "src TEXT, " +
+                        "dst TEXT, " +
+                        "proto TEXT, " +
+                        "len INTEGER, " +
+                        "info TEXT, " +
+                        "payload BLOB, " +
+                        "FOREIGN KEY(session_id) REFERENCES sessions(id))");
+            },
+            stmt -> {
+                // unversioned databases may already have the column from before migrations existed
+                if (!hasColumn(stmt, "packets", "iface")) {
+                    stmt.execute("ALTER TABLE packets ADD COLUMN iface TEXT");
+                }
+            },
+            stmt -> stmt.execute("CREATE INDEX IF NOT EXISTS idx_packets_session_num ON packets(session_id, num)"),
+            stmt -> {
+                // ports and flags as columns, so listing a session never needs the payload
+                stmt.execute("ALTER TABLE packets ADD COLUMN sport INTEGER");
+                stmt.execute("ALTER TABLE packets ADD COLUMN dport INTEGER");
+                stmt.execute("ALTER TABLE packets ADD COLUMN tcp_flags INTEGER");
+                // compressed payloads: the packet's frame is entry block_index of its block
+                stmt.execute("ALTER TABLE packets ADD COLUMN block INTEGER");
+                stmt.execute("ALTER TABLE packets ADD COLUMN block_index INTEGER");
+                stmt.execute("CREATE TABLE IF NOT EXISTS payload_blocks (" +
+                        "session_id INTEGER NOT NULL, " +
+                        "block INTEGER NOT NULL, " +
+                        "codec INTEGER, " +
+                        "count INTEGER, " +
+                        "data BLOB, " +
+                        "PRIMARY KEY(session_id, block))");
+            },
+            stmt -> {
+                // search index, see SessionIndex; existing sessions are indexed on the first search
+                stmt.execute("CREATE VIRTUAL TABLE IF NOT EXISTS packets_fts USING fts5(info, content='packets', content_rowid='id')");
+                stmt.execute("CREATE TABLE IF NOT EXISTS session_terms (" +
+                        "session_id INTEGER NOT NULL, " +
+                        "term TEXT NOT NULL, " +
+                        "hits INTEGER, " +
+                        "postings BLOB)");
+                stmt.execute("CREATE UNIQUE INDEX IF NOT EXISTS idx_session_terms ON session_terms(term, session_id)");
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_session_terms_session ON session_terms(session_id)");
+                stmt.execute("ALTER TABLE sessions ADD COLUMN indexed INTEGER DEFAULT 0");
+                stmt.execute("ALTER TABLE sessions ADD COLUMN first_id INTEGER");
+                stmt.execute("ALTER TABLE sessions ADD COLUMN last_id INTEGER");
+            }
+    );
+
     public static void initialize() {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            Statement stmt = conn.createStatement();
-
-            String sqlSessions = "CREATE TABLE IF NOT EXISTS sessions (" +
-                    "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                    "name TEXT UNIQUE, " +
-                    "timestamp DATETIME DEFAULT CURRENT_TIMESTAMP)";
-            stmt.execute(sqlSessions);
-
-            String sqlPackets = "CREATE TABLE IF NOT EXISTS packets (" +
-                    "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                    "session_id INTEGER, " +
-                    "num INTEGER, " +
-                    "time TEXT, " +
-                    "src TEXT, " +
-                    "dst TEXT, " +
-                    "proto TEXT, " +
-                    "len INTEGER, " +
-                    "info TEXT, " +
-                    "payload BLOB, " +
-                    "FOREIGN KEY(session_id) REFERENCES sessions(id))";
-            stmt.execute(sqlPackets);
+        try (ConnectionPool.Lease lease = pool.acquire();
+             Statement stmt = lease.connection().createStatement()) {
+
+            int version;
+            try (ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+                version = rs.next() ? rs.getInt(1) : 0;
+            }
+
+            Connection conn = lease.connection();
+            for (int next = version; next < MIGRATIONS.size(); next++) {
+                conn.setAutoCommit(false);
+                MIGRATIONS.get(next).apply(stmt);
+                stmt.execute("PRAGMA user_version = " + (next + 1));
+                conn.commit();
+                conn.setAutoCommit(true);
+                logger.info("Migrated database schema to version {}.", next + 1);
+            }
+
+            // recordings cut short by a crash are indexed like older sessions
+            stmt.executeUpdate("UPDATE sessions SET indexed = 0 WHERE indexed = -1");
 
             logger.info("Database initialized successfully.");
         } catch (SQLException e) {
@@ -44,68 +133,79 @@ public class DatabaseService {
         }
     }
 
-    public static Task<Boolean> saveCapture(String sessionName, List<PacketModel> packets) {
-        return new Task<>() {
-            @Override
-            protected Boolean call() throws Exception {
-                if (packets.isEmpty()) {
-                    logger.warn("Save requested for '{}', but packet list is empty. Aborting.", sessionName);
-                    return false;
-                }
+    /**
+     * Closes the pooled connections, which also checkpoints the write-ahead log.
+     */
+    public static void shutdown() {
+        pool.close();
+    }
 
-                long start = System.currentTimeMillis();
+    private static boolean hasColumn(Statement stmt, String table, String column) throws SQLException {
+        try (ResultSet columns = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (columns.next()) {
+                if (columns.getString("name").equals(column)) return true;
+            }
+        }
+        return false;
+    }
 
-                String insertSession = "INSERT INTO sessions(name) VALUES(?)";
-                String insertPacket = "INSERT INTO packets(session_id, num, time, src, dst, proto, len, info, payload) VALUES(?,?,?,?,?,?,?,?,?)";
+    public static Boolean saveCapture(String sessionName, PacketStore packets, Progress progress) {
+        return saveCapture(sessionName, packets, progress, PayloadBlocks.ENABLED);
+    }
 
-                try (Connection conn = DriverManager.getConnection(DB_URL)) {
-                    conn.setAutoCommit(false);
+    /**
+     * Without {@code compressed} the payloads are saved as raw BLOBs, as with
+     * {@code jcap.session.compression=none}.
+     */
+    static Boolean saveCapture(String sessionName, PacketStore packets, Progress progress, boolean compressed) {
+        int total = packets.size();
+        if (total == 0) {
+            logger.warn("Save requested for '{}', but packet list is empty. Aborting.", sessionName);
+            return false;
+        }
 
-                    int sessionId = -1;
-                    try (PreparedStatement stmt = conn.prepareStatement(insertSession, Statement.RETURN_GENERATED_KEYS)) {
-                        stmt.setString(1, sessionName);
-                        stmt.executeUpdate();
-                        var rs = stmt.getGeneratedKeys();
-                        if (rs.next()) sessionId = rs.getInt(1);
-                    }
+        long start = System.currentTimeMillis();
 
-                    logger.debug("Created session ID: {}", sessionId);
-
-                    try (PreparedStatement stmt = conn.prepareStatement(insertPacket)) {
-                        int count = 0;
-                        for (PacketModel p : packets) {
-                            stmt.setInt(1, sessionId);
-                            stmt.setInt(2, p.getNumber());
-                            stmt.setString(3, p.getTimestamp());
-                            stmt.setString(4, p.getSource());
-                            stmt.setString(5, p.getDestination());
-                            stmt.setString(6, p.getProtocol());
-                            stmt.setInt(7, p.getLength());
-                            stmt.setString(8, p.getInfo());
-                            stmt.setBytes(9, p.getPayload());
-
-                            stmt.addBatch();
-
-                            if (++count % 1000 == 0) {
-                                stmt.executeBatch();
-                                logger.debug("Saved batch of 1000 packets...");
-                            }
-                        }
-                        stmt.executeBatch();
-                    }
+        try (ConnectionPool.Lease lease = pool.acquire()) {
+            Connection conn = lease.connection();
+            conn.setAutoCommit(false);
+
+            int sessionId = createSession(lease, sessionName);
+            logger.debug("Created session ID: {}", sessionId);
 
-                    conn.commit();
+            PreparedStatement stmt = lease.prepare(INSERT_PACKET);
+            SessionIndex.Builder index = new SessionIndex.Builder();
+            try (PayloadBlocks.Writer blocks = compressed ? new PayloadBlocks.Writer(lease, sessionId) : null) {
+                int count = 0;
+                for (int row = 0; row < total; row++) {
+                    bindPacket(stmt, sessionId, packets, row, blocks);
+                    stmt.addBatch();
+                    index.add(packets, row);
 
-                    long duration = System.currentTimeMillis() - start;
-                    logger.info("Save complete! wrote {} packets in {} ms.", packets.size(), duration);
-                    return true;
+                    if (++count % 1000 == 0) {
+                        stmt.executeBatch();
+                        logger.debug("Saved batch of 1000 packets...");
+                    }
+                }
+                stmt.executeBatch();
 
-                } catch (SQLException e) {
-                    logger.error("Database error during save.", e);
+                if (blocks != null) {
+                    blocks.flush();
+                    logger.debug("Compressed {} payload bytes to {}.", blocks.getRawBytes(), blocks.getStoredBytes());
                 }
-                return null;
             }
-        };
+            index.write(lease, sessionId);
+
+            conn.commit();
+
+            long duration = System.currentTimeMillis() - start;
+            logger.info("Save complete! wrote {} packets in {} ms.", total, duration);
+            return true;
+
+        } catch (SQLException e) {
+            logger.error("Database error during save.", e);
+        }
+        return null;
     }
 
     public static List<String> getCaptureNames() {
@@ -114,9 +214,8 @@ public class DatabaseService {
 
         logger.debug("Fetching capture list...");
 
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+        try (ConnectionPool.Lease lease = pool.acquire();
+             ResultSet rs = lease.prepare(sql).executeQuery()) {
 
             while (rs.next()) {
                 names.add(rs.getString("name"));
@@ -127,72 +226,121 @@ public class DatabaseService {
         return names;
     }
 
-    public static List<PacketModel> loadCapture(String sessionName) {
-        List<PacketModel> list = new ArrayList<>();
-        String sql = "SELECT p.* FROM packets p " +
-                "JOIN sessions s ON p.session_id = s.id " +
-                "WHERE s.name = ? ORDER BY p.num";
-
-        logger.info("Loading capture '{}'...", sessionName);
+    /**
+     * Opens a saved capture without reading it: rows are fetched page by page as they are
+     * displayed. Progress is reported in rows indexed.
+     */
+    public static PacketStore openCapture(String sessionName, Progress progress) throws SQLException {
+        logger.info("Opening capture '{}'...", sessionName);
         long start = System.currentTimeMillis();
 
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        SessionStore store = SessionStore.open(sessionName, rows -> progress.message("Opening '" + sessionName + "': " + rows + " packets indexed"));
 
-            pstmt.setString(1, sessionName);
-            ResultSet rs = pstmt.executeQuery();
+        long duration = System.currentTimeMillis() - start;
+        logger.info("Opened {} packets for session '{}' in {} ms.", store.size(), sessionName, duration);
+        return store;
+    }
 
-            while (rs.next()) {
-                PacketModel p = new PacketModel(
-                        rs.getInt("num"),
-                        rs.getString("time"),
-                        rs.getString("src"),
-                        rs.getString("dst"),
-                        rs.getString("proto"),
-                        rs.getInt("len"),
-                        rs.getString("info"),
-                        rs.getBytes("payload")
-                );
-                list.add(p);
-            }
+    static ConnectionPool.Lease connect() throws SQLException {
+        return pool.acquire();
+    }
 
-            long duration = System.currentTimeMillis() - start;
-            logger.info("Loaded {} packets for session '{}' in {} ms.", list.size(), sessionName, duration);
+    static int createSession(ConnectionPool.Lease lease, String sessionName) throws SQLException {
+        PreparedStatement insert = lease.prepare("INSERT INTO sessions(name) VALUES(?)");
+        insert.setString(1, sessionName);
+        insert.executeUpdate();
 
-        } catch (SQLException e) {
-            logger.error("Failed to load capture '{}'.", sessionName, e);
+        try (ResultSet rs = lease.prepare("SELECT last_insert_rowid()").executeQuery()) {
+            return rs.next() ? rs.getInt(1) : -1;
+        }
+    }
+
+    /**
+     * With {@code blocks} the payload goes into the current payload block instead of the row.
+     */
+    static void bindPacket(PreparedStatement stmt, int sessionId, PacketStore packets, int row,
+                           PayloadBlocks.Writer blocks) throws SQLException {
+        stmt.setInt(1, sessionId);
+        stmt.setInt(2, packets.getNumber(row));
+        stmt.setString(3, PacketModel.formatSeconds(packets.getRelativeTimestampNanos(row)));
+        stmt.setString(4, packets.getSource(row));
+        stmt.setString(5, packets.getDestination(row));
+        stmt.setString(6, Protocols.name(packets.getProtocol(row)));
+        stmt.setInt(7, packets.getLength(row));
+        // not getInfo, which would cache every row of the session
+        StringBuilder info = new StringBuilder(96);
+        packets.appendInfo(row, info);
+        stmt.setString(8, info.toString());
+        stmt.setString(10, packets.getInterfaceName(row));
+        stmt.setInt(11, packets.getSourcePort(row));
+        stmt.setInt(12, packets.getDestinationPort(row));
+        stmt.setInt(13, packets.getTcpFlags(row));
+
+        if (blocks == null) {
+            stmt.setBytes(9, packets.copyPayload(row));
+            stmt.setNull(14, Types.INTEGER);
+            stmt.setNull(15, Types.INTEGER);
+        }
+        else {
+            int index = blocks.add(packets, row);
+            stmt.setNull(9, Types.BLOB);
+            stmt.setInt(14, blocks.getBlockNumber());
+            stmt.setInt(15, index);
         }
-        return list;
     }
 
+    static long parseTimestamp(String text) {
+        if (text == null) return 0;
+        try {
+            return Math.round(Double.parseDouble(text.replace(',', '.')) * 1_000_000_000.0);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Deletes a saved capture and its index. A capture that is open in a store cannot be deleted,
+     * since the store would go on reading its rows.
+     *
+     * @throws IllegalStateException if the capture is open
+     */
     public static void deleteCapture(String sessionName) {
         String getParams = "SELECT id FROM sessions WHERE name = ?";
         String deletePackets = "DELETE FROM packets WHERE session_id = ?";
+        String deleteBlocks = "DELETE FROM payload_blocks WHERE session_id = ?";
         String deleteSession = "DELETE FROM sessions WHERE id = ?";
 
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
+        try (ConnectionPool.Lease lease = pool.acquire()) {
+            Connection conn = lease.connection();
             conn.setAutoCommit(false);
 
             int sessionId = -1;
 
-            try (PreparedStatement stmt = conn.prepareStatement(getParams)) {
-                stmt.setString(1, sessionName);
-                ResultSet rs = stmt.executeQuery();
+            PreparedStatement find = lease.prepare(getParams);
+            find.setString(1, sessionName);
+            try (ResultSet rs = find.executeQuery()) {
                 if (rs.next()) {
                     sessionId = rs.getInt("id");
                 }
             }
 
             if (sessionId != -1) {
-                try (PreparedStatement stmt = conn.prepareStatement(deletePackets)) {
-                    stmt.setInt(1, sessionId);
-                    stmt.executeUpdate();
+                if (SessionStore.isOpen(sessionId)) {
+                    throw new IllegalStateException("Capture '" + sessionName + "' is open; open another capture before deleting it");
                 }
+                SessionIndex.delete(lease, sessionId);
 
-                try (PreparedStatement stmt = conn.prepareStatement(deleteSession)) {
-                    stmt.setInt(1, sessionId);
-                    stmt.executeUpdate();
-                }
+                PreparedStatement packets = lease.prepare(deletePackets);
+                packets.setInt(1, sessionId);
+                packets.executeUpdate();
+
+                PreparedStatement blocks = lease.prepare(deleteBlocks);
+                blocks.setInt(1, sessionId);
+                blocks.executeUpdate();
+
+                PreparedStatement session = lease.prepare(deleteSession);
+                session.setInt(1, sessionId);
+                session.executeUpdate();
 
                 conn.commit();
                 logger.info("Deleted session '{}' (ID: {}) and all its packets.", sessionName, sessionId);
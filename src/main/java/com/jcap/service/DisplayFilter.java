@@ -0,0 +1,358 @@
+package com.jcap.service;
+
+import com.jcap.model.Addresses;
+import com.jcap.model.Protocols;
+import com.jcap.service.FilterExpression.Operator;
+
+import java.util.Locale;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A Wireshark-style filter expression compiled into a tree of small lambdas over the decoded
+ * fields of a {@link PacketView}. Field names and constant values are resolved once at compile
+ * time, so evaluating a packet only reads primitives and compares them.
+ *
+ * <p>Supported fields: {@code frame.len}/{@code len}, {@code ip.proto}, {@code ip.src|dst|addr},
+ * {@code ipv6.src|dst|addr}, {@code eth.src|dst|addr} (for frames without an IP layer),
+ * {@code tcp.srcport|dstport|port}, {@code udp.srcport|dstport|port}, {@code tcp.flags},
+ * {@code tcp.flags.syn|ack|fin|rst|psh|urg} and {@code info}, plus bare protocol names such
+ * as {@code tcp}, {@code udp}, {@code arp}, {@code icmp}, {@code ip} and {@code ipv6}. The
+ * {@link ApplicationDissector}s add their own names and fields, such as {@code dns} and
+ * {@code http.host}. A comparison is false when the packet does not have the field.
+ */
+public final class DisplayFilter {
+
+    @FunctionalInterface
+    interface Matcher {
+        boolean test(PacketView packet);
+    }
+
+    private enum Side { SOURCE, DESTINATION, EITHER }
+
+    private final String text;
+    private final FilterExpression expression;
+    private final Matcher matcher;
+
+    private DisplayFilter(String text, FilterExpression expression, Matcher matcher) {
+        this.text = text;
+        this.expression = expression;
+        this.matcher = matcher;
+    }
+
+    public static DisplayFilter compile(String text) throws FilterSyntaxException {
+        if (text == null || text.isBlank()) throw new FilterSyntaxException("Empty filter", 0);
+        FilterExpression expression = FilterParser.parse(text);
+        return new DisplayFilter(text.trim(), expression, compile(expression));
+    }
+
+    public boolean test(PacketView packet) {
+        return matcher.test(packet);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    FilterExpression getExpression() {
+        return expression;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    // ---- compilation ----
+
+    static Matcher compile(FilterExpression expression) throws FilterSyntaxException {
+        return switch (expression) {
+            case FilterExpression.And and -> {
+                Matcher left = compile(and.left());
+                Matcher right = compile(and.right());
+                yield p -> left.test(p) && right.test(p);
+            }
+            case FilterExpression.Or or -> {
+                Matcher left = compile(or.left());
+                Matcher right = compile(or.right());
+                yield p -> left.test(p) || right.test(p);
+            }
+            case FilterExpression.Not not -> {
+                Matcher operand = compile(not.operand());
+                yield p -> !operand.test(p);
+            }
+            case FilterExpression.Exists exists -> compileExists(exists);
+            case FilterExpression.Compare compare -> compileCompare(compare);
+        };
+    }
+
+    private static Matcher compileExists(FilterExpression.Exists exists) throws FilterSyntaxException {
+        String field = exists.field();
+        int flag = tcpFlag(field);
+        if (flag != 0) {
+            return p -> p.protocol() == Protocols.TCP && (p.tcpFlags() & flag) != 0;
+        }
+
+        switch (field) {
+            case "frame":
+                return p -> true;
+            case "ip":
+                return p -> p.sourceKind() == Addresses.IPV4;
+            case "ipv6":
+                return p -> p.sourceKind() == Addresses.IPV6;
+            case "icmp":
+                return protocolIs(Protocols.ICMPV4);
+        }
+
+        ApplicationLayer applications = ApplicationLayer.get();
+        ApplicationDissector dissector = applications.dissector(field);
+        if (dissector != null) {
+            return p -> p.application().dissector() == dissector;
+        }
+        ApplicationLayer.FieldRef ref = applications.field(field);
+        if (ref != null) {
+            return p -> {
+                ApplicationFields fields = p.application();
+                return fields.dissector() == ref.dissector() && fields.has(ref.index());
+            };
+        }
+
+        int protocol = Protocols.idOf(field);
+        if (protocol == Protocols.UNKNOWN) {
+            throw new FilterSyntaxException("Unknown field or protocol '" + field + "'", exists.position());
+        }
+        return protocolIs(protocol);
+    }
+
+    private static Matcher protocolIs(int protocol) {
+        return p -> p.protocol() == protocol;
+    }
+
+    private static Matcher compileCompare(FilterExpression.Compare compare) throws FilterSyntaxException {
+        String field = compare.field();
+
+        if (field.equals("info")) return compileText(compare, field, PacketView::info);
+
+        int flag = tcpFlag(field);
+        if (flag != 0) {
+            int expected = parseNumber(compare) != 0 ? flag : 0;
+            IntPredicate test = numericTest(compare, expected);
+            return p -> p.protocol() == Protocols.TCP && test.test(p.tcpFlags() & flag);
+        }
+
+        return switch (field) {
+            case "frame.len", "len" -> {
+                IntPredicate test = numericTest(compare, parseNumber(compare));
+                yield p -> test.test(p.length());
+            }
+            case "ip.proto" -> {
+                IntPredicate test = numericTest(compare, parseNumber(compare));
+                yield p -> p.protocol() >= 0 && p.protocol() < 256 && test.test(p.protocol());
+            }
+            case "tcp.flags" -> {
+                IntPredicate test = numericTest(compare, parseNumber(compare));
+                yield p -> p.protocol() == Protocols.TCP && test.test(p.tcpFlags());
+            }
+            case "tcp.srcport" -> port(compare, Protocols.TCP, Side.SOURCE);
+            case "tcp.dstport" -> port(compare, Protocols.TCP, Side.DESTINATION);
+            case "tcp.port" -> port(compare, Protocols.TCP, Side.EITHER);
+            case "udp.srcport" -> port(compare, Protocols.UDP, Side.SOURCE);
+            case "udp.dstport" -> port(compare, Protocols.UDP, Side.DESTINATION);
+            case "udp.port" -> port(compare, Protocols.UDP, Side.EITHER);
+            case "ip.src" -> address(compare, Addresses.IPV4, Side.SOURCE);
+            case "ip.dst" -> address(compare, Addresses.IPV4, Side.DESTINATION);
+            case "ip.addr" -> address(compare, Addresses.IPV4, Side.EITHER);
+            case "ipv6.src" -> address(compare, Addresses.IPV6, Side.SOURCE);
+            case "ipv6.dst" -> address(compare, Addresses.IPV6, Side.DESTINATION);
+            case "ipv6.addr" -> address(compare, Addresses.IPV6, Side.EITHER);
+            case "eth.src" -> address(compare, Addresses.MAC, Side.SOURCE);
+            case "eth.dst" -> address(compare, Addresses.MAC, Side.DESTINATION);
+            case "eth.addr" -> address(compare, Addresses.MAC, Side.EITHER);
+            default -> {
+                ApplicationLayer.FieldRef ref = ApplicationLayer.get().field(field);
+                if (ref == null) throw new FilterSyntaxException("Unknown field '" + field + "'", compare.position());
+                yield application(compare, ref);
+            }
+        };
+    }
+
+    /**
+     * A field of the application layer, decoded from the payload only for packets that get this far.
+     */
+    private static Matcher application(FilterExpression.Compare compare, ApplicationLayer.FieldRef ref) throws FilterSyntaxException {
+        ApplicationDissector dissector = ref.dissector();
+        int index = ref.index();
+
+        if (ref.field().type() == ApplicationDissector.Type.NUMBER) {
+            IntPredicate test = numericTest(compare, parseNumber(compare));
+            return p -> {
+                ApplicationFields fields = p.application();
+                return fields.dissector() == dissector && fields.has(index) && test.test((int) fields.getNumber(index));
+            };
+        }
+
+        Matcher text = compileText(compare, ref.field().name(), p -> p.application().getText(index));
+        return p -> {
+            ApplicationFields fields = p.application();
+            return fields.dissector() == dissector && fields.has(index) && text.test(p);
+        };
+    }
+
+    private static Matcher port(FilterExpression.Compare compare, int protocol, Side side) throws FilterSyntaxException {
+        int port = parseNumber(compare);
+
+        if (side == Side.EITHER) {
+            if (compare.operator() == Operator.NE) {
+                // neither port matches, as opposed to "some port differs"
+                return p -> p.protocol() == protocol && p.sourcePort() != port && p.destinationPort() != port;
+            }
+            IntPredicate test = numericTest(compare, port);
+            return p -> p.protocol() == protocol && (test.test(p.sourcePort()) || test.test(p.destinationPort()));
+        }
+
+        IntPredicate test = numericTest(compare, port);
+        return side == Side.SOURCE
+                ? p -> p.protocol() == protocol && test.test(p.sourcePort())
+                : p -> p.protocol() == protocol && test.test(p.destinationPort());
+    }
+
+    private static Matcher address(FilterExpression.Compare compare, byte kind, Side side) throws FilterSyntaxException {
+        Operator operator = compare.operator();
+        if (operator != Operator.EQ && operator != Operator.NE) {
+            throw new FilterSyntaxException("Only == and != apply to addresses", compare.position());
+        }
+
+        String value = compare.value();
+        int slash = value.indexOf('/');
+        String host = slash < 0 ? value : value.substring(0, slash);
+
+        long[] parsed = new long[2];
+        if (Addresses.parse(host, parsed) != kind) {
+            throw new FilterSyntaxException("'" + host + "' is not a valid " + kindName(kind) + " address", compare.valuePosition());
+        }
+
+        int bits = switch (kind) {
+            case Addresses.IPV4 -> 32;
+            case Addresses.IPV6 -> 128;
+            default -> 48;
+        };
+        int prefix = bits;
+        if (slash >= 0) {
+            try {
+                prefix = Integer.parseInt(value.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                prefix = -1;
+            }
+            if (kind == Addresses.MAC || prefix < 0 || prefix > bits) {
+                throw new FilterSyntaxException("Invalid prefix length in '" + value + "'", compare.valuePosition());
+            }
+        }
+
+        // addresses are right-aligned in (hi, lo); build the network mask over the low 'bits' bits
+        long maskHi;
+        long maskLo;
+        if (bits == 128) {
+            maskHi = prefix == 0 ? 0 : -1L << (64 - Math.min(prefix, 64));
+            maskLo = prefix <= 64 ? 0 : -1L << (128 - prefix);
+        }
+        else {
+            maskHi = 0;
+            maskLo = prefix == 0 ? 0 : (-1L << (bits - prefix)) & ((1L << bits) - 1);
+        }
+        long netHi = parsed[0] & maskHi;
+        long netLo = parsed[1] & maskLo;
+
+        Matcher source = p -> (p.sourceHi() & maskHi) == netHi && (p.sourceLo() & maskLo) == netLo;
+        Matcher destination = p -> (p.destinationHi() & maskHi) == netHi && (p.destinationLo() & maskLo) == netLo;
+
+        Matcher equal = switch (side) {
+            case SOURCE -> source;
+            case DESTINATION -> destination;
+            case EITHER -> p -> source.test(p) || destination.test(p);
+        };
+
+        return operator == Operator.EQ
+                ? p -> p.sourceKind() == kind && equal.test(p)
+                : p -> p.sourceKind() == kind && !equal.test(p);
+    }
+
+    private static Matcher compileText(FilterExpression.Compare compare, String field, Function<PacketView, CharSequence> text)
+            throws FilterSyntaxException {
+        String value = compare.value();
+
+        return switch (compare.operator()) {
+            case EQ -> p -> value.contentEquals(text.apply(p));
+            case NE -> p -> !value.contentEquals(text.apply(p));
+            case CONTAINS -> p -> contains(text.apply(p), value);
+            case MATCHES -> {
+                Pattern pattern;
+                try {
+                    pattern = Pattern.compile(value, Pattern.CASE_INSENSITIVE);
+                } catch (PatternSyntaxException e) {
+                    throw new FilterSyntaxException("Invalid regular expression: " + e.getDescription(), compare.valuePosition());
+                }
+                yield p -> pattern.matcher(text.apply(p)).find();
+            }
+            default -> throw new FilterSyntaxException("Only ==, !=, contains and matches apply to " + field, compare.position());
+        };
+    }
+
+    private static IntPredicate numericTest(FilterExpression.Compare compare, int value) throws FilterSyntaxException {
+        return switch (compare.operator()) {
+            case EQ -> v -> v == value;
+            case NE -> v -> v != value;
+            case GT -> v -> v > value;
+            case GE -> v -> v >= value;
+            case LT -> v -> v < value;
+            case LE -> v -> v <= value;
+            default -> throw new FilterSyntaxException("'" + compare.operator().symbol + "' does not apply to numbers", compare.position());
+        };
+    }
+
+    private static int parseNumber(FilterExpression.Compare compare) throws FilterSyntaxException {
+        String value = compare.value().toLowerCase(Locale.ROOT);
+        try {
+            return switch (value) {
+                case "true" -> 1;
+                case "false" -> 0;
+                default -> value.startsWith("0x") ? Integer.parseInt(value.substring(2), 16) : Integer.parseInt(value);
+            };
+        } catch (NumberFormatException e) {
+            throw new FilterSyntaxException("'" + compare.value() + "' is not a number", compare.valuePosition());
+        }
+    }
+
+    private static int tcpFlag(String field) {
+        return switch (field) {
+            case "tcp.flags.fin" -> PacketHeaders.TCP_FIN;
+            case "tcp.flags.syn" -> PacketHeaders.TCP_SYN;
+            case "tcp.flags.rst", "tcp.flags.reset" -> PacketHeaders.TCP_RST;
+            case "tcp.flags.psh", "tcp.flags.push" -> PacketHeaders.TCP_PSH;
+            case "tcp.flags.ack" -> PacketHeaders.TCP_ACK;
+            case "tcp.flags.urg" -> PacketHeaders.TCP_URG;
+            default -> 0;
+        };
+    }
+
+    private static boolean contains(CharSequence text, String value) {
+        int last = text.length() - value.length();
+        outer:
+        for (int i = 0; i <= last; i++) {
+            for (int j = 0; j < value.length(); j++) {
+                if (text.charAt(i + j) != value.charAt(j)) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static String kindName(byte kind) {
+        return switch (kind) {
+            case Addresses.IPV4 -> "IPv4";
+            case Addresses.IPV6 -> "IPv6";
+            default -> "MAC";
+        };
+    }
+}
@@ -0,0 +1,151 @@
+package com.jcap.service;
+
+import java.util.List;
+
+/**
+ * DNS over UDP and TCP (where a two-byte length comes first): the header, and name and type of
+ * the first question.
+ */
+public final class DnsDissector implements ApplicationDissector {
+
+    static final int ID = 0;
+    static final int RESPONSE = 1;
+    static final int OPCODE = 2;
+    static final int RCODE = 3;
+    static final int QUESTIONS = 4;
+    static final int ANSWERS = 5;
+    static final int NAME = 6;
+    static final int TYPE = 7;
+
+    private static final List<Field> FIELDS = List.of(
+            new Field("dns.id", "Transaction ID", Type.NUMBER),
+            new Field("dns.flags.response", "Response", Type.NUMBER),
+            new Field("dns.flags.opcode", "Opcode", Type.NUMBER),
+            new Field("dns.flags.rcode", "Reply code", Type.NUMBER),
+            new Field("dns.count.queries", "Questions", Type.NUMBER),
+            new Field("dns.count.answers", "Answer RRs", Type.NUMBER),
+            new Field("dns.qry.name", "Name", Type.LABELS),
+            new Field("dns.qry.type", "Type", Type.NUMBER));
+
+    private static final String[] RCODES = {
+            "No error", "Format error", "Server failure", "No such name", "Not implemented", "Refused"
+    };
+
+    @Override
+    public String name() {
+        return "dns";
+    }
+
+    @Override
+    public String title() {
+        return "Domain Name System";
+    }
+
+    @Override
+    public List<Field> fields() {
+        return FIELDS;
+    }
+
+    @Override
+    public int[] tcpPorts() {
+        return new int[] {53};
+    }
+
+    @Override
+    public int[] udpPorts() {
+        return new int[] {53, 5353, 5355};
+    }
+
+    @Override
+    public boolean dissect(PacketHeaders headers, byte[] data, int offset, int length, ApplicationFields out) {
+        if (headers.isTcp()) {
+            offset += 2;
+            length -= 2;
+        }
+        if (length < 12) return false;
+
+        int end = offset + length;
+        int flags = u16(data, offset + 2);
+        int questions = u16(data, offset + 4);
+        out.setNumber(ID, u16(data, offset));
+        out.setNumber(RESPONSE, flags >>> 15);
+        out.setNumber(OPCODE, flags >>> 11 & 0xF);
+        out.setNumber(RCODE, flags & 0xF);
+        out.setNumber(QUESTIONS, questions);
+        out.setNumber(ANSWERS, u16(data, offset + 6));
+        if (questions == 0) return true;
+
+        // walk the first question's labels: plain labels up to a zero byte or one pointer
+        int position = offset + 12;
+        int nameLength = 0;
+        while (true) {
+            if (position >= end) return true;
+            int label = data[position] & 0xFF;
+            if (label == 0) {
+                position++;
+                break;
+            }
+            if ((label & 0xC0) == 0xC0) {
+                position += 2;
+                break;
+            }
+            if ((label & 0xC0) != 0 || (nameLength += label + 1) > 255) return false;
+            position += 1 + label;
+        }
+        if (position > end) return true;
+
+        out.setLabels(NAME, offset + 12, position - offset - 12, offset);
+        if (position + 2 <= end) out.setNumber(TYPE, u16(data, position));
+        return true;
+    }
+
+    @Override
+    public void appendInfo(ApplicationFields fields, StringBuilder sb) {
+        boolean response = fields.getNumber(RESPONSE) != 0;
+        int opcode = (int) fields.getNumber(OPCODE);
+
+        if (opcode == 0) sb.append(response ? "Standard query response 0x" : "Standard query 0x");
+        else sb.append(response ? "Response to opcode " : "Opcode ").append(opcode).append(" 0x");
+        int id = (int) fields.getNumber(ID);
+        for (int shift = 12; shift >= 0; shift -= 4) {
+            sb.append(Character.forDigit(id >>> shift & 0xF, 16));
+        }
+
+        int rcode = (int) fields.getNumber(RCODE);
+        if (response && rcode != 0) {
+            sb.append(' ').append(rcode < RCODES.length ? RCODES[rcode] : "Reply code " + rcode);
+        }
+        if (fields.has(TYPE)) {
+            sb.append(' ');
+            appendType((int) fields.getNumber(TYPE), sb);
+        }
+        if (fields.has(NAME)) {
+            sb.append(' ');
+            fields.appendValue(NAME, sb);
+        }
+    }
+
+    static void appendType(int type, StringBuilder sb) {
+        String name = switch (type) {
+            case 1 -> "A";
+            case 2 -> "NS";
+            case 5 -> "CNAME";
+            case 6 -> "SOA";
+            case 12 -> "PTR";
+            case 15 -> "MX";
+            case 16 -> "TXT";
+            case 28 -> "AAAA";
+            case 33 -> "SRV";
+            case 64 -> "SVCB";
+            case 65 -> "HTTPS";
+            case 255 -> "ANY";
+            default -> null;
+        };
+        if (name != null) sb.append(name);
+        else sb.append("TYPE").append(type);
+    }
+
+    private static int u16(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 8 | data[offset + 1] & 0xFF;
+    }
+}
@@ -0,0 +1,77 @@
+package com.jcap.service;
+
+import java.util.Arrays;
+
+/**
+ * Where the nodes of a {@link PacketDetail} lie in the frame, as offset and length arrays. Once
+ * built, the starts and ends of all ranges form sorted boundaries, each owned by the innermost
+ * node from there to the next one, so the node at a byte is found with a binary search.
+ */
+final class FieldRanges {
+
+    private int[] offsets = new int[16];
+    private int[] lengths = new int[16];
+    private int size;
+
+    private int[] bounds = new int[0];
+    private int[] owners = new int[0];
+
+    /**
+     * Adds the range of the next node; a length of 0 or less means it has none.
+     */
+    void add(int offset, int length) {
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+            lengths = Arrays.copyOf(lengths, size * 2);
+        }
+        offsets[size] = length > 0 ? offset : -1;
+        lengths[size] = Math.max(length, 0);
+        size++;
+    }
+
+    int offset(int node) {
+        return offsets[node];
+    }
+
+    int length(int node) {
+        return lengths[node];
+    }
+
+    void build() {
+        int[] points = new int[size * 2];
+        int count = 0;
+        for (int node = 0; node < size; node++) {
+            if (offsets[node] < 0) continue;
+            points[count++] = offsets[node];
+            points[count++] = offsets[node] + lengths[node];
+        }
+        Arrays.sort(points, 0, count);
+
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || points[i] != points[unique - 1]) points[unique++] = points[i];
+        }
+        bounds = Arrays.copyOf(points, unique);
+        owners = new int[unique];
+
+        for (int i = 0; i < unique; i++) {
+            int start = bounds[i];
+            int owner = -1;
+            // a field lies within its layer and comes after it, so the shortest and latest range is innermost
+            for (int node = 0; node < size; node++) {
+                if (offsets[node] < 0 || start < offsets[node] || start >= offsets[node] + lengths[node]) continue;
+                if (owner < 0 || lengths[node] <= lengths[owner]) owner = node;
+            }
+            owners[i] = owner;
+        }
+    }
+
+    /**
+     * The innermost node covering byte {@code position} of the frame, or -1.
+     */
+    int nodeAt(int position) {
+        int i = Arrays.binarySearch(bounds, position);
+        if (i < 0) i = -i - 2;
+        return i < 0 ? -1 : owners[i];
+    }
+}
@@ -0,0 +1,304 @@
+package com.jcap.service;
+
+import com.jcap.model.PacketStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Evaluates the display filter on a background thread. Text that parses as a {@link DisplayFilter}
+ * expression is run as a compiled predicate over the decoded columns; anything else is a plain
+ * search answered from a {@link FilterIndex} of the current store. Every new query or store
+ * supersedes the evaluation in flight, a search that extends the previous one only re-checks
+ * the previous matches, and rows captured after the last evaluation are checked incrementally
+ * by {@link #refresh()}.
+ *
+ * <p>Results are handed to the listener on the filter thread as ascending row numbers.
+ */
+public class FilterEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(FilterEngine.class);
+
+    /**
+     * Matching rows of {@code store}. {@code rows} is null when no filter is active; when
+     * {@code append} is set the rows extend the previously published result.
+     */
+    public record FilterResult(PacketStore store, int[] rows, int count, boolean append) {
+    }
+
+    private final Consumer<FilterResult> listener;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "jcap-filter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
+
+    private volatile PacketStore store;
+    private volatile String query = "";
+    private volatile DisplayFilter expression;
+
+    // owned by the filter thread
+    private FilterIndex index;
+    private long resultGeneration = -1;
+    private String resultQuery = "";
+    private DisplayFilter resultExpression;
+    private int[] resultRows = new int[0];
+    private int resultCount;
+    private int evaluatedRows;
+    private boolean[] protocolMatches;
+    private boolean[] addressMatches;
+
+    public FilterEngine(Consumer<FilterResult> listener) {
+        this.listener = listener;
+    }
+
+    public void setStore(PacketStore store) {
+        this.store = store;
+        schedule();
+    }
+
+    /**
+     * Returns true when the text was taken as a filter expression rather than a search.
+     */
+    public boolean setQuery(String text) {
+        DisplayFilter compiled = null;
+        if (text != null && !text.isBlank()) {
+            try {
+                compiled = DisplayFilter.compile(text);
+            } catch (FilterSyntaxException e) {
+                logger.trace("'{}' is not a filter expression: {}", text, e.getMessage());
+            }
+        }
+
+        this.expression = compiled;
+        this.query = text == null ? "" : text.toLowerCase(Locale.ROOT);
+        schedule();
+        return compiled != null;
+    }
+
+    /**
+     * Checks rows appended to the store since the last evaluation. Calls are coalesced while one is pending.
+     */
+    public void refresh() {
+        if (refreshPending.compareAndSet(false, true)) {
+            executor.execute(() -> run(this::extend));
+        }
+    }
+
+    public void shutdown() {
+        generation.incrementAndGet();
+        executor.shutdownNow();
+    }
+
+    private void schedule() {
+        long gen = generation.incrementAndGet();
+        PacketStore target = store;
+        String text = query;
+        DisplayFilter filter = expression;
+        executor.execute(() -> run(() -> evaluate(gen, target, text, filter)));
+    }
+
+    private void run(Runnable work) {
+        try {
+            work.run();
+        } catch (Exception e) {
+            logger.error("Display filter evaluation failed.", e);
+        }
+    }
+
+    private boolean isStale(long gen) {
+        return generation.get() != gen;
+    }
+
+    private void evaluate(long gen, PacketStore target, String text, DisplayFilter filter) {
+        if (isStale(gen) || target == null) return;
+
+        if (index == null || index.getStore() != target) {
+            index = new FilterIndex(target);
+            resultQuery = "";
+            resultExpression = null;
+            resultCount = 0;
+            evaluatedRows = 0;
+        }
+
+        if (text.isEmpty()) {
+            resultGeneration = gen;
+            resultQuery = "";
+            resultExpression = null;
+            listener.accept(new FilterResult(target, null, 0, false));
+            return;
+        }
+
+        BooleanSupplier cancelled = () -> isStale(gen);
+        long started = System.nanoTime();
+
+        if (filter != null) {
+            int size = target.size();
+            RowBuffer matches = new RowBuffer(16);
+            if (!scan(matches, 0, size, filter, new StoreRowView(target), cancelled)) return;
+
+            resultGeneration = gen;
+            resultQuery = text;
+            resultExpression = filter;
+            resultRows = matches.rows;
+            resultCount = matches.count;
+            evaluatedRows = size;
+
+            logger.debug("Filter expression '{}' matched {} of {} rows in {} ms.",
+                    filter, resultCount, size, (System.nanoTime() - started) / 1_000_000);
+            listener.accept(new FilterResult(target, Arrays.copyOf(resultRows, resultCount), resultCount, false));
+            return;
+        }
+
+        index.catchUp(cancelled);
+        if (cancelled.getAsBoolean()) return;
+
+        int indexed = index.getIndexedRows();
+        boolean[] protocols = index.matchingProtocols(text);
+        boolean[] addresses = index.matchingAddresses(text, null);
+        RowBuffer matches;
+
+        if (resultExpression == null && !resultQuery.isEmpty() && text.contains(resultQuery)) {
+            // anything matching the longer query matched the shorter one, so only previous hits can survive
+            matches = new RowBuffer(resultCount);
+            for (int i = 0; i < resultCount; i++) {
+                if ((i & 0xFFF) == 0 && cancelled.getAsBoolean()) return;
+
+                int row = resultRows[i];
+                if (index.matchesRow(row, text, protocols, addresses)) matches.add(row);
+            }
+            if (!scan(matches, evaluatedRows, indexed, text, protocols, addresses, cancelled)) return;
+        }
+        else {
+            matches = lookup(indexed, text, protocols, addresses, cancelled);
+            if (matches == null) return;
+        }
+
+        resultGeneration = gen;
+        resultQuery = text;
+        resultExpression = null;
+        resultRows = matches.rows;
+        resultCount = matches.count;
+        evaluatedRows = indexed;
+        protocolMatches = protocols;
+        addressMatches = addresses;
+
+        logger.debug("Filter '{}' matched {} of {} rows in {} ms.",
+                text, resultCount, indexed, (System.nanoTime() - started) / 1_000_000);
+        listener.accept(new FilterResult(target, Arrays.copyOf(resultRows, resultCount), resultCount, false));
+    }
+
+    private void extend() {
+        refreshPending.set(false);
+
+        long gen = generation.get();
+        if (gen != resultGeneration || resultQuery.isEmpty()) return;
+
+        BooleanSupplier cancelled = () -> isStale(gen);
+        RowBuffer added = new RowBuffer(16);
+        boolean[] addresses = addressMatches;
+        int evaluated;
+
+        if (resultExpression != null) {
+            evaluated = index.getStore().size();
+            if (evaluated <= evaluatedRows) return;
+            if (!scan(added, evaluatedRows, evaluated, resultExpression, new StoreRowView(index.getStore()), cancelled)) return;
+        }
+        else {
+            index.catchUp(cancelled);
+            evaluated = index.getIndexedRows();
+            if (evaluated <= evaluatedRows) return;
+
+            addresses = index.matchingAddresses(resultQuery, addressMatches);
+            if (!scan(added, evaluatedRows, evaluated, resultQuery, protocolMatches, addresses, cancelled)) return;
+        }
+
+        if (resultCount + added.count > resultRows.length) {
+            resultRows = Arrays.copyOf(resultRows, Math.max(resultCount + added.count, resultRows.length * 2));
+        }
+        System.arraycopy(added.rows, 0, resultRows, resultCount, added.count);
+        resultCount += added.count;
+        evaluatedRows = evaluated;
+        addressMatches = addresses;
+
+        if (added.count > 0) {
+            listener.accept(new FilterResult(index.getStore(), Arrays.copyOf(added.rows, added.count), added.count, true));
+        }
+    }
+
+    /**
+     * Full evaluation from the indexes: protocol bitmaps and address postings are OR-ed
+     * together, info hits come from the trigram index and are verified against the text.
+     */
+    private RowBuffer lookup(int indexed, String text, boolean[] protocols, boolean[] addresses,
+                             BooleanSupplier cancelled) {
+        BitSet hits = new BitSet(indexed);
+        index.collectProtocolRows(protocols, hits);
+        index.collectAddressRows(addresses, hits);
+
+        int[] candidates = index.infoCandidates(text);
+        if (candidates == null) {
+            for (int row = 0; row < indexed; row++) {
+                if ((row & 0xFFF) == 0 && cancelled.getAsBoolean()) return null;
+                if (!hits.get(row) && index.infoContains(row, text)) hits.set(row);
+            }
+        }
+        else {
+            for (int i = 0; i < candidates.length; i++) {
+                if ((i & 0xFFF) == 0 && cancelled.getAsBoolean()) return null;
+
+                int row = candidates[i];
+                if (!hits.get(row) && index.infoContains(row, text)) hits.set(row);
+            }
+        }
+
+        RowBuffer matches = new RowBuffer(hits.cardinality());
+        for (int row = hits.nextSetBit(0); row >= 0; row = hits.nextSetBit(row + 1)) {
+            matches.add(row);
+        }
+        return matches;
+    }
+
+    private boolean scan(RowBuffer out, int from, int to, String text, boolean[] protocols, boolean[] addresses,
+                         BooleanSupplier cancelled) {
+        for (int row = from; row < to; row++) {
+            if ((row & 0xFFF) == 0 && cancelled.getAsBoolean()) return false;
+            if (index.matchesRow(row, text, protocols, addresses)) out.add(row);
+        }
+        return true;
+    }
+
+    private boolean scan(RowBuffer out, int from, int to, DisplayFilter filter, StoreRowView view,
+                         BooleanSupplier cancelled) {
+        for (int row = from; row < to; row++) {
+            if ((row & 0xFFF) == 0 && cancelled.getAsBoolean()) return false;
+            if (filter.test(view.at(row))) out.add(row);
+        }
+        return true;
+    }
+
+    private static final class RowBuffer {
+        private int[] rows;
+        private int count;
+
+        RowBuffer(int capacity) {
+            rows = new int[Math.max(capacity, 16)];
+        }
+
+        void add(int row) {
+            if (count == rows.length) rows = Arrays.copyOf(rows, count * 2);
+            rows[count++] = row;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.jcap.service;
+
+/**
+ * Syntax tree of a display filter, produced by {@link FilterParser}. Field names and values are
+ * kept as written; they are resolved when the tree is compiled into a {@link DisplayFilter}.
+ */
+sealed interface FilterExpression {
+
+    enum Operator {
+        EQ("=="), NE("!="), GT(">"), GE(">="), LT("<"), LE("<="), CONTAINS("contains"), MATCHES("matches");
+
+        final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+    }
+
+    record And(FilterExpression left, FilterExpression right) implements FilterExpression {
+        @Override
+        public String toString() {
+            return "(" + left + " && " + right + ")";
+        }
+    }
+
+    record Or(FilterExpression left, FilterExpression right) implements FilterExpression {
+        @Override
+        public String toString() {
+            return "(" + left + " || " + right + ")";
+        }
+    }
+
+    record Not(FilterExpression operand) implements FilterExpression {
+        @Override
+        public String toString() {
+            return "!" + operand;
+        }
+    }
+
+    /**
+     * A bare field or protocol name, true when the packet has it.
+     */
+    record Exists(String field, int position) implements FilterExpression {
+        @Override
+        public String toString() {
+            return field;
+        }
+    }
+
+    record Compare(String field, Operator operator, String value, int position, int valuePosition)
+            implements FilterExpression {
+        @Override
+        public String toString() {
+            return field + " " + operator.symbol + " " + value;
+        }
+    }
+}
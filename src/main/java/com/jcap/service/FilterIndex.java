@@ -0,0 +1,310 @@
+package com.jcap.service;
+
+import com.jcap.model.Addresses;
+import com.jcap.model.PacketStore;
+import com.jcap.model.Protocols;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Per-column indexes over a {@link PacketStore}, built incrementally as rows arrive:
+ * a row bitmap per protocol id, postings per distinct source/destination address and
+ * a trigram index over the lower-cased info text. Only touched by the filter thread.
+ */
+class FilterIndex {
+
+    private static final int PROTOCOL_SLOTS = Protocols.ETHERNET + 2;
+
+    private final PacketStore store;
+    private int indexedRows;
+
+    private final BitSet[] protocolRows = new BitSet[PROTOCOL_SLOTS];
+
+    private final AddressTable addresses = new AddressTable();
+    private final List<PostingList> addressPostings = new ArrayList<>();
+    private int[] srcIds = new int[1024];
+    private int[] dstIds = new int[1024];
+
+    private final TrigramTable trigrams = new TrigramTable();
+    private final StringBuilder info = new StringBuilder(128);
+
+    FilterIndex(PacketStore store) {
+        this.store = store;
+    }
+
+    PacketStore getStore() {
+        return store;
+    }
+
+    int getIndexedRows() {
+        return indexedRows;
+    }
+
+    /**
+     * Indexes rows appended since the last call, stopping early if {@code cancelled} flips.
+     */
+    void catchUp(BooleanSupplier cancelled) {
+        int size = store.size();
+        if (srcIds.length < size) {
+            int capacity = Math.max(size, srcIds.length * 2);
+            srcIds = Arrays.copyOf(srcIds, capacity);
+            dstIds = Arrays.copyOf(dstIds, capacity);
+        }
+
+        for (int row = indexedRows; row < size; row++) {
+            if ((row & 0xFFF) == 0 && cancelled.getAsBoolean()) return;
+
+            int protocol = protocolSlot(store.getProtocol(row));
+            if (protocolRows[protocol] == null) protocolRows[protocol] = new BitSet();
+            protocolRows[protocol].set(row);
+
+            int src = addressId(store.getSourceKind(row), store.getSourceHi(row), store.getSourceLo(row));
+            int dst = addressId(store.getDestinationKind(row), store.getDestinationHi(row), store.getDestinationLo(row));
+            srcIds[row] = src;
+            dstIds[row] = dst;
+            addressPostings.get(src).add(row);
+            addressPostings.get(dst).add(row);
+
+            info.setLength(0);
+            store.appendInfo(row, info);
+            indexTrigrams(row, info);
+            indexedRows = row + 1;
+        }
+    }
+
+    // ---- query helpers ----
+
+    boolean[] matchingProtocols(String lowerQuery) {
+        boolean[] matches = new boolean[PROTOCOL_SLOTS];
+        for (int slot = 0; slot < PROTOCOL_SLOTS; slot++) {
+            String name = Protocols.name(slot == PROTOCOL_SLOTS - 1 ? Protocols.UNKNOWN : slot);
+            matches[slot] = name.toLowerCase(Locale.ROOT).contains(lowerQuery);
+        }
+        return matches;
+    }
+
+    /**
+     * Evaluates the query against every distinct address, reusing the answers in {@code previous}
+     * for addresses that were already known when it was computed.
+     */
+    boolean[] matchingAddresses(String lowerQuery, boolean[] previous) {
+        int known = previous != null ? previous.length : 0;
+        boolean[] matches = previous != null ? Arrays.copyOf(previous, addresses.size()) : new boolean[addresses.size()];
+        for (int id = known; id < matches.length; id++) {
+            matches[id] = addresses.text(id).contains(lowerQuery);
+        }
+        return matches;
+    }
+
+    void collectProtocolRows(boolean[] protocols, BitSet out) {
+        for (int slot = 0; slot < PROTOCOL_SLOTS; slot++) {
+            if (protocols[slot] && protocolRows[slot] != null) out.or(protocolRows[slot]);
+        }
+    }
+
+    void collectAddressRows(boolean[] addressMatches, BitSet out) {
+        for (int id = 0; id < addressMatches.length; id++) {
+            if (!addressMatches[id]) continue;
+            for (int row : addressPostings.get(id).toArray()) {
+                out.set(row);
+            }
+        }
+    }
+
+    /**
+     * Rows whose info text may contain the query, or null when the query is too short for the trigram index.
+     */
+    int[] infoCandidates(String lowerQuery) {
+        if (lowerQuery.length() < 3) return null;
+
+        List<PostingList> lists = new ArrayList<>();
+        for (int i = 0; i + 3 <= lowerQuery.length(); i++) {
+            PostingList list = trigrams.get(trigram(lowerQuery.charAt(i), lowerQuery.charAt(i + 1), lowerQuery.charAt(i + 2)));
+            if (list == null) return new int[0];
+            lists.add(list);
+        }
+        lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+
+        int[] rows = lists.getFirst().toArray();
+        int length = rows.length;
+        for (int i = 1; i < lists.size() && length > 0; i++) {
+            length = lists.get(i).retainIn(rows, length);
+        }
+        return Arrays.copyOf(rows, length);
+    }
+
+    boolean matchesRow(int row, String lowerQuery, boolean[] protocols, boolean[] addressMatches) {
+        return protocols[protocolSlot(store.getProtocol(row))]
+                || addressMatches[srcIds[row]]
+                || addressMatches[dstIds[row]]
+                || infoContains(row, lowerQuery);
+    }
+
+    boolean infoContains(int row, String lowerQuery) {
+        info.setLength(0);
+        store.appendInfo(row, info);
+        int last = info.length() - lowerQuery.length();
+        next:
+        for (int i = 0; i <= last; i++) {
+            for (int j = 0; j < lowerQuery.length(); j++) {
+                if (Character.toLowerCase(info.charAt(i + j)) != lowerQuery.charAt(j)) continue next;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // ---- building ----
+
+    private static int protocolSlot(int protocol) {
+        return protocol < 0 || protocol >= PROTOCOL_SLOTS - 1 ? PROTOCOL_SLOTS - 1 : protocol;
+    }
+
+    private int addressId(byte kind, long hi, long lo) {
+        int id = addresses.find(kind, hi, lo);
+        if (id < 0) {
+            StringBuilder sb = new StringBuilder(40);
+            Addresses.append(kind, hi, lo, sb);
+            id = addresses.add(kind, hi, lo, sb.toString().toLowerCase(Locale.ROOT));
+            addressPostings.add(new PostingList());
+        }
+        return id;
+    }
+
+    private void indexTrigrams(int row, CharSequence info) {
+        for (int i = 0; i + 3 <= info.length(); i++) {
+            long key = trigram(
+                    Character.toLowerCase(info.charAt(i)),
+                    Character.toLowerCase(info.charAt(i + 1)),
+                    Character.toLowerCase(info.charAt(i + 2)));
+            trigrams.getOrCreate(key).add(row);
+        }
+    }
+
+    private static long trigram(char a, char b, char c) {
+        return ((long) a << 32) | ((long) b << 16) | c;
+    }
+
+    /**
+     * Open-addressing table of distinct addresses.
+     */
+    private static final class AddressTable {
+        private byte[] kinds = new byte[1024];
+        private long[] his = new long[1024];
+        private long[] los = new long[1024];
+        private int[] slots = filled(2048);
+        private final List<String> texts = new ArrayList<>();
+
+        int size() {
+            return texts.size();
+        }
+
+        String text(int id) {
+            return texts.get(id);
+        }
+
+        int find(byte kind, long hi, long lo) {
+            int mask = slots.length - 1;
+            for (int i = hash(kind, hi, lo) & mask; ; i = (i + 1) & mask) {
+                int id = slots[i];
+                if (id < 0) return -1;
+                if (kinds[id] == kind && his[id] == hi && los[id] == lo) return id;
+            }
+        }
+
+        int add(byte kind, long hi, long lo, String text) {
+            int id = texts.size();
+            if (id == kinds.length) {
+                kinds = Arrays.copyOf(kinds, id * 2);
+                his = Arrays.copyOf(his, id * 2);
+                los = Arrays.copyOf(los, id * 2);
+            }
+            kinds[id] = kind;
+            his[id] = hi;
+            los[id] = lo;
+            texts.add(text);
+
+            if ((id + 1) * 2 > slots.length) {
+                slots = filled(slots.length * 2);
+                for (int existing = 0; existing < id; existing++) insert(existing);
+            }
+            insert(id);
+            return id;
+        }
+
+        private void insert(int id) {
+            int mask = slots.length - 1;
+            int i = hash(kinds[id], his[id], los[id]) & mask;
+            while (slots[i] >= 0) i = (i + 1) & mask;
+            slots[i] = id;
+        }
+
+        private static int hash(byte kind, long hi, long lo) {
+            long h = (hi * 0x9E3779B97F4A7C15L) ^ (lo * 0xC2B2AE3D27D4EB4FL) ^ kind;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        private static int[] filled(int size) {
+            int[] array = new int[size];
+            Arrays.fill(array, -1);
+            return array;
+        }
+    }
+
+    /**
+     * Open-addressing map from packed trigram to its posting list.
+     */
+    private static final class TrigramTable {
+        private long[] keys = new long[4096];
+        private PostingList[] values = new PostingList[4096];
+        private int size;
+
+        PostingList get(long key) {
+            int mask = keys.length - 1;
+            for (int i = hash(key) & mask; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) return values[i];
+            }
+            return null;
+        }
+
+        PostingList getOrCreate(long key) {
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            for (; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) return values[i];
+            }
+
+            PostingList list = new PostingList();
+            keys[i] = key;
+            values[i] = list;
+            if (++size * 2 > keys.length) grow();
+            return list;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            PostingList[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new PostingList[oldKeys.length * 2];
+
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldValues[j] == null) continue;
+                int i = hash(oldKeys[j]) & mask;
+                while (values[i] != null) i = (i + 1) & mask;
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 29));
+        }
+    }
+}
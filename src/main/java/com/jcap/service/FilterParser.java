@@ -0,0 +1,185 @@
+package com.jcap.service;
+
+import com.jcap.service.FilterExpression.Operator;
+
+import java.util.Locale;
+
+/**
+ * Recursive-descent parser for display filter expressions such as
+ * {@code tcp.port == 443 && ip.src == 10.0.0.0/8 && len > 1200}.
+ *
+ * <pre>
+ * expr    := and (("||" | "or") and)*
+ * and     := unary (("&amp;&amp;" | "and") unary)*
+ * unary   := ("!" | "not") unary | primary
+ * primary := "(" expr ")" | field [operator value]
+ * </pre>
+ */
+final class FilterParser {
+
+    private final String text;
+    private int pos;
+
+    private FilterParser(String text) {
+        this.text = text;
+    }
+
+    static FilterExpression parse(String text) throws FilterSyntaxException {
+        FilterParser parser = new FilterParser(text);
+        FilterExpression expression = parser.parseOr();
+
+        parser.skipSpace();
+        if (parser.pos < text.length()) {
+            throw new FilterSyntaxException("Unexpected '" + parser.peekWord() + "'", parser.pos);
+        }
+        return expression;
+    }
+
+    private FilterExpression parseOr() throws FilterSyntaxException {
+        FilterExpression left = parseAnd();
+        while (accept("||") || acceptWord("or")) {
+            left = new FilterExpression.Or(left, parseAnd());
+        }
+        return left;
+    }
+
+    private FilterExpression parseAnd() throws FilterSyntaxException {
+        FilterExpression left = parseUnary();
+        while (accept("&&") || acceptWord("and")) {
+            left = new FilterExpression.And(left, parseUnary());
+        }
+        return left;
+    }
+
+    private FilterExpression parseUnary() throws FilterSyntaxException {
+        skipSpace();
+        if (peek('!') && !peekAt(1, '=')) {
+            pos++;
+            return new FilterExpression.Not(parseUnary());
+        }
+        if (acceptWord("not")) {
+            return new FilterExpression.Not(parseUnary());
+        }
+        return parsePrimary();
+    }
+
+    private FilterExpression parsePrimary() throws FilterSyntaxException {
+        skipSpace();
+        if (accept("(")) {
+            FilterExpression inner = parseOr();
+            if (!accept(")")) throw new FilterSyntaxException("Missing ')'", pos);
+            return inner;
+        }
+
+        int fieldPosition = pos;
+        String field = readWord();
+        if (field.isEmpty()) {
+            throw new FilterSyntaxException(pos < text.length() ? "Unexpected '" + text.charAt(pos) + "'" : "Expression expected", pos);
+        }
+
+        Operator operator = readOperator();
+        if (operator == null) {
+            return new FilterExpression.Exists(field.toLowerCase(Locale.ROOT), fieldPosition);
+        }
+
+        skipSpace();
+        int valuePosition = pos;
+        boolean quoted = peek('"');
+        String value = quoted ? readString() : readWord();
+        if (value.isEmpty() && !quoted) {
+            throw new FilterSyntaxException("Value expected after '" + operator.symbol + "'", pos);
+        }
+        return new FilterExpression.Compare(field.toLowerCase(Locale.ROOT), operator, value, fieldPosition, valuePosition);
+    }
+
+    private Operator readOperator() {
+        skipSpace();
+        if (accept("==")) return Operator.EQ;
+        if (accept("!=")) return Operator.NE;
+        if (accept(">=")) return Operator.GE;
+        if (accept("<=")) return Operator.LE;
+        if (accept(">")) return Operator.GT;
+        if (accept("<")) return Operator.LT;
+
+        for (String word : new String[] {"eq", "ne", "gt", "ge", "lt", "le", "contains", "matches"}) {
+            if (acceptWord(word)) {
+                return switch (word) {
+                    case "eq" -> Operator.EQ;
+                    case "ne" -> Operator.NE;
+                    case "gt" -> Operator.GT;
+                    case "ge" -> Operator.GE;
+                    case "lt" -> Operator.LT;
+                    case "le" -> Operator.LE;
+                    case "contains" -> Operator.CONTAINS;
+                    default -> Operator.MATCHES;
+                };
+            }
+        }
+        return null;
+    }
+
+    // ---- lexing ----
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '.' || c == ':' || c == '/' || c == '_' || c == '-';
+    }
+
+    private void skipSpace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+    }
+
+    private boolean peek(char c) {
+        return pos < text.length() && text.charAt(pos) == c;
+    }
+
+    private boolean peekAt(int offset, char c) {
+        return pos + offset < text.length() && text.charAt(pos + offset) == c;
+    }
+
+    private boolean accept(String symbol) {
+        skipSpace();
+        if (text.startsWith(symbol, pos)) {
+            pos += symbol.length();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean acceptWord(String word) {
+        skipSpace();
+        int end = pos + word.length();
+        if (text.regionMatches(true, pos, word, 0, word.length())
+                && (end == text.length() || !isWordChar(text.charAt(end)))) {
+            pos = end;
+            return true;
+        }
+        return false;
+    }
+
+    private String readWord() {
+        skipSpace();
+        int start = pos;
+        while (pos < text.length() && isWordChar(text.charAt(pos))) pos++;
+        return text.substring(start, pos);
+    }
+
+    private String peekWord() {
+        int start = pos;
+        String word = readWord();
+        pos = start;
+        return word.isEmpty() ? String.valueOf(text.charAt(pos)) : word;
+    }
+
+    private String readString() throws FilterSyntaxException {
+        int start = pos++;
+        StringBuilder sb = new StringBuilder();
+
+        while (pos < text.length()) {
+            char c = text.charAt(pos++);
+            if (c == '"') return sb.toString();
+            if (c == '\\' && pos < text.length()) c = text.charAt(pos++);
+            sb.append(c);
+        }
+        throw new FilterSyntaxException("Unterminated string", start);
+    }
+}
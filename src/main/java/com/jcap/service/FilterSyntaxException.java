@@ -0,0 +1,20 @@
+package com.jcap.service;
+
+/**
+ * Thrown when a display filter expression cannot be parsed or refers to an unknown field.
+ */
+public class FilterSyntaxException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int position;
+
+    public FilterSyntaxException(String message, int position) {
+        super(message + " (at " + (position + 1) + ")");
+        this.position = position;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+}
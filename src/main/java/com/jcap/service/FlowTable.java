@@ -0,0 +1,656 @@
+package com.jcap.service;
+
+import com.jcap.model.Addresses;
+import com.jcap.model.PacketStore;
+import com.jcap.model.Protocols;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Conversations keyed by their 5-tuple, in both directions. Flows live in a fixed number of
+ * stripes, each an open-addressing table over primitive columns guarded by its own lock, so
+ * several threads can add packets while a view reads. Timestamps are capture time, which makes a
+ * file or a saved session expire the same way as a live capture.
+ *
+ * <p>A flow ends after {@code jcap.flow.idleSeconds} without packets, or once it has been open for
+ * {@code jcap.flow.activeSeconds}; its next packet then starts a new conversation. Every stripe keeps
+ * its flows in two lists ordered by last packet and by start, so expiring only looks at their heads.
+ * Ended conversations are kept, the table only drops their flow state; once more than
+ * {@code jcap.flow.endedConversations} are kept, the older half of them is dropped.
+ */
+public final class FlowTable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FlowTable.class);
+
+    private static final long IDLE_TIMEOUT_NANOS = Long.getLong("jcap.flow.idleSeconds", 120) * 1_000_000_000L;
+    private static final long ACTIVE_TIMEOUT_NANOS = Long.getLong("jcap.flow.activeSeconds", 1800) * 1_000_000_000L;
+    private static final long EXPIRY_INTERVAL_NANOS = 1_000_000_000L;
+    private static final int ENDED_CONVERSATIONS = Integer.getInteger("jcap.flow.endedConversations", 500_000);
+
+    private static final int STRIPE_BITS = 4;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+    private static final int INITIAL_FLOWS = 256;
+    private static final int PROGRESS_INTERVAL = 1 << 14;
+
+    public enum TcpState { NONE, SYN_SENT, SYN_RECEIVED, ESTABLISHED, CLOSING, CLOSED, RESET }
+
+    /**
+     * One conversation as of the moment it was read. Endpoint A sent the first packet seen.
+     */
+    public record Conversation(long id, byte kind, long addressAHi, long addressALo, int portA,
+                               long addressBHi, long addressBLo, int portB, int protocol,
+                               long packetsAToB, long bytesAToB, long packetsBToA, long bytesBToA,
+                               long firstNanos, long lastNanos, TcpState state, int retransmissions,
+                               boolean ended) {
+
+        public String addressA() {
+            StringBuilder sb = new StringBuilder(40);
+            Addresses.append(kind, addressAHi, addressALo, sb);
+            return sb.toString();
+        }
+
+        public String addressB() {
+            StringBuilder sb = new StringBuilder(40);
+            Addresses.append(kind, addressBHi, addressBLo, sb);
+            return sb.toString();
+        }
+
+        public String protocolName() {
+            return Protocols.name(protocol);
+        }
+
+        public long packets() {
+            return packetsAToB + packetsBToA;
+        }
+
+        public long bytes() {
+            return bytesAToB + bytesBToA;
+        }
+
+        public long durationNanos() {
+            return lastNanos - firstNanos;
+        }
+    }
+
+    private final long idleTimeoutNanos;
+    private final long activeTimeoutNanos;
+    private final int endedPerStripe;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final AtomicLong nextExpiry = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLong firstNanos = new AtomicLong(Long.MAX_VALUE);
+
+    public FlowTable() {
+        this(IDLE_TIMEOUT_NANOS, ACTIVE_TIMEOUT_NANOS);
+    }
+
+    public FlowTable(long idleTimeoutNanos, long activeTimeoutNanos) {
+        this(idleTimeoutNanos, activeTimeoutNanos, ENDED_CONVERSATIONS);
+    }
+
+    FlowTable(long idleTimeoutNanos, long activeTimeoutNanos, int endedConversations) {
+        this.idleTimeoutNanos = idleTimeoutNanos;
+        this.activeTimeoutNanos = activeTimeoutNanos;
+        this.endedPerStripe = Math.max(2, endedConversations / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(i);
+        }
+    }
+
+    /**
+     * Builds the conversations of a store that is not being captured into, such as an imported
+     * file or a saved session. Progress is reported in rows; null when cancelled.
+     */
+    public static FlowTable analyze(PacketStore store, Progress progress) {
+        long start = System.currentTimeMillis();
+        FlowTable table = new FlowTable();
+        PacketHeaders headers = new PacketHeaders();
+        byte[] scratch = new byte[2048];
+        int total = store.size();
+
+        for (int row = 0; row < total; row++) {
+            if (progress.isCancelled()) return null;
+            scratch = table.add(store, row, headers, scratch);
+
+            if ((row + 1) % PROGRESS_INTERVAL == 0) {
+                progress.update(row + 1, total);
+                progress.message("Finding conversations: " + (row + 1) + " of " + total + " packets");
+            }
+        }
+
+        logger.info("Found {} conversations in {} packets in {} ms.", table.getConversationCount(), total,
+                System.currentTimeMillis() - start);
+        return table;
+    }
+
+    /**
+     * Adds a frame that has been appended to the store.
+     */
+    void add(CaptureFrame frame) {
+        PacketHeaders h = frame.headers;
+        add(frame.timestampNanos, frame.originalLength, h.protocol, frame.sourceKind(),
+                frame.sourceHi(), frame.sourceLo(), frame.destinationHi(), frame.destinationLo(),
+                frame.sourcePort(), frame.destinationPort(), frame.tcpFlags(), h.seq, h.payloadLength);
+    }
+
+    /**
+     * Adds a stored row. Sequence numbers are not stored, so TCP frames are decoded again from
+     * the payload; returns the scratch buffer, grown if needed.
+     */
+    byte[] add(PacketStore store, int row, PacketHeaders headers, byte[] scratch) {
+        int protocol = store.getProtocol(row);
+        long seq = 0;
+        int segmentLength = 0;
+
+        if (protocol == Protocols.TCP) {
+            ByteBuffer payload = store.getPayload(row);
+            int length = payload.remaining();
+            if (scratch.length < length) scratch = new byte[Math.max(length, scratch.length * 2)];
+            payload.get(payload.position(), scratch, 0, length);
+
+            int linkType = store.getInterfaceLinkType(store.getInterface(row));
+            headers.clear();
+            if (HeaderDecoder.decode(scratch, 0, length, linkType, headers) && headers.isTcp()) {
+                seq = headers.seq;
+                segmentLength = headers.payloadLength;
+            }
+        }
+
+        add(store.getTimestampNanos(row), store.getLength(row), protocol, store.getSourceKind(row),
+                store.getSourceHi(row), store.getSourceLo(row), store.getDestinationHi(row), store.getDestinationLo(row),
+                store.getSourcePort(row), store.getDestinationPort(row), store.getTcpFlags(row), seq, segmentLength);
+        return scratch;
+    }
+
+    /**
+     * Counts one packet. {@code seq} and {@code segmentLength} (bytes of TCP payload) are only
+     * used for TCP, to spot retransmissions.
+     */
+    public void add(long timestampNanos, int length, int protocol, byte kind,
+                    long sourceHi, long sourceLo, long destinationHi, long destinationLo,
+                    int sourcePort, int destinationPort, int tcpFlags, long seq, int segmentLength) {
+        if (kind == Addresses.NONE) return;
+
+        // the same key for both directions: the lower endpoint is A
+        boolean fromA = compare(sourceHi, sourceLo, sourcePort, destinationHi, destinationLo, destinationPort) <= 0;
+        long aHi = fromA ? sourceHi : destinationHi;
+        long aLo = fromA ? sourceLo : destinationLo;
+        long bHi = fromA ? destinationHi : sourceHi;
+        long bLo = fromA ? destinationLo : sourceLo;
+        int ports = fromA ? sourcePort << 16 | destinationPort : destinationPort << 16 | sourcePort;
+        int meta = protocol << 8 | kind & 0xFF;
+
+        int hash = hash(aHi, aLo, bHi, bLo, ports, meta);
+        Stripe stripe = stripes[hash >>> (32 - STRIPE_BITS)];
+        synchronized (stripe) {
+            stripe.add(hash, aHi, aLo, bHi, bLo, ports, meta, fromA, timestampNanos, length, tcpFlags, seq, segmentLength);
+        }
+
+        if (timestampNanos < firstNanos.get()) firstNanos.accumulateAndGet(timestampNanos, Math::min);
+        long due = nextExpiry.get();
+        if (timestampNanos >= due && nextExpiry.compareAndSet(due, timestampNanos + EXPIRY_INTERVAL_NANOS)) {
+            if (due != Long.MIN_VALUE) expire(timestampNanos);
+        }
+    }
+
+    /**
+     * Ends the flows that timed out at capture time {@code nowNanos}.
+     */
+    public void expire(long nowNanos) {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.expire(nowNanos);
+            }
+        }
+    }
+
+    /**
+     * Every conversation that is open or ended and still kept. Marks them all as read for
+     * {@link #changes()}.
+     */
+    public List<Conversation> snapshot() {
+        List<Conversation> out = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.snapshot(out);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Conversations that started, changed or ended since the last call or {@link #snapshot()}.
+     * Meant for a single reader.
+     */
+    public List<Conversation> changes() {
+        List<Conversation> out = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.changes(out);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Capture time of the first packet, or {@link Long#MAX_VALUE} before any.
+     */
+    public long getFirstNanos() {
+        return firstNanos.get();
+    }
+
+    /**
+     * Number of flows being tracked, not counting ended conversations.
+     */
+    public int getOpenCount() {
+        int total = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                total += stripe.size;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Number of conversations so far, including ended ones that are no longer kept.
+     */
+    public long getConversationCount() {
+        long total = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                total += stripe.size + stripe.ended.size() + stripe.endedDropped;
+            }
+        }
+        return total;
+    }
+
+    private static int compare(long hi1, long lo1, int port1, long hi2, long lo2, int port2) {
+        if (hi1 != hi2) return Long.compareUnsigned(hi1, hi2);
+        if (lo1 != lo2) return Long.compareUnsigned(lo1, lo2);
+        return Integer.compare(port1, port2);
+    }
+
+    static int hash(long aHi, long aLo, long bHi, long bLo, int ports, int meta) {
+        long h = aHi * 0x9E3779B97F4A7C15L + aLo;
+        h = h * 0x9E3779B97F4A7C15L + bHi;
+        h = h * 0x9E3779B97F4A7C15L + bLo;
+        h = h * 0x9E3779B97F4A7C15L + ((long) ports << 32 | meta);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /**
+     * One part of the table. Flows are entries in column arrays that never move while the flow
+     * lives; {@code index} maps hash slots to entries and uses backward-shift deletion, so there are
+     * no tombstones. All methods run under the stripe's lock.
+     */
+    private final class Stripe {
+
+        private static final int NONE = -1;
+
+        final int stripeIndex;
+        int size;
+        long nextId;
+
+        int[] index = new int[INITIAL_FLOWS * 2]; // entry + 1, 0 when empty
+        int indexMask = index.length - 1;
+
+        int capacity = INITIAL_FLOWS;
+        int highWater;
+        int freeHead = NONE;
+
+        int[] hashes = new int[capacity];
+        long[] keys = new long[capacity * 4];     // a hi, a lo, b hi, b lo
+        int[] ports = new int[capacity];
+        int[] metas = new int[capacity];
+        long[] ids = new long[capacity];
+        boolean[] initiatorIsA = new boolean[capacity];
+
+        long[] counters = new long[capacity * 4]; // packets a->b, bytes a->b, packets b->a, bytes b->a
+        long[] first = new long[capacity];
+        long[] last = new long[capacity];
+        byte[] states = new byte[capacity];
+        byte[] fins = new byte[capacity];         // bit 0: a sent FIN, bit 1: b sent FIN
+        long[] nextSeq = new long[capacity * 2];  // per direction, -1 until known
+        int[] retransmissions = new int[capacity];
+
+        // by last packet, oldest first
+        int[] idlePrev = new int[capacity];
+        int[] idleNext = new int[capacity];
+        int idleHead = NONE;
+        int idleTail = NONE;
+        // by start, oldest first
+        int[] activeNext = new int[capacity];
+        int[] activePrev = new int[capacity];
+        int activeHead = NONE;
+        int activeTail = NONE;
+
+        boolean[] dirty = new boolean[capacity];
+        int[] dirtyList = new int[64];
+        int dirtyCount;
+
+        // ended conversations, oldest first; the first endedRead of them have been read
+        final List<Conversation> ended = new ArrayList<>();
+        int endedRead;
+        long endedDropped;
+
+        Stripe(int stripeIndex) {
+            this.stripeIndex = stripeIndex;
+        }
+
+        void add(int hash, long aHi, long aLo, long bHi, long bLo, int portPair, int meta, boolean fromA,
+                 long timestamp, int length, int tcpFlags, long seq, int segmentLength) {
+            int slot = hash & indexMask;
+            int entry;
+            while (true) {
+                entry = index[slot] - 1;
+                if (entry == NONE) break;
+                if (hashes[entry] == hash && ports[entry] == portPair && metas[entry] == meta
+                        && keys[entry * 4] == aHi && keys[entry * 4 + 1] == aLo
+                        && keys[entry * 4 + 2] == bHi && keys[entry * 4 + 3] == bLo) {
+                    break;
+                }
+                slot = (slot + 1) & indexMask;
+            }
+
+            boolean tcp = meta >>> 8 == Protocols.TCP;
+            // a new connection on a port pair whose last one was closed
+            if (entry != NONE && tcp && (tcpFlags & (PacketHeaders.TCP_SYN | PacketHeaders.TCP_ACK)) == PacketHeaders.TCP_SYN
+                    && states[entry] >= TcpState.CLOSING.ordinal()) {
+                end(entry);
+                entry = NONE;
+            }
+
+            if (entry == NONE) {
+                entry = create(hash, aHi, aLo, bHi, bLo, portPair, meta, fromA, timestamp);
+            }
+            else {
+                last[entry] = timestamp;
+                moveToIdleTail(entry);
+            }
+
+            int direction = fromA ? 0 : 2;
+            counters[entry * 4 + direction]++;
+            counters[entry * 4 + direction + 1] += length;
+
+            if (tcp) updateTcp(entry, fromA, tcpFlags, seq, segmentLength);
+            markDirty(entry);
+        }
+
+        private int create(int hash, long aHi, long aLo, long bHi, long bLo, int portPair, int meta,
+                           boolean fromA, long timestamp) {
+            if ((size + 1) * 2 > index.length) growIndex();
+
+            int entry;
+            if (freeHead != NONE) {
+                entry = freeHead;
+                freeHead = idleNext[entry];
+            }
+            else {
+                if (highWater == capacity) growEntries();
+                entry = highWater++;
+            }
+
+            hashes[entry] = hash;
+            keys[entry * 4] = aHi;
+            keys[entry * 4 + 1] = aLo;
+            keys[entry * 4 + 2] = bHi;
+            keys[entry * 4 + 3] = bLo;
+            ports[entry] = portPair;
+            metas[entry] = meta;
+            ids[entry] = nextId++ << STRIPE_BITS | stripeIndex;
+            initiatorIsA[entry] = fromA;
+            Arrays.fill(counters, entry * 4, entry * 4 + 4, 0);
+            first[entry] = timestamp;
+            last[entry] = timestamp;
+            states[entry] = (byte) TcpState.NONE.ordinal();
+            fins[entry] = 0;
+            nextSeq[entry * 2] = -1;
+            nextSeq[entry * 2 + 1] = -1;
+            retransmissions[entry] = 0;
+            dirty[entry] = false;
+
+            // the idle list is ordered because packets arrive in capture order
+            idlePrev[entry] = idleTail;
+            idleNext[entry] = NONE;
+            if (idleTail != NONE) idleNext[idleTail] = entry;
+            else idleHead = entry;
+            idleTail = entry;
+
+            activePrev[entry] = activeTail;
+            activeNext[entry] = NONE;
+            if (activeTail != NONE) activeNext[activeTail] = entry;
+            else activeHead = entry;
+            activeTail = entry;
+
+            size++;
+            insertIndex(entry);
+            return entry;
+        }
+
+        private void updateTcp(int entry, boolean fromA, int flags, long seq, int segmentLength) {
+            boolean syn = (flags & PacketHeaders.TCP_SYN) != 0;
+            boolean ack = (flags & PacketHeaders.TCP_ACK) != 0;
+            boolean fin = (flags & PacketHeaders.TCP_FIN) != 0;
+            TcpState state = TcpState.values()[states[entry]];
+
+            if ((flags & PacketHeaders.TCP_RST) != 0) {
+                state = TcpState.RESET;
+            }
+            else if (fin) {
+                fins[entry] |= (byte) (fromA ? 1 : 2);
+                state = fins[entry] == 3 ? TcpState.CLOSED : TcpState.CLOSING;
+            }
+            else if (state == TcpState.NONE) {
+                // a flow first seen mid-stream counts as established
+                state = syn ? (ack ? TcpState.SYN_RECEIVED : TcpState.SYN_SENT) : TcpState.ESTABLISHED;
+            }
+            else if (state == TcpState.SYN_SENT && syn && ack) {
+                state = TcpState.SYN_RECEIVED;
+            }
+            else if ((state == TcpState.SYN_SENT || state == TcpState.SYN_RECEIVED) && !syn && ack) {
+                state = TcpState.ESTABLISHED;
+            }
+            states[entry] = (byte) state.ordinal();
+
+            // SYN and FIN take a sequence number each
+            long length = segmentLength + (syn ? 1 : 0) + (fin ? 1 : 0);
+            if (length == 0) return;
+
+            int slot = entry * 2 + (fromA ? 0 : 1);
+            long expected = nextSeq[slot];
+            long end = (seq + length) & 0xFFFFFFFFL;
+            if (expected >= 0 && (int) (end - expected) <= 0) {
+                // a keep-alive resends the byte before the window on purpose
+                boolean keepAlive = length == 1 && !syn && !fin && ((expected - seq) & 0xFFFFFFFFL) == 1;
+                if (!keepAlive) retransmissions[entry]++;
+            }
+            else {
+                nextSeq[slot] = end;
+            }
+        }
+
+        void expire(long now) {
+            while (idleHead != NONE && now - last[idleHead] >= idleTimeoutNanos) {
+                end(idleHead);
+            }
+            while (activeHead != NONE && now - first[activeHead] >= activeTimeoutNanos) {
+                end(activeHead);
+            }
+        }
+
+        void snapshot(List<Conversation> out) {
+            out.addAll(ended);
+            endedRead = ended.size();
+            for (int entry = idleHead; entry != NONE; entry = idleNext[entry]) {
+                out.add(conversation(entry, false));
+                dirty[entry] = false;
+            }
+            dirtyCount = 0;
+        }
+
+        void changes(List<Conversation> out) {
+            for (int i = 0; i < dirtyCount; i++) {
+                int entry = dirtyList[i];
+                // entries that ended (or were reused) since are reported once
+                if (dirty[entry]) {
+                    dirty[entry] = false;
+                    out.add(conversation(entry, false));
+                }
+            }
+            dirtyCount = 0;
+
+            out.addAll(ended.subList(endedRead, ended.size()));
+            endedRead = ended.size();
+        }
+
+        private Conversation conversation(int entry, boolean end) {
+            int base = entry * 4;
+            int portPair = ports[entry];
+            int meta = metas[entry];
+            byte kind = (byte) meta;
+            int protocol = meta >> 8;
+            TcpState state = protocol == Protocols.TCP ? TcpState.values()[states[entry]] : TcpState.NONE;
+
+            if (initiatorIsA[entry]) {
+                return new Conversation(ids[entry], kind, keys[base], keys[base + 1], portPair >>> 16,
+                        keys[base + 2], keys[base + 3], portPair & 0xFFFF, protocol,
+                        counters[base], counters[base + 1], counters[base + 2], counters[base + 3],
+                        first[entry], last[entry], state, retransmissions[entry], end);
+            }
+            return new Conversation(ids[entry], kind, keys[base + 2], keys[base + 3], portPair & 0xFFFF,
+                    keys[base], keys[base + 1], portPair >>> 16, protocol,
+                    counters[base + 2], counters[base + 3], counters[base], counters[base + 1],
+                    first[entry], last[entry], state, retransmissions[entry], end);
+        }
+
+        private void end(int entry) {
+            ended.add(conversation(entry, true));
+            if (ended.size() > endedPerStripe) dropEnded();
+            dirty[entry] = false;
+
+            removeIndex(entry);
+            unlinkIdle(entry);
+            unlinkActive(entry);
+
+            idleNext[entry] = freeHead;
+            freeHead = entry;
+            size--;
+        }
+
+        /**
+         * Drops the older half of the ended conversations, read or not, so a capture nobody looks at
+         * stays bounded too.
+         */
+        private void dropEnded() {
+            int drop = ended.size() - endedPerStripe / 2;
+            ended.subList(0, drop).clear();
+            endedRead = Math.max(0, endedRead - drop);
+            endedDropped += drop;
+        }
+
+        private void markDirty(int entry) {
+            if (dirty[entry]) return;
+            dirty[entry] = true;
+            if (dirtyCount == dirtyList.length) dirtyList = Arrays.copyOf(dirtyList, dirtyCount * 2);
+            dirtyList[dirtyCount++] = entry;
+        }
+
+        private void moveToIdleTail(int entry) {
+            if (entry == idleTail) return;
+            unlinkIdle(entry);
+            idlePrev[entry] = idleTail;
+            idleNext[entry] = NONE;
+            if (idleTail != NONE) idleNext[idleTail] = entry;
+            else idleHead = entry;
+            idleTail = entry;
+        }
+
+        private void unlinkIdle(int entry) {
+            int prev = idlePrev[entry];
+            int next = idleNext[entry];
+            if (prev != NONE) idleNext[prev] = next;
+            else idleHead = next;
+            if (next != NONE) idlePrev[next] = prev;
+            else idleTail = prev;
+        }
+
+        private void unlinkActive(int entry) {
+            int prev = activePrev[entry];
+            int next = activeNext[entry];
+            if (prev != NONE) activeNext[prev] = next;
+            else activeHead = next;
+            if (next != NONE) activePrev[next] = prev;
+            else activeTail = prev;
+        }
+
+        private void insertIndex(int entry) {
+            int slot = hashes[entry] & indexMask;
+            while (index[slot] != 0) {
+                slot = (slot + 1) & indexMask;
+            }
+            index[slot] = entry + 1;
+        }
+
+        private void removeIndex(int entry) {
+            int hole = hashes[entry] & indexMask;
+            while (index[hole] != entry + 1) {
+                hole = (hole + 1) & indexMask;
+            }
+
+            // shift back the entries that probed past the hole
+            int slot = hole;
+            while (true) {
+                slot = (slot + 1) & indexMask;
+                int moved = index[slot];
+                if (moved == 0) break;
+
+                int home = hashes[moved - 1] & indexMask;
+                boolean between = hole <= slot ? hole < home && home <= slot : hole < home || home <= slot;
+                if (!between) {
+                    index[hole] = moved;
+                    hole = slot;
+                }
+            }
+            index[hole] = 0;
+        }
+
+        private void growIndex() {
+            index = new int[index.length * 2];
+            indexMask = index.length - 1;
+            for (int entry = idleHead; entry != NONE; entry = idleNext[entry]) {
+                insertIndex(entry);
+            }
+        }
+
+        private void growEntries() {
+            capacity *= 2;
+            hashes = Arrays.copyOf(hashes, capacity);
+            keys = Arrays.copyOf(keys, capacity * 4);
+            ports = Arrays.copyOf(ports, capacity);
+            metas = Arrays.copyOf(metas, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            initiatorIsA = Arrays.copyOf(initiatorIsA, capacity);
+            counters = Arrays.copyOf(counters, capacity * 4);
+            first = Arrays.copyOf(first, capacity);
+            last = Arrays.copyOf(last, capacity);
+            states = Arrays.copyOf(states, capacity);
+            fins = Arrays.copyOf(fins, capacity);
+            nextSeq = Arrays.copyOf(nextSeq, capacity * 2);
+            retransmissions = Arrays.copyOf(retransmissions, capacity);
+            idlePrev = Arrays.copyOf(idlePrev, capacity);
+            idleNext = Arrays.copyOf(idleNext, capacity);
+            activePrev = Arrays.copyOf(activePrev, capacity);
+            activeNext = Arrays.copyOf(activeNext, capacity);
+            dirty = Arrays.copyOf(dirty, capacity);
+        }
+    }
+}
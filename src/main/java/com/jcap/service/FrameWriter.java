@@ -0,0 +1,24 @@
+package com.jcap.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Where a capture writes its frames besides the store: one capture file or a series of them.
+ */
+public interface FrameWriter extends Closeable {
+
+    /**
+     * Declares an interface and returns the id to {@link #write} its frames with.
+     */
+    int addInterface(String name, int linkType) throws IOException;
+
+    void write(int interfaceId, long timestampNanos, byte[] data, int offset, int length, int originalLength)
+            throws IOException;
+
+    /**
+     * The file being written to now.
+     */
+    Path getPath();
+}
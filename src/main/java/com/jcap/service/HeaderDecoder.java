@@ -0,0 +1,228 @@
+package com.jcap.service;
+
+import com.jcap.model.Protocols;
+
+/**
+ * Hand-written decoder for the summary columns. Reads Ethernet, VLAN, IPv4, IPv6, ARP,
+ * TCP, UDP and ICMP fields straight from the raw frame into a reusable {@link PacketHeaders}.
+ */
+public final class HeaderDecoder {
+
+    public static final int DLT_NULL = 0;
+    public static final int DLT_EN10MB = 1;
+    public static final int DLT_RAW = 12;
+    public static final int DLT_LOOP = 108;
+    public static final int LINKTYPE_RAW = 101;
+    public static final int DLT_LINUX_SLL = 113;
+
+    private static final int ETHERTYPE_IPV4 = 0x0800;
+    private static final int ETHERTYPE_ARP = 0x0806;
+    private static final int ETHERTYPE_VLAN = 0x8100;
+    private static final int ETHERTYPE_QINQ = 0x88A8;
+    private static final int ETHERTYPE_IPV6 = 0x86DD;
+
+    private static final int MAX_IPV6_EXTENSIONS = 8;
+
+    private HeaderDecoder() {
+    }
+
+    /**
+     * Returns false when nothing recognisable was found; {@code out.protocol} is then {@link Protocols#UNKNOWN}.
+     */
+    public static boolean decode(byte[] data, int offset, int length, int linkType, PacketHeaders out) {
+        out.clear();
+        out.frameLength = length;
+
+        int end = offset + length;
+
+        return switch (linkType) {
+            case DLT_EN10MB -> decodeEthernet(data, offset, end, out);
+            case DLT_RAW, LINKTYPE_RAW -> decodeRawIp(data, offset, end, out);
+            case DLT_LINUX_SLL -> end - offset >= 16 && decodeEtherType(data, offset + 16, end, u16(data, offset + 14), out);
+            case DLT_NULL, DLT_LOOP -> end - offset >= 4 && decodeRawIp(data, offset + 4, end, out);
+            default -> false;
+        };
+    }
+
+    private static boolean decodeEthernet(byte[] data, int pos, int end, PacketHeaders out) {
+        if (end - pos < 14) return false;
+
+        out.dstMac = u48(data, pos);
+        out.srcMac = u48(data, pos + 6);
+        out.protocol = Protocols.ETHERNET;
+
+        int type = u16(data, pos + 12);
+        pos += 14;
+
+        while ((type == ETHERTYPE_VLAN || type == ETHERTYPE_QINQ) && end - pos >= 4) {
+            if (out.vlanId < 0) out.vlanId = u16(data, pos) & 0x0FFF;
+            type = u16(data, pos + 2);
+            pos += 4;
+        }
+
+        decodeEtherType(data, pos, end, type, out);
+        return true;
+    }
+
+    private static boolean decodeEtherType(byte[] data, int pos, int end, int type, PacketHeaders out) {
+        out.etherType = type;
+
+        return switch (type) {
+            case ETHERTYPE_IPV4 -> decodeIpV4(data, pos, end, out);
+            case ETHERTYPE_IPV6 -> decodeIpV6(data, pos, end, out);
+            case ETHERTYPE_ARP -> decodeArp(data, pos, end, out);
+            default -> false;
+        };
+    }
+
+    private static boolean decodeRawIp(byte[] data, int pos, int end, PacketHeaders out) {
+        if (end - pos < 1) return false;
+
+        return switch ((data[pos] & 0xF0) >>> 4) {
+            case 4 -> decodeIpV4(data, pos, end, out);
+            case 6 -> decodeIpV6(data, pos, end, out);
+            default -> false;
+        };
+    }
+
+    private static boolean decodeIpV4(byte[] data, int pos, int end, PacketHeaders out) {
+        if (end - pos < 20) return false;
+
+        int ihl = (data[pos] & 0x0F) * 4;
+        if (ihl < 20 || end - pos < ihl) return false;
+
+        int totalLength = u16(data, pos + 2);
+        int fragment = u16(data, pos + 6) & 0x1FFF;
+
+        out.l3 = PacketHeaders.L3_IPV4;
+        out.ttl = data[pos + 8] & 0xFF;
+        out.protocol = data[pos + 9] & 0xFF;
+        out.ipSrc = s32(data, pos + 12);
+        out.ipDst = s32(data, pos + 16);
+
+        int ipEnd = totalLength >= ihl ? Math.min(end, pos + totalLength) : end;
+
+        // only the first fragment carries the transport header
+        if (fragment != 0) return true;
+
+        decodeTransport(data, pos + ihl, ipEnd, out);
+        return true;
+    }
+
+    private static boolean decodeIpV6(byte[] data, int pos, int end, PacketHeaders out) {
+        if (end - pos < 40) return false;
+
+        int payloadLength = u16(data, pos + 4);
+        int next = data[pos + 6] & 0xFF;
+
+        out.l3 = PacketHeaders.L3_IPV6;
+        out.ttl = data[pos + 7] & 0xFF;
+        out.ip6SrcHi = s64(data, pos + 8);
+        out.ip6SrcLo = s64(data, pos + 16);
+        out.ip6DstHi = s64(data, pos + 24);
+        out.ip6DstLo = s64(data, pos + 32);
+
+        int ipEnd = Math.min(end, pos + 40 + payloadLength);
+        pos += 40;
+
+        for (int i = 0; i < MAX_IPV6_EXTENSIONS; i++) {
+            if (next == 0 || next == 43 || next == 60) { // hop-by-hop, routing, destination options
+                if (ipEnd - pos < 8) break;
+                int extNext = data[pos] & 0xFF;
+                pos += ((data[pos + 1] & 0xFF) + 1) * 8;
+                next = extNext;
+            }
+            else if (next == 44) { // fragment
+                if (ipEnd - pos < 8) break;
+                int extNext = data[pos] & 0xFF;
+                boolean firstFragment = (u16(data, pos + 2) & 0xFFF8) == 0;
+                pos += 8;
+                next = extNext;
+                if (!firstFragment) {
+                    out.protocol = next;
+                    return true;
+                }
+            }
+            else {
+                break;
+            }
+        }
+
+        out.protocol = next;
+        decodeTransport(data, pos, ipEnd, out);
+        return true;
+    }
+
+    private static boolean decodeArp(byte[] data, int pos, int end, PacketHeaders out) {
+        if (end - pos < 28) return false;
+
+        out.l3 = PacketHeaders.L3_ARP;
+        out.protocol = Protocols.ARP;
+        out.arpOperation = u16(data, pos + 6);
+        out.arpSenderMac = u48(data, pos + 8);
+        out.arpSenderIp = s32(data, pos + 14);
+        out.arpTargetMac = u48(data, pos + 18);
+        out.arpTargetIp = s32(data, pos + 24);
+        return true;
+    }
+
+    private static void decodeTransport(byte[] data, int pos, int end, PacketHeaders out) {
+        out.l4Offset = pos;
+
+        switch (out.protocol) {
+            case Protocols.TCP -> {
+                if (end - pos < 20) return;
+                out.hasTransport = true;
+
+                int headerLength = ((data[pos + 12] & 0xF0) >>> 4) * 4;
+                out.srcPort = u16(data, pos);
+                out.dstPort = u16(data, pos + 2);
+                out.seq = s32(data, pos + 4) & 0xFFFFFFFFL;
+                out.ack = s32(data, pos + 8) & 0xFFFFFFFFL;
+                out.tcpFlags = data[pos + 13] & 0x3F;
+                out.window = u16(data, pos + 14);
+                setPayload(pos + Math.max(headerLength, 20), end, out);
+            }
+            case Protocols.UDP -> {
+                if (end - pos < 8) return;
+                out.hasTransport = true;
+
+                out.srcPort = u16(data, pos);
+                out.dstPort = u16(data, pos + 2);
+                out.udpLength = u16(data, pos + 4);
+                setPayload(pos + 8, end, out);
+            }
+            case Protocols.ICMPV4, Protocols.ICMPV6 -> {
+                if (end - pos < 4) return;
+                out.hasTransport = true;
+
+                out.icmpType = data[pos] & 0xFF;
+                out.icmpCode = data[pos + 1] & 0xFF;
+                setPayload(pos + 4, end, out);
+            }
+            default -> setPayload(pos, end, out);
+        }
+    }
+
+    private static void setPayload(int pos, int end, PacketHeaders out) {
+        out.payloadOffset = Math.min(pos, end);
+        out.payloadLength = Math.max(0, end - pos);
+    }
+
+    static int u16(byte[] data, int pos) {
+        return ((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF);
+    }
+
+    static int s32(byte[] data, int pos) {
+        return ((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16)
+                | ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+    }
+
+    static long u48(byte[] data, int pos) {
+        return ((long) u16(data, pos) << 32) | (s32(data, pos + 2) & 0xFFFFFFFFL);
+    }
+
+    static long s64(byte[] data, int pos) {
+        return ((long) s32(data, pos) << 32) | (s32(data, pos + 4) & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,114 @@
+package com.jcap.service;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Formats frame bytes as a hex dump, 16 bytes a line: the offset, the bytes in hex and the
+ * printable ones as ASCII. Characters come from lookup tables and go into a char array, so a
+ * line can be formatted on its own for a view that only shows some of them, and a whole dump
+ * reuses the array of the formatter from frame to frame.
+ */
+public final class HexFormatter {
+
+    public static final int BYTES_PER_LINE = 16;
+
+    private static final char[] DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final char[] HIGH = new char[256];
+    private static final char[] LOW = new char[256];
+    private static final char[] PRINTABLE = new char[256];
+    private static final int GAP = 3;
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            HIGH[b] = DIGITS[b >>> 4];
+            LOW[b] = DIGITS[b & 0xF];
+            PRINTABLE[b] = b >= 32 && b <= 126 ? (char) b : '.';
+        }
+    }
+
+    private char[] chars = new char[0];
+
+    /**
+     * The whole dump, one line per 16 bytes, each ending in a newline.
+     */
+    public String format(ByteBuffer data) {
+        if (data == null || !data.hasRemaining()) return "";
+
+        int length = data.remaining();
+        int digits = offsetDigits(length);
+        int lines = lineCount(length);
+        int needed = lines * (lineLength(digits) + 1);
+        if (chars.length < needed) chars = new char[needed];
+
+        int pos = 0;
+        for (int line = 0; line < lines; line++) {
+            pos = formatLine(data, line, digits, chars, pos);
+            chars[pos++] = '\n';
+        }
+        return new String(chars, 0, pos);
+    }
+
+    /**
+     * Writes line {@code line} of the dump of {@code data} into {@code out} at {@code pos}, without
+     * a newline, and returns the position after it. {@code out} needs room for {@link #lineLength}.
+     */
+    public static int formatLine(ByteBuffer data, int line, int offsetDigits, char[] out, int pos) {
+        int base = data.position();
+        int start = line * BYTES_PER_LINE;
+        int count = Math.min(BYTES_PER_LINE, data.remaining() - start);
+
+        for (int shift = (offsetDigits - 1) * 4; shift >= 0; shift -= 4) {
+            out[pos++] = DIGITS[(start >>> shift) & 0xF];
+        }
+        Arrays.fill(out, pos, pos + GAP, ' ');
+        pos += GAP;
+
+        int text = pos + BYTES_PER_LINE * 3 + GAP;
+        for (int i = 0; i < count; i++) {
+            int b = data.get(base + start + i) & 0xFF;
+            out[pos++] = HIGH[b];
+            out[pos++] = LOW[b];
+            out[pos++] = ' ';
+            out[text + i] = PRINTABLE[b];
+        }
+        // short last line: pad the hex so its text lines up
+        Arrays.fill(out, pos, text, ' ');
+        return text + count;
+    }
+
+    /**
+     * Offsets take four hex digits, or more for frames over 64 KB.
+     */
+    public static int offsetDigits(int length) {
+        int last = Math.max(0, lineCount(length) - 1) * BYTES_PER_LINE;
+        int digits = 4;
+        while (digits < 8 && last >>> (digits * 4) != 0) digits++;
+        return digits;
+    }
+
+    public static int lineCount(int length) {
+        return (length + BYTES_PER_LINE - 1) / BYTES_PER_LINE;
+    }
+
+    /**
+     * Characters of a full line.
+     */
+    public static int lineLength(int offsetDigits) {
+        return textColumn(offsetDigits, BYTES_PER_LINE);
+    }
+
+    /**
+     * The column of the first hex digit of byte {@code index} of a line.
+     */
+    public static int hexColumn(int offsetDigits, int index) {
+        return offsetDigits + GAP + index * 3;
+    }
+
+    /**
+     * The column of the ASCII character of byte {@code index} of a line.
+     */
+    public static int textColumn(int offsetDigits, int index) {
+        return hexColumn(offsetDigits, BYTES_PER_LINE) + GAP + index;
+    }
+}
@@ -0,0 +1,177 @@
+package com.jcap.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * HTTP/1.x: the request or status line at the start of a segment, and the {@code Host} header when
+ * it is in the same segment. Segments in the middle of a message are left alone.
+ */
+public final class HttpDissector implements ApplicationDissector {
+
+    static final int METHOD = 0;
+    static final int URI = 1;
+    static final int VERSION = 2;
+    static final int STATUS = 3;
+    static final int PHRASE = 4;
+    static final int HOST = 5;
+
+    private static final List<Field> FIELDS = List.of(
+            new Field("http.request.method", "Request Method", Type.TEXT),
+            new Field("http.request.uri", "Request URI", Type.TEXT),
+            new Field("http.version", "Version", Type.TEXT),
+            new Field("http.response.code", "Status Code", Type.NUMBER),
+            new Field("http.response.phrase", "Response Phrase", Type.TEXT),
+            new Field("http.host", "Host", Type.TEXT));
+
+    private static final byte[][] METHODS = {
+            ascii("GET "), ascii("POST "), ascii("HEAD "), ascii("PUT "), ascii("DELETE "),
+            ascii("OPTIONS "), ascii("PATCH "), ascii("CONNECT "), ascii("TRACE ")
+    };
+    private static final byte[] RESPONSE = ascii("HTTP/1.");
+    private static final byte[] HOST_HEADER = ascii("host:");
+
+    // longest method or version token, and header bytes searched for Host
+    private static final int MAX_TOKEN = 16;
+    private static final int MAX_HEADER_BYTES = 4096;
+
+    @Override
+    public String name() {
+        return "http";
+    }
+
+    @Override
+    public String title() {
+        return "Hypertext Transfer Protocol";
+    }
+
+    @Override
+    public List<Field> fields() {
+        return FIELDS;
+    }
+
+    @Override
+    public int[] tcpPorts() {
+        return new int[] {80, 3128, 8000, 8008, 8080};
+    }
+
+    @Override
+    public boolean looksLike(PacketHeaders headers, byte[] data, int offset, int length) {
+        if (!headers.isTcp()) return false;
+        if (startsWith(data, offset, length, RESPONSE)) return true;
+        for (byte[] method : METHODS) {
+            if (startsWith(data, offset, length, method)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean dissect(PacketHeaders headers, byte[] data, int offset, int length, ApplicationFields out) {
+        int end = offset + length;
+        boolean response = startsWith(data, offset, length, RESPONSE);
+
+        // the first word settles it before a body segment is searched for a line end
+        int first = indexOf(data, offset, Math.min(end, offset + MAX_TOKEN), (byte) ' ');
+        if (first <= offset) return false;
+        for (int i = offset; i < first && !response; i++) {
+            if (data[i] < 'A' || data[i] > 'Z') return false;
+        }
+
+        int lineEnd = indexOfCrLf(data, first, end);
+        if (lineEnd < 0) return false;
+
+        if (response) {
+            // HTTP/1.1 200 OK
+            if (first + 4 > lineEnd) return false;
+            int code = 0;
+            for (int i = first + 1; i < first + 4; i++) {
+                int digit = data[i] - '0';
+                if (digit < 0 || digit > 9) return false;
+                code = code * 10 + digit;
+            }
+            out.setSpan(VERSION, offset, first - offset);
+            out.setNumber(STATUS, code);
+            int phrase = Math.min(first + 5, lineEnd);
+            out.setSpan(PHRASE, phrase, lineEnd - phrase);
+        }
+        else {
+            // GET /index.html HTTP/1.1
+            int second = indexOf(data, first + 1, lineEnd, (byte) ' ');
+            if (second < 0 || !startsWith(data, second + 1, lineEnd - second - 1, RESPONSE)) return false;
+            out.setSpan(METHOD, offset, first - offset);
+            out.setSpan(URI, first + 1, second - first - 1);
+            out.setSpan(VERSION, second + 1, lineEnd - second - 1);
+        }
+
+        findHost(data, lineEnd + 2, Math.min(end, offset + MAX_HEADER_BYTES), out);
+        return true;
+    }
+
+    private static void findHost(byte[] data, int line, int end, ApplicationFields out) {
+        while (line < end) {
+            int lineEnd = indexOfCrLf(data, line, end);
+            if (lineEnd < 0 || lineEnd == line) return;
+
+            if (lineEnd - line > HOST_HEADER.length && startsWithIgnoreCase(data, line, HOST_HEADER)) {
+                int value = line + HOST_HEADER.length;
+                while (value < lineEnd && (data[value] == ' ' || data[value] == '\t')) value++;
+                int valueEnd = lineEnd;
+                while (valueEnd > value && (data[valueEnd - 1] == ' ' || data[valueEnd - 1] == '\t')) valueEnd--;
+                out.setSpan(HOST, value, valueEnd - value);
+                return;
+            }
+            line = lineEnd + 2;
+        }
+    }
+
+    @Override
+    public void appendInfo(ApplicationFields fields, StringBuilder sb) {
+        if (fields.has(METHOD)) {
+            fields.appendValue(METHOD, sb);
+            sb.append(' ');
+            fields.appendValue(URI, sb);
+            sb.append(' ');
+            fields.appendValue(VERSION, sb);
+        }
+        else {
+            fields.appendValue(VERSION, sb);
+            sb.append(' ').append(fields.getNumber(STATUS)).append(' ');
+            fields.appendValue(PHRASE, sb);
+        }
+    }
+
+    private static int indexOfCrLf(byte[] data, int from, int end) {
+        for (int i = from; i + 1 < end; i++) {
+            if (data[i] == '\r' && data[i + 1] == '\n') return i;
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] data, int from, int end, byte b) {
+        for (int i = from; i < end; i++) {
+            if (data[i] == b) return i;
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(byte[] data, int offset, int length, byte[] prefix) {
+        if (length < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean startsWithIgnoreCase(byte[] data, int offset, byte[] lowerPrefix) {
+        for (int i = 0; i < lowerPrefix.length; i++) {
+            int b = data[offset + i];
+            if (b >= 'A' && b <= 'Z') b += 'a' - 'A';
+            if (b != lowerPrefix[i]) return false;
+        }
+        return true;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
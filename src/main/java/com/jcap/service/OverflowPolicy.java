@@ -0,0 +1,32 @@
+package com.jcap.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+
+/**
+ * What the capture thread does when the pipeline ring is full.
+ */
+public enum OverflowPolicy {
+    /** Drop the frame and count it; the capture thread never waits. */
+    DROP,
+    /** Wait for a free slot; useful when the source can be paused, e.g. reading a file. */
+    BLOCK;
+
+    private static final Logger logger = LoggerFactory.getLogger(OverflowPolicy.class);
+
+    /**
+     * The policy named by the {@code jcap.buffer.policy} system property; DROP when it is not set
+     * or names no policy.
+     */
+    public static OverflowPolicy fromProperty() {
+        String name = System.getProperty("jcap.buffer.policy", "DROP");
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Unknown jcap.buffer.policy '{}', dropping frames when the ring is full.", name);
+            return DROP;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.jcap.service;
+
+import org.pcap4j.packet.ArpPacket;
+import org.pcap4j.packet.EthernetPacket;
+import org.pcap4j.packet.IcmpV4CommonPacket;
+import org.pcap4j.packet.IpV4Packet;
+import org.pcap4j.packet.IpV6Packet;
+import org.pcap4j.packet.Packet;
+import org.pcap4j.packet.TcpPacket;
+import org.pcap4j.packet.UdpPacket;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The layers and fields of one frame as the packet details show them: a tree of labels kept as
+ * arrays, layers first and each followed by its fields, with the bytes each one was read from.
+ * Dissected off the UI thread and small enough to keep for recently viewed packets.
+ */
+public final class PacketDetail {
+
+    private static final Logger logger = LoggerFactory.getLogger(PacketDetail.class);
+
+    private String[] labels = new String[16];
+    private int[] parents = new int[16];
+    private int size;
+    private final FieldRanges ranges = new FieldRanges();
+
+    private PacketDetail() {
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String label(int node) {
+        return labels[node];
+    }
+
+    /**
+     * The layer a field belongs to, or -1 for a layer.
+     */
+    public int parent(int node) {
+        return parents[node];
+    }
+
+    /**
+     * Offset in the frame of the bytes a node was read from, or -1 when it has none.
+     */
+    public int offset(int node) {
+        return ranges.offset(node);
+    }
+
+    public int length(int node) {
+        return ranges.length(node);
+    }
+
+    /**
+     * The innermost field or layer read from byte {@code position} of the frame, or -1.
+     */
+    public int nodeAt(int position) {
+        return ranges.nodeAt(position);
+    }
+
+    private int add(String label, int parent, int offset, int length) {
+        if (size == labels.length) {
+            labels = Arrays.copyOf(labels, size * 2);
+            parents = Arrays.copyOf(parents, size * 2);
+        }
+        labels[size] = label;
+        parents[size] = parent;
+        ranges.add(offset, length);
+        return size++;
+    }
+
+    private int layer(String title, int offset, int length) {
+        return add(title, -1, offset, length);
+    }
+
+    /**
+     * Dissects the remaining bytes of a frame with pcap4j, then with the application dissectors.
+     * A layer covers its header bytes; application fields that are numbers have no range of their
+     * own. pcap4j needs an array, so the bytes are copied.
+     */
+    public static PacketDetail dissect(ByteBuffer frame, int linkType) {
+        byte[] data = new byte[frame.remaining()];
+        frame.get(frame.position(), data);
+        return dissect(data, linkType);
+    }
+
+    /**
+     * Dissects {@code data} as {@link #dissect(ByteBuffer, int)} does.
+     */
+    public static PacketDetail dissect(byte[] data, int linkType) {
+        PacketDetail detail = new PacketDetail();
+        if (data.length == 0) return detail;
+
+        try {
+            Packet current = EthernetPacket.newPacket(data, 0, data.length);
+            int at = 0;
+
+            while (current != null) {
+                int headerLength = current.getHeader() != null ? current.getHeader().length() : 0;
+                switch (current) {
+                    case EthernetPacket eth -> {
+                        int layer = detail.layer("Ethernet II", at, headerLength);
+                        detail.add("Source:  " + eth.getHeader().getSrcAddr(), layer, at + 6, 6);
+                        detail.add("Destination:  " + eth.getHeader().getDstAddr(), layer, at, 6);
+                        detail.add("Type:  " + eth.getHeader().getType(), layer, at + 12, 2);
+                    }
+                    case IpV4Packet ip4 -> {
+                        int layer = detail.layer("Internet Protocol Version 4", at, headerLength);
+                        detail.add("Source:  " + ip4.getHeader().getSrcAddr().getHostAddress(), layer, at + 12, 4);
+                        detail.add("Destination:  " + ip4.getHeader().getDstAddr().getHostAddress(), layer, at + 16, 4);
+                        detail.add("Protocol:  " + ip4.getHeader().getProtocol(), layer, at + 9, 1);
+                    }
+                    case IpV6Packet ip6 -> {
+                        int layer = detail.layer("Internet Protocol Version 6", at, headerLength);
+                        detail.add("Source:  " + ip6.getHeader().getSrcAddr().getHostAddress(), layer, at + 8, 16);
+                        detail.add("Destination:  " + ip6.getHeader().getDstAddr().getHostAddress(), layer, at + 24, 16);
+                    }
+                    case TcpPacket tcp -> {
+                        int layer = detail.layer("Transmission Control Protocol", at, headerLength);
+                        detail.add("Source Port:  " + tcp.getHeader().getSrcPort().valueAsInt(), layer, at, 2);
+                        detail.add("Destination Port:  " + tcp.getHeader().getDstPort().valueAsInt(), layer, at + 2, 2);
+                        detail.add("Sequence:  " + tcp.getHeader().getSequenceNumberAsLong(), layer, at + 4, 4);
+                    }
+                    case UdpPacket udp -> {
+                        int layer = detail.layer("User Datagram Protocol", at, headerLength);
+                        detail.add("Source Port:  " + udp.getHeader().getSrcPort().valueAsInt(), layer, at, 2);
+                        detail.add("Destination Port:  " + udp.getHeader().getDstPort().valueAsInt(), layer, at + 2, 2);
+                        detail.add("Length:  " + udp.getHeader().getLength(), layer, at + 4, 2);
+                    }
+                    case ArpPacket arp -> {
+                        int layer = detail.layer("Address Resolution Protocol", at, headerLength);
+                        detail.add("Operation Code:  " + arp.getHeader().getOperation(), layer, at + 6, 2);
+                        detail.add("Sender MAC:  " + arp.getHeader().getSrcHardwareAddr(), layer, at + 8, 6);
+                        detail.add("Sender IP:  " + arp.getHeader().getSrcProtocolAddr().getHostAddress(), layer, at + 14, 4);
+                        detail.add("Target MAC:  " + arp.getHeader().getDstHardwareAddr(), layer, at + 18, 6);
+                        detail.add("Target IP:  " + arp.getHeader().getDstProtocolAddr().getHostAddress(), layer, at + 24, 4);
+                    }
+                    case IcmpV4CommonPacket icmp -> {
+                        int layer = detail.layer("Internet Control Message Protocol", at, headerLength);
+                        detail.add("Type:  " + icmp.getHeader().getType(), layer, at, 1);
+                        detail.add("Code:  " + icmp.getHeader().getCode(), layer, at + 1, 1);
+                        detail.add("Checksum:  " + icmp.getHeader().getChecksum(), layer, at + 2, 2);
+                    }
+                    default -> {
+                    }
+                }
+                at += headerLength;
+                current = current.getPayload();
+            }
+
+            detail.addApplicationLayer(data, linkType);
+        } catch (Exception e) {
+            logger.debug("Could not dissect a frame of {} bytes.", data.length, e);
+            detail.layer("Raw Data (Parsing Failed)", 0, data.length);
+        }
+        detail.ranges.build();
+        return detail;
+    }
+
+    private void addApplicationLayer(byte[] data, int linkType) {
+        PacketHeaders headers = new PacketHeaders();
+        ApplicationFields fields = new ApplicationFields();
+        if (!HeaderDecoder.decode(data, 0, data.length, linkType, headers)) return;
+        if (!ApplicationLayer.get().dissect(headers, data, fields)) return;
+
+        ApplicationDissector dissector = fields.dissector();
+        int layer = layer(dissector.title(), headers.payloadOffset, data.length - headers.payloadOffset);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < dissector.fields().size(); i++) {
+            if (!fields.has(i)) continue;
+            sb.setLength(0);
+            sb.append(dissector.fields().get(i).label()).append(":  ");
+            fields.appendValue(i, sb);
+            boolean span = dissector.fields().get(i).type() != ApplicationDissector.Type.NUMBER;
+            add(sb.toString(), layer, span ? fields.getOffset(i) : -1, span ? fields.getLength(i) : 0);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.jcap.service;
+
+import com.jcap.model.Protocols;
+
+public class PacketDissector {
+
+    private final int linkType;
+    private final DisplayFilter captureFilter;
+
+    public PacketDissector(int linkType) {
+        this(linkType, null);
+    }
+
+    /**
+     * Frames that do not match {@code captureFilter} are dissected but never stored.
+     */
+    public PacketDissector(int linkType, DisplayFilter captureFilter) {
+        this.linkType = linkType;
+        this.captureFilter = captureFilter;
+    }
+
+    /**
+     * Link type of the frames this dissector is given unless a frame says otherwise.
+     */
+    public int getLinkType() {
+        return linkType;
+    }
+
+    void dissect(CaptureFrame frame) {
+        PacketHeaders headers = frame.headers;
+
+        if (!HeaderDecoder.decode(frame.data, 0, frame.length, frame.linkType, headers)
+                && headers.protocol == Protocols.UNKNOWN) {
+            return;
+        }
+
+        frame.applicationDecoded = false;
+        frame.textRendered = false;
+        frame.valid = captureFilter == null || captureFilter.test(frame);
+    }
+}
@@ -0,0 +1,128 @@
+package com.jcap.service;
+
+import com.jcap.model.Addresses;
+import com.jcap.model.Protocols;
+import org.pcap4j.packet.namednumber.ArpOperation;
+import org.pcap4j.packet.namednumber.IcmpV4Type;
+import org.pcap4j.packet.namednumber.IcmpV6Type;
+
+/**
+ * Renders the summary columns from a decoded {@link PacketHeaders} into a caller-supplied StringBuilder.
+ */
+public final class PacketFormatter {
+
+    private static final String[] ICMPV4_TYPE_NAMES = new String[256];
+    private static final String[] ICMPV6_TYPE_NAMES = new String[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            ICMPV4_TYPE_NAMES[i] = IcmpV4Type.getInstance((byte) i).name();
+            ICMPV6_TYPE_NAMES[i] = IcmpV6Type.getInstance((byte) i).name();
+        }
+        ICMPV4_TYPE_NAMES[8] = "Echo (Ping) Request";
+        ICMPV4_TYPE_NAMES[0] = "Echo (Ping) Reply";
+        ICMPV6_TYPE_NAMES[128] = "Echo (Ping6) Request";
+        ICMPV6_TYPE_NAMES[129] = "Echo (Ping6) Reply";
+        ICMPV6_TYPE_NAMES[133] = "Router Solicitation";
+        ICMPV6_TYPE_NAMES[134] = "Router Advertisement";
+        ICMPV6_TYPE_NAMES[135] = "Neighbor Solicitation";
+        ICMPV6_TYPE_NAMES[136] = "Neighbor Advertisement";
+    }
+
+    private PacketFormatter() {
+    }
+
+    public static void appendSource(PacketHeaders h, StringBuilder sb) {
+        switch (h.l3) {
+            case PacketHeaders.L3_IPV4 -> Addresses.appendIpV4(h.ipSrc, sb);
+            case PacketHeaders.L3_IPV6 -> Addresses.appendIpV6(h.ip6SrcHi, h.ip6SrcLo, sb);
+            case PacketHeaders.L3_ARP -> Addresses.appendMac(h.arpSenderMac, sb);
+            default -> Addresses.appendMac(h.srcMac, sb);
+        }
+    }
+
+    public static void appendDestination(PacketHeaders h, StringBuilder sb) {
+        switch (h.l3) {
+            case PacketHeaders.L3_IPV4 -> Addresses.appendIpV4(h.ipDst, sb);
+            case PacketHeaders.L3_IPV6 -> Addresses.appendIpV6(h.ip6DstHi, h.ip6DstLo, sb);
+            case PacketHeaders.L3_ARP -> Addresses.appendMac(h.arpTargetMac, sb);
+            default -> Addresses.appendMac(h.dstMac, sb);
+        }
+    }
+
+    /**
+     * Appends the info column; {@code application} holds what the application layer made of the
+     * payload, if anything.
+     */
+    public static void appendInfo(PacketHeaders h, ApplicationFields application, StringBuilder sb) {
+        switch (h.protocol) {
+            case Protocols.TCP -> {
+                if (!h.hasTransport) return;
+
+                sb.append(h.srcPort).append(" → ").append(h.dstPort);
+                sb.append("  [");
+                appendTcpFlags(h.tcpFlags, sb);
+                sb.append("]");
+                sb.append("  Seq=").append(h.seq);
+                sb.append("  Ack=").append(h.ack);
+                sb.append("  Win=").append(h.window);
+
+                if (application.dissector() != null) {
+                    sb.append("  [");
+                    application.dissector().appendInfo(application, sb);
+                    sb.append("]");
+                }
+            }
+            case Protocols.UDP -> {
+                if (!h.hasTransport) return;
+
+                sb.append(h.srcPort).append(" → ").append(h.dstPort);
+                sb.append("  Len=").append(h.udpLength);
+
+                if (application.dissector() != null) {
+                    sb.append("  ");
+                    application.dissector().appendInfo(application, sb);
+                }
+            }
+            case Protocols.ARP -> {
+                if (h.arpOperation == 1) {
+                    sb.append("Who has ");
+                    Addresses.appendIpV4(h.arpTargetIp, sb);
+                    sb.append("? Tell ");
+                    Addresses.appendIpV4(h.arpSenderIp, sb);
+                }
+                else if (h.arpOperation == 2) {
+                    Addresses.appendIpV4(h.arpSenderIp, sb);
+                    sb.append(" is at ");
+                    Addresses.appendMac(h.arpSenderMac, sb);
+                }
+                else {
+                    sb.append(ArpOperation.getInstance((short) h.arpOperation).name());
+                }
+            }
+            case Protocols.ICMPV4 -> {
+                if (h.hasTransport) sb.append(ICMPV4_TYPE_NAMES[h.icmpType]);
+            }
+            case Protocols.ICMPV6 -> {
+                if (h.hasTransport) sb.append(ICMPV6_TYPE_NAMES[h.icmpType]);
+            }
+            default -> {
+            }
+        }
+    }
+
+    public static void appendTcpFlags(int flags, StringBuilder sb) {
+        int start = sb.length();
+        if ((flags & PacketHeaders.TCP_SYN) != 0) appendFlag("SYN", start, sb);
+        if ((flags & PacketHeaders.TCP_ACK) != 0) appendFlag("ACK", start, sb);
+        if ((flags & PacketHeaders.TCP_RST) != 0) appendFlag("RST", start, sb);
+        if ((flags & PacketHeaders.TCP_FIN) != 0) appendFlag("FIN", start, sb);
+        if ((flags & PacketHeaders.TCP_PSH) != 0) appendFlag("PSH", start, sb);
+        if ((flags & PacketHeaders.TCP_URG) != 0) appendFlag("URG", start, sb);
+    }
+
+    private static void appendFlag(String flag, int start, StringBuilder sb) {
+        if (sb.length() > start) sb.append(", ");
+        sb.append(flag);
+    }
+}
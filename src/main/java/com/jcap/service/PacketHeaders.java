@@ -0,0 +1,87 @@
+package com.jcap.service;
+
+import com.jcap.model.Protocols;
+
+/**
+ * Reusable, mutable view of the header fields of one frame, filled by {@link HeaderDecoder}.
+ * Addresses are kept as primitives so decoding a frame produces no garbage.
+ */
+public class PacketHeaders {
+
+    public static final int L3_NONE = 0;
+    public static final int L3_IPV4 = 4;
+    public static final int L3_IPV6 = 6;
+    public static final int L3_ARP = 1;
+
+    public static final int TCP_FIN = 0x01;
+    public static final int TCP_SYN = 0x02;
+    public static final int TCP_RST = 0x04;
+    public static final int TCP_PSH = 0x08;
+    public static final int TCP_ACK = 0x10;
+    public static final int TCP_URG = 0x20;
+
+    public int frameLength;
+
+    public long srcMac;
+    public long dstMac;
+    public int vlanId;
+    public int etherType;
+
+    public int l3;
+    public int protocol;
+    public int ipSrc;
+    public int ipDst;
+    public long ip6SrcHi;
+    public long ip6SrcLo;
+    public long ip6DstHi;
+    public long ip6DstLo;
+    public int ttl;
+
+    public boolean hasTransport;
+    public int srcPort;
+    public int dstPort;
+    public int tcpFlags;
+    public long seq;
+    public long ack;
+    public int window;
+    public int udpLength;
+    public int icmpType;
+    public int icmpCode;
+
+    public int arpOperation;
+    public long arpSenderMac;
+    public long arpTargetMac;
+    public int arpSenderIp;
+    public int arpTargetIp;
+
+    public int l4Offset;
+    public int payloadOffset;
+    public int payloadLength;
+
+    public void clear() {
+        frameLength = 0;
+        srcMac = dstMac = 0;
+        vlanId = -1;
+        etherType = 0;
+        l3 = L3_NONE;
+        protocol = Protocols.UNKNOWN;
+        ipSrc = ipDst = 0;
+        ip6SrcHi = ip6SrcLo = ip6DstHi = ip6DstLo = 0;
+        ttl = 0;
+        hasTransport = false;
+        srcPort = dstPort = 0;
+        tcpFlags = 0;
+        seq = ack = 0;
+        window = 0;
+        udpLength = 0;
+        icmpType = icmpCode = 0;
+        arpOperation = 0;
+        arpSenderMac = arpTargetMac = 0;
+        arpSenderIp = arpTargetIp = 0;
+        l4Offset = payloadOffset = payloadLength = 0;
+    }
+
+    public boolean isTcp() { return protocol == Protocols.TCP; }
+    public boolean isUdp() { return protocol == Protocols.UDP; }
+    public boolean hasFlag(int flag) { return (tcpFlags & flag) != 0; }
+}
@@ -0,0 +1,37 @@
+package com.jcap.service;
+
+/**
+ * Decoded fields a {@link DisplayFilter} can test. Implemented over a stored row and over a
+ * frame in the capture pipeline, so the same compiled filter works for both.
+ */
+public interface PacketView {
+
+    int length();
+
+    int protocol();
+
+    byte sourceKind();
+
+    long sourceHi();
+
+    long sourceLo();
+
+    byte destinationKind();
+
+    long destinationHi();
+
+    long destinationLo();
+
+    int sourcePort();
+
+    int destinationPort();
+
+    int tcpFlags();
+
+    CharSequence info();
+
+    /**
+     * What the application layer decoded; its dissector is null when none took the payload.
+     */
+    ApplicationFields application();
+}
@@ -0,0 +1,317 @@
+package com.jcap.service;
+
+import com.jcap.model.PacketStore;
+
+import java.nio.ByteBuffer;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressed payload storage for saved sessions. Consecutive frames are grouped into blocks of
+ * up to {@link #BLOCK_PACKETS} frames; within a block each frame only stores the bytes that differ
+ * from the start of the previous frame of the same flow, and the block is then deflated. Frame
+ * bodies that look random (encrypted traffic, mostly) are kept out of the deflate stream, since
+ * deflating them costs time and gains nothing. Packets refer to their frame by block number and
+ * index, so reading one frame decodes one block.
+ *
+ * <p>Block layout: the varints {@code count}, {@code inflated size} and {@code deflated size},
+ * the deflate stream, then the stored bytes. The inflated stream holds per frame the varints
+ * {@code back} (distance to the reference frame, 0 for none), {@code shared} (prefix length taken
+ * from it), {@code length} (bytes that follow) and {@code stored} (how many of those come from the
+ * stored bytes instead), then the remaining {@code length - stored} bytes.
+ */
+final class PayloadBlocks {
+
+    static final int CODEC_DEFLATE = 1;
+
+    /**
+     * {@code jcap.session.compression=none} saves raw payload BLOBs as before.
+     */
+    static final boolean ENABLED = !"none".equalsIgnoreCase(System.getProperty("jcap.session.compression", "deflate"));
+
+    static final String INSERT_BLOCK = "INSERT INTO payload_blocks(session_id, block, codec, count, data) VALUES(?,?,?,?,?)";
+    static final String SELECT_BLOCK = "SELECT codec, data FROM payload_blocks WHERE session_id = ? AND block = ?";
+
+    static final int BLOCK_PACKETS = 256;
+    private static final int BLOCK_BYTES = 128 * 1024;
+    private static final int FLOW_SLOTS = 512; // open addressing, at least twice BLOCK_PACKETS
+
+    // the first bytes after the shared prefix are headers and always deflated
+    private static final int HEADER_BYTES = 64;
+    private static final int SAMPLE_BYTES = 256;
+
+    private PayloadBlocks() {
+    }
+
+    /**
+     * Collects the frames of one session being saved and writes each block once it is full.
+     * Not thread-safe; belongs to the connection that inserts the packet rows.
+     */
+    static final class Writer implements AutoCloseable {
+
+        private final ConnectionPool.Lease lease;
+        private final int sessionId;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+        private int block;
+        private int count;
+
+        // frames of the current block back to back, for prefix matching
+        private byte[] frames = new byte[BLOCK_BYTES + 65536];
+        private final int[] frameStart = new int[BLOCK_PACKETS];
+        private final int[] frameLength = new int[BLOCK_PACKETS];
+        private int framesEnd;
+
+        private final Buffer entries = new Buffer(BLOCK_BYTES);
+        private final Buffer stored = new Buffer(BLOCK_BYTES);
+        private final Buffer out = new Buffer(BLOCK_BYTES);
+        private final int[] histogram = new int[256];
+
+        private final long[] flowKeys = new long[FLOW_SLOTS];
+        private final int[] flowFrames = new int[FLOW_SLOTS];
+
+        private long rawBytes;
+        private long storedBytes;
+
+        Writer(ConnectionPool.Lease lease, int sessionId) {
+            this.lease = lease;
+            this.sessionId = sessionId;
+            Arrays.fill(flowFrames, -1);
+        }
+
+        /**
+         * Number of the block the next frame goes into.
+         */
+        int getBlockNumber() {
+            return block;
+        }
+
+        long getRawBytes() {
+            return rawBytes;
+        }
+
+        long getStoredBytes() {
+            return storedBytes;
+        }
+
+        /**
+         * Adds the payload of {@code row} and returns its index in the block; the block is
+         * {@link #getBlockNumber()} as read right after this call.
+         */
+        int add(PacketStore store, int row) throws SQLException {
+            ByteBuffer payload = store.getPayload(row);
+            int length = payload.remaining();
+
+            if (count == BLOCK_PACKETS || framesEnd + length > BLOCK_BYTES && count > 0) flush();
+
+            if (frames.length < framesEnd + length) frames = Arrays.copyOf(frames, framesEnd + length);
+            payload.get(0, frames, framesEnd, length);
+
+            // reference: the latest frame of the same flow in this block
+            long key = flowKey(store, row);
+            int slot = (int) (mix(key) & (FLOW_SLOTS - 1));
+            while (flowFrames[slot] >= 0 && flowKeys[slot] != key) {
+                slot = (slot + 1) & (FLOW_SLOTS - 1);
+            }
+
+            int reference = flowFrames[slot];
+            int back = 0;
+            int shared = 0;
+            if (reference >= 0) {
+                int start = frameStart[reference];
+                int max = Math.min(length, frameLength[reference]);
+                int mismatch = Arrays.mismatch(frames, start, start + max, frames, framesEnd, framesEnd + max);
+                shared = mismatch < 0 ? max : mismatch;
+                back = count - reference;
+            }
+            flowKeys[slot] = key;
+            flowFrames[slot] = count;
+
+            int suffix = framesEnd + shared;
+            int suffixLength = length - shared;
+            int body = Math.min(suffixLength, HEADER_BYTES);
+            int storedLength = suffixLength - body >= SAMPLE_BYTES && looksRandom(frames, suffix + body) ? suffixLength - body : 0;
+
+            entries.ensure(20 + suffixLength);
+            entries.putVarint(back);
+            entries.putVarint(shared);
+            entries.putVarint(suffixLength);
+            entries.putVarint(storedLength);
+            entries.put(frames, suffix, suffixLength - storedLength);
+            if (storedLength > 0) {
+                stored.ensure(storedLength);
+                stored.put(frames, suffix + suffixLength - storedLength, storedLength);
+            }
+
+            frameStart[count] = framesEnd;
+            frameLength[count] = length;
+            framesEnd += length;
+            rawBytes += length;
+            return count++;
+        }
+
+        /**
+         * Writes the current block if it holds any frames; the next frame starts a new block.
+         */
+        void flush() throws SQLException {
+            if (count == 0) return;
+
+            deflater.reset();
+            deflater.setInput(entries.data, 0, entries.length);
+            deflater.finish();
+            Buffer deflated = new Buffer(entries.length / 2 + 64);
+            while (!deflater.finished()) {
+                deflated.ensure(4096);
+                deflated.length += deflater.deflate(deflated.data, deflated.length, deflated.data.length - deflated.length);
+            }
+
+            out.length = 0;
+            out.ensure(15 + deflated.length + stored.length);
+            out.putVarint(count);
+            out.putVarint(entries.length);
+            out.putVarint(deflated.length);
+            out.put(deflated.data, 0, deflated.length);
+            out.put(stored.data, 0, stored.length);
+
+            PreparedStatement stmt = lease.prepare(INSERT_BLOCK);
+            stmt.setInt(1, sessionId);
+            stmt.setInt(2, block);
+            stmt.setInt(3, CODEC_DEFLATE);
+            stmt.setInt(4, count);
+            stmt.setBytes(5, Arrays.copyOf(out.data, out.length));
+            stmt.executeUpdate();
+            storedBytes += out.length;
+
+            block++;
+            count = 0;
+            framesEnd = 0;
+            entries.length = 0;
+            stored.length = 0;
+            Arrays.fill(flowFrames, -1);
+        }
+
+        @Override
+        public void close() {
+            deflater.end();
+        }
+
+        /**
+         * Byte pair collisions in a sample, against what uniformly random bytes would give.
+         * Text and headers collide many times more often; ciphertext does not.
+         */
+        private boolean looksRandom(byte[] data, int offset) {
+            Arrays.fill(histogram, 0);
+            for (int i = 0; i < SAMPLE_BYTES; i++) {
+                histogram[data[offset + i] & 0xFF]++;
+            }
+            int pairs = 0;
+            for (int c : histogram) {
+                pairs += c * (c - 1) / 2;
+            }
+            // uniform bytes give SAMPLE_BYTES * (SAMPLE_BYTES - 1) / 512 pairs on average
+            return pairs < SAMPLE_BYTES * (SAMPLE_BYTES - 1) / 256;
+        }
+
+        private static long flowKey(PacketStore store, int row) {
+            long key = store.getSourceLo(row) * 31 + store.getSourceHi(row);
+            key = key * 31 + store.getDestinationLo(row);
+            key = key * 31 + store.getDestinationHi(row);
+            key = key * 31 + ((long) store.getSourcePort(row) << 16 | store.getDestinationPort(row));
+            return key * 31 + store.getProtocol(row);
+        }
+
+        private static long mix(long key) {
+            key ^= key >>> 33;
+            key *= 0xff51afd7ed558ccdL;
+            return key ^ key >>> 33;
+        }
+    }
+
+    /**
+     * Restores every frame of a block.
+     */
+    static byte[][] decode(int codec, byte[] data) throws SQLException {
+        if (codec != CODEC_DEFLATE) throw new SQLException("Unknown payload codec " + codec);
+
+        int[] position = {0};
+        int count = getVarint(data, position);
+        int inflatedLength = getVarint(data, position);
+        int deflatedLength = getVarint(data, position);
+        byte[] entries = new byte[inflatedLength];
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, position[0], deflatedLength);
+            int inflated = 0;
+            while (inflated < inflatedLength) {
+                int n = inflater.inflate(entries, inflated, inflatedLength - inflated);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) break;
+                inflated += n;
+            }
+            if (inflated != inflatedLength) throw new SQLException("Truncated payload block");
+        } catch (DataFormatException e) {
+            throw new SQLException("Corrupt payload block", e);
+        } finally {
+            inflater.end();
+        }
+
+        int storedAt = position[0] + deflatedLength;
+        position[0] = 0;
+        byte[][] frames = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            int back = getVarint(entries, position);
+            int shared = getVarint(entries, position);
+            int length = getVarint(entries, position);
+            int storedLength = getVarint(entries, position);
+            int inline = length - storedLength;
+
+            byte[] frame = new byte[shared + length];
+            if (back > 0) System.arraycopy(frames[i - back], 0, frame, 0, shared);
+            System.arraycopy(entries, position[0], frame, shared, inline);
+            position[0] += inline;
+            System.arraycopy(data, storedAt, frame, shared + inline, storedLength);
+            storedAt += storedLength;
+            frames[i] = frame;
+        }
+        return frames;
+    }
+
+    private static final class Buffer {
+        byte[] data;
+        int length;
+
+        Buffer(int capacity) {
+            data = new byte[capacity];
+        }
+
+        void ensure(int extra) {
+            if (data.length < length + extra) data = Arrays.copyOf(data, Math.max(data.length * 2, length + extra));
+        }
+
+        void put(byte[] src, int offset, int count) {
+            System.arraycopy(src, offset, data, length, count);
+            length += count;
+        }
+
+        void putVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                data[length++] = (byte) (value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+    }
+
+    private static int getVarint(byte[] in, int[] position) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in[position[0]++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+}
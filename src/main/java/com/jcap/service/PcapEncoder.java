@@ -0,0 +1,152 @@
+package com.jcap.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes the headers and frame records of a libpcap or pcapng file into buffers of the caller,
+ * in native byte order with nanosecond timestamps. Keeps the interfaces declared so far, of which
+ * a classic pcap file can only have one link type.
+ */
+final class PcapEncoder {
+
+    static final int SNAP_LENGTH = 262144;
+
+    private static final int PCAP_NANOS = 0xA1B23C4D;
+    private static final int PCAP_HEADER_LENGTH = 24;
+    private static final int PCAPNG_SECTION = 0x0A0D0D0A;
+    private static final int PCAPNG_BYTE_ORDER = 0x1A2B3C4D;
+    private static final int SECTION_HEADER_LENGTH = 28;
+    private static final int BLOCK_INTERFACE = 1;
+    private static final int BLOCK_ENHANCED_PACKET = 6;
+    private static final int OPTION_IF_NAME = 2;
+    private static final int OPTION_IF_TSRESOL = 9;
+
+    private final boolean pcapng;
+    private final List<String> names = new ArrayList<>();
+    private final List<Integer> linkTypes = new ArrayList<>();
+
+    PcapEncoder(boolean pcapng) {
+        this.pcapng = pcapng;
+    }
+
+    /**
+     * Returns the id of the interface, a new one unless a pcap file already has that link type.
+     *
+     * @throws IOException when a pcap file is asked to hold a second link type
+     */
+    int declare(String name, int linkType) throws IOException {
+        // libpcap reports raw IP as DLT_RAW, which has its own number in files
+        if (linkType == HeaderDecoder.DLT_RAW) linkType = HeaderDecoder.LINKTYPE_RAW;
+
+        if (!pcapng && !linkTypes.isEmpty()) {
+            if (linkTypes.get(0) != linkType) {
+                throw new IOException("A pcap file cannot mix link types " + linkTypes.get(0) + " and " + linkType
+                        + ", save as pcapng instead");
+            }
+            return 0;
+        }
+        names.add(name);
+        linkTypes.add(linkType);
+        return linkTypes.size() - 1;
+    }
+
+    int getInterfaceCount() {
+        return linkTypes.size();
+    }
+
+    /**
+     * Bytes of the file header with every interface declared so far.
+     */
+    int headerLength() {
+        int length = pcapng ? SECTION_HEADER_LENGTH : 0;
+        for (int id = 0; id < linkTypes.size(); id++) {
+            length += interfaceLength(id);
+        }
+        return length;
+    }
+
+    void putHeader(ByteBuffer buffer) {
+        putStart(buffer);
+        for (int id = 0; id < linkTypes.size(); id++) {
+            putInterface(buffer, id);
+        }
+    }
+
+    /**
+     * What starts the file before its first interface: the section header of a pcapng file.
+     */
+    void putStart(ByteBuffer buffer) {
+        if (!pcapng) return;
+        buffer.putInt(PCAPNG_SECTION).putInt(SECTION_HEADER_LENGTH).putInt(PCAPNG_BYTE_ORDER)
+                .putShort((short) 1).putShort((short) 0).putLong(-1) // section length not given
+                .putInt(SECTION_HEADER_LENGTH);
+    }
+
+    int interfaceLength(int id) {
+        if (!pcapng) return PCAP_HEADER_LENGTH;
+        int nameLength = Math.min(names.get(id).getBytes(StandardCharsets.UTF_8).length, 0xFFFF);
+        return 16 + (nameLength > 0 ? 4 + ((nameLength + 3) & ~3) : 0) + 8 + 4 + 4;
+    }
+
+    /**
+     * The interface description of a pcapng file, or the file header of a pcap file.
+     */
+    void putInterface(ByteBuffer buffer, int id) {
+        int linkType = linkTypes.get(id);
+        if (!pcapng) {
+            buffer.putInt(PCAP_NANOS).putShort((short) 2).putShort((short) 4)
+                    .putInt(0).putInt(0).putInt(SNAP_LENGTH).putInt(linkType);
+            return;
+        }
+
+        byte[] nameBytes = names.get(id).getBytes(StandardCharsets.UTF_8);
+        int nameLength = Math.min(nameBytes.length, 0xFFFF);
+        int paddedName = (nameLength + 3) & ~3;
+        int length = interfaceLength(id);
+
+        buffer.putInt(BLOCK_INTERFACE).putInt(length)
+                .putShort((short) linkType).putShort((short) 0).putInt(SNAP_LENGTH);
+        if (nameLength > 0) {
+            buffer.putShort((short) OPTION_IF_NAME).putShort((short) nameLength).put(nameBytes, 0, nameLength);
+            for (int i = nameLength; i < paddedName; i++) buffer.put((byte) 0);
+        }
+        buffer.putShort((short) OPTION_IF_TSRESOL).putShort((short) 1).put((byte) 9).put(new byte[3]) // 10^-9
+                .putInt(0) // opt_endofopt
+                .putInt(length);
+    }
+
+    int recordLength(int length) {
+        return pcapng ? 32 + ((length + 3) & ~3) : 16 + length;
+    }
+
+    /**
+     * The record header; the caller puts the frame bytes and then {@link #putRecordEnd}.
+     */
+    void putRecordStart(ByteBuffer buffer, int interfaceId, long timestampNanos, int length, int originalLength)
+            throws IOException {
+        if (interfaceId < 0 || interfaceId >= linkTypes.size()) {
+            throw new IOException("Unknown interface " + interfaceId);
+        }
+
+        if (pcapng) {
+            buffer.putInt(BLOCK_ENHANCED_PACKET).putInt(recordLength(length)).putInt(interfaceId)
+                    .putInt((int) (timestampNanos >>> 32)).putInt((int) timestampNanos)
+                    .putInt(length).putInt(originalLength);
+        }
+        else {
+            buffer.putInt((int) (timestampNanos / 1_000_000_000L)).putInt((int) (timestampNanos % 1_000_000_000L))
+                    .putInt(length).putInt(originalLength);
+        }
+    }
+
+    void putRecordEnd(ByteBuffer buffer, int length) {
+        if (!pcapng) return;
+        int padded = (length + 3) & ~3;
+        for (int i = length; i < padded; i++) buffer.put((byte) 0);
+        buffer.putInt(32 + padded);
+    }
+}
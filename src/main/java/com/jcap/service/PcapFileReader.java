@@ -0,0 +1,385 @@
+package com.jcap.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Streaming reader for libpcap and pcapng files. The file is memory-mapped in windows and
+ * record headers are parsed in place; frame bytes are handed out as offsets into the mapped
+ * window, so nothing is copied before the consumer takes its own copy.
+ *
+ * <p>pcapng sections may switch byte order and every interface description block brings its
+ * own link type and timestamp resolution. Interfaces are numbered across the whole file in
+ * the order they are described.
+ */
+public final class PcapFileReader implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PcapFileReader.class);
+
+    private static final int PCAP_MICROS = 0xA1B2C3D4;
+    private static final int PCAP_NANOS = 0xA1B23C4D;
+    private static final int PCAPNG_SECTION = 0x0A0D0D0A;
+    private static final int PCAPNG_BYTE_ORDER = 0x1A2B3C4D;
+
+    private static final int BLOCK_INTERFACE = 1;
+    private static final int BLOCK_PACKET = 2;
+    private static final int BLOCK_SIMPLE_PACKET = 3;
+    private static final int BLOCK_ENHANCED_PACKET = 6;
+
+    private static final int OPTION_END = 0;
+    private static final int OPTION_IF_NAME = 2;
+    private static final int OPTION_IF_TSRESOL = 9;
+    private static final int OPTION_IF_TSOFFSET = 14;
+
+    private static final long WINDOW_SIZE = 256L << 20;
+
+    /**
+     * Receives each record. {@code buffer} is only valid during the call and must not be kept.
+     */
+    @FunctionalInterface
+    public interface RecordHandler {
+        void record(ByteBuffer buffer, int offset, int capturedLength, int originalLength,
+                    long timestampNanos, int interfaceIndex);
+    }
+
+    /**
+     * An interface described by the file; classic pcap files have exactly one.
+     */
+    public record Interface(String name, int linkType, int snapLength) {
+    }
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long size;
+    private final boolean pcapng;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position;
+    private ByteOrder order;
+
+    // classic pcap
+    private boolean nanosecondTimestamps;
+
+    // pcapng: interfaces of the whole file and where the current section's numbering starts
+    private final List<Interface> interfaces = new ArrayList<>();
+    private final List<long[]> timeScales = new ArrayList<>(); // {units per second, offset seconds}
+    private int sectionBase;
+
+    private PcapFileReader(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+
+        try {
+            if (size < 24) throw new IOException(path.getFileName() + " is too short to be a capture file");
+            map(0, 24);
+
+            int magic = window.order(ByteOrder.BIG_ENDIAN).getInt(0);
+            if (magic == PCAPNG_SECTION) {
+                pcapng = true;
+                order = ByteOrder.BIG_ENDIAN; // fixed per section once its header is read
+            }
+            else {
+                pcapng = false;
+                readPcapHeader(magic);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static PcapFileReader open(Path path) throws IOException {
+        return new PcapFileReader(path);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public boolean isPcapng() {
+        return pcapng;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Bytes consumed so far, for progress reporting.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * The interfaces described up to the current position.
+     */
+    public List<Interface> getInterfaces() {
+        return List.copyOf(interfaces);
+    }
+
+    public Interface getInterface(int index) {
+        return interfaces.get(index);
+    }
+
+    /**
+     * Reads records until the end of the file or until {@code cancelled} says so. Returns the number of records read.
+     */
+    public long read(RecordHandler handler, BooleanSupplier cancelled) throws IOException {
+        long records = 0;
+        while (position < size) {
+            if ((records & 0xFFF) == 0 && cancelled.getAsBoolean()) break;
+
+            boolean delivered = pcapng ? readBlock(handler) : readRecord(handler);
+            if (delivered) records++;
+        }
+        return records;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    // ---- classic pcap ----
+
+    private void readPcapHeader(int magic) throws IOException {
+        if (magic == PCAP_MICROS || magic == PCAP_NANOS) {
+            order = ByteOrder.BIG_ENDIAN;
+        }
+        else if (Integer.reverseBytes(magic) == PCAP_MICROS || Integer.reverseBytes(magic) == PCAP_NANOS) {
+            order = ByteOrder.LITTLE_ENDIAN;
+            magic = Integer.reverseBytes(magic);
+        }
+        else {
+            throw new IOException(path.getFileName() + " is not a pcap or pcapng file");
+        }
+
+        nanosecondTimestamps = magic == PCAP_NANOS;
+        window.order(order);
+        int snapLength = window.getInt(16);
+        int linkType = window.getInt(20) & 0x0FFFFFFF; // the upper bits may carry the FCS length
+        interfaces.add(new Interface(path.getFileName().toString(), linkType, snapLength));
+        position = 24;
+    }
+
+    private boolean readRecord(RecordHandler handler) throws IOException {
+        if (size - position < 16) {
+            logger.warn("Ignoring {} trailing bytes in {}.", size - position, path.getFileName());
+            position = size;
+            return false;
+        }
+
+        int at = map(position, 16);
+        long seconds = window.getInt(at) & 0xFFFFFFFFL;
+        long fraction = window.getInt(at + 4) & 0xFFFFFFFFL;
+        int captured = window.getInt(at + 8);
+        int original = window.getInt(at + 12);
+
+        if (captured < 0 || captured > size - position - 16) {
+            throw new IOException("Truncated or corrupt record at offset " + position + " in " + path.getFileName());
+        }
+
+        at = map(position + 16, captured);
+        long timestamp = seconds * 1_000_000_000L + (nanosecondTimestamps ? fraction : fraction * 1000);
+        handler.record(window, at, captured, original, timestamp, 0);
+
+        position += 16 + captured;
+        return true;
+    }
+
+    // ---- pcapng ----
+
+    private boolean readBlock(RecordHandler handler) throws IOException {
+        if (size - position < 12) {
+            logger.warn("Ignoring {} trailing bytes in {}.", size - position, path.getFileName());
+            position = size;
+            return false;
+        }
+
+        int at = map(position, 12);
+        int type = window.order(ByteOrder.BIG_ENDIAN).getInt(at);
+        if (type == PCAPNG_SECTION) {
+            readSectionHeader(at);
+            at = map(position, 12);
+        }
+
+        window.order(order);
+        type = window.getInt(at);
+        long length = window.getInt(at + 4) & 0xFFFFFFFFL;
+        if (length < 12 || (length & 3) != 0 || length > size - position) {
+            throw new IOException("Corrupt block at offset " + position + " in " + path.getFileName());
+        }
+        if (length > WINDOW_SIZE) {
+            throw new IOException("Block of " + length + " bytes at offset " + position + " is too large");
+        }
+
+        at = map(position, (int) length);
+        boolean delivered = switch (type) {
+            case PCAPNG_SECTION -> false;
+            case BLOCK_INTERFACE -> {
+                readInterface(at, (int) length);
+                yield false;
+            }
+            case BLOCK_ENHANCED_PACKET -> readEnhancedPacket(at, (int) length, handler);
+            case BLOCK_SIMPLE_PACKET -> readSimplePacket(at, (int) length, handler);
+            case BLOCK_PACKET -> readObsoletePacket(at, (int) length, handler);
+            default -> false; // statistics, name resolution, custom and unknown blocks
+        };
+
+        position += length;
+        return delivered;
+    }
+
+    private void readSectionHeader(int at) throws IOException {
+        int byteOrderMagic = window.order(ByteOrder.BIG_ENDIAN).getInt(at + 8);
+        if (byteOrderMagic == PCAPNG_BYTE_ORDER) {
+            order = ByteOrder.BIG_ENDIAN;
+        }
+        else if (Integer.reverseBytes(byteOrderMagic) == PCAPNG_BYTE_ORDER) {
+            order = ByteOrder.LITTLE_ENDIAN;
+        }
+        else {
+            throw new IOException("Bad section header at offset " + position + " in " + path.getFileName());
+        }
+        // interface numbers restart with every section
+        sectionBase = interfaces.size();
+    }
+
+    private void readInterface(int at, int length) {
+        int linkType = window.getShort(at + 8) & 0xFFFF;
+        int snapLength = window.getInt(at + 12);
+        String name = "if" + (interfaces.size() - sectionBase);
+        long unitsPerSecond = 1_000_000;
+        long offsetSeconds = 0;
+
+        int option = at + 16;
+        int end = at + length - 4;
+        while (option + 4 <= end) {
+            int code = window.getShort(option) & 0xFFFF;
+            int optionLength = window.getShort(option + 2) & 0xFFFF;
+            int value = option + 4;
+            if (code == OPTION_END || value + optionLength > end) break;
+
+            switch (code) {
+                case OPTION_IF_NAME -> {
+                    byte[] text = new byte[optionLength];
+                    window.get(value, text);
+                    name = new String(text, StandardCharsets.UTF_8).trim();
+                }
+                case OPTION_IF_TSRESOL -> {
+                    int resolution = window.get(value) & 0xFF;
+                    int exponent = resolution & 0x7F;
+                    unitsPerSecond = (resolution & 0x80) == 0 ? pow(10, exponent) : pow(2, exponent);
+                }
+                case OPTION_IF_TSOFFSET -> offsetSeconds = window.getLong(value);
+                default -> {
+                }
+            }
+            option = value + ((optionLength + 3) & ~3);
+        }
+
+        interfaces.add(new Interface(name, linkType, snapLength));
+        timeScales.add(new long[] {unitsPerSecond, offsetSeconds});
+    }
+
+    private boolean readEnhancedPacket(int at, int length, RecordHandler handler) throws IOException {
+        int local = window.getInt(at + 8);
+        long units = ((window.getInt(at + 12) & 0xFFFFFFFFL) << 32) | (window.getInt(at + 16) & 0xFFFFFFFFL);
+        int captured = window.getInt(at + 20);
+        int original = window.getInt(at + 24);
+        if (captured < 0 || 28 + captured > length - 4) {
+            throw new IOException("Corrupt packet block at offset " + position + " in " + path.getFileName());
+        }
+
+        int index = interfaceIndex(local);
+        handler.record(window, at + 28, captured, original, toNanos(index, units), index);
+        return true;
+    }
+
+    private boolean readSimplePacket(int at, int length, RecordHandler handler) throws IOException {
+        int index = interfaceIndex(0);
+        int original = window.getInt(at + 8);
+        if (original < 0 || length < 16) {
+            throw new IOException("Corrupt packet block at offset " + position + " in " + path.getFileName());
+        }
+        int captured = Math.min(original, length - 16);
+        int snapLength = interfaces.get(index).snapLength();
+        if (snapLength > 0) captured = Math.min(captured, snapLength);
+
+        // simple packet blocks carry no timestamp
+        handler.record(window, at + 12, captured, original, 0, index);
+        return true;
+    }
+
+    private boolean readObsoletePacket(int at, int length, RecordHandler handler) throws IOException {
+        int local = window.getShort(at + 8) & 0xFFFF;
+        long units = ((window.getInt(at + 12) & 0xFFFFFFFFL) << 32) | (window.getInt(at + 16) & 0xFFFFFFFFL);
+        int captured = window.getInt(at + 20);
+        int original = window.getInt(at + 24);
+        if (captured < 0 || 28 + captured > length - 4) {
+            throw new IOException("Corrupt packet block at offset " + position + " in " + path.getFileName());
+        }
+
+        int index = interfaceIndex(local);
+        handler.record(window, at + 28, captured, original, toNanos(index, units), index);
+        return true;
+    }
+
+    private int interfaceIndex(int local) throws IOException {
+        int index = sectionBase + local;
+        if (local < 0 || index >= interfaces.size()) {
+            throw new IOException("Packet at offset " + position + " refers to undescribed interface " + local);
+        }
+        return index;
+    }
+
+    private long toNanos(int index, long units) {
+        long[] scale = timeScales.get(index);
+        long unitsPerSecond = scale[0];
+        long seconds = units / unitsPerSecond;
+        long remainder = units % unitsPerSecond;
+        return (seconds + scale[1]) * 1_000_000_000L + remainder * 1_000_000_000L / unitsPerSecond;
+    }
+
+    private static long pow(int base, int exponent) {
+        long result = 1;
+        for (int i = 0; i < exponent && result <= Long.MAX_VALUE / base; i++) {
+            result *= base;
+        }
+        return result;
+    }
+
+    /**
+     * Makes {@code [offset, offset + length)} of the file addressable and returns where it starts in the window.
+     */
+    private int map(long offset, int length) throws IOException {
+        if (window == null || offset < windowStart || offset + length > windowStart + window.limit()) {
+            long start = offset & ~0xFFFFL;
+            long mapped = Math.min(WINDOW_SIZE, size - start);
+            if (offset + length > start + mapped) {
+                throw new IOException("Unexpected end of file at offset " + offset + " in " + path.getFileName());
+            }
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, mapped);
+            window.order(order != null ? order : ByteOrder.BIG_ENDIAN);
+            windowStart = start;
+        }
+        return (int) (offset - windowStart);
+    }
+}
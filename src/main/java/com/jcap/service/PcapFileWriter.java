@@ -0,0 +1,135 @@
+package com.jcap.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Buffered writer for libpcap and pcapng files; the format follows the file extension
+ * ({@code .pcapng} or anything else for pcap). Timestamps are written with nanosecond resolution.
+ * A classic pcap file can only hold frames of a single link type, pcapng files get one interface
+ * description per interface. Safe to share between threads.
+ */
+public final class PcapFileWriter implements FrameWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(PcapFileWriter.class);
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final Path path;
+    private final PcapEncoder encoder;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.nativeOrder());
+
+    private long written;
+    private boolean closed;
+
+    private PcapFileWriter(Path path) throws IOException {
+        this.path = path;
+        this.encoder = new PcapEncoder(isPcapng(path));
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        encoder.putStart(buffer);
+    }
+
+    public static PcapFileWriter create(Path path) throws IOException {
+        return new PcapFileWriter(path);
+    }
+
+    public static boolean isPcapng(Path path) {
+        return path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".pcapng");
+    }
+
+    @Override
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Declares an interface and returns the id to {@link #write} its frames with.
+     *
+     * @throws IOException when a pcap file is asked to hold a second link type
+     */
+    @Override
+    public synchronized int addInterface(String name, int linkType) throws IOException {
+        ensureOpen();
+        int count = encoder.getInterfaceCount();
+        int id = encoder.declare(name, linkType);
+        if (encoder.getInterfaceCount() > count) {
+            int length = encoder.interfaceLength(id);
+            if (buffer.remaining() < length) flush();
+            encoder.putInterface(buffer, id);
+        }
+        return id;
+    }
+
+    @Override
+    public synchronized void write(int interfaceId, long timestampNanos, byte[] data, int offset, int length,
+                                   int originalLength) throws IOException {
+        beginRecord(interfaceId, timestampNanos, length, originalLength);
+        buffer.put(data, offset, length);
+        endRecord(length);
+    }
+
+    /**
+     * Writes the remaining bytes of {@code frame} without copying them to the heap first.
+     */
+    public synchronized void write(int interfaceId, long timestampNanos, ByteBuffer frame, int originalLength)
+            throws IOException {
+        int length = frame.remaining();
+        beginRecord(interfaceId, timestampNanos, length, originalLength);
+        buffer.put(frame);
+        endRecord(length);
+    }
+
+    public synchronized long getWrittenCount() {
+        return written;
+    }
+
+    public synchronized void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+        logger.info("Wrote {} frames to {}.", written, path);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException(path.getFileName() + " is closed");
+    }
+
+    private void beginRecord(int interfaceId, long timestampNanos, int length, int originalLength) throws IOException {
+        ensureOpen();
+        int record = encoder.recordLength(length);
+        if (buffer.remaining() < record) flush();
+        if (buffer.capacity() < record) {
+            throw new IOException("Frame of " + length + " bytes is too large");
+        }
+        encoder.putRecordStart(buffer, interfaceId, timestampNanos, length, originalLength);
+    }
+
+    private void endRecord(int length) {
+        encoder.putRecordEnd(buffer, length);
+        written++;
+    }
+}
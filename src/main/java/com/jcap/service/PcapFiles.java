@@ -0,0 +1,149 @@
+package com.jcap.service;
+
+import com.jcap.model.PacketStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Opening and saving libpcap and pcapng files. Imported frames go through a
+ * {@link CapturePipeline} like live ones, so they are dissected in parallel and stored the same way.
+ */
+public final class PcapFiles {
+
+    private static final Logger logger = LoggerFactory.getLogger(PcapFiles.class);
+
+    private static final int RING_SIZE = 16384;
+    private static final int PROGRESS_INTERVAL = 1 << 14;
+
+    private PcapFiles() {
+    }
+
+    /**
+     * Reads a capture file into a new store. Progress is reported in bytes read.
+     */
+    public static PacketStore importFile(Path path, Progress progress) throws IOException {
+        logger.info("Importing {}...", path);
+        long start = System.currentTimeMillis();
+
+        PacketStore store = new PacketStore();
+        CapturePipeline pipeline = new CapturePipeline(RING_SIZE, store, OverflowPolicy.BLOCK);
+        long records;
+        try {
+            records = replay(path, pipeline, store, null, progress);
+        } catch (IOException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+
+        if (progress.isCancelled()) {
+            store.close();
+            return null;
+        }
+
+        long duration = System.currentTimeMillis() - start;
+        logger.info("Imported {} of {} frames from {} in {} ms ({} dropped).", store.size(), records, path,
+                duration, pipeline.getDroppedCount());
+        return store;
+    }
+
+    /**
+     * Feeds the frames of a capture file through {@code pipeline}, which stores into {@code store},
+     * keeping only those that match {@code filter} unless it is null. Starts the pipeline and stops
+     * it once the file is read. Returns the number of records read; progress is reported in bytes.
+     */
+    public static long replay(Path path, CapturePipeline pipeline, PacketStore store, DisplayFilter filter,
+                              Progress progress) throws IOException {
+        String fileName = path.getFileName().toString();
+
+        try (PcapFileReader reader = PcapFileReader.open(path)) {
+            long size = reader.getSize();
+            // file interface index -> store interface id, -1 until the first frame of that interface
+            int[][] interfaceIds = {new int[0]};
+            CapturePipeline.Source[] source = new CapturePipeline.Source[1];
+            long[] count = new long[1];
+
+            pipeline.start();
+            try {
+                return reader.read((buffer, offset, capturedLength, originalLength, timestampNanos, index) -> {
+                    int[] ids = interfaceIds[0];
+                    if (index >= ids.length) {
+                        int from = ids.length;
+                        ids = Arrays.copyOf(ids, index + 1);
+                        Arrays.fill(ids, from, ids.length, -1);
+                        interfaceIds[0] = ids;
+                    }
+
+                    PcapFileReader.Interface iface = reader.getInterface(index);
+                    int id = ids[index];
+                    if (id < 0) {
+                        String name = reader.isPcapng() ? iface.name() : fileName;
+                        id = store.addInterface(name);
+                        store.setInterfaceLinkType(id, iface.linkType());
+                        ids[index] = id;
+                        if (source[0] == null) {
+                            source[0] = pipeline.addSource(new PacketDissector(iface.linkType(), filter), id);
+                        }
+                    }
+
+                    source[0].publish(buffer, offset, capturedLength, originalLength, timestampNanos, iface.linkType(), id);
+
+                    if (++count[0] % PROGRESS_INTERVAL == 0) {
+                        progress.update(reader.getPosition(), size);
+                        progress.message("Importing " + fileName + ": " + count[0] + " packets");
+                    }
+                }, progress::isCancelled);
+            } finally {
+                pipeline.stop();
+            }
+        }
+    }
+
+    /**
+     * Writes every row of {@code store} to {@code path}; the file type follows the extension.
+     * Returns the number of frames written.
+     */
+    public static long exportFile(PacketStore store, Path path, Progress progress) throws IOException {
+        logger.info("Exporting {} packets to {}...", store.size(), path);
+        long start = System.currentTimeMillis();
+        int total = store.size();
+
+        // store interface id -> file interface id, registered when first used
+        int[] fileIds = new int[Math.max(1, store.getInterfaceCount())];
+        Arrays.fill(fileIds, -1);
+
+        try (PcapFileWriter writer = PcapFileWriter.create(path)) {
+            for (int row = 0; row < total; row++) {
+                if (progress.isCancelled()) break;
+
+                int iface = store.getInterface(row);
+                if (iface >= fileIds.length) {
+                    // saved sessions register their interfaces as pages are read
+                    int from = fileIds.length;
+                    fileIds = Arrays.copyOf(fileIds, iface + 1);
+                    Arrays.fill(fileIds, from, fileIds.length, -1);
+                }
+                if (fileIds[iface] < 0) {
+                    String name = store.getInterfaceNameOf(iface);
+                    fileIds[iface] = writer.addInterface(name.isEmpty() ? "jcap" : name, store.getInterfaceLinkType(iface));
+                }
+
+                ByteBuffer payload = store.getPayload(row);
+                writer.write(fileIds[iface], store.getTimestampNanos(row), payload, store.getLength(row));
+
+                if ((row + 1) % PROGRESS_INTERVAL == 0) {
+                    progress.update(row + 1, total);
+                    progress.message("Exporting to " + path.getFileName() + ": " + (row + 1) + " of " + total + " packets");
+                }
+            }
+
+            long duration = System.currentTimeMillis() - start;
+            logger.info("Exported {} packets to {} in {} ms.", writer.getWrittenCount(), path, duration);
+            return writer.getWrittenCount();
+        }
+    }
+}
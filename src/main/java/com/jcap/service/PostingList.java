@@ -0,0 +1,103 @@
+package com.jcap.service;
+
+import java.util.Arrays;
+
+/**
+ * Append-only list of ascending row numbers, stored as varint-encoded deltas.
+ */
+class PostingList {
+
+    private byte[] data = new byte[8];
+    private int bytes;
+    private int count;
+    private int lastRow = -1;
+
+    PostingList() {
+    }
+
+    /**
+     * A list read back from {@link #toBytes()}; no further rows may be added.
+     */
+    PostingList(byte[] encoded, int count) {
+        this.data = encoded;
+        this.bytes = encoded.length;
+        this.count = count;
+        this.lastRow = Integer.MAX_VALUE;
+    }
+
+    void add(int row) {
+        if (row <= lastRow) return;
+
+        if (data.length - bytes < 5) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+
+        int delta = row - lastRow;
+        while ((delta & ~0x7F) != 0) {
+            data[bytes++] = (byte) ((delta & 0x7F) | 0x80);
+            delta >>>= 7;
+        }
+        data[bytes++] = (byte) delta;
+
+        lastRow = row;
+        count++;
+    }
+
+    int size() {
+        return count;
+    }
+
+    byte[] toBytes() {
+        return Arrays.copyOf(data, bytes);
+    }
+
+    int[] toArray() {
+        int[] rows = new int[count];
+        int row = -1;
+        int pos = 0;
+
+        for (int i = 0; i < count; i++) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[pos++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+
+            row += delta;
+            rows[i] = row;
+        }
+        return rows;
+    }
+
+    /**
+     * Keeps the entries of {@code rows[0..length)} that are also in this list and returns the new length.
+     */
+    int retainIn(int[] rows, int length) {
+        int row = -1;
+        int pos = 0;
+        int seen = 0;
+        int kept = 0;
+
+        for (int i = 0; i < length; i++) {
+            int target = rows[i];
+            while (row < target && seen < count) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[pos++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                row += delta;
+                seen++;
+            }
+            if (row == target) rows[kept++] = target;
+            if (row < target) break;
+        }
+        return kept;
+    }
+}
@@ -0,0 +1,29 @@
+package com.jcap.service;
+
+/**
+ * Where long engine work reports how far it got and learns that it should stop. The UI runs such
+ * work as a JavaFX task behind this, the command line with {@link #NONE}.
+ */
+public interface Progress {
+
+    Progress NONE = new Progress() {
+        @Override
+        public void update(long done, long total) {
+        }
+
+        @Override
+        public void message(String message) {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+
+    void update(long done, long total);
+
+    void message(String message);
+
+    boolean isCancelled();
+}
@@ -0,0 +1,448 @@
+package com.jcap.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a capture to a series of segment files next to {@code base}, starting the next one once
+ * the current file reaches a size, spans a stretch of capture time or holds a number of frames.
+ * Files are named like {@code capture_00001_20240131120000.pcap} after the base name, a sequence
+ * number and the time they were started; every file declares all interfaces again.
+ *
+ * <p>With a {@link Retention} the files form a ring buffer: the oldest are given up to stay within
+ * a number of files and a total size. A given-up file is renamed to the next segment and written
+ * over, so once the ring is full segments go into space that is already allocated, and is
+ * truncated to what was written when the segment ends. A manifest ({@code capture.manifest}) lists
+ * the kept files with the capture time range, frames and bytes of each.
+ *
+ * <p>Frames are encoded into a pool of direct buffers and written with positional
+ * {@link FileChannel} writes by an I/O thread of its own, so the thread calling {@link #write}
+ * never waits for the disk. When the disk falls behind and every buffer is full, frames are left
+ * out of the files and counted instead ({@link #getLostCount()}).
+ */
+public final class RotatingFileWriter implements FrameWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(RotatingFileWriter.class);
+
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int BUFFERS = Math.max(2, Integer.getInteger("jcap.ring.bufferMb", 16));
+    // a quiet link still gets its frames to disk this soon
+    private static final long FLUSH_INTERVAL_NANOS = 1_000_000_000L;
+    private static final long POLL_MILLIS = 200;
+
+    /**
+     * When to start the next file; a limit of 0 or less does not apply.
+     */
+    public record Limits(long maxBytes, long maxNanos, long maxFrames) {
+    }
+
+    /**
+     * How many files to keep and how many bytes they may take together, the file being written
+     * included. That file counts as large as {@link Limits#maxBytes()} lets it grow, or as large as
+     * the last finished one when files are started by time or frames. A limit of 0 or less does
+     * not apply.
+     */
+    public record Retention(int maxFiles, long maxBytes) {
+
+        public static final Retention KEEP_ALL = new Retention(0, 0);
+    }
+
+    /**
+     * A finished file as listed in the manifest; capture times are nanoseconds since the epoch.
+     */
+    public record Segment(Path path, long firstNanos, long lastNanos, long frames, long bytes) {
+    }
+
+    // the end of a segment, with what the I/O thread cannot see from the bytes alone
+    private record Finish(Path path, long firstNanos, long lastNanos, long frames) {
+    }
+
+    private record Chunk(Path path, ByteBuffer buffer, Finish finish) {
+    }
+
+    private static final Chunk STOP = new Chunk(null, null, null);
+
+    private final Path base;
+    private final Path manifest;
+    private final String stem;
+    private final String extension;
+    private final boolean pcapng;
+    private final Limits limits;
+    private final Retention retention;
+
+    // written to by callers, under the lock of this writer
+    private final List<String> interfaceNames = new ArrayList<>();
+    private final List<Integer> interfaceLinkTypes = new ArrayList<>();
+    private PcapEncoder encoder;
+    private Path current;
+    private int sequence;
+    private ByteBuffer buffer;
+    private boolean headerPending;
+    private long bufferedSince;
+    private long segmentBytes;
+    private long frames;
+    private long firstNanos = Long.MIN_VALUE;
+    private long lastNanos;
+    private long lost;
+    private boolean closed;
+
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(BUFFERS);
+    private final BlockingQueue<Chunk> chunks = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile IOException failure;
+
+    // the I/O thread's own
+    private final Deque<Segment> kept = new ArrayDeque<>();
+    private long keptBytes;
+    private Path open;
+    private FileChannel channel;
+    private long position;
+
+    public RotatingFileWriter(Path base, Limits limits, Retention retention) throws IOException {
+        this.base = base;
+        this.limits = limits;
+        this.retention = retention;
+        this.pcapng = PcapFileWriter.isPcapng(base);
+
+        String fileName = base.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        this.stem = dot > 0 ? fileName.substring(0, dot) : fileName;
+        this.extension = dot > 0 ? fileName.substring(dot) : ".pcap";
+        this.manifest = base.resolveSibling(stem + ".manifest");
+
+        Path directory = base.toAbsolutePath().getParent();
+        if (directory != null) Files.createDirectories(directory);
+        for (int i = 0; i < BUFFERS; i++) {
+            free.add(ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.nativeOrder()));
+        }
+
+        startSegment();
+        thread = new Thread(this::runWriter, "jcap-file-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public RotatingFileWriter(Path base, Limits limits) throws IOException {
+        this(base, limits, Retention.KEEP_ALL);
+    }
+
+    /**
+     * Declares an interface in this and every later file. May wait for a free buffer, which
+     * only happens when interfaces are added while the disk is behind.
+     */
+    @Override
+    public synchronized int addInterface(String name, int linkType) throws IOException {
+        ensureOpen();
+        int count = encoder.getInterfaceCount();
+        int id = encoder.declare(name, linkType);
+        if (encoder.getInterfaceCount() == count) return id;
+
+        interfaceNames.add(name);
+        interfaceLinkTypes.add(linkType);
+        // a header still to be written will include it
+        if (!headerPending) {
+            int length = encoder.interfaceLength(id);
+            if (!reserve(length)) {
+                try {
+                    buffer = free.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while declaring interface " + name);
+                }
+                bufferedSince = System.nanoTime();
+            }
+            encoder.putInterface(buffer, id);
+            segmentBytes += length;
+        }
+        return id;
+    }
+
+    @Override
+    public synchronized void write(int interfaceId, long timestampNanos, byte[] data, int offset, int length,
+                                   int originalLength) throws IOException {
+        ensureOpen();
+        if (isFull(timestampNanos)) rotate();
+
+        int record = encoder.recordLength(length);
+        if (record > BUFFER_SIZE) throw new IOException("Frame of " + length + " bytes is too large");
+        if (!reserve(record)) {
+            lost++;
+            return;
+        }
+
+        encoder.putRecordStart(buffer, interfaceId, timestampNanos, length, originalLength);
+        buffer.put(data, offset, length);
+        encoder.putRecordEnd(buffer, length);
+
+        if (firstNanos == Long.MIN_VALUE) firstNanos = timestampNanos;
+        lastNanos = timestampNanos;
+        frames++;
+        segmentBytes += record;
+    }
+
+    private boolean isFull(long timestampNanos) {
+        if (frames == 0) return false;
+        return limits.maxFrames() > 0 && frames >= limits.maxFrames()
+                || limits.maxBytes() > 0 && segmentBytes >= limits.maxBytes()
+                || limits.maxNanos() > 0 && timestampNanos - firstNanos >= limits.maxNanos();
+    }
+
+    /**
+     * Makes room for {@code length} bytes in the current buffer, writing the file header first if
+     * the segment has none yet. False when no buffer is free.
+     */
+    private boolean reserve(int length) {
+        if (buffer != null && buffer.remaining() >= length) return true;
+        if (buffer != null) handOff();
+
+        buffer = free.poll();
+        if (buffer == null) return false;
+        bufferedSince = System.nanoTime();
+
+        if (headerPending) {
+            segmentBytes += encoder.headerLength();
+            encoder.putHeader(buffer);
+            headerPending = false;
+        }
+        return buffer.remaining() >= length;
+    }
+
+    private void handOff() {
+        buffer.flip();
+        chunks.add(new Chunk(current, buffer, null));
+        buffer = null;
+    }
+
+    private void rotate() throws IOException {
+        if (buffer != null && buffer.position() > 0) handOff();
+        chunks.add(new Chunk(current, null, new Finish(current, firstNanos, lastNanos, frames)));
+        startSegment();
+    }
+
+    private void startSegment() throws IOException {
+        current = base.resolveSibling(String.format("%s_%05d_%s%s", stem, ++sequence,
+                LocalDateTime.now().format(FILE_TIME), extension));
+        encoder = new PcapEncoder(pcapng);
+        for (int id = 0; id < interfaceNames.size(); id++) {
+            encoder.declare(interfaceNames.get(id), interfaceLinkTypes.get(id));
+        }
+        headerPending = true;
+        segmentBytes = 0;
+        frames = 0;
+        firstNanos = Long.MIN_VALUE;
+        lastNanos = 0;
+    }
+
+    // ---- I/O thread ----
+
+    private void runWriter() {
+        try {
+            while (true) {
+                Chunk chunk = chunks.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (chunk == null) {
+                    flushIdle();
+                    continue;
+                }
+                if (chunk == STOP) break;
+
+                try {
+                    if (failure == null) {
+                        if (chunk.buffer() != null) writeChunk(chunk.path(), chunk.buffer());
+                        else finishSegment(chunk.finish());
+                    }
+                } catch (IOException e) {
+                    logger.error("Writing to {} failed, no longer writing capture files. {}", chunk.path(), e.getMessage());
+                    failure = e;
+                    closeChannel();
+                }
+                if (chunk.buffer() != null) {
+                    chunk.buffer().clear();
+                    free.add(chunk.buffer());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // frames of a quiet link are not held back in a buffer for long
+    private synchronized void flushIdle() {
+        if (buffer != null && buffer.position() > 0 && System.nanoTime() - bufferedSince >= FLUSH_INTERVAL_NANOS) {
+            handOff();
+        }
+    }
+
+    private void writeChunk(Path path, ByteBuffer data) throws IOException {
+        if (!path.equals(open)) openSegment(path);
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+
+    private void openSegment(Path path) throws IOException {
+        int maxFiles = retention.maxFiles();
+        long maxBytes = retention.maxBytes();
+        long expected = limits.maxBytes() > 0 ? limits.maxBytes() : kept.isEmpty() ? 0 : kept.getLast().bytes();
+        Path reused = null;
+
+        // make room for the new file before it is written; the first file given up is reused
+        while (!kept.isEmpty() && (maxFiles > 0 && kept.size() >= maxFiles
+                || maxBytes > 0 && keptBytes + expected > maxBytes)) {
+            Segment oldest = kept.removeFirst();
+            keptBytes -= oldest.bytes();
+            if (reused == null) {
+                reused = oldest.path();
+            }
+            else {
+                Files.deleteIfExists(oldest.path());
+                logger.debug("Deleted {}.", oldest.path());
+            }
+        }
+
+        if (reused != null && Files.exists(reused)) {
+            Files.move(reused, path, StandardCopyOption.REPLACE_EXISTING);
+            channel = FileChannel.open(path, StandardOpenOption.WRITE);
+            logger.info("Writing capture file {} over {}.", path, reused.getFileName());
+        }
+        else {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            logger.info("Writing capture file {}.", path);
+        }
+        open = path;
+        position = 0;
+        writeManifest();
+    }
+
+    private void finishSegment(Finish finish) throws IOException {
+        // nothing was written to a segment that never got a buffer
+        if (!finish.path().equals(open)) return;
+
+        channel.truncate(position);
+        channel.force(false);
+        closeChannel();
+
+        Segment segment = new Segment(finish.path(), finish.firstNanos(), finish.lastNanos(), finish.frames(), position);
+        kept.addLast(segment);
+        keptBytes += segment.bytes();
+        logger.debug("Finished {} with {} frames, {} bytes.", segment.path(), segment.frames(), segment.bytes());
+        writeManifest();
+    }
+
+    private void closeChannel() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Could not close {}. {}", open, e.getMessage());
+        }
+        channel = null;
+        open = null;
+    }
+
+    private void writeManifest() throws IOException {
+        Path temporary = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+        try (Writer out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            out.write("# file\tfirst capture time (ns)\tlast capture time (ns)\tframes\tbytes\n");
+            for (Segment segment : kept) {
+                out.write(segment.path().getFileName() + "\t" + segment.firstNanos() + "\t" + segment.lastNanos()
+                        + "\t" + segment.frames() + "\t" + segment.bytes() + "\n");
+            }
+            if (open != null) out.write(open.getFileName() + "\topen\n");
+        }
+        Files.move(temporary, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the finished files listed in a manifest, oldest first.
+     */
+    public static List<Segment> readManifest(Path manifest) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t");
+            if (line.startsWith("#") || fields.length < 5) continue;
+            segments.add(new Segment(manifest.resolveSibling(fields[0]), Long.parseLong(fields[1]),
+                    Long.parseLong(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4])));
+        }
+        return segments;
+    }
+
+    // ---- status ----
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException(base.getFileName() + " is closed");
+        IOException e = failure;
+        if (e != null) throw e;
+    }
+
+    /**
+     * Files started so far, the current one included.
+     */
+    public synchronized int getFileCount() {
+        return sequence;
+    }
+
+    /**
+     * Frames left out of the files because every buffer was waiting for the disk.
+     */
+    public synchronized long getLostCount() {
+        return lost;
+    }
+
+    public Path getManifestPath() {
+        return manifest;
+    }
+
+    @Override
+    public synchronized Path getPath() {
+        return current;
+    }
+
+    /**
+     * Writes what is buffered, finishes the current file and waits for the I/O thread.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            // a capture without frames still leaves a file with its header
+            if (headerPending && sequence == 1) reserve(0);
+            if (buffer != null && buffer.position() > 0) handOff();
+            chunks.add(new Chunk(current, null, new Finish(current, firstNanos, lastNanos, frames)));
+            chunks.add(STOP);
+        }
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (lost > 0) logger.warn("{} frames were not written, the disk could not keep up.", lost);
+        logger.info("Wrote {} capture file(s) ending with {}.", sequence, current);
+        if (failure != null) throw failure;
+    }
+}
@@ -0,0 +1,54 @@
+package com.jcap.service;
+
+import com.jcap.model.PacketStore;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes a stored row again from its frame bytes, for what the store does not keep: the full
+ * headers, the application layer and the info text. Reused from row to row by one thread.
+ */
+final class RowDecoder {
+
+    /**
+     * Renders the info column of stores filled by a {@link CapturePipeline}, which keep no info text.
+     * Every reading thread decodes with a decoder of its own.
+     */
+    static final PacketStore.InfoRenderer INFO_RENDERER = new PacketStore.InfoRenderer() {
+        private final ThreadLocal<RowDecoder> decoders = ThreadLocal.withInitial(RowDecoder::new);
+
+        @Override
+        public void appendInfo(PacketStore store, int row, StringBuilder sb) {
+            RowDecoder decoder = decoders.get();
+            decoder.decode(store, row);
+            PacketFormatter.appendInfo(decoder.headers, decoder.application, sb);
+        }
+    };
+
+    private final ApplicationLayer applications = ApplicationLayer.get();
+    private byte[] frame = new byte[2048];
+
+    final PacketHeaders headers = new PacketHeaders();
+    final ApplicationFields application = new ApplicationFields();
+
+    /**
+     * Fills {@link #headers} and {@link #application} from the frame of {@code row}.
+     */
+    void decode(PacketStore store, int row) {
+        ByteBuffer payload = store.getPayload(row);
+        int length = payload.remaining();
+        if (frame.length < length) frame = new byte[Math.max(length, frame.length * 2)];
+        payload.get(payload.position(), frame, 0, length);
+
+        headers.clear();
+        HeaderDecoder.decode(frame, 0, length, store.getInterfaceLinkType(store.getInterface(row)), headers);
+        applications.dissect(headers, frame, application);
+    }
+
+    /**
+     * Leaves {@link #application} empty, for rows the application layer cannot apply to.
+     */
+    void clearApplication() {
+        application.reset(frame);
+    }
+}
@@ -0,0 +1,287 @@
+package com.jcap.service;
+
+import com.jcap.model.Addresses;
+import com.jcap.model.PacketStore;
+import com.jcap.model.Protocols;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Search index of the saved sessions, written when a session is saved. Every session gets one
+ * row in {@code session_terms} per distinct term, holding the packet numbers that have it as a
+ * {@link PostingList}; the terms are {@code frame}, {@code proto:NAME}, {@code kind:ip},
+ * {@code kind:ipv6} or {@code kind:eth} for the address type, {@code src:ADDR}, {@code dst:ADDR},
+ * {@code sport:N} and {@code dport:N}. Info texts go into the {@code packets_fts}
+ * full-text table, and the session remembers its packet id range so text searches can be limited to it.
+ *
+ * <p>{@code sessions.indexed} is 1 once the index is written, -1 while a recording is still adding
+ * packets and 0 for sessions saved before the index existed, which are indexed on the next search.
+ */
+final class SessionIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionIndex.class);
+
+    static final String FRAME = "frame";
+    static final String PROTOCOL = "proto:";
+    static final String ADDRESS_KIND = "kind:";
+    static final String SOURCE = "src:";
+    static final String DESTINATION = "dst:";
+    static final String SOURCE_PORT = "sport:";
+    static final String DESTINATION_PORT = "dport:";
+
+    private static final String INSERT_TERM = "INSERT OR REPLACE INTO session_terms(session_id, term, hits, postings) VALUES(?,?,?,?)";
+    private static final String INSERT_TEXT = "INSERT INTO packets_fts(rowid, info) SELECT id, info FROM packets WHERE session_id = ?";
+    private static final String DELETE_TEXT = "INSERT INTO packets_fts(packets_fts, rowid, info) SELECT 'delete', id, info FROM packets WHERE session_id = ?";
+    private static final String MARK_INDEXED = "UPDATE sessions SET indexed = 1, " +
+            "first_id = (SELECT min(id) FROM packets WHERE session_id = ?1), " +
+            "last_id = (SELECT max(id) FROM packets WHERE session_id = ?1) WHERE id = ?1";
+    private static final String SELECT_PENDING = "SELECT id, name FROM sessions WHERE indexed = 0";
+    private static final String SCAN_PACKETS = "SELECT num, src, dst, proto, sport, dport, " +
+            "CASE WHEN sport IS NULL THEN substr(payload, 1, 128) END FROM packets WHERE session_id = ? ORDER BY num, id";
+
+    private SessionIndex() {
+    }
+
+    /**
+     * Collects the terms of a session's packets in number order.
+     */
+    static final class Builder {
+
+        private final PostingList frames = new PostingList();
+        private final Map<String, PostingList> protocols = new HashMap<>();
+        private final PostingList[] kinds = new PostingList[4];
+        private final Map<String, PostingList> sources = new HashMap<>();
+        private final Map<String, PostingList> destinations = new HashMap<>();
+        private final PostingList[] sourcePorts = new PostingList[65536];
+        private final PostingList[] destinationPorts = new PostingList[65536];
+
+        void add(PacketStore store, int row) {
+            int protocol = store.getProtocol(row);
+            add(store.getNumber(row), store.getSourceKind(row), store.getSource(row), store.getDestination(row),
+                    Protocols.name(protocol), protocol == Protocols.TCP || protocol == Protocols.UDP, store.getSourcePort(row), store.getDestinationPort(row));
+        }
+
+        void add(int number, byte kind, String source, String destination, String protocol, boolean hasPorts,
+                 int sourcePort, int destinationPort) {
+            frames.add(number);
+            protocols.computeIfAbsent(protocol, k -> new PostingList()).add(number);
+            if (kind != Addresses.NONE) listAt(kinds, kind).add(number);
+            if (source != null && !source.isEmpty()) sources.computeIfAbsent(source, k -> new PostingList()).add(number);
+            if (destination != null && !destination.isEmpty()) destinations.computeIfAbsent(destination, k -> new PostingList()).add(number);
+
+            if (hasPorts) {
+                listAt(sourcePorts, sourcePort).add(number);
+                listAt(destinationPorts, destinationPort).add(number);
+            }
+        }
+
+        private static PostingList listAt(PostingList[] lists, int index) {
+            PostingList list = lists[index & 0xFFFF];
+            if (list == null) {
+                list = new PostingList();
+                lists[index & 0xFFFF] = list;
+            }
+            return list;
+        }
+
+        /**
+         * Writes the terms and the full-text entries of a session whose packets are all inserted,
+         * as part of the caller's transaction.
+         */
+        void write(ConnectionPool.Lease lease, int sessionId) throws SQLException {
+            PreparedStatement stmt = lease.prepare(INSERT_TERM);
+            int terms = 0;
+
+            terms += bind(stmt, sessionId, FRAME, frames);
+            for (Map.Entry<String, PostingList> e : protocols.entrySet()) {
+                terms += bind(stmt, sessionId, PROTOCOL + e.getKey(), e.getValue());
+            }
+            for (byte kind = Addresses.MAC; kind <= Addresses.IPV6; kind++) {
+                if (kinds[kind] != null) terms += bind(stmt, sessionId, ADDRESS_KIND + kindName(kind), kinds[kind]);
+            }
+            for (Map.Entry<String, PostingList> e : sources.entrySet()) {
+                terms += bind(stmt, sessionId, SOURCE + e.getKey(), e.getValue());
+            }
+            for (Map.Entry<String, PostingList> e : destinations.entrySet()) {
+                terms += bind(stmt, sessionId, DESTINATION + e.getKey(), e.getValue());
+            }
+            for (int port = 0; port < 65536; port++) {
+                if (sourcePorts[port] != null) terms += bind(stmt, sessionId, SOURCE_PORT + port, sourcePorts[port]);
+                if (destinationPorts[port] != null) terms += bind(stmt, sessionId, DESTINATION_PORT + port, destinationPorts[port]);
+            }
+            stmt.executeBatch();
+
+            PreparedStatement text = lease.prepare(INSERT_TEXT);
+            text.setInt(1, sessionId);
+            text.executeUpdate();
+
+            PreparedStatement mark = lease.prepare(MARK_INDEXED);
+            mark.setInt(1, sessionId);
+            mark.executeUpdate();
+
+            logger.debug("Indexed session {}: {} packets, {} terms.", sessionId, frames.size(), terms);
+        }
+
+        private static int bind(PreparedStatement stmt, int sessionId, String term, PostingList list) throws SQLException {
+            stmt.setInt(1, sessionId);
+            stmt.setString(2, term);
+            stmt.setInt(3, list.size());
+            stmt.setBytes(4, list.toBytes());
+            stmt.addBatch();
+            return 1;
+        }
+    }
+
+    /**
+     * Marks a session that is still being recorded, so searches leave it alone until it is complete.
+     */
+    static void markRecording(ConnectionPool.Lease lease, int sessionId) throws SQLException {
+        PreparedStatement stmt = lease.prepare("UPDATE sessions SET indexed = -1 WHERE id = ?");
+        stmt.setInt(1, sessionId);
+        stmt.executeUpdate();
+    }
+
+    /**
+     * Removes a session's index; call before its packets are deleted.
+     */
+    static void delete(ConnectionPool.Lease lease, int sessionId) throws SQLException {
+        PreparedStatement indexed = lease.prepare("SELECT indexed FROM sessions WHERE id = ?");
+        indexed.setInt(1, sessionId);
+        boolean hasText;
+        try (ResultSet rs = indexed.executeQuery()) {
+            hasText = rs.next() && rs.getInt(1) == 1;
+        }
+
+        // external content: the entries can only be removed with the text they were indexed with
+        if (hasText) {
+            PreparedStatement text = lease.prepare(DELETE_TEXT);
+            text.setInt(1, sessionId);
+            text.executeUpdate();
+        }
+
+        PreparedStatement terms = lease.prepare("DELETE FROM session_terms WHERE session_id = ?");
+        terms.setInt(1, sessionId);
+        terms.executeUpdate();
+    }
+
+    /**
+     * Indexes the sessions saved before the index existed, and recordings that never finished.
+     * Each session is committed on its own. Reports the name of the session being indexed.
+     */
+    static void indexPending(ConnectionPool.Lease lease, Consumer<String> progress) throws SQLException {
+        List<Object[]> pending = new ArrayList<>();
+        try (ResultSet rs = lease.prepare(SELECT_PENDING).executeQuery()) {
+            while (rs.next()) {
+                pending.add(new Object[] {rs.getInt(1), rs.getString(2)});
+            }
+        }
+        if (pending.isEmpty()) return;
+
+        long[] address = new long[2];
+        PacketHeaders headers = new PacketHeaders();
+        lease.connection().setAutoCommit(false);
+        try {
+            for (Object[] session : pending) {
+                int sessionId = (Integer) session[0];
+                progress.accept((String) session[1]);
+                long started = System.currentTimeMillis();
+
+                Builder builder = new Builder();
+                PreparedStatement scan = lease.prepare(SCAN_PACKETS);
+                scan.setInt(1, sessionId);
+                try (ResultSet rs = scan.executeQuery()) {
+                    while (rs.next()) {
+                        String protocol = rs.getString(4);
+                        int protocolId = Protocols.idOf(protocol);
+                        boolean hasPorts = protocolId == Protocols.TCP || protocolId == Protocols.UDP;
+                        int sourcePort = rs.getInt(5);
+                        int destinationPort = rs.getInt(6);
+
+                        // saved without port columns, recover them from the frame
+                        byte[] prefix = rs.getBytes(7);
+                        if (prefix != null) {
+                            hasPorts = HeaderDecoder.decode(prefix, 0, prefix.length, HeaderDecoder.DLT_EN10MB, headers)
+                                    && headers.hasTransport;
+                            sourcePort = headers.srcPort;
+                            destinationPort = headers.dstPort;
+                        }
+
+                        String source = canonical(rs.getString(2), address);
+                        byte kind = Addresses.parse(source, address);
+                        builder.add(rs.getInt(1), kind, source, canonical(rs.getString(3), address),
+                                protocolId == Protocols.UNKNOWN ? protocol : Protocols.name(protocolId),
+                                hasPorts, sourcePort, destinationPort);
+                    }
+                }
+
+                builder.write(lease, sessionId);
+                lease.connection().commit();
+                logger.info("Indexed saved capture '{}' in {} ms.", session[1], System.currentTimeMillis() - started);
+            }
+        }
+        finally {
+            lease.connection().setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Display filter name of an address type, as in {@code ip.addr} or {@code eth.src}.
+     */
+    static String kindName(byte kind) {
+        return switch (kind) {
+            case Addresses.MAC -> "eth";
+            case Addresses.IPV4 -> "ip";
+            case Addresses.IPV6 -> "ipv6";
+            default -> "";
+        };
+    }
+
+    /**
+     * Address text the way {@link PacketStore#getSource} prints it, so older sessions use the same terms.
+     */
+    static String canonical(String address, long[] scratch) {
+        if (address == null) return null;
+        byte kind = Addresses.parse(address, scratch);
+        if (kind == Addresses.NONE) return address;
+
+        StringBuilder sb = new StringBuilder(40);
+        Addresses.append(kind, scratch[0], scratch[1], sb);
+        return sb.toString();
+    }
+
+    /**
+     * Reads the packet numbers of one term of one session, empty when the session does not have it.
+     */
+    static int[] postings(ConnectionPool.Lease lease, int sessionId, String term) throws SQLException {
+        PreparedStatement stmt = lease.prepare("SELECT hits, postings FROM session_terms WHERE term = ? AND session_id = ?");
+        stmt.setString(1, term);
+        stmt.setInt(2, sessionId);
+        try (ResultSet rs = stmt.executeQuery()) {
+            if (!rs.next()) return new int[0];
+            return new PostingList(rs.getBytes(2), rs.getInt(1)).toArray();
+        }
+    }
+
+    /**
+     * Passes the ids of the sessions having {@code term} to {@code sink}.
+     */
+    static void sessionsWith(ConnectionPool.Lease lease, String term, IntConsumer sink) throws SQLException {
+        PreparedStatement stmt = lease.prepare("SELECT session_id FROM session_terms WHERE term = ?");
+        stmt.setString(1, term);
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                sink.accept(rs.getInt(1));
+            }
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package com.jcap.service;
+
+import com.jcap.model.Addresses;
+import com.jcap.model.Protocols;
+import com.jcap.service.FilterExpression.Operator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Searches every saved session with a display filter, using the {@link SessionIndex} instead of
+ * reading packets. The indexed part of the filter language is supported: addresses and ports
+ * compared with {@code ==} or {@code !=}, protocol names, {@code frame}, {@code info contains}
+ * (whole words, the last one may be a prefix) and any combination of those with
+ * {@code &&}, {@code ||} and {@code !}.
+ */
+public final class SessionSearch {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionSearch.class);
+
+    private static final String SELECT_SESSIONS = "SELECT id, name, first_id, last_id FROM sessions WHERE indexed = 1 ORDER BY id DESC";
+    private static final String SELECT_TEXT = "SELECT p.num FROM packets_fts f JOIN packets p ON p.id = f.rowid " +
+            "WHERE packets_fts MATCH ? AND f.rowid BETWEEN ? AND ? AND p.session_id = ? ORDER BY p.num";
+
+    /**
+     * The packets of one session that match, in packet number order.
+     */
+    public record Result(String sessionName, int[] packetNumbers) {
+        public int hits() {
+            return packetNumbers.length;
+        }
+    }
+
+    private SessionSearch() {
+    }
+
+    /**
+     * Checks that {@code query} can be answered from the index, without running it.
+     */
+    public static void validate(String query) throws FilterSyntaxException {
+        compile(FilterParser.parse(query));
+    }
+
+    /**
+     * Runs {@code query} over all saved sessions, newest first. Each session with hits is passed to
+     * {@code onResult} on the calling thread as soon as it is done. Returns the number of sessions
+     * with hits.
+     */
+    public static int search(String query, Consumer<Result> onResult, Progress progress)
+            throws FilterSyntaxException, SQLException {
+        return run(query, onResult, progress::message, progress::isCancelled);
+    }
+
+    /**
+     * Runs {@code query} on the calling thread, passing each session with hits to {@code sink}.
+     */
+    static int run(String query, Consumer<Result> sink, Consumer<String> progress, BooleanSupplier cancelled)
+            throws FilterSyntaxException, SQLException {
+        Node plan = compile(FilterParser.parse(query));
+        long start = System.currentTimeMillis();
+
+        try (ConnectionPool.Lease lease = DatabaseService.connect()) {
+            SessionIndex.indexPending(lease, name -> progress.accept("Indexing '" + name + "'..."));
+
+            BitSet candidates = plan.sessions(lease);
+            int sessions = 0;
+            int matched = 0;
+
+            List<Object[]> all = new ArrayList<>();
+            try (ResultSet rs = lease.prepare(SELECT_SESSIONS).executeQuery()) {
+                while (rs.next()) {
+                    all.add(new Object[] {rs.getInt(1), rs.getString(2), rs.getLong(3), rs.getLong(4)});
+                }
+            }
+
+            for (Object[] session : all) {
+                if (cancelled.getAsBoolean()) break;
+                int sessionId = (Integer) session[0];
+                if (candidates != null && !candidates.get(sessionId)) continue;
+
+                sessions++;
+                progress.accept("Searching '" + session[1] + "'...");
+                int[] numbers = plan.evaluate(new Scope(lease, sessionId, (Long) session[2], (Long) session[3]));
+                if (numbers.length > 0) {
+                    matched++;
+                    sink.accept(new Result((String) session[1], numbers));
+                }
+            }
+
+            long duration = System.currentTimeMillis() - start;
+            logger.info("Search '{}' matched {} of {} candidate sessions in {} ms.", query, matched, sessions, duration);
+            progress.accept("Found matches in " + matched + " session(s) in " + duration + " ms");
+            return matched;
+        }
+    }
+
+    // ---- query plan ----
+
+    private record Scope(ConnectionPool.Lease lease, int sessionId, long firstId, long lastId) {
+    }
+
+    private sealed interface Node {
+        /**
+         * Sessions that may match, or null when any session may.
+         */
+        BitSet sessions(ConnectionPool.Lease lease) throws SQLException;
+
+        int[] evaluate(Scope scope) throws SQLException;
+    }
+
+    /**
+     * Packets having any of the terms.
+     */
+    private record Terms(String... terms) implements Node {
+        @Override
+        public BitSet sessions(ConnectionPool.Lease lease) throws SQLException {
+            BitSet ids = new BitSet();
+            for (String term : terms) {
+                SessionIndex.sessionsWith(lease, term, ids::set);
+            }
+            return ids;
+        }
+
+        @Override
+        public int[] evaluate(Scope scope) throws SQLException {
+            int[] result = new int[0];
+            for (String term : terms) {
+                result = union(result, SessionIndex.postings(scope.lease(), scope.sessionId(), term));
+            }
+            return result;
+        }
+    }
+
+    private record Text(String match) implements Node {
+        @Override
+        public BitSet sessions(ConnectionPool.Lease lease) {
+            return null;
+        }
+
+        @Override
+        public int[] evaluate(Scope scope) throws SQLException {
+            PreparedStatement stmt = scope.lease().prepare(SELECT_TEXT);
+            stmt.setString(1, match);
+            stmt.setLong(2, scope.firstId());
+            stmt.setLong(3, scope.lastId());
+            stmt.setInt(4, scope.sessionId());
+
+            int[] numbers = new int[64];
+            int count = 0;
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (count == numbers.length) numbers = Arrays.copyOf(numbers, count * 2);
+                    int number = rs.getInt(1);
+                    if (count == 0 || numbers[count - 1] != number) numbers[count++] = number;
+                }
+            }
+            return Arrays.copyOf(numbers, count);
+        }
+    }
+
+    private record And(Node left, Node right) implements Node {
+        @Override
+        public BitSet sessions(ConnectionPool.Lease lease) throws SQLException {
+            BitSet a = left.sessions(lease);
+            BitSet b = right.sessions(lease);
+            if (a == null) return b;
+            if (b != null) a.and(b);
+            return a;
+        }
+
+        @Override
+        public int[] evaluate(Scope scope) throws SQLException {
+            int[] a = left.evaluate(scope);
+            return a.length == 0 ? a : intersect(a, right.evaluate(scope));
+        }
+    }
+
+    private record Or(Node left, Node right) implements Node {
+        @Override
+        public BitSet sessions(ConnectionPool.Lease lease) throws SQLException {
+            BitSet a = left.sessions(lease);
+            BitSet b = right.sessions(lease);
+            if (a == null || b == null) return null;
+            a.or(b);
+            return a;
+        }
+
+        @Override
+        public int[] evaluate(Scope scope) throws SQLException {
+            return union(left.evaluate(scope), right.evaluate(scope));
+        }
+    }
+
+    private record Not(Node operand) implements Node {
+        @Override
+        public BitSet sessions(ConnectionPool.Lease lease) {
+            return null;
+        }
+
+        @Override
+        public int[] evaluate(Scope scope) throws SQLException {
+            int[] all = SessionIndex.postings(scope.lease(), scope.sessionId(), SessionIndex.FRAME);
+            return difference(all, operand.evaluate(scope));
+        }
+    }
+
+    private static Node compile(FilterExpression expression) throws FilterSyntaxException {
+        return switch (expression) {
+            case FilterExpression.And and -> new And(compile(and.left()), compile(and.right()));
+            case FilterExpression.Or or -> new Or(compile(or.left()), compile(or.right()));
+            case FilterExpression.Not not -> new Not(compile(not.operand()));
+            case FilterExpression.Exists exists -> compileExists(exists);
+            case FilterExpression.Compare compare -> compileCompare(compare);
+        };
+    }
+
+    private static Node compileExists(FilterExpression.Exists exists) throws FilterSyntaxException {
+        String field = exists.field();
+        switch (field) {
+            case "frame":
+                return new Terms(SessionIndex.FRAME);
+            case "ip":
+                return kind(Addresses.IPV4);
+            case "ipv6":
+                return kind(Addresses.IPV6);
+            case "icmp":
+                return protocol(Protocols.ICMPV4);
+        }
+
+        int protocol = Protocols.idOf(field);
+        if (protocol == Protocols.UNKNOWN) {
+            throw new FilterSyntaxException("'" + field + "' cannot be searched in saved captures", exists.position());
+        }
+        return protocol(protocol);
+    }
+
+    private static Node compileCompare(FilterExpression.Compare compare) throws FilterSyntaxException {
+        String field = compare.field();
+        if (field.equals("info")) return compileText(compare);
+
+        if (compare.operator() != Operator.EQ && compare.operator() != Operator.NE) {
+            throw new FilterSyntaxException("Only == and != can be searched for '" + field + "'", compare.position());
+        }
+
+        return switch (field) {
+            case "tcp.srcport" -> port(compare, Protocols.TCP, SessionIndex.SOURCE_PORT);
+            case "tcp.dstport" -> port(compare, Protocols.TCP, SessionIndex.DESTINATION_PORT);
+            case "tcp.port" -> port(compare, Protocols.TCP, SessionIndex.SOURCE_PORT, SessionIndex.DESTINATION_PORT);
+            case "udp.srcport" -> port(compare, Protocols.UDP, SessionIndex.SOURCE_PORT);
+            case "udp.dstport" -> port(compare, Protocols.UDP, SessionIndex.DESTINATION_PORT);
+            case "udp.port" -> port(compare, Protocols.UDP, SessionIndex.SOURCE_PORT, SessionIndex.DESTINATION_PORT);
+            case "ip.src" -> address(compare, Addresses.IPV4, SessionIndex.SOURCE);
+            case "ip.dst" -> address(compare, Addresses.IPV4, SessionIndex.DESTINATION);
+            case "ip.addr" -> address(compare, Addresses.IPV4, SessionIndex.SOURCE, SessionIndex.DESTINATION);
+            case "ipv6.src" -> address(compare, Addresses.IPV6, SessionIndex.SOURCE);
+            case "ipv6.dst" -> address(compare, Addresses.IPV6, SessionIndex.DESTINATION);
+            case "ipv6.addr" -> address(compare, Addresses.IPV6, SessionIndex.SOURCE, SessionIndex.DESTINATION);
+            case "eth.src" -> address(compare, Addresses.MAC, SessionIndex.SOURCE);
+            case "eth.dst" -> address(compare, Addresses.MAC, SessionIndex.DESTINATION);
+            case "eth.addr" -> address(compare, Addresses.MAC, SessionIndex.SOURCE, SessionIndex.DESTINATION);
+            default -> throw new FilterSyntaxException("'" + field + "' cannot be searched in saved captures", compare.position());
+        };
+    }
+
+    private static Node kind(byte kind) {
+        return new Terms(SessionIndex.ADDRESS_KIND + SessionIndex.kindName(kind));
+    }
+
+    private static Node protocol(int protocol) {
+        return new Terms(SessionIndex.PROTOCOL + Protocols.name(protocol));
+    }
+
+    private static Node port(FilterExpression.Compare compare, int protocol, String... sides) throws FilterSyntaxException {
+        int port;
+        try {
+            port = Integer.parseInt(compare.value());
+        } catch (NumberFormatException e) {
+            port = -1;
+        }
+        if (port < 0 || port > 65535) {
+            throw new FilterSyntaxException("'" + compare.value() + "' is not a port number", compare.valuePosition());
+        }
+
+        String[] terms = new String[sides.length];
+        for (int i = 0; i < sides.length; i++) {
+            terms[i] = sides[i] + port;
+        }
+        // like the display filter, != means a packet of that protocol where no given port matches
+        Node ports = new Terms(terms);
+        return new And(protocol(protocol), compare.operator() == Operator.EQ ? ports : new Not(ports));
+    }
+
+    private static Node address(FilterExpression.Compare compare, byte kind, String... sides) throws FilterSyntaxException {
+        String value = compare.value();
+        if (value.indexOf('/') >= 0) {
+            throw new FilterSyntaxException("Saved captures can only be searched for single addresses", compare.valuePosition());
+        }
+
+        long[] parsed = new long[2];
+        if (Addresses.parse(value, parsed) != kind) {
+            throw new FilterSyntaxException("'" + value + "' is not a valid " + SessionIndex.kindName(kind) + " address",
+                    compare.valuePosition());
+        }
+
+        StringBuilder text = new StringBuilder(40);
+        Addresses.append(kind, parsed[0], parsed[1], text);
+        String[] terms = new String[sides.length];
+        for (int i = 0; i < sides.length; i++) {
+            terms[i] = sides[i] + text;
+        }
+        Node addresses = new Terms(terms);
+        return compare.operator() == Operator.EQ ? addresses : new And(kind(kind), new Not(addresses));
+    }
+
+    /**
+     * {@code info contains "a b"} becomes the FTS5 phrase {@code "a b" *}.
+     */
+    private static Node compileText(FilterExpression.Compare compare) throws FilterSyntaxException {
+        if (compare.operator() != Operator.CONTAINS) {
+            throw new FilterSyntaxException("Only contains can be searched for info", compare.position());
+        }
+
+        StringBuilder words = new StringBuilder();
+        for (String word : compare.value().split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) continue;
+            if (!words.isEmpty()) words.append(' ');
+            words.append(word);
+        }
+        if (words.isEmpty()) {
+            throw new FilterSyntaxException("Search text needs at least one letter or digit", compare.valuePosition());
+        }
+        return new Text("\"" + words + "\" *");
+    }
+
+    // ---- sorted packet number sets ----
+
+    private static int[] union(int[] a, int[] b) {
+        if (a.length == 0) return b;
+        if (b.length == 0) return a;
+
+        int[] out = new int[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) out[n++] = a[i++];
+            else if (a[i] > b[j]) out[n++] = b[j++];
+            else {
+                out[n++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length) out[n++] = a[i++];
+        while (j < b.length) out[n++] = b[j++];
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                out[n++] = a[i++];
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int[] difference(int[] a, int[] b) {
+        int[] out = new int[a.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length) {
+            if (j == b.length || a[i] < b[j]) out[n++] = a[i++];
+            else if (a[i] > b[j]) j++;
+            else {
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+}
@@ -0,0 +1,490 @@
+package com.jcap.service;
+
+import com.jcap.model.Addresses;
+import com.jcap.model.PacketStore;
+import com.jcap.model.Protocols;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Read-only {@link PacketStore} over a saved session. Rows are fetched from the database in pages
+ * of summary columns, keyed by their position in {@code (num, id)} order, and only a bounded number
+ * of pages ({@code jcap.session.cachedPages}) is kept. Payloads are only read when a single row's
+ * payload is asked for, either from the row or by inflating its {@link PayloadBlocks payload block};
+ * the last block is kept since neighbouring rows are usually looked at together. Sessions saved
+ * before ports and flags had columns get them from the first bytes of the frame.
+ *
+ * <p>Reading a row of a page that is not cached reads the page on the calling thread. The table
+ * instead asks {@link #isLoaded} first and has missing pages read by {@link #prefetch} on a
+ * background thread, so the FX thread never waits for the database; the page cache lock is not
+ * held while a page is read. A session cannot be deleted while a store has it open.
+ */
+final class SessionStore extends PacketStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionStore.class);
+
+    private static final int PAGE_BITS = 14;
+    private static final int PAGE_ROWS = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_ROWS - 1;
+    private static final int CACHED_PAGES = Math.max(2, Integer.getInteger("jcap.session.cachedPages", 32));
+
+    // enough for the link, network and transport headers the decoder needs
+    private static final int HEADER_BYTES = 128;
+
+    private static final String FIND_SESSION = "SELECT id FROM sessions WHERE name = ?";
+    private static final String SCAN_KEYS = "SELECT num, id FROM packets WHERE session_id = ? ORDER BY num, id";
+    private static final String SELECT_PAGE = "SELECT num, time, src, dst, proto, len, info, " +
+            "CASE WHEN sport IS NULL THEN substr(payload, 1, " + HEADER_BYTES + ") END, iface, id, sport, dport, tcp_flags, block, block_index " +
+            "FROM packets WHERE session_id = ? AND (num, id) >= (?, ?) ORDER BY num, id LIMIT " + PAGE_ROWS;
+    private static final String SELECT_PAYLOAD = "SELECT payload FROM packets WHERE session_id = ? AND num = ? AND id = ?";
+
+    private static final ExecutorService prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "jcap-pages");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // session id -> number of stores that have it open
+    private static final Map<Integer, Integer> openSessions = new HashMap<>();
+
+    /**
+     * Receives the number of rows indexed so far while a session is opened.
+     */
+    @FunctionalInterface
+    interface Progress {
+        void update(int rows);
+    }
+
+    private final String sessionName;
+    private final int sessionId;
+    private final int size;
+    private final int[] pageNums;
+    private final long[] pageIds;
+
+    // guards itself, prefetching and closed
+    private final Map<Integer, Page> pages = new LinkedHashMap<>(CACHED_PAGES, 0.75f, true);
+    private final Set<Integer> prefetching = new HashSet<>();
+    private boolean closed;
+    private volatile Runnable onRowsLoaded;
+
+    private int lastPayloadRow = -1;
+    private ByteBuffer lastPayload;
+    private int lastBlock = -1;
+    private byte[][] lastBlockFrames;
+
+    private static final class Page {
+        final PacketStore rows = new PacketStore();
+        final long[] ids = new long[PAGE_ROWS];
+        final int[] blocks = new int[PAGE_ROWS];         // -1 when the payload is in the row
+        final short[] blockIndexes = new short[PAGE_ROWS];
+    }
+
+    private SessionStore(String sessionName, int sessionId, int size, int[] pageNums, long[] pageIds) {
+        this.sessionName = sessionName;
+        this.sessionId = sessionId;
+        this.size = size;
+        this.pageNums = pageNums;
+        this.pageIds = pageIds;
+        setBaseTimestampNanos(0);
+        synchronized (openSessions) {
+            openSessions.merge(sessionId, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Whether a store that is not closed yet shows the session.
+     */
+    static boolean isOpen(int sessionId) {
+        synchronized (openSessions) {
+            return openSessions.containsKey(sessionId);
+        }
+    }
+
+    /**
+     * Indexes the page boundaries of a saved session; only the {@code (session_id, num)} index is read.
+     */
+    static SessionStore open(String sessionName, Progress progress) throws SQLException {
+        try (ConnectionPool.Lease lease = DatabaseService.connect()) {
+            PreparedStatement find = lease.prepare(FIND_SESSION);
+            find.setString(1, sessionName);
+
+            int sessionId;
+            try (ResultSet rs = find.executeQuery()) {
+                if (!rs.next()) throw new SQLException("No saved capture named '" + sessionName + "'");
+                sessionId = rs.getInt(1);
+            }
+
+            int[] nums = new int[64];
+            long[] ids = new long[64];
+            int count = 0;
+
+            PreparedStatement scan = lease.prepare(SCAN_KEYS);
+            scan.setInt(1, sessionId);
+            try (ResultSet rs = scan.executeQuery()) {
+                while (rs.next()) {
+                    if ((count & PAGE_MASK) == 0) {
+                        int page = count >>> PAGE_BITS;
+                        if (page == nums.length) {
+                            nums = Arrays.copyOf(nums, page * 2);
+                            ids = Arrays.copyOf(ids, page * 2);
+                        }
+                        nums[page] = rs.getInt(1);
+                        ids[page] = rs.getLong(2);
+                        progress.update(count);
+                    }
+                    count++;
+                }
+            }
+
+            progress.update(count);
+            logger.info("Opened capture '{}' with {} packets in {} pages.", sessionName, count, (count + PAGE_MASK) >>> PAGE_BITS);
+            return new SessionStore(sessionName, sessionId, count, nums, ids);
+        }
+    }
+
+    public String getSessionName() {
+        return sessionName;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private Page page(int row) {
+        int index = row >>> PAGE_BITS;
+        synchronized (pages) {
+            Page page = pages.get(index);
+            if (page != null) return page;
+            if (closed) throw new IllegalStateException("Capture '" + sessionName + "' is closed");
+        }
+
+        Page page;
+        try {
+            page = load(index);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to read page " + index + " of '" + sessionName + "'", e);
+        }
+
+        synchronized (pages) {
+            // another thread may have read the same page meanwhile
+            Page cached = pages.get(index);
+            if (cached != null) return cached;
+            if (closed) return page;
+
+            pages.put(index, page);
+            if (pages.size() > CACHED_PAGES) {
+                Iterator<Page> eldest = pages.values().iterator();
+                eldest.next().rows.close();
+                eldest.remove();
+            }
+        }
+        return page;
+    }
+
+    @Override
+    public boolean isLoaded(int row) {
+        synchronized (pages) {
+            return pages.containsKey(row >>> PAGE_BITS);
+        }
+    }
+
+    @Override
+    public void prefetch(int row) {
+        int index = row >>> PAGE_BITS;
+        synchronized (pages) {
+            if (closed || pages.containsKey(index) || !prefetching.add(index)) return;
+        }
+
+        prefetcher.execute(() -> {
+            try {
+                synchronized (pages) {
+                    if (closed) return;
+                }
+                page(row);
+            } catch (IllegalStateException e) {
+                synchronized (pages) {
+                    if (closed) return;
+                }
+                logger.error("Failed to prefetch page {} of '{}'.", index, sessionName, e);
+                return;
+            } finally {
+                synchronized (pages) {
+                    prefetching.remove(index);
+                }
+            }
+
+            Runnable listener = onRowsLoaded;
+            if (listener != null) listener.run();
+        });
+    }
+
+    @Override
+    public void setOnRowsLoaded(Runnable listener) {
+        onRowsLoaded = listener;
+    }
+
+    private Page load(int index) throws SQLException {
+        long started = System.nanoTime();
+        Page page = new Page();
+        PacketStore target = page.rows;
+        target.setBaseTimestampNanos(0);
+
+        long[] address = new long[2];
+        PacketHeaders headers = new PacketHeaders();
+        String lastInterface = null;
+        int lastInterfaceId = 0;
+
+        try (ConnectionPool.Lease lease = DatabaseService.connect()) {
+            PreparedStatement stmt = lease.prepare(SELECT_PAGE);
+            stmt.setInt(1, sessionId);
+            stmt.setInt(2, pageNums[index]);
+            stmt.setLong(3, pageIds[index]);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                // columns by position, in the order of SELECT_PAGE
+                while (rs.next()) {
+                    int row = target.newRow(
+                            rs.getInt(1),
+                            DatabaseService.parseTimestamp(rs.getString(2)),
+                            rs.getInt(6),
+                            Protocols.idOf(rs.getString(5))
+                    );
+
+                    byte kind = Addresses.parse(rs.getString(3), address);
+                    target.setSource(row, kind, address[0], address[1]);
+                    kind = Addresses.parse(rs.getString(4), address);
+                    target.setDestination(row, kind, address[0], address[1]);
+
+                    // ids are the ones of this store, the page's own interface table stays empty
+                    String iface = rs.getString(9);
+                    if (iface != null && !iface.isEmpty()) {
+                        if (!iface.equals(lastInterface)) {
+                            lastInterface = iface;
+                            lastInterfaceId = addInterface(iface);
+                        }
+                        target.setInterface(row, lastInterfaceId);
+                    }
+
+                    String info = rs.getString(7);
+                    if (info != null) target.setInfo(row, info);
+
+                    byte[] prefix = rs.getBytes(8);
+                    if (prefix == null) {
+                        target.setPorts(row, rs.getInt(11), rs.getInt(12));
+                        target.setTcpFlags(row, rs.getInt(13));
+                    }
+                    // saved without port columns, recover them from the frame
+                    else if (HeaderDecoder.decode(prefix, 0, prefix.length, HeaderDecoder.DLT_EN10MB, headers)
+                            && headers.hasTransport) {
+                        target.setPorts(row, headers.srcPort, headers.dstPort);
+                        if (headers.isTcp()) target.setTcpFlags(row, headers.tcpFlags);
+                    }
+
+                    int block = rs.getInt(14);
+                    page.blocks[row] = rs.wasNull() ? -1 : block;
+                    page.blockIndexes[row] = (short) rs.getInt(15);
+                    page.ids[row] = rs.getLong(10);
+                    target.commitRow();
+                }
+            }
+        }
+
+        logger.debug("Loaded page {} of '{}' ({} rows) in {} ms.", index, sessionName, target.size(),
+                (System.nanoTime() - started) / 1_000_000);
+        return page;
+    }
+
+    // ---- reader side ----
+
+    /**
+     * Finds the page from the page boundaries, so only that page is read.
+     */
+    @Override
+    public int findRow(int number) {
+        int pages = (size + PAGE_MASK) >>> PAGE_BITS;
+        int page = Arrays.binarySearch(pageNums, 0, pages, number);
+        if (page < 0) page = -page - 2;
+        // equal numbers may spill over from the previous page
+        while (page > 0 && pageNums[page] == number) page--;
+        if (page < 0) return -1;
+
+        int from = page << PAGE_BITS;
+        int row = lowerBound(from, Math.min(size, from + 2 * PAGE_ROWS), number);
+        return row < size && getNumber(row) == number ? row : -1;
+    }
+
+    @Override
+    public int getNumber(int row) {
+        return page(row).rows.getNumber(row & PAGE_MASK);
+    }
+
+    @Override
+    public long getTimestampNanos(int row) {
+        return page(row).rows.getTimestampNanos(row & PAGE_MASK);
+    }
+
+    @Override
+    public int getLength(int row) {
+        return page(row).rows.getLength(row & PAGE_MASK);
+    }
+
+    @Override
+    public int getProtocol(int row) {
+        return page(row).rows.getProtocol(row & PAGE_MASK);
+    }
+
+    @Override
+    public byte getSourceKind(int row) {
+        return page(row).rows.getSourceKind(row & PAGE_MASK);
+    }
+
+    @Override
+    public long getSourceHi(int row) {
+        return page(row).rows.getSourceHi(row & PAGE_MASK);
+    }
+
+    @Override
+    public long getSourceLo(int row) {
+        return page(row).rows.getSourceLo(row & PAGE_MASK);
+    }
+
+    @Override
+    public byte getDestinationKind(int row) {
+        return page(row).rows.getDestinationKind(row & PAGE_MASK);
+    }
+
+    @Override
+    public long getDestinationHi(int row) {
+        return page(row).rows.getDestinationHi(row & PAGE_MASK);
+    }
+
+    @Override
+    public long getDestinationLo(int row) {
+        return page(row).rows.getDestinationLo(row & PAGE_MASK);
+    }
+
+    @Override
+    public int getSourcePort(int row) {
+        return page(row).rows.getSourcePort(row & PAGE_MASK);
+    }
+
+    @Override
+    public int getDestinationPort(int row) {
+        return page(row).rows.getDestinationPort(row & PAGE_MASK);
+    }
+
+    @Override
+    public int getTcpFlags(int row) {
+        return page(row).rows.getTcpFlags(row & PAGE_MASK);
+    }
+
+    @Override
+    public int getInterface(int row) {
+        return page(row).rows.getInterface(row & PAGE_MASK);
+    }
+
+    @Override
+    public String getInfo(int row) {
+        return page(row).rows.getInfo(row & PAGE_MASK);
+    }
+
+    @Override
+    public void appendInfo(int row, StringBuilder sb) {
+        page(row).rows.appendInfo(row & PAGE_MASK, sb);
+    }
+
+    /**
+     * Reads the frame from the database; the last one is kept since the views ask for it repeatedly.
+     */
+    @Override
+    public synchronized ByteBuffer getPayload(int row) {
+        if (row == lastPayloadRow) return lastPayload.duplicate();
+
+        Page page = page(row);
+        int local = row & PAGE_MASK;
+        byte[] data = null;
+
+        try {
+            int block = page.blocks[local];
+            data = block >= 0 ? readBlock(block)[page.blockIndexes[local]] : readPayload(page, local);
+        } catch (SQLException e) {
+            logger.error("Failed to read the payload of packet {} in '{}'.", row, sessionName, e);
+        }
+
+        lastPayloadRow = row;
+        lastPayload = ByteBuffer.wrap(data != null ? data : new byte[0]).asReadOnlyBuffer();
+        return lastPayload.duplicate();
+    }
+
+    private byte[] readPayload(Page page, int local) throws SQLException {
+        try (ConnectionPool.Lease lease = DatabaseService.connect()) {
+            PreparedStatement stmt = lease.prepare(SELECT_PAYLOAD);
+            stmt.setInt(1, sessionId);
+            stmt.setInt(2, page.rows.getNumber(local));
+            stmt.setLong(3, page.ids[local]);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getBytes(1) : null;
+            }
+        }
+    }
+
+    private byte[][] readBlock(int block) throws SQLException {
+        if (block == lastBlock) return lastBlockFrames;
+
+        try (ConnectionPool.Lease lease = DatabaseService.connect()) {
+            PreparedStatement stmt = lease.prepare(PayloadBlocks.SELECT_BLOCK);
+            stmt.setInt(1, sessionId);
+            stmt.setInt(2, block);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) throw new SQLException("Payload block " + block + " is missing");
+                lastBlockFrames = PayloadBlocks.decode(rs.getInt(1), rs.getBytes(2));
+                lastBlock = block;
+                return lastBlockFrames;
+            }
+        }
+    }
+
+    @Override
+    public byte[] copyPayload(int row) {
+        ByteBuffer view = getPayload(row);
+        byte[] copy = new byte[view.remaining()];
+        view.get(0, copy);
+        return copy;
+    }
+
+    @Override
+    public synchronized void close() {
+        synchronized (pages) {
+            if (closed) return;
+            closed = true;
+            for (Page page : pages.values()) {
+                page.rows.close();
+            }
+            pages.clear();
+        }
+        synchronized (openSessions) {
+            openSessions.computeIfPresent(sessionId, (id, stores) -> stores > 1 ? stores - 1 : null);
+        }
+        onRowsLoaded = null;
+        lastPayload = null;
+        lastBlockFrames = null;
+        super.close();
+    }
+}
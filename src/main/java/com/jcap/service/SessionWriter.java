@@ -0,0 +1,141 @@
+package com.jcap.service;
+
+import com.jcap.model.PacketStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.function.Consumer;
+
+/**
+ * Records a live capture into a saved session while it runs. The session row is created up
+ * front and a background thread follows the {@link PacketStore}, inserting new rows in group
+ * commits bounded by time ({@code jcap.record.commitMs}) and size. A crash loses at most the
+ * rows of the commit in progress. The writer holds one pooled connection for the whole recording;
+ * the session becomes searchable once the recording stops and its index is written.
+ */
+public class SessionWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionWriter.class);
+
+    private static final long COMMIT_INTERVAL_MILLIS = Long.getLong("jcap.record.commitMs", 1000);
+    private static final int COMMIT_ROWS = 10_000;
+    private static final long POLL_MILLIS = 50;
+
+    private final String sessionName;
+    private final PacketStore store;
+    private final Consumer<String> onError;
+
+    private ConnectionPool.Lease lease;
+    private int sessionId;
+    private Thread thread;
+    private volatile boolean stopping;
+    private volatile int writtenRows;
+
+    /**
+     * {@code onError} is called on the writer thread when a commit fails and the recording stops.
+     */
+    public SessionWriter(String sessionName, PacketStore store, Consumer<String> onError) {
+        this.sessionName = sessionName;
+        this.store = store;
+        this.onError = onError;
+    }
+
+    /**
+     * Creates the session; fails right away when the name is taken or the database cannot be opened.
+     */
+    public void start() throws SQLException {
+        lease = DatabaseService.connect();
+        try {
+            lease.connection().setAutoCommit(false);
+            sessionId = DatabaseService.createSession(lease, sessionName);
+            SessionIndex.markRecording(lease, sessionId);
+            lease.connection().commit();
+        } catch (SQLException e) {
+            lease.close();
+            throw e;
+        }
+
+        thread = new Thread(this::run, "jcap-session-writer");
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("Recording to session '{}' (ID: {}).", sessionName, sessionId);
+    }
+
+    /**
+     * Writes the rows still pending and closes the session. Blocks until the last commit is done.
+     */
+    public void stop() {
+        stopping = true;
+        if (thread == null) return;
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String getSessionName() {
+        return sessionName;
+    }
+
+    public int getWrittenCount() {
+        return writtenRows;
+    }
+
+    private void run() {
+        int written = 0;
+        long lastCommit = System.currentTimeMillis();
+
+        Connection conn = lease.connection();
+        SessionIndex.Builder index = new SessionIndex.Builder();
+        try (PayloadBlocks.Writer blocks = PayloadBlocks.ENABLED ? new PayloadBlocks.Writer(lease, sessionId) : null) {
+            PreparedStatement stmt = lease.prepare(DatabaseService.INSERT_PACKET);
+            while (true) {
+                boolean last = stopping;
+                int available = store.size();
+                long now = System.currentTimeMillis();
+
+                if (available > written && (last || available - written >= COMMIT_ROWS
+                        || now - lastCommit >= COMMIT_INTERVAL_MILLIS)) {
+                    int end = Math.min(available, written + COMMIT_ROWS);
+                    for (int row = written; row < end; row++) {
+                        DatabaseService.bindPacket(stmt, sessionId, store, row, blocks);
+                        stmt.addBatch();
+                        index.add(store, row);
+                    }
+                    stmt.executeBatch();
+                    // a commit never leaves packets pointing at a block that is not written yet
+                    if (blocks != null) blocks.flush();
+                    conn.commit();
+
+                    logger.debug("Committed {} packets to '{}'.", end - written, sessionName);
+                    written = end;
+                    writtenRows = end;
+                    lastCommit = now;
+                    continue;
+                }
+
+                if (last) break;
+                Thread.sleep(POLL_MILLIS);
+            }
+
+            index.write(lease, sessionId);
+            conn.commit();
+            logger.info("Recorded {} packets to session '{}'.", written, sessionName);
+        }
+        catch (SQLException e) {
+            logger.error("Recording to session '{}' failed after {} packets.", sessionName, written, e);
+            onError.accept("Recording stopped: " + e.getMessage());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            lease.close();
+        }
+    }
+}
@@ -1,249 +1,243 @@
 package com.jcap.service;
 
-import com.jcap.model.PacketModel;
-import javafx.application.Platform;
-import javafx.concurrent.Service;
-import javafx.concurrent.Task;
 import org.pcap4j.core.*;
 import org.pcap4j.core.PcapNetworkInterface.PromiscuousMode;
-import org.pcap4j.packet.*;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.sql.Timestamp;
 import java.util.function.Consumer;
 
-import org.pcap4j.packet.namednumber.ArpOperation;
-import org.pcap4j.packet.namednumber.IcmpV4Type;
-import org.pcap4j.packet.namednumber.IcmpV6Type;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class SnifferService extends Service<Void> {
+/**
+ * Captures from one interface on a thread of its own. Errors are reported on that thread.
+ */
+public class SnifferService {
 
     private static final Logger logger = LoggerFactory.getLogger(SnifferService.class);
 
-    private PcapHandle handle;
+    private static final long STATS_INTERVAL_NANOS = 500_000_000L;
+
+    private volatile PcapHandle handle;
+    private volatile boolean cancelled;
+    private volatile CapturePipeline.Source source;
     private final PcapNetworkInterface nif;
-    private final Consumer<PacketModel> onPacketCaptured;
+    private final CapturePipeline pipeline;
+    private final int interfaceId;
+    private final CaptureFilter captureFilter;
+    private final CaptureProfile profile;
     private final Consumer<String> onError;
-    private long startNano = 0;
-
-    public SnifferService(PcapNetworkInterface nif, Consumer<PacketModel> callback, Consumer<String> onError) {
+    private final Runnable onFinished;
+
+    private volatile long kernelReceived;
+    private volatile long kernelDropped;
+    private volatile long interfaceDropped;
+    // counts from before the capture filter was installed, which the reported ones leave out
+    private long receivedBefore;
+    private long droppedBefore;
+    private long interfaceDroppedBefore;
+    private long lastStatsNanos;
+
+    /**
+     * Captures from {@code nif} into a source of the shared {@code pipeline}; {@code onFinished}
+     * runs on the capture thread once the loop has ended, whether or not it ever started.
+     */
+    public SnifferService(PcapNetworkInterface nif, CapturePipeline pipeline, int interfaceId,
+                          CaptureFilter captureFilter, CaptureProfile profile,
+                          Consumer<String> onError, Runnable onFinished) {
         this.nif = nif;
-        this.onPacketCaptured = callback;
+        this.pipeline = pipeline;
+        this.interfaceId = interfaceId;
+        this.captureFilter = captureFilter;
+        this.profile = profile;
         this.onError = onError;
+        this.onFinished = onFinished;
     }
 
-    @Override
-    protected Task<Void> createTask() {
-        return new Task<>() {
-            @Override
-            protected Void call() {
-                int snapLen = 65536; // in bytes
-                int readTimeout = 10; // in milliseconds
+    public void start() {
+        Thread thread = new Thread(this::run, "jcap-capture-" + nif.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
 
-                try {
-                    handle = nif.openLive(snapLen, PromiscuousMode.PROMISCUOUS, readTimeout);
-                }
-                catch (PcapNativeException e) {
-                    logger.error("Failed to open device {}. {}", nif.getName(), e.getMessage());
+    private void run() {
+        try {
+            capture();
+        }
+        finally {
+            onFinished.run();
+        }
+    }
 
-                    Platform.runLater(() -> onError.accept("Error opening device: Access Denied."));
-                    return null;
-                }
+    private void capture() {
+        try {
+            handle = openHandle(profile.nanosecondTimestamps());
+        }
+        catch (PcapNativeException e) {
+            logger.error("Failed to open device {}. {}", nif.getName(), e.getMessage());
 
-                PacketListener listener = getPacketListener();
+            onError.accept("Error opening " + nif.getName() + ": Access Denied.");
+            return;
+        }
 
-                try {
-                    logger.info("Starting packet capture loop on {}", nif.getName());
-                    handle.loop(-1, listener);
-                } catch (InterruptedException e) {
-                    logger.info("Capture loop interrupted (Stop requested).");
-                }
-                catch (PcapNativeException | NotOpenException e) {
-                    logger.error("Critical error during packet capture loop.", e);
-                    Platform.runLater(() -> onError.accept("Capture Error: " + e.getMessage()));
-                }
-                finally {
-                    if (handle != null && handle.isOpen()) {
-                        handle.close();
-                        logger.info("Pcap handle closed successfully.");
-                    }
+        DisplayFilter refinement = null;
+        if (captureFilter != null) {
+            try {
+                int linkType = handle.getDlt().value();
+                String bpf = captureFilter.getBpf(linkType);
+                if (bpf != null) {
+                    handle.setFilter(bpf, BpfProgram.BpfCompileMode.OPTIMIZE);
+                    logger.info("Installed capture filter '{}' as BPF '{}'", captureFilter.getText(), bpf);
+                    resetKernelStats();
                 }
-                return null;
-            }
+                refinement = captureFilter.getDisplayFilter(linkType);
+            } catch (PcapNativeException | NotOpenException e) {
+                logger.error("Failed to install capture filter '{}'. {}", captureFilter.getText(), e.getMessage());
+                handle.close();
 
-            private PacketListener getPacketListener() {
-                AtomicInteger packetCounter = new AtomicInteger(1);
-
-                return packet -> {
-                    long currentNano = System.nanoTime();
-
-                    if (startNano == 0) {
-                        startNano = currentNano;
-                    }
-
-                    double relativeTime = (currentNano - startNano) / 1_000_000_000.0;
-
-                    String src = "Unknown";
-                    String dst = "Unknown";
-                    String proto = "Unknown";
-
-                    if (packet.contains(IpV4Packet.class)) {
-                        IpV4Packet ip4 = packet.get(IpV4Packet.class);
-                        src = ip4.getHeader().getSrcAddr().getHostAddress();
-                        dst = ip4.getHeader().getDstAddr().getHostAddress();
-                        proto = ip4.getHeader().getProtocol().name();
-                    }
-                    else if (packet.contains(IpV6Packet.class)) {
-                        IpV6Packet ip6 = packet.get(IpV6Packet.class);
-                        src = ip6.getHeader().getSrcAddr().getHostAddress();
-                        dst = ip6.getHeader().getDstAddr().getHostAddress();
-                        proto = ip6.getHeader().getNextHeader().name();
-                    }
-                    else if (packet.contains(ArpPacket.class)) {
-                        ArpPacket arp = packet.get(ArpPacket.class);
-                        src = arp.getHeader().getSrcHardwareAddr().toString();
-                        dst = arp.getHeader().getDstHardwareAddr().toString();
-                        proto = "ARP";
-                    }
-                    else if (packet.contains(EthernetPacket.class)) {
-                        EthernetPacket eth = packet.get(EthernetPacket.class);
-                        src = eth.getHeader().getSrcAddr().toString();
-                        dst = eth.getHeader().getDstAddr().toString();
-                        proto = "ETHERNET";
-                    }
-
-                    String infoStr = getInfoString(packet);
-
-                    if (!proto.equals("Unknown")) {
-                        PacketModel model = new PacketModel(
-                                packetCounter.getAndIncrement(),
-                                String.format("%.6f", relativeTime),
-                                src,
-                                dst,
-                                proto,
-                                packet.length(),
-                                infoStr,
-                                packet.getRawData()
-                        );
-                        Platform.runLater(() -> onPacketCaptured.accept(model));
-                    }
-                };
+                onError.accept("Invalid capture filter: " + e.getMessage());
+                return;
             }
-        };
-    }
-
-    public String getInfoString(Packet packet) {
-        StringBuilder info = new StringBuilder();
+        }
 
-        if (packet.contains(TcpPacket.class)) {
-            TcpPacket tcp = packet.get(TcpPacket.class);
-            List<String> flags = new ArrayList<>();
+        CapturePipeline.Source input = pipeline.addSource(new PacketDissector(handle.getDlt().value(), refinement), interfaceId);
+        source = input;
 
-            if (tcp.getHeader().getSyn()) flags.add("SYN");
-            if (tcp.getHeader().getAck()) flags.add("ACK");
-            if (tcp.getHeader().getRst()) flags.add("RST");
-            if (tcp.getHeader().getFin()) flags.add("FIN");
-            if (tcp.getHeader().getPsh()) flags.add("PSH");
-            if (tcp.getHeader().getUrg()) flags.add("URG");
+        RawPacketListener listener = getPacketListener(input);
 
-            info.append(tcp.getHeader().getSrcPort().valueAsInt()).append(" → ").append(tcp.getHeader().getDstPort().valueAsInt());
+        try {
+            logger.info("Starting packet capture loop on {}", nif.getName());
+            // a stop requested while the handle was opening
+            if (!cancelled) handle.loop(-1, listener);
+        } catch (InterruptedException e) {
+            logger.info("Capture loop interrupted (Stop requested).");
+        }
+        catch (PcapNativeException | NotOpenException e) {
+            logger.error("Critical error during packet capture loop.", e);
+            onError.accept("Capture Error: " + e.getMessage());
+        }
+        finally {
+            input.close();
+            updateKernelStats();
 
-            info.append("  [").append(String.join(", ", flags)).append("]");
+            if (handle != null && handle.isOpen()) {
+                handle.close();
+                logger.info("Pcap handle on {} closed successfully.", nif.getName());
+            }
+        }
+    }
 
-            info.append("  Seq=").append(tcp.getHeader().getSequenceNumberAsLong());
-            info.append("  Ack=").append(tcp.getHeader().getAcknowledgmentNumberAsLong());
-            info.append("  Win=").append(tcp.getHeader().getWindowAsInt());
+    private PcapHandle openHandle(boolean nanosecondTimestamps) throws PcapNativeException {
+        PcapHandle.Builder builder = new PcapHandle.Builder(nif.getName())
+                .snaplen(profile.snapLength())
+                .promiscuousMode(profile.promiscuous() ? PromiscuousMode.PROMISCUOUS : PromiscuousMode.NONPROMISCUOUS)
+                .timeoutMillis(profile.readTimeoutMillis())
+                .immediateMode(profile.immediate())
+                .timestampPrecision(nanosecondTimestamps ? PcapHandle.TimestampPrecision.NANO : PcapHandle.TimestampPrecision.MICRO);
+        if (profile.bufferSizeMb() > 0) {
+            builder.bufferSize(profile.bufferSizeMb() * 1024 * 1024);
+        }
 
-            if (tcp.getPayload() != null && (tcp.getHeader().getDstPort().valueAsInt() == 80)) {
-                String payloadStr = new String(tcp.getPayload().getRawData());
-                int firstLineEnd = payloadStr.indexOf("\r\n");
-                if (firstLineEnd > 0) {
-                    payloadStr = payloadStr.substring(0, firstLineEnd);
-                    info.append("  [").append(payloadStr).append("]");
-                }
-            }
+        try {
+            PcapHandle opened = builder.build();
+            logger.info("Opened {} with {}", nif.getName(), profile);
+            return opened;
         }
-        else if (packet.contains(UdpPacket.class)) {
-            UdpPacket udp = packet.get(UdpPacket.class);
+        catch (PcapNativeException e) {
+            // not every driver offers nanosecond stamps
+            if (!nanosecondTimestamps) throw e;
+            logger.warn("Nanosecond timestamps unavailable on {}, using microseconds. {}", nif.getName(), e.getMessage());
+            return openHandle(false);
+        }
+    }
 
-            info.append(udp.getHeader().getSrcPort().valueAsInt()).append(" → ").append(udp.getHeader().getDstPort().valueAsInt());
+    private RawPacketListener getPacketListener(CapturePipeline.Source input) {
+        return raw -> {
+            Timestamp ts = handle.getTimestamp();
+            Integer originalLength = handle.getOriginalLength();
 
-            info.append("  Len=").append(udp.getHeader().getLength());
+            input.publish(
+                    raw,
+                    raw.length,
+                    originalLength != null ? originalLength : raw.length,
+                    ts.getTime() / 1000 * 1_000_000_000L + ts.getNanos()
+            );
 
-            if (udp.getHeader().getSrcPort().valueAsInt() == 53 || udp.getHeader().getDstPort().valueAsInt() == 53) {
-                info.append("  (DNS Query/Response)");
+            long now = System.nanoTime();
+            if (now - lastStatsNanos >= STATS_INTERVAL_NANOS) {
+                lastStatsNanos = now;
+                updateKernelStats();
             }
-        }
-        else if (packet.contains(ArpPacket.class)) {
-            ArpPacket arp = packet.get(ArpPacket.class);
-            ArpOperation op = arp.getHeader().getOperation();
+        };
+    }
 
-            if (op.equals(ArpOperation.REQUEST)) {
-                info.append("Who has ").append(arp.getHeader().getDstProtocolAddr().getHostAddress())
-                        .append("? Tell ").append(arp.getHeader().getSrcProtocolAddr().getHostAddress());
-            }
-            else if (op.equals(ArpOperation.REPLY)) {
-                info.append(arp.getHeader().getSrcProtocolAddr().getHostAddress()).append(" is at ")
-                        .append(arp.getHeader().getSrcHardwareAddr());
-            }
-            else {
-                info.append(op.name());
-            }
-        }
-        else if (packet.contains(IcmpV4CommonPacket.class)) {
-            IcmpV4CommonPacket icmp = packet.get(IcmpV4CommonPacket.class);
-
-            if (icmp.getHeader().getType().equals(IcmpV4Type.ECHO)) {
-                info.append("Echo (Ping) Request");
-            } else if (icmp.getHeader().getType().equals(IcmpV4Type.ECHO_REPLY)) {
-                info.append("Echo (Ping) Reply");
-            } else {
-                info.append(icmp.getHeader().getType().name());
-            }
+    // runs on the capture thread only, readers just see the counters
+    private void updateKernelStats() {
+        if (handle == null || !handle.isOpen()) return;
+
+        try {
+            PcapStat stats = handle.getStats();
+            kernelReceived = stats.getNumPacketsReceived() - receivedBefore;
+            kernelDropped = stats.getNumPacketsDropped() - droppedBefore;
+            interfaceDropped = stats.getNumPacketsDroppedByIf() - interfaceDroppedBefore;
+        } catch (PcapNativeException | NotOpenException e) {
+            logger.debug("Could not read capture statistics. {}", e.getMessage());
         }
-        else if (packet.contains(IcmpV6CommonPacket.class)) {
-            IcmpV6CommonPacket icmp6 = packet.get(IcmpV6CommonPacket.class);
-            IcmpV6Type type = icmp6.getHeader().getType();
+    }
 
-            if (type.equals(IcmpV6Type.ECHO_REQUEST)) {
-                info.append("Echo (Ping6) Request");
-            }
-            else if (type.equals(IcmpV6Type.ECHO_REPLY)) {
-                info.append("Echo (Ping6) Reply");
-            }
-            else if (type.equals(IcmpV6Type.NEIGHBOR_SOLICITATION)) {
-                info.append("Neighbor Solicitation");
-            }
-            else if (type.equals(IcmpV6Type.NEIGHBOR_ADVERTISEMENT)) {
-                info.append("Neighbor Advertisement");
-            }
-            else if (type.equals(IcmpV6Type.ROUTER_SOLICITATION)) {
-                info.append("Router Solicitation");
-            }
-            else if (type.equals(IcmpV6Type.ROUTER_ADVERTISEMENT)) {
-                info.append("Router Advertisement");
-            }
-            else {
-                info.append(type.name());
-            }
+    /**
+     * Counts from here on, since libpcap keeps counting what arrived before the filter was set.
+     */
+    private void resetKernelStats() {
+        try {
+            PcapStat stats = handle.getStats();
+            receivedBefore = stats.getNumPacketsReceived();
+            droppedBefore = stats.getNumPacketsDropped();
+            interfaceDroppedBefore = stats.getNumPacketsDroppedByIf();
+        } catch (PcapNativeException | NotOpenException e) {
+            logger.debug("Could not read capture statistics. {}", e.getMessage());
         }
+    }
+
+    /**
+     * Packets that passed the kernel filter since it was installed, as last reported by libpcap.
+     */
+    public long getKernelReceivedCount() {
+        return kernelReceived;
+    }
+
+    /**
+     * Packets that passed the kernel filter but were dropped for lack of buffer space.
+     */
+    public long getKernelDroppedCount() {
+        return kernelDropped;
+    }
+
+    /**
+     * Packets the network interface or its driver dropped before the kernel filter saw them.
+     */
+    public long getInterfaceDroppedCount() {
+        return interfaceDropped;
+    }
 
-        return info.toString();
+    public long getDroppedCount() {
+        CapturePipeline.Source current = source;
+        return current != null ? current.getDroppedCount() : 0;
     }
 
-    @Override
-    public boolean cancel() {
-        if (handle != null && handle.isOpen()) {
+    /**
+     * Ends the capture loop; the capture thread then closes the handle and runs {@code onFinished}.
+     */
+    public void cancel() {
+        cancelled = true;
+        PcapHandle current = handle;
+        if (current != null && current.isOpen()) {
             try {
-                handle.breakLoop();
+                current.breakLoop();
                 logger.info("Requested loop break...");
             } catch (NotOpenException e) {
                 logger.error("Failed to close Pcap handle. {}", e.getMessage());
             }
         }
-        return super.cancel();
     }
 }
@@ -0,0 +1,161 @@
+package com.jcap.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Space-Saving summary of the heaviest keys of a weighted stream. Keys are spread over stripes by
+ * hash, each monitoring up to {@code capacity} keys under its own lock. A key that is not
+ * monitored by a full stripe replaces the lightest one there and takes over its weight as the
+ * error, so a reported weight is never low and at most {@code error} too high.
+ */
+final class SpaceSaving {
+
+    /**
+     * A monitored key; {@code count} is the number of additions since it was last taken in.
+     */
+    record Entry(int tag, long hi, long lo, long weight, long error, long count) {
+    }
+
+    private final Stripe[] stripes;
+    private final int stripeBits;
+
+    SpaceSaving(int stripeBits, int capacity) {
+        this.stripeBits = stripeBits;
+        this.stripes = new Stripe[1 << stripeBits];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(capacity);
+        }
+    }
+
+    void add(int tag, long hi, long lo, long weight) {
+        int hash = hash(tag, hi, lo);
+        Stripe stripe = stripes[hash >>> (32 - stripeBits)];
+        synchronized (stripe) {
+            stripe.add(hash, tag, hi, lo, weight);
+        }
+    }
+
+    /**
+     * The {@code n} heaviest monitored keys, heaviest first.
+     */
+    List<Entry> top(int n) {
+        List<Entry> all = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.collect(all);
+            }
+        }
+        all.sort(Comparator.comparingLong(Entry::weight).reversed());
+        return all.size() > n ? List.copyOf(all.subList(0, n)) : all;
+    }
+
+    private static int hash(int tag, long hi, long lo) {
+        long h = hi * 0x9E3779B97F4A7C15L + lo;
+        h = h * 0x9E3779B97F4A7C15L + tag;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    /**
+     * Monitored keys in column arrays, found through a linear-probing table of entry index + 1.
+     */
+    private static final class Stripe {
+        private final int[] hashes;
+        private final int[] tags;
+        private final long[] his;
+        private final long[] los;
+        private final long[] weights;
+        private final long[] errors;
+        private final long[] counts;
+        private final int[] table;
+        private final int tableMask;
+        private int size;
+
+        Stripe(int capacity) {
+            hashes = new int[capacity];
+            tags = new int[capacity];
+            his = new long[capacity];
+            los = new long[capacity];
+            weights = new long[capacity];
+            errors = new long[capacity];
+            counts = new long[capacity];
+            table = new int[Integer.highestOneBit(capacity) << 2];
+            tableMask = table.length - 1;
+        }
+
+        void add(int hash, int tag, long hi, long lo, long weight) {
+            int slot = hash & tableMask;
+            while (table[slot] != 0) {
+                int e = table[slot] - 1;
+                if (hashes[e] == hash && tags[e] == tag && his[e] == hi && los[e] == lo) {
+                    weights[e] += weight;
+                    counts[e]++;
+                    return;
+                }
+                slot = (slot + 1) & tableMask;
+            }
+
+            int e;
+            long error = 0;
+            if (size < hashes.length) {
+                e = size++;
+            }
+            else {
+                e = lightest();
+                error = weights[e];
+                remove(e);
+                // the slot found above may have moved up while the lightest key was taken out
+                slot = hash & tableMask;
+                while (table[slot] != 0) slot = (slot + 1) & tableMask;
+            }
+
+            hashes[e] = hash;
+            tags[e] = tag;
+            his[e] = hi;
+            los[e] = lo;
+            weights[e] = error + weight;
+            errors[e] = error;
+            counts[e] = 1;
+            table[slot] = e + 1;
+        }
+
+        private int lightest() {
+            int min = 0;
+            for (int e = 1; e < size; e++) {
+                if (weights[e] < weights[min]) min = e;
+            }
+            return min;
+        }
+
+        // backward-shift deletion keeps every probe sequence unbroken without tombstones
+        private void remove(int e) {
+            int hole = hashes[e] & tableMask;
+            while (table[hole] != e + 1) hole = (hole + 1) & tableMask;
+            table[hole] = 0;
+
+            int next = hole;
+            while (true) {
+                next = (next + 1) & tableMask;
+                if (table[next] == 0) return;
+                int home = hashes[table[next] - 1] & tableMask;
+                // move it unless its home lies cyclically in (hole, next]
+                boolean stays = hole <= next ? home > hole && home <= next : home > hole || home <= next;
+                if (!stays) {
+                    table[hole] = table[next];
+                    table[next] = 0;
+                    hole = next;
+                }
+            }
+        }
+
+        void collect(List<Entry> out) {
+            for (int e = 0; e < size; e++) {
+                out.add(new Entry(tags[e], his[e], los[e], weights[e], errors[e], counts[e]));
+            }
+        }
+    }
+}
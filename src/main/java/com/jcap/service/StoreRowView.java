@@ -0,0 +1,62 @@
+package com.jcap.service;
+
+import com.jcap.model.PacketStore;
+import com.jcap.model.Protocols;
+
+/**
+ * Reusable {@link PacketView} cursor over the rows of a {@link PacketStore}. The application layer
+ * is not stored, and captured rows keep no info text, so both are decoded again from the frame
+ * when a filter asks for them.
+ */
+final class StoreRowView implements PacketView {
+
+    private final PacketStore store;
+    private int row;
+
+    private int decodedRow = -1;
+    private final RowDecoder decoder = new RowDecoder();
+    private int infoRow = -1;
+    private final StringBuilder info = new StringBuilder(128);
+
+    StoreRowView(PacketStore store) {
+        this.store = store;
+    }
+
+    StoreRowView at(int row) {
+        this.row = row;
+        return this;
+    }
+
+    @Override
+    public ApplicationFields application() {
+        if (decodedRow == row) return decoder.application;
+        decodedRow = row;
+
+        int protocol = store.getProtocol(row);
+        if (protocol != Protocols.TCP && protocol != Protocols.UDP) decoder.clearApplication();
+        else decoder.decode(store, row);
+        return decoder.application;
+    }
+
+    @Override
+    public CharSequence info() {
+        if (infoRow != row) {
+            infoRow = row;
+            info.setLength(0);
+            store.appendInfo(row, info);
+        }
+        return info;
+    }
+
+    @Override public int length() { return store.getLength(row); }
+    @Override public int protocol() { return store.getProtocol(row); }
+    @Override public byte sourceKind() { return store.getSourceKind(row); }
+    @Override public long sourceHi() { return store.getSourceHi(row); }
+    @Override public long sourceLo() { return store.getSourceLo(row); }
+    @Override public byte destinationKind() { return store.getDestinationKind(row); }
+    @Override public long destinationHi() { return store.getDestinationHi(row); }
+    @Override public long destinationLo() { return store.getDestinationLo(row); }
+    @Override public int sourcePort() { return store.getSourcePort(row); }
+    @Override public int destinationPort() { return store.getDestinationPort(row); }
+    @Override public int tcpFlags() { return store.getTcpFlags(row); }
+}
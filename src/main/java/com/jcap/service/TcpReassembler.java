@@ -0,0 +1,607 @@
+package com.jcap.service;
+
+import com.jcap.model.Addresses;
+import com.jcap.model.PacketStore;
+import com.jcap.model.Protocols;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Puts the payload of TCP connections back together as one ordered byte stream per direction.
+ * Segments are placed by sequence number: bytes seen before are dropped, overlapping bytes are
+ * taken from the segment that carried them first, and segments that arrive early wait until the
+ * gap before them is filled. Bytes go to the {@link Listener} as soon as they are in order, so only
+ * early segments are held.
+ *
+ * <p>Memory is bounded three ways. A direction holds at most {@code jcap.reassembly.streamKB} of
+ * early bytes before it gives up on its gap. All streams together hold at most
+ * {@code jcap.reassembly.memoryMB}; past that the least recently active streams give up on their
+ * gaps, and then are dropped. A stream without packets for {@code jcap.reassembly.idleSeconds} of
+ * capture time is closed. A dropped stream that sees more data is picked up again in the middle.
+ * Not thread-safe.
+ */
+public final class TcpReassembler {
+
+    private static final Logger logger = LoggerFactory.getLogger(TcpReassembler.class);
+
+    private static final long MEMORY_BUDGET = Long.getLong("jcap.reassembly.memoryMB", 64) << 20;
+    private static final int STREAM_CAP = Integer.getInteger("jcap.reassembly.streamKB", 1024) << 10;
+    private static final long IDLE_TIMEOUT_NANOS = Long.getLong("jcap.reassembly.idleSeconds", 120) * 1_000_000_000L;
+    private static final long EXPIRY_INTERVAL_NANOS = 1_000_000_000L;
+
+    // bookkeeping charged against the budget on top of the held bytes
+    private static final int STREAM_OVERHEAD = 512;
+    private static final int SEGMENT_OVERHEAD = 64;
+
+    private static final long SEQ_MASK = 0xFFFFFFFFL;
+    private static final int FOLLOW_LIMIT = 32 << 20;
+    private static final int PROGRESS_INTERVAL = 1 << 14;
+    private static final byte[] NO_BYTES = new byte[0];
+
+    /**
+     * Receives the reassembled streams. All calls come from the thread adding the packets.
+     */
+    public interface Listener {
+
+        /**
+         * The next in-order bytes of one direction; {@code data} is only valid during the call.
+         */
+        void data(Stream stream, boolean fromClient, byte[] data, int offset, int length);
+
+        /**
+         * {@code length} bytes of one direction were not captured, or were given up on, and are skipped.
+         */
+        default void gap(Stream stream, boolean fromClient, long length) {
+        }
+
+        /**
+         * The stream finished, was reset, went idle or was dropped; it gets no more calls.
+         */
+        default void closed(Stream stream) {
+        }
+    }
+
+    /**
+     * One connection. The client sent the SYN, or the first packet seen when the handshake was missed.
+     */
+    public static final class Stream {
+
+        private final long id;
+        private final Key key;
+        private final byte kind;
+        private final long clientHi;
+        private final long clientLo;
+        private final int clientPort;
+        private final long serverHi;
+        private final long serverLo;
+        private final int serverPort;
+        private final Direction toServer = new Direction();
+        private final Direction toClient = new Direction();
+        private final long firstNanos;
+        private long lastNanos;
+        private boolean reset;
+        private boolean closed;
+
+        private Stream(long id, Key key, byte kind, long clientHi, long clientLo, int clientPort,
+                       long serverHi, long serverLo, int serverPort, long firstNanos) {
+            this.id = id;
+            this.key = key;
+            this.kind = kind;
+            this.clientHi = clientHi;
+            this.clientLo = clientLo;
+            this.clientPort = clientPort;
+            this.serverHi = serverHi;
+            this.serverLo = serverLo;
+            this.serverPort = serverPort;
+            this.firstNanos = firstNanos;
+            this.lastNanos = firstNanos;
+        }
+
+        public long getId() { return id; }
+        public int getClientPort() { return clientPort; }
+        public int getServerPort() { return serverPort; }
+        public long getFirstNanos() { return firstNanos; }
+        public long getLastNanos() { return lastNanos; }
+        public boolean isReset() { return reset; }
+
+        public String getClientAddress() {
+            StringBuilder sb = new StringBuilder(40);
+            Addresses.append(kind, clientHi, clientLo, sb);
+            return sb.toString();
+        }
+
+        public String getServerAddress() {
+            StringBuilder sb = new StringBuilder(40);
+            Addresses.append(kind, serverHi, serverLo, sb);
+            return sb.toString();
+        }
+
+        /**
+         * In-order bytes one side has sent so far.
+         */
+        public long getBytes(boolean fromClient) {
+            return direction(fromClient).delivered;
+        }
+
+        /**
+         * Bytes of one side that were skipped as never captured.
+         */
+        public long getMissing(boolean fromClient) {
+            return direction(fromClient).missing;
+        }
+
+        /**
+         * Bytes of one side that arrived more than once.
+         */
+        public long getRetransmitted(boolean fromClient) {
+            return direction(fromClient).retransmitted;
+        }
+
+        private Direction direction(boolean fromClient) {
+            return fromClient ? toServer : toClient;
+        }
+
+        private boolean isClient(long hi, long lo, int port) {
+            return port == clientPort && hi == clientHi && lo == clientLo;
+        }
+    }
+
+    /**
+     * One side of a stream. Positions are stream offsets: 0 is the first byte after the SYN, or the
+     * first byte seen when the SYN was missed.
+     */
+    private static final class Direction {
+        boolean synced;
+        long base;              // sequence number of offset 0
+        long next;              // offset of the next byte to deliver
+        long fin = -1;          // offset of the FIN, once seen
+        TreeMap<Long, byte[]> early;
+        int held;
+        long delivered;
+        long missing;
+        long retransmitted;
+
+        boolean finished() {
+            return fin >= 0 && next >= fin;
+        }
+    }
+
+    private record Key(long aHi, long aLo, long bHi, long bLo, int ports) {
+    }
+
+    private final long memoryBudget;
+    private final int streamCap;
+    private final long idleTimeoutNanos;
+    private final Listener listener;
+
+    // access order: the least recently active stream comes first
+    private final LinkedHashMap<Key, Stream> streams = new LinkedHashMap<>(256, 0.75f, true);
+    private long memory;
+    private long nextId;
+    private long nextExpiry = Long.MIN_VALUE;
+    private long evicted;
+
+    public TcpReassembler(Listener listener) {
+        this(MEMORY_BUDGET, STREAM_CAP, IDLE_TIMEOUT_NANOS, listener);
+    }
+
+    public TcpReassembler(long memoryBudget, int streamCap, long idleTimeoutNanos, Listener listener) {
+        this.memoryBudget = memoryBudget;
+        this.streamCap = streamCap;
+        this.idleTimeoutNanos = idleTimeoutNanos;
+        this.listener = listener;
+    }
+
+    /**
+     * The reassembled payload of one connection: what each side sent, in turns.
+     */
+    public record Transcript(Stream stream, List<Chunk> chunks, boolean truncated) {
+    }
+
+    /**
+     * Bytes one side sent before the other side sent any. A chunk with {@code missing} set stands for
+     * bytes that were not captured and has no data.
+     */
+    public record Chunk(boolean fromClient, byte[] data, long missing) {
+    }
+
+    /**
+     * Reassembles the connection that {@code row} of a store belongs to, for "Follow TCP Stream".
+     * Only the first {@value #FOLLOW_LIMIT} bytes are kept. Progress is reported in rows.
+     */
+    public static Transcript follow(PacketStore store, int row, Progress progress) {
+        if (store.getProtocol(row) != Protocols.TCP) throw new IllegalArgumentException("Not a TCP packet");
+
+        long start = System.currentTimeMillis();
+        byte kind = store.getSourceKind(row);
+        long sourceHi = store.getSourceHi(row);
+        long sourceLo = store.getSourceLo(row);
+        long destinationHi = store.getDestinationHi(row);
+        long destinationLo = store.getDestinationLo(row);
+        int sourcePort = store.getSourcePort(row);
+        int destinationPort = store.getDestinationPort(row);
+
+        // one connection never idles out: a long pause is still the same conversation
+        Recorder recorder = new Recorder();
+        TcpReassembler reassembler = new TcpReassembler(MEMORY_BUDGET, STREAM_CAP, Long.MAX_VALUE, recorder);
+        PacketHeaders headers = new PacketHeaders();
+        byte[] scratch = new byte[2048];
+        int total = store.size();
+
+        for (int r = 0; r < total; r++) {
+            if (progress.isCancelled()) return null;
+            if ((r + 1) % PROGRESS_INTERVAL == 0) {
+                progress.update(r + 1, total);
+                progress.message("Reassembling: " + (r + 1) + " of " + total + " packets");
+            }
+            if (recorder.target != null && (recorder.target.closed || recorder.truncated)) break;
+
+            if (store.getProtocol(r) != Protocols.TCP || store.getSourceKind(r) != kind) continue;
+            boolean forward = store.getSourcePort(r) == sourcePort && store.getDestinationPort(r) == destinationPort
+                    && store.getSourceHi(r) == sourceHi && store.getSourceLo(r) == sourceLo
+                    && store.getDestinationHi(r) == destinationHi && store.getDestinationLo(r) == destinationLo;
+            boolean backward = !forward && store.getSourcePort(r) == destinationPort && store.getDestinationPort(r) == sourcePort
+                    && store.getSourceHi(r) == destinationHi && store.getSourceLo(r) == destinationLo
+                    && store.getDestinationHi(r) == sourceHi && store.getDestinationLo(r) == sourceLo;
+            if (!forward && !backward) continue;
+
+            ByteBuffer payload = store.getPayload(r);
+            int length = payload.remaining();
+            if (scratch.length < length) scratch = new byte[Math.max(length, scratch.length * 2)];
+            payload.get(payload.position(), scratch, 0, length);
+
+            headers.clear();
+            int linkType = store.getInterfaceLinkType(store.getInterface(r));
+            if (!HeaderDecoder.decode(scratch, 0, length, linkType, headers) || !headers.isTcp() || !headers.hasTransport) continue;
+
+            Stream stream = reassembler.add(store.getTimestampNanos(r), kind,
+                    store.getSourceHi(r), store.getSourceLo(r), store.getDestinationHi(r), store.getDestinationLo(r),
+                    headers.srcPort, headers.dstPort, headers.tcpFlags, headers.seq,
+                    scratch, headers.payloadOffset, headers.payloadLength);
+            // a bare ACK before any payload belongs to the next stream that starts
+            if (r >= row && recorder.target == null) recorder.target = stream;
+        }
+        reassembler.closeAll();
+
+        Transcript transcript = recorder.transcript();
+        if (transcript != null) {
+            logger.info("Reassembled {}:{} - {}:{} ({} bytes) in {} ms.",
+                    transcript.stream.getClientAddress(), transcript.stream.clientPort,
+                    transcript.stream.getServerAddress(), transcript.stream.serverPort,
+                    transcript.stream.getBytes(true) + transcript.stream.getBytes(false),
+                    System.currentTimeMillis() - start);
+        }
+        return transcript;
+    }
+
+    /**
+     * Adds one TCP segment; {@code data} holds its payload at {@code offset}. Returns the stream it
+     * went to, or null when it starts nothing (a bare ACK of an unknown connection, say).
+     */
+    public Stream add(long timestampNanos, byte kind, long sourceHi, long sourceLo, long destinationHi, long destinationLo,
+                      int sourcePort, int destinationPort, int tcpFlags, long seq,
+                      byte[] data, int offset, int length) {
+        if (kind == Addresses.NONE) return null;
+        if (timestampNanos >= nextExpiry) {
+            if (nextExpiry != Long.MIN_VALUE) expire(timestampNanos);
+            nextExpiry = timestampNanos + EXPIRY_INTERVAL_NANOS;
+        }
+
+        boolean syn = (tcpFlags & PacketHeaders.TCP_SYN) != 0;
+        boolean ack = (tcpFlags & PacketHeaders.TCP_ACK) != 0;
+        boolean fin = (tcpFlags & PacketHeaders.TCP_FIN) != 0;
+        boolean rst = (tcpFlags & PacketHeaders.TCP_RST) != 0;
+
+        boolean fromA = compare(sourceHi, sourceLo, sourcePort, destinationHi, destinationLo, destinationPort) <= 0;
+        Key key = fromA
+                ? new Key(sourceHi, sourceLo, destinationHi, destinationLo, sourcePort << 16 | destinationPort)
+                : new Key(destinationHi, destinationLo, sourceHi, sourceLo, destinationPort << 16 | sourcePort);
+
+        Stream stream = streams.get(key);
+        long dataSeq = syn ? seq + 1 & SEQ_MASK : seq;
+
+        // a fresh SYN on a known connection: the ports were reused
+        if (stream != null && syn && !ack) {
+            Direction d = stream.toServer;
+            if (!stream.isClient(sourceHi, sourceLo, sourcePort) || d.synced && d.base != dataSeq) {
+                close(stream);
+                stream = null;
+            }
+        }
+
+        if (stream == null) {
+            if (!syn && length == 0) return null;
+            // a SYN-ACK comes from the server, anything else is taken to come from the client
+            boolean sentByClient = !(syn && ack);
+            stream = sentByClient
+                    ? new Stream(nextId++, key, kind, sourceHi, sourceLo, sourcePort, destinationHi, destinationLo, destinationPort, timestampNanos)
+                    : new Stream(nextId++, key, kind, destinationHi, destinationLo, destinationPort, sourceHi, sourceLo, sourcePort, timestampNanos);
+            streams.put(key, stream);
+            memory += STREAM_OVERHEAD;
+        }
+
+        stream.lastNanos = Math.max(stream.lastNanos, timestampNanos);
+        if (rst) {
+            stream.reset = true;
+            close(stream);
+            return stream;
+        }
+
+        boolean fromClient = stream.isClient(sourceHi, sourceLo, sourcePort);
+        Direction d = stream.direction(fromClient);
+        if (!d.synced) {
+            if (!syn && !fin && length == 0) return stream;
+            d.synced = true;
+            d.base = dataSeq;
+        }
+
+        // signed distance from the next expected byte, so the sequence number may wrap
+        long position = d.next + (int) (dataSeq - (d.base + d.next));
+        if (fin && d.fin < 0) d.fin = position + length;
+        if (length > 0) segment(stream, fromClient, d, position, data, offset, length);
+
+        if (!stream.closed && stream.toServer.finished() && stream.toClient.finished()) close(stream);
+        if (memory > memoryBudget) shed();
+        return stream;
+    }
+
+    private void segment(Stream stream, boolean fromClient, Direction d, long position, byte[] data, int offset, int length) {
+        if (position > d.next) {
+            hold(d, position, data, offset, length);
+            while (d.held > streamCap) {
+                skipGap(stream, fromClient, d);
+            }
+            return;
+        }
+
+        // held segments came first, so this one only fills the holes in front of them
+        while (length > 0) {
+            if (position < d.next) {
+                int seen = (int) Math.min(length, d.next - position);
+                d.retransmitted += seen;
+                offset += seen;
+                length -= seen;
+                position += seen;
+                continue;
+            }
+            int fill = d.early == null || d.early.isEmpty() ? length : (int) Math.min(length, d.early.firstKey() - position);
+            deliver(stream, fromClient, d, data, offset, fill);
+            drain(stream, fromClient, d);
+            offset += fill;
+            length -= fill;
+            position += fill;
+        }
+    }
+
+    private void deliver(Stream stream, boolean fromClient, Direction d, byte[] data, int offset, int length) {
+        d.next += length;
+        d.delivered += length;
+        listener.data(stream, fromClient, data, offset, length);
+    }
+
+    /**
+     * Delivers the held segments that are now in order. A segment just delivered may have covered
+     * the start of some of them.
+     */
+    private void drain(Stream stream, boolean fromClient, Direction d) {
+        if (d.early == null) return;
+        while (!d.early.isEmpty() && d.early.firstKey() <= d.next) {
+            Map.Entry<Long, byte[]> first = d.early.pollFirstEntry();
+            byte[] bytes = first.getValue();
+            d.held -= bytes.length;
+            memory -= bytes.length + SEGMENT_OVERHEAD;
+
+            int seen = (int) Math.min(bytes.length, d.next - first.getKey());
+            d.retransmitted += seen;
+            if (seen < bytes.length) deliver(stream, fromClient, d, bytes, seen, bytes.length - seen);
+        }
+    }
+
+    /**
+     * Keeps the bytes of an early segment that no held segment has yet; held segments never overlap.
+     */
+    private void hold(Direction d, long position, byte[] data, int offset, int length) {
+        if (d.early == null) d.early = new TreeMap<>();
+        long start = position;
+        long end = position + length;
+        int kept = 0;
+
+        Map.Entry<Long, byte[]> before = d.early.floorEntry(position);
+        if (before != null) position = Math.max(position, before.getKey() + before.getValue().length);
+
+        while (position < end) {
+            Map.Entry<Long, byte[]> after = d.early.ceilingEntry(position);
+            long stop = after == null ? end : Math.min(end, after.getKey());
+            if (stop > position) {
+                int from = offset + (int) (position - start);
+                d.early.put(position, Arrays.copyOfRange(data, from, from + (int) (stop - position)));
+                kept += (int) (stop - position);
+                memory += stop - position + SEGMENT_OVERHEAD;
+            }
+            if (after == null) break;
+            position = Math.max(position, after.getKey() + after.getValue().length);
+        }
+
+        d.held += kept;
+        d.retransmitted += length - kept;
+    }
+
+    /**
+     * Gives up on the bytes missing before the first held segment.
+     */
+    private void skipGap(Stream stream, boolean fromClient, Direction d) {
+        long missing = d.early.firstKey() - d.next;
+        d.next += missing;
+        d.missing += missing;
+        listener.gap(stream, fromClient, missing);
+        drain(stream, fromClient, d);
+    }
+
+    private void flush(Stream stream) {
+        for (boolean fromClient : new boolean[] {true, false}) {
+            Direction d = stream.direction(fromClient);
+            while (d.early != null && !d.early.isEmpty()) {
+                skipGap(stream, fromClient, d);
+            }
+        }
+    }
+
+    private void close(Stream stream) {
+        if (stream.closed) return;
+        flush(stream);
+        stream.closed = true;
+        streams.remove(stream.key);
+        memory -= STREAM_OVERHEAD;
+        listener.closed(stream);
+    }
+
+    /**
+     * Brings memory back under three quarters of the budget: first the held segments of the least
+     * recently active streams are given up on, then whole streams are dropped.
+     */
+    private void shed() {
+        long target = memoryBudget - memoryBudget / 4;
+        for (Stream stream : new ArrayList<>(streams.values())) {
+            if (memory <= target) return;
+            flush(stream);
+        }
+        Iterator<Stream> oldest = new ArrayList<>(streams.values()).iterator();
+        while (memory > target && oldest.hasNext()) {
+            close(oldest.next());
+            evicted++;
+        }
+        if (evicted > 0) logger.debug("Reassembly over budget, {} streams dropped so far.", evicted);
+    }
+
+    /**
+     * Closes the streams that have had no packets for the idle timeout at capture time {@code nowNanos}.
+     */
+    public void expire(long nowNanos) {
+        Iterator<Stream> it = streams.values().iterator();
+        List<Stream> idle = new ArrayList<>();
+        while (it.hasNext()) {
+            Stream stream = it.next();
+            if (nowNanos - stream.lastNanos <= idleTimeoutNanos) break;
+            idle.add(stream);
+        }
+        for (Stream stream : idle) {
+            close(stream);
+        }
+    }
+
+    /**
+     * Closes every stream, for the end of a capture or file.
+     */
+    public void closeAll() {
+        for (Stream stream : new ArrayList<>(streams.values())) {
+            close(stream);
+        }
+    }
+
+    public int getOpenCount() {
+        return streams.size();
+    }
+
+    /**
+     * Bytes charged against the budget: held segments plus per-stream and per-segment bookkeeping.
+     */
+    public long getMemoryUsed() {
+        return memory;
+    }
+
+    public long getEvictedCount() {
+        return evicted;
+    }
+
+    private static int compare(long hi1, long lo1, int port1, long hi2, long lo2, int port2) {
+        if (hi1 != hi2) return Long.compareUnsigned(hi1, hi2);
+        if (lo1 != lo2) return Long.compareUnsigned(lo1, lo2);
+        return Integer.compare(port1, port2);
+    }
+
+    /**
+     * Collects the chunks of the streams of one 5-tuple until the one to follow is known; the others
+     * are thrown away as they close.
+     */
+    private static final class Recorder implements Listener {
+
+        private final Map<Stream, List<Chunk>> chunks = new HashMap<>();
+        private Stream target;
+        private Stream lastClosed;
+        private List<Chunk> lastClosedChunks;
+        private boolean truncated;
+        private long recorded;
+
+        // bytes of the current run of one side, not yet a chunk
+        private Stream runStream;
+        private boolean runFromClient;
+        private byte[] run = new byte[4096];
+        private int runLength;
+
+        @Override
+        public void data(Stream stream, boolean fromClient, byte[] data, int offset, int length) {
+            if (truncated) return;
+            if (recorded + length > FOLLOW_LIMIT) {
+                length = (int) (FOLLOW_LIMIT - recorded);
+                truncated = true;
+            }
+            if (runStream != stream || runFromClient != fromClient) {
+                seal();
+                runStream = stream;
+                runFromClient = fromClient;
+            }
+            if (run.length < runLength + length) run = Arrays.copyOf(run, Math.max(run.length * 2, runLength + length));
+            System.arraycopy(data, offset, run, runLength, length);
+            runLength += length;
+            recorded += length;
+        }
+
+        @Override
+        public void gap(Stream stream, boolean fromClient, long length) {
+            if (truncated) return;
+            seal();
+            chunks.computeIfAbsent(stream, k -> new ArrayList<>()).add(new Chunk(fromClient, NO_BYTES, length));
+        }
+
+        @Override
+        public void closed(Stream stream) {
+            if (runStream == stream) seal();
+            if (stream == target) return;
+
+            // the packet that closes a stream may be the one to follow, which is only known after it
+            List<Chunk> dropped = target == null ? lastClosedChunks : chunks.remove(stream);
+            if (target == null) {
+                lastClosed = stream;
+                lastClosedChunks = chunks.remove(stream);
+            }
+            if (dropped != null) {
+                for (Chunk chunk : dropped) {
+                    recorded -= chunk.data.length;
+                }
+            }
+        }
+
+        private void seal() {
+            if (runLength == 0) return;
+            chunks.computeIfAbsent(runStream, k -> new ArrayList<>()).add(new Chunk(runFromClient, Arrays.copyOf(run, runLength), 0));
+            runLength = 0;
+        }
+
+        Transcript transcript() {
+            if (target == null) return null;
+            seal();
+            List<Chunk> recorded = target == lastClosed ? lastClosedChunks : chunks.get(target);
+            return new Transcript(target, recorded != null ? recorded : List.of(), truncated);
+        }
+    }
+}
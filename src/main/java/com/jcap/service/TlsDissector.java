@@ -0,0 +1,142 @@
+package com.jcap.service;
+
+import java.util.List;
+
+/**
+ * TLS records: the first record header of a segment and, for a ClientHello, the server name from
+ * the SNI extension. A ClientHello cut off by the end of the segment gives no name.
+ */
+public final class TlsDissector implements ApplicationDissector {
+
+    static final int CONTENT_TYPE = 0;
+    static final int RECORD_VERSION = 1;
+    static final int HANDSHAKE_TYPE = 2;
+    static final int HANDSHAKE_VERSION = 3;
+    static final int SERVER_NAME = 4;
+
+    private static final List<Field> FIELDS = List.of(
+            new Field("tls.record.content_type", "Content Type", Type.NUMBER),
+            new Field("tls.record.version", "Record Version", Type.NUMBER),
+            new Field("tls.handshake.type", "Handshake Type", Type.NUMBER),
+            new Field("tls.handshake.version", "Handshake Version", Type.NUMBER),
+            new Field("tls.handshake.extensions_server_name", "Server Name", Type.TEXT));
+
+    private static final int CHANGE_CIPHER_SPEC = 20;
+    private static final int ALERT = 21;
+    private static final int HANDSHAKE = 22;
+    private static final int APPLICATION_DATA = 23;
+
+    private static final int CLIENT_HELLO = 1;
+    private static final int SERVER_HELLO = 2;
+    private static final int EXTENSION_SERVER_NAME = 0;
+
+    @Override
+    public String name() {
+        return "tls";
+    }
+
+    @Override
+    public String title() {
+        return "Transport Layer Security";
+    }
+
+    @Override
+    public List<Field> fields() {
+        return FIELDS;
+    }
+
+    @Override
+    public int[] tcpPorts() {
+        return new int[] {443, 465, 636, 853, 993, 995, 8443};
+    }
+
+    /**
+     * A handshake record of SSL 3.0 to TLS 1.3 starting the segment.
+     */
+    @Override
+    public boolean looksLike(PacketHeaders headers, byte[] data, int offset, int length) {
+        return headers.isTcp() && length >= 6 && data[offset] == HANDSHAKE && data[offset + 1] == 3
+                && (data[offset + 2] & 0xFF) <= 4 && (data[offset + 5] == CLIENT_HELLO || data[offset + 5] == SERVER_HELLO);
+    }
+
+    @Override
+    public boolean dissect(PacketHeaders headers, byte[] data, int offset, int length, ApplicationFields out) {
+        if (length < 5) return false;
+        int type = data[offset] & 0xFF;
+        if (type < CHANGE_CIPHER_SPEC || type > APPLICATION_DATA || data[offset + 1] != 3 || (data[offset + 2] & 0xFF) > 4) return false;
+
+        out.setNumber(CONTENT_TYPE, type);
+        out.setNumber(RECORD_VERSION, u16(data, offset + 1));
+        if (type != HANDSHAKE || length < 6) return true;
+
+        int handshake = data[offset + 5] & 0xFF;
+        out.setNumber(HANDSHAKE_TYPE, handshake);
+        if ((handshake == CLIENT_HELLO || handshake == SERVER_HELLO) && length >= 11) {
+            out.setNumber(HANDSHAKE_VERSION, u16(data, offset + 9));
+        }
+        if (handshake == CLIENT_HELLO) findServerName(data, offset, offset + length, out);
+        return true;
+    }
+
+    private static void findServerName(byte[] data, int record, int end, ApplicationFields out) {
+        // record header 5, handshake header 4, version 2, random 32
+        int p = record + 5 + 4 + 2 + 32;
+        if (p + 1 > end) return;
+        p += 1 + (data[p] & 0xFF);                     // session id
+        if (p + 2 > end) return;
+        p += 2 + u16(data, p);                          // cipher suites
+        if (p + 1 > end) return;
+        p += 1 + (data[p] & 0xFF);                      // compression methods
+        if (p + 2 > end) return;
+        int extensionsEnd = Math.min(end, p + 2 + u16(data, p));
+        p += 2;
+
+        while (p + 4 <= extensionsEnd) {
+            int type = u16(data, p);
+            int length = u16(data, p + 2);
+            p += 4;
+            if (type == EXTENSION_SERVER_NAME) {
+                // list length 2, then entries of name type 1 and name length 2
+                int entry = p + 2;
+                if (entry + 3 > extensionsEnd || data[entry] != 0) return;
+                int nameLength = u16(data, entry + 1);
+                if (entry + 3 + nameLength > extensionsEnd) return;
+                out.setSpan(SERVER_NAME, entry + 3, nameLength);
+                return;
+            }
+            p += length;
+        }
+    }
+
+    @Override
+    public void appendInfo(ApplicationFields fields, StringBuilder sb) {
+        int type = (int) fields.getNumber(CONTENT_TYPE);
+        switch (type) {
+            case HANDSHAKE -> {
+                int handshake = fields.has(HANDSHAKE_TYPE) ? (int) fields.getNumber(HANDSHAKE_TYPE) : -1;
+                sb.append(switch (handshake) {
+                    case CLIENT_HELLO -> "Client Hello";
+                    case SERVER_HELLO -> "Server Hello";
+                    case 4 -> "New Session Ticket";
+                    case 11 -> "Certificate";
+                    case 12 -> "Server Key Exchange";
+                    case 14 -> "Server Hello Done";
+                    case 16 -> "Client Key Exchange";
+                    default -> "Handshake";
+                });
+                if (fields.has(SERVER_NAME)) {
+                    sb.append(" (SNI=");
+                    fields.appendValue(SERVER_NAME, sb);
+                    sb.append(')');
+                }
+            }
+            case CHANGE_CIPHER_SPEC -> sb.append("Change Cipher Spec");
+            case ALERT -> sb.append("Alert");
+            default -> sb.append("Application Data");
+        }
+    }
+
+    private static int u16(byte[] data, int offset) {
+        return (data[offset] & 0xFF) << 8 | data[offset + 1] & 0xFF;
+    }
+}
@@ -0,0 +1,317 @@
+package com.jcap.service;
+
+import com.jcap.model.Addresses;
+import com.jcap.model.PacketStore;
+import com.jcap.model.Protocols;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running totals of a capture: packets and bytes per protocol path (network, transport,
+ * application), the heaviest hosts and ports by bytes, and packets and bytes per interval of
+ * capture time over the last {@code jcap.stats.history} intervals of {@code jcap.stats.intervalMs}.
+ *
+ * <p>Any number of threads may add packets while others take snapshots. Counters are
+ * {@link LongAdder}s, the time series is a ring of counters each made for one interval and
+ * replaced whole when a newer interval takes its slot, and hosts and ports go through a striped
+ * {@link SpaceSaving} summary.
+ *
+ * <p>Live captures count the application protocol by port and heuristic, without dissecting a
+ * frame that nothing else has; stored rows count it by the dissector that takes the payload.
+ */
+public final class TrafficStatistics {
+
+    private static final Logger logger = LoggerFactory.getLogger(TrafficStatistics.class);
+
+    private static final long INTERVAL_NANOS = Long.getLong("jcap.stats.intervalMs", 1000) * 1_000_000L;
+    private static final int HISTORY = Integer.getInteger("jcap.stats.history", 300);
+
+    private static final int TOP_STRIPE_BITS = 4;
+    private static final int TOP_STRIPE_CAPACITY = 64;
+    private static final int PROGRESS_INTERVAL = 1 << 14;
+
+    private static final String[] NETWORKS = {"IPv4", "IPv6", "ARP", "Other"};
+    private static final int IPV4 = 0;
+    private static final int IPV6 = 1;
+    private static final int ARP = 2;
+    private static final int OTHER = 3;
+    // IP protocol numbers, and one more for frames without an IP protocol
+    private static final int TRANSPORTS = 257;
+    private static final int NO_TRANSPORT = 256;
+
+    /**
+     * Packets and bytes below one protocol, children heaviest first.
+     */
+    public record ProtocolNode(String name, long packets, long bytes, List<ProtocolNode> children) {
+    }
+
+    /**
+     * A host or port with its bytes, which may be up to {@code error} too high, and the packets
+     * counted since it was last taken into the summary.
+     */
+    public record Endpoint(String name, long packets, long bytes, long error) {
+    }
+
+    /**
+     * Packets and bytes per interval, the first starting at {@code startNanos} capture time.
+     */
+    public record Series(long startNanos, long intervalNanos, long[] packets, long[] bytes) {
+    }
+
+    public record Snapshot(long packets, long bytes, long firstNanos, ProtocolNode protocols,
+                           List<Endpoint> hosts, List<Endpoint> ports, Series series) {
+    }
+
+    private static class Counter {
+        final LongAdder packets = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+    }
+
+    private static final class IntervalCounter extends Counter {
+        final long interval;
+
+        IntervalCounter(long interval) {
+            this.interval = interval;
+        }
+    }
+
+    private final LongAdder packets = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final AtomicLong firstNanos = new AtomicLong(Long.MAX_VALUE);
+
+    private final List<ApplicationDissector> applications = ApplicationLayer.get().getDissectors();
+    private final int applicationSlots = applications.size() + 1;
+    private final AtomicReferenceArray<Counter> counters =
+            new AtomicReferenceArray<>(NETWORKS.length * TRANSPORTS * applicationSlots);
+
+    private final SpaceSaving hosts = new SpaceSaving(TOP_STRIPE_BITS, TOP_STRIPE_CAPACITY);
+    private final SpaceSaving ports = new SpaceSaving(TOP_STRIPE_BITS, TOP_STRIPE_CAPACITY);
+
+    private final long intervalNanos;
+    private final int history;
+    private final AtomicReferenceArray<IntervalCounter> intervals;
+    private final AtomicLong latestInterval = new AtomicLong(Long.MIN_VALUE);
+
+    public TrafficStatistics() {
+        this(INTERVAL_NANOS, HISTORY);
+    }
+
+    public TrafficStatistics(long intervalNanos, int history) {
+        this.intervalNanos = intervalNanos;
+        this.history = history;
+        this.intervals = new AtomicReferenceArray<>(history);
+    }
+
+    /**
+     * Counts the rows of a store that is not being captured into, such as an imported file or a
+     * saved session. Progress is reported in rows; null when cancelled.
+     */
+    public static TrafficStatistics analyze(PacketStore store, Progress progress) {
+        long start = System.currentTimeMillis();
+        TrafficStatistics statistics = new TrafficStatistics();
+        StoreRowView view = new StoreRowView(store);
+        int total = store.size();
+
+        for (int row = 0; row < total; row++) {
+            if (progress.isCancelled()) return null;
+            statistics.add(view.at(row), store.getTimestampNanos(row));
+
+            if ((row + 1) % PROGRESS_INTERVAL == 0) {
+                progress.update(row + 1, total);
+                progress.message("Counting: " + (row + 1) + " of " + total + " packets");
+            }
+        }
+
+        logger.info("Counted {} packets in {} ms.", total, System.currentTimeMillis() - start);
+        return statistics;
+    }
+
+    /**
+     * Counts one packet captured at {@code timestampNanos}, under the dissector that takes its
+     * payload.
+     */
+    public void add(PacketView packet, long timestampNanos) {
+        int protocol = packet.protocol();
+        add(packet, protocol == Protocols.TCP || protocol == Protocols.UDP
+                ? packet.application().dissectorIndex() : -1, timestampNanos);
+    }
+
+    /**
+     * Counts one packet captured at {@code timestampNanos} under the application protocol at
+     * {@code application} in {@link ApplicationLayer#getDissectors()}, or under none for -1.
+     */
+    public void add(PacketView packet, int application, long timestampNanos) {
+        int length = packet.length();
+        int protocol = packet.protocol();
+        byte kind = packet.sourceKind();
+
+        packets.increment();
+        bytes.add(length);
+        if (timestampNanos < firstNanos.get()) firstNanos.accumulateAndGet(timestampNanos, Math::min);
+
+        int network = protocol == Protocols.ARP ? ARP
+                : kind == Addresses.IPV4 ? IPV4
+                : kind == Addresses.IPV6 ? IPV6
+                : OTHER;
+        int transport = network <= IPV6 && protocol >= 0 && protocol < 256 ? protocol : NO_TRANSPORT;
+        Counter counter = counter((network * TRANSPORTS + transport) * applicationSlots + application + 1);
+        counter.packets.increment();
+        counter.bytes.add(length);
+
+        if (kind != Addresses.NONE) {
+            hosts.add(kind, packet.sourceHi(), packet.sourceLo(), length);
+            hosts.add(packet.destinationKind(), packet.destinationHi(), packet.destinationLo(), length);
+        }
+        if (protocol == Protocols.TCP || protocol == Protocols.UDP) {
+            ports.add(protocol, 0, packet.sourcePort(), length);
+            if (packet.destinationPort() != packet.sourcePort()) ports.add(protocol, 0, packet.destinationPort(), length);
+        }
+
+        addToSeries(Math.floorDiv(timestampNanos, intervalNanos), length);
+    }
+
+    private Counter counter(int index) {
+        Counter counter = counters.get(index);
+        if (counter == null) {
+            counters.compareAndSet(index, null, new Counter());
+            counter = counters.get(index);
+        }
+        return counter;
+    }
+
+    private void addToSeries(long interval, int length) {
+        if (interval > latestInterval.get()) latestInterval.accumulateAndGet(interval, Math::max);
+
+        int slot = (int) Math.floorMod(interval, (long) history);
+        while (true) {
+            IntervalCounter current = intervals.get(slot);
+            if (current != null && current.interval == interval) {
+                // if a newer interval replaces it meanwhile, the packet falls out of the history
+                // with the rest of its interval rather than into the newer one
+                current.packets.increment();
+                current.bytes.add(length);
+                return;
+            }
+            // older than what the slot holds now: out of the history
+            if (current != null && current.interval > interval) return;
+            intervals.compareAndSet(slot, current, new IntervalCounter(interval));
+        }
+    }
+
+    public long getPackets() {
+        return packets.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * Capture time of the first packet, or {@link Long#MAX_VALUE} before any.
+     */
+    public long getFirstNanos() {
+        return firstNanos.get();
+    }
+
+    /**
+     * The totals as of now, with the {@code top} heaviest hosts and ports. Packets added while it
+     * is taken may be counted in some parts and not yet in others.
+     */
+    public Snapshot snapshot(int top) {
+        return new Snapshot(packets.sum(), bytes.sum(), firstNanos.get(), protocols(),
+                endpoints(hosts.top(top), false), endpoints(ports.top(top), true), series());
+    }
+
+    private ProtocolNode protocols() {
+        Node root = new Node("Frames");
+        for (int index = 0; index < counters.length(); index++) {
+            Counter counter = counters.get(index);
+            if (counter == null) continue;
+            long p = counter.packets.sum();
+            long b = counter.bytes.sum();
+            if (p == 0) continue;
+
+            int application = index % applicationSlots;
+            int transport = index / applicationSlots % TRANSPORTS;
+            int network = index / applicationSlots / TRANSPORTS;
+
+            Node node = root.add(p, b).child(NETWORKS[network]).add(p, b);
+            if (transport != NO_TRANSPORT) node = node.child(Protocols.name(transport)).add(p, b);
+            if (application > 0) node.child(applications.get(application - 1).title()).add(p, b);
+        }
+        return root.toRecord();
+    }
+
+    private static List<Endpoint> endpoints(List<SpaceSaving.Entry> entries, boolean ports) {
+        List<Endpoint> out = new ArrayList<>(entries.size());
+        StringBuilder sb = new StringBuilder(48);
+        for (SpaceSaving.Entry e : entries) {
+            sb.setLength(0);
+            if (ports) sb.append(Protocols.name(e.tag())).append(' ').append(e.lo());
+            else Addresses.append((byte) e.tag(), e.hi(), e.lo(), sb);
+            out.add(new Endpoint(sb.toString(), e.count(), e.weight(), e.error()));
+        }
+        return out;
+    }
+
+    private Series series() {
+        long latest = latestInterval.get();
+        long first = firstNanos.get();
+        if (latest == Long.MIN_VALUE || first == Long.MAX_VALUE) {
+            return new Series(0, intervalNanos, new long[0], new long[0]);
+        }
+
+        long from = Math.max(latest - history + 1, Math.floorDiv(first, intervalNanos));
+        int count = (int) (latest - from + 1);
+        long[] p = new long[count];
+        long[] b = new long[count];
+        for (int i = 0; i < count; i++) {
+            long interval = from + i;
+            int slot = (int) Math.floorMod(interval, (long) history);
+            IntervalCounter counter = intervals.get(slot);
+            if (counter == null || counter.interval != interval) continue;
+            p[i] = counter.packets.sum();
+            b[i] = counter.bytes.sum();
+        }
+        return new Series(from * intervalNanos, intervalNanos, p, b);
+    }
+
+    private static final class Node {
+        final String name;
+        long packets;
+        long bytes;
+        final Map<String, Node> children = new LinkedHashMap<>();
+
+        Node(String name) {
+            this.name = name;
+        }
+
+        Node add(long p, long b) {
+            packets += p;
+            bytes += b;
+            return this;
+        }
+
+        Node child(String childName) {
+            return children.computeIfAbsent(childName, Node::new);
+        }
+
+        ProtocolNode toRecord() {
+            List<ProtocolNode> list = new ArrayList<>(children.size());
+            for (Node child : children.values()) {
+                list.add(child.toRecord());
+            }
+            list.sort(Comparator.comparingLong(ProtocolNode::bytes).reversed());
+            return new ProtocolNode(name, packets, bytes, list);
+        }
+    }
+}
@@ -4,9 +4,19 @@ module com.jcap {
     requires atlantafx.base;
     requires org.pcap4j.core;
     requires java.sql;
+    requires java.prefs;
 
     opens com.jcap.controller to javafx.fxml;
     opens com.jcap.model to javafx.base;
 
     exports com.jcap;
-}
\ No newline at end of file
+    exports com.jcap.cli;
+    exports com.jcap.model;
+    exports com.jcap.service;
+
+    uses com.jcap.service.ApplicationDissector;
+    provides com.jcap.service.ApplicationDissector with
+            com.jcap.service.DnsDissector,
+            com.jcap.service.HttpDissector,
+            com.jcap.service.TlsDissector;
+}
@@ -0,0 +1,158 @@
+package com.jcap.bench;
+
+import com.jcap.model.Addresses;
+import com.jcap.model.PacketStore;
+import com.jcap.service.ApplicationFields;
+import com.jcap.service.ApplicationLayer;
+import com.jcap.service.HeaderDecoder;
+import com.jcap.service.PacketFormatter;
+import com.jcap.service.PacketHeaders;
+import com.jcap.service.PcapFiles;
+import com.jcap.service.Progress;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Captured frames per second. {@code eager} and {@code onDemand} do the per-frame work of the
+ * capture pipeline on one thread, decoding a frame and appending it to a new store: eagerly, as
+ * before, with the application layer dissected and the info text rendered into the store, or with
+ * the summary headers only, as now. {@code importFile} is the whole pipeline reading a pcap
+ * file. Run with {@code -prof gc} for the bytes allocated per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CaptureBenchmark {
+
+    private static final int FRAMES = 65_536;
+
+    private byte[][] frames;
+    private long[] timestamps;
+    private Path path;
+
+    private final PacketHeaders headers = new PacketHeaders();
+    private final ApplicationFields fields = new ApplicationFields();
+    private final StringBuilder text = new StringBuilder(128);
+    private PacketStore store;
+    private int interfaceId;
+
+    @Setup
+    public void setup() throws IOException {
+        Traffic traffic = new Traffic(7);
+        frames = new byte[FRAMES][];
+        timestamps = new long[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            frames[i] = traffic.next();
+            timestamps[i] = traffic.timestampNanos();
+        }
+        path = Traffic.pcapOfFrames(FRAMES);
+    }
+
+    @Setup(Level.Invocation)
+    public void newStore() {
+        store = new PacketStore();
+        interfaceId = store.addInterface("bench0");
+        store.setInterfaceLinkType(interfaceId, HeaderDecoder.DLT_EN10MB);
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeStore() {
+        store.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int eager() {
+        for (int i = 0; i < FRAMES; i++) {
+            byte[] frame = frames[i];
+            headers.clear();
+            HeaderDecoder.decode(frame, 0, frame.length, HeaderDecoder.DLT_EN10MB, headers);
+            ApplicationLayer.get().dissect(headers, frame, fields);
+            text.setLength(0);
+            PacketFormatter.appendInfo(headers, fields, text);
+
+            int row = append(i);
+            store.setInfo(row, text);
+            store.setPayload(row, frame, 0, frame.length);
+            store.commitRow();
+        }
+        return store.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int onDemand() {
+        for (int i = 0; i < FRAMES; i++) {
+            byte[] frame = frames[i];
+            headers.clear();
+            HeaderDecoder.decode(frame, 0, frame.length, HeaderDecoder.DLT_EN10MB, headers);
+
+            int row = append(i);
+            store.setPayload(row, frame, 0, frame.length);
+            store.commitRow();
+        }
+        return store.size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int importFile() throws IOException {
+        PacketStore imported = PcapFiles.importFile(path, Progress.NONE);
+        try {
+            return imported.size();
+        }
+        finally {
+            imported.close();
+        }
+    }
+
+    /**
+     * The columns {@code CapturePipeline.append} stores for every frame.
+     */
+    private int append(int i) {
+        PacketHeaders h = headers;
+        int row = store.newRow(i + 1, timestamps[i], frames[i].length, h.protocol);
+        store.setInterface(row, interfaceId);
+        switch (h.l3) {
+            case PacketHeaders.L3_IPV4 -> {
+                store.setSource(row, Addresses.IPV4, 0, h.ipSrc & 0xFFFFFFFFL);
+                store.setDestination(row, Addresses.IPV4, 0, h.ipDst & 0xFFFFFFFFL);
+            }
+            case PacketHeaders.L3_IPV6 -> {
+                store.setSource(row, Addresses.IPV6, h.ip6SrcHi, h.ip6SrcLo);
+                store.setDestination(row, Addresses.IPV6, h.ip6DstHi, h.ip6DstLo);
+            }
+            case PacketHeaders.L3_ARP -> {
+                store.setSource(row, Addresses.MAC, 0, h.arpSenderMac);
+                store.setDestination(row, Addresses.MAC, 0, h.arpTargetMac);
+            }
+            default -> {
+                store.setSource(row, Addresses.MAC, 0, h.srcMac);
+                store.setDestination(row, Addresses.MAC, 0, h.dstMac);
+            }
+        }
+        if (h.hasTransport) {
+            store.setPorts(row, h.srcPort, h.dstPort);
+            if (h.isTcp()) store.setTcpFlags(row, h.tcpFlags);
+        }
+        return row;
+    }
+}
@@ -0,0 +1,119 @@
+package com.jcap.bench;
+
+import com.jcap.model.PacketStore;
+import com.jcap.service.DatabaseService;
+import com.jcap.service.PcapFiles;
+import com.jcap.service.Progress;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Payloads of a saved session of 100000 packets, stored in compressed blocks ({@code deflate})
+ * or as raw BLOBs ({@code none}). Setup prints the payload bytes and what the database stores for
+ * them; the benchmarks read payloads back from the opened session, in order, where one decoded
+ * block serves the packets after it, and at random, where every packet decodes its block. Scores
+ * are per packet.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+    private static final int ROWS = 100_000;
+    private static final int RANDOM_ROWS = 4096;
+    private static final String SESSION = "bench-compression";
+
+    @Param({"deflate", "none"})
+    String compression;
+
+    private PacketStore store;
+    private final int[] randomRows = new int[RANDOM_ROWS];
+
+    @Setup
+    public void setup() throws IOException, SQLException {
+        // read once, when the service first saves
+        System.setProperty("jcap.session.compression", compression);
+        for (String suffix : new String[] {"", "-wal", "-shm", "-journal"}) {
+            Files.deleteIfExists(Path.of("jcap_history.db" + suffix));
+        }
+
+        PacketStore capture = PcapFiles.importFile(Traffic.pcapOfFrames(ROWS), Progress.NONE);
+        long payloadBytes = 0;
+        for (int row = 0; row < capture.size(); row++) payloadBytes += capture.getPayload(row).remaining();
+        DatabaseService.initialize();
+        DatabaseService.saveCapture(SESSION, capture, Progress.NONE);
+        capture.close();
+
+        long storedBytes = storedPayloadBytes();
+        System.out.printf(Locale.ROOT, "%n%s: %d payload bytes stored in %d, ratio %.2f%n",
+                compression, payloadBytes, storedBytes, (double) payloadBytes / storedBytes);
+
+        store = DatabaseService.openCapture(SESSION, Progress.NONE);
+        Random random = new Random(11);
+        for (int i = 0; i < RANDOM_ROWS; i++) randomRows[i] = random.nextInt(store.size());
+    }
+
+    @TearDown
+    public void tearDown() {
+        store.close();
+        DatabaseService.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long sequential() {
+        long sum = 0;
+        for (int row = 0; row < ROWS; row++) {
+            ByteBuffer payload = store.getPayload(row);
+            sum += payload.remaining() + payload.get(payload.limit() - 1);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RANDOM_ROWS)
+    public long random() {
+        long sum = 0;
+        for (int row : randomRows) {
+            ByteBuffer payload = store.getPayload(row);
+            sum += payload.remaining() + payload.get(payload.limit() - 1);
+        }
+        return sum;
+    }
+
+    private static long storedPayloadBytes() throws SQLException {
+        try (Connection conn = DriverManager.getConnection("jdbc:sqlite:jcap_history.db");
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT (SELECT COALESCE(SUM(LENGTH(payload)), 0) FROM packets)"
+                     + " + (SELECT COALESCE(SUM(LENGTH(data)), 0) FROM payload_blocks)")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.jcap.bench;
+
+import com.jcap.model.PacketModel;
+import com.jcap.model.PacketStore;
+import com.jcap.model.Protocols;
+import com.jcap.service.DatabaseService;
+import com.jcap.service.PcapFiles;
+import com.jcap.service.Progress;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving, loading and deleting a session of {@code rows} packets, by default a million, in a
+ * database that already holds one other session of the same size. The original
+ * {@code DatabaseService}, with a connection per call, no indexes and raw payloads, runs against
+ * a database of its own; it reads its strings from the store while saving, where it used to keep
+ * them in memory. Loading reads every row's info and payload: the original read the whole
+ * session, the current service opens it lazily, so {@code open} is timed apart. Each iteration is
+ * one operation. For a quicker run pass {@code -p rows=100000}.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class DatabaseBenchmark {
+
+    private static final String OTHER = "bench-other";
+    private static final String SAVED = "bench-saved";
+    private static final String SCRATCH = "bench-scratch";
+
+    /**
+     * The capture to save.
+     */
+    @State(Scope.Benchmark)
+    public static class Capture {
+
+        @Param("1000000")
+        int rows;
+
+        PacketStore store;
+
+        @Setup
+        public void setup() throws IOException {
+            store = PcapFiles.importFile(Traffic.pcapOfFrames(rows), Progress.NONE);
+        }
+
+        @TearDown
+        public void tearDown() {
+            store.close();
+        }
+    }
+
+    /**
+     * A new database of the current service, already holding one session.
+     */
+    @State(Scope.Benchmark)
+    public static class Database {
+
+        @Setup
+        public void setup(Capture capture) throws IOException {
+            // before the service opens its connections
+            deleteDatabase("jcap_history.db");
+            DatabaseService.initialize();
+            DatabaseService.saveCapture(OTHER, capture.store, Progress.NONE);
+        }
+
+        @TearDown
+        public void tearDown() {
+            DatabaseService.shutdown();
+        }
+    }
+
+    /**
+     * A new database of the original service, already holding one session.
+     */
+    @State(Scope.Benchmark)
+    public static class BaselineDatabase {
+
+        @Setup
+        public void setup(Capture capture) throws IOException, SQLException {
+            deleteDatabase(Baseline.FILE);
+            Baseline.initialize();
+            Baseline.saveCapture(OTHER, capture.store);
+        }
+    }
+
+    /**
+     * A session saved before the iteration, for the benchmarks that read or delete one.
+     */
+    @State(Scope.Benchmark)
+    public static class Saved {
+
+        PacketStore opened;
+
+        @Setup(Level.Iteration)
+        public void setup(Capture capture, Database database) {
+            DatabaseService.saveCapture(SAVED, capture.store, Progress.NONE);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            if (opened != null) opened.close();
+            opened = null;
+            // unless the benchmark deleted it
+            if (DatabaseService.getCaptureNames().contains(SAVED)) DatabaseService.deleteCapture(SAVED);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class BaselineSaved {
+
+        @Setup(Level.Iteration)
+        public void setup(Capture capture, BaselineDatabase database) throws SQLException {
+            Baseline.saveCapture(SAVED, capture.store);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws SQLException {
+            Baseline.deleteCapture(SAVED);
+        }
+    }
+
+    /**
+     * Room for the session a save benchmark writes.
+     */
+    @State(Scope.Benchmark)
+    public static class Scratch {
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            DatabaseService.deleteCapture(SCRATCH);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class BaselineScratch {
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws SQLException {
+            Baseline.deleteCapture(SCRATCH);
+        }
+    }
+
+    @Benchmark
+    public Boolean save(Capture capture, Database database, Scratch scratch) {
+        return DatabaseService.saveCapture(SCRATCH, capture.store, Progress.NONE);
+    }
+
+    @Benchmark
+    public int open(Saved saved) throws SQLException {
+        saved.opened = DatabaseService.openCapture(SAVED, Progress.NONE);
+        return saved.opened.size();
+    }
+
+    @Benchmark
+    public void load(Saved saved, Blackhole bh) throws SQLException {
+        PacketStore store = DatabaseService.openCapture(SAVED, Progress.NONE);
+        saved.opened = store;
+        StringBuilder info = new StringBuilder(128);
+        for (int row = 0; row < store.size(); row++) {
+            info.setLength(0);
+            store.appendInfo(row, info);
+            bh.consume(info);
+            ByteBuffer payload = store.getPayload(row);
+            bh.consume(payload.get(payload.position()));
+        }
+    }
+
+    @Benchmark
+    public void delete(Saved saved) {
+        DatabaseService.deleteCapture(SAVED);
+    }
+
+    @Benchmark
+    public void baselineSave(Capture capture, BaselineDatabase database, BaselineScratch scratch) throws SQLException {
+        Baseline.saveCapture(SCRATCH, capture.store);
+    }
+
+    @Benchmark
+    public void baselineLoad(BaselineSaved saved, Blackhole bh) throws SQLException {
+        Baseline.loadCapture(SAVED, bh);
+    }
+
+    @Benchmark
+    public void baselineDelete(BaselineSaved saved) throws SQLException {
+        Baseline.deleteCapture(SAVED);
+    }
+
+    private static void deleteDatabase(String file) throws IOException {
+        for (String suffix : new String[] {"", "-wal", "-shm", "-journal"}) {
+            Files.deleteIfExists(Path.of(file + suffix));
+        }
+    }
+
+    /**
+     * {@code DatabaseService} as it was before the storage layer, saving from a store instead of
+     * a list of {@code PacketModel}s.
+     */
+    static final class Baseline {
+
+        static final String FILE = "jcap_history_baseline.db";
+        private static final String DB_URL = "jdbc:sqlite:" + FILE;
+
+        static void initialize() throws SQLException {
+            try (Connection conn = DriverManager.getConnection(DB_URL);
+                 Statement stmt = conn.createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS sessions (" +
+                        "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        "name TEXT UNIQUE, " +
+                        "timestamp DATETIME DEFAULT CURRENT_TIMESTAMP)");
+                stmt.execute("CREATE TABLE IF NOT EXISTS packets (" +
+                        "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        "session_id INTEGER, " +
+                        "num INTEGER, " +
+                        "time TEXT, " +
+                        "src TEXT, " +
+                        "dst TEXT, " +
+                        "proto TEXT, " +
+                        "len INTEGER, " +
+                        "info TEXT, " +
+                        "payload BLOB, " +
+                        "FOREIGN KEY(session_id) REFERENCES sessions(id))");
+            }
+        }
+
+        static void saveCapture(String sessionName, PacketStore packets) throws SQLException {
+            String insertPacket = "INSERT INTO packets(session_id, num, time, src, dst, proto, len, info, payload) VALUES(?,?,?,?,?,?,?,?,?)";
+
+            try (Connection conn = DriverManager.getConnection(DB_URL)) {
+                conn.setAutoCommit(false);
+
+                int sessionId = -1;
+                try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO sessions(name) VALUES(?)",
+                        Statement.RETURN_GENERATED_KEYS)) {
+                    stmt.setString(1, sessionName);
+                    stmt.executeUpdate();
+                    ResultSet rs = stmt.getGeneratedKeys();
+                    if (rs.next()) sessionId = rs.getInt(1);
+                }
+
+                try (PreparedStatement stmt = conn.prepareStatement(insertPacket)) {
+                    StringBuilder info = new StringBuilder(96);
+                    for (int row = 0; row < packets.size(); row++) {
+                        info.setLength(0);
+                        packets.appendInfo(row, info);
+                        stmt.setInt(1, sessionId);
+                        stmt.setInt(2, packets.getNumber(row));
+                        stmt.setString(3, PacketModel.formatSeconds(packets.getRelativeTimestampNanos(row)));
+                        stmt.setString(4, packets.getSource(row));
+                        stmt.setString(5, packets.getDestination(row));
+                        stmt.setString(6, Protocols.name(packets.getProtocol(row)));
+                        stmt.setInt(7, packets.getLength(row));
+                        stmt.setString(8, info.toString());
+                        stmt.setBytes(9, packets.copyPayload(row));
+                        stmt.addBatch();
+
+                        if ((row + 1) % 1000 == 0) stmt.executeBatch();
+                    }
+                    stmt.executeBatch();
+                }
+                conn.commit();
+            }
+        }
+
+        static void loadCapture(String sessionName, Blackhole bh) throws SQLException {
+            String sql = "SELECT p.* FROM packets p " +
+                    "JOIN sessions s ON p.session_id = s.id " +
+                    "WHERE s.name = ? ORDER BY p.num";
+
+            try (Connection conn = DriverManager.getConnection(DB_URL);
+                 PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, sessionName);
+                ResultSet rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    // the columns the original put in a PacketModel
+                    bh.consume(rs.getInt("num"));
+                    bh.consume(rs.getString("time"));
+                    bh.consume(rs.getString("src"));
+                    bh.consume(rs.getString("dst"));
+                    bh.consume(rs.getString("proto"));
+                    bh.consume(rs.getInt("len"));
+                    bh.consume(rs.getString("info"));
+                    bh.consume(rs.getBytes("payload"));
+                }
+            }
+        }
+
+        static void deleteCapture(String sessionName) throws SQLException {
+            try (Connection conn = DriverManager.getConnection(DB_URL)) {
+                conn.setAutoCommit(false);
+
+                int sessionId = -1;
+                try (PreparedStatement stmt = conn.prepareStatement("SELECT id FROM sessions WHERE name = ?")) {
+                    stmt.setString(1, sessionName);
+                    ResultSet rs = stmt.executeQuery();
+                    if (rs.next()) sessionId = rs.getInt("id");
+                }
+
+                if (sessionId != -1) {
+                    try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM packets WHERE session_id = ?")) {
+                        stmt.setInt(1, sessionId);
+                        stmt.executeUpdate();
+                    }
+                    try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM sessions WHERE id = ?")) {
+                        stmt.setInt(1, sessionId);
+                        stmt.executeUpdate();
+                    }
+                }
+                conn.commit();
+            }
+        }
+    }
+}
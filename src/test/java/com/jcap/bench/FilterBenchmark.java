@@ -0,0 +1,186 @@
+package com.jcap.bench;
+
+import com.jcap.model.PacketStore;
+import com.jcap.model.Protocols;
+import com.jcap.service.ApplicationFields;
+import com.jcap.service.ApplicationLayer;
+import com.jcap.service.DisplayFilter;
+import com.jcap.service.FilterSyntaxException;
+import com.jcap.service.HeaderDecoder;
+import com.jcap.service.PacketHeaders;
+import com.jcap.service.PacketView;
+import com.jcap.service.PcapFiles;
+import com.jcap.service.Progress;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One filter over the rows of an imported capture: the original {@code safeContains} substring
+ * search over the source, destination, protocol and info strings, against compiled
+ * {@link DisplayFilter}s over the stored columns. The strings are rendered in setup, as the old
+ * table kept them; the info filter renders its column on demand, as the store does. Scores are per
+ * row.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBenchmark {
+
+    private static final int ROWS = 32_768;
+    private static final String TEXT = "443";
+
+    private PacketStore store;
+    private String[][] columns;
+    private RowView view;
+
+    @State(Scope.Thread)
+    public static class Filter {
+
+        @Param({
+                "tcp.port == 443",
+                "tcp.port == 443 && ip.src == 192.168.0.0/16 && len > 1200",
+                "info contains \"GET\"",
+        })
+        String text;
+
+        DisplayFilter filter;
+
+        @Setup
+        public void setup() throws FilterSyntaxException {
+            filter = DisplayFilter.compile(text);
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        store = PcapFiles.importFile(Traffic.pcap(64), Progress.NONE);
+        if (store.size() < ROWS) throw new IllegalStateException("Only " + store.size() + " rows imported");
+
+        columns = new String[ROWS][];
+        for (int row = 0; row < ROWS; row++) {
+            columns[row] = new String[] {
+                    store.getSource(row), store.getDestination(row), Protocols.name(store.getProtocol(row)),
+                    store.getInfo(row)
+            };
+        }
+        view = new RowView(store);
+    }
+
+    @TearDown
+    public void tearDown() {
+        store.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int safeContains() {
+        String filter = TEXT.toLowerCase(Locale.ROOT);
+        int matches = 0;
+        for (String[] row : columns) {
+            if (safeContains(row[0], filter) || safeContains(row[1], filter) || safeContains(row[2], filter)
+                    || safeContains(row[3], filter)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int displayFilter(Filter filter) {
+        int matches = 0;
+        for (int row = 0; row < ROWS; row++) {
+            if (filter.filter.test(view.at(row))) matches++;
+        }
+        return matches;
+    }
+
+    /**
+     * {@code MainController.safeContains} as it was before display filters replaced it.
+     */
+    private static boolean safeContains(String text, String filter) {
+        return text != null && text.toLowerCase().contains(filter);
+    }
+
+    /**
+     * A row of the store seen through the public API, decoding the application layer again from the
+     * frame only when a filter asks for it.
+     */
+    private static final class RowView implements PacketView {
+
+        private final PacketStore store;
+        private final PacketHeaders headers = new PacketHeaders();
+        private final ApplicationFields application = new ApplicationFields();
+        private final StringBuilder info = new StringBuilder(128);
+        private byte[] frame = new byte[2048];
+        private int row;
+        private int decodedRow = -1;
+        private int infoRow = -1;
+
+        RowView(PacketStore store) {
+            this.store = store;
+        }
+
+        RowView at(int row) {
+            this.row = row;
+            return this;
+        }
+
+        @Override
+        public ApplicationFields application() {
+            if (decodedRow != row) {
+                decodedRow = row;
+                ByteBuffer payload = store.getPayload(row);
+                int length = payload.remaining();
+                if (frame.length < length) frame = new byte[Math.max(length, frame.length * 2)];
+                payload.get(payload.position(), frame, 0, length);
+
+                headers.clear();
+                HeaderDecoder.decode(frame, 0, length, store.getInterfaceLinkType(store.getInterface(row)), headers);
+                ApplicationLayer.get().dissect(headers, frame, application);
+            }
+            return application;
+        }
+
+        @Override
+        public CharSequence info() {
+            if (infoRow != row) {
+                infoRow = row;
+                info.setLength(0);
+                store.appendInfo(row, info);
+            }
+            return info;
+        }
+
+        @Override public int length() { return store.getLength(row); }
+        @Override public int protocol() { return store.getProtocol(row); }
+        @Override public byte sourceKind() { return store.getSourceKind(row); }
+        @Override public long sourceHi() { return store.getSourceHi(row); }
+        @Override public long sourceLo() { return store.getSourceLo(row); }
+        @Override public byte destinationKind() { return store.getDestinationKind(row); }
+        @Override public long destinationHi() { return store.getDestinationHi(row); }
+        @Override public long destinationLo() { return store.getDestinationLo(row); }
+        @Override public int sourcePort() { return store.getSourcePort(row); }
+        @Override public int destinationPort() { return store.getDestinationPort(row); }
+        @Override public int tcpFlags() { return store.getTcpFlags(row); }
+    }
+}
@@ -0,0 +1,114 @@
+package com.jcap.bench;
+
+import com.jcap.service.HexFormatter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The hex dump of a frame: the original {@code MainController.formatHex} with
+ * {@code String.format} per byte, against {@link HexFormatter} formatting the whole dump, and
+ * formatting only the lines the hex view has room for. Scores are per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HexBenchmark {
+
+    private static final int FRAMES = 1024;
+    private static final int VISIBLE_LINES = 24;
+
+    private byte[][] frames;
+    private ByteBuffer[] buffers;
+    private final HexFormatter formatter = new HexFormatter();
+    private final char[] line = new char[HexFormatter.lineLength(8)];
+
+    @Setup
+    public void setup() {
+        frames = Traffic.frames(FRAMES).toArray(new byte[0][]);
+        buffers = new ByteBuffer[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            buffers[i] = ByteBuffer.wrap(frames[i]).asReadOnlyBuffer();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void stringFormat(Blackhole bh) {
+        for (byte[] frame : frames) {
+            bh.consume(formatHex(frame));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void hexFormatter(Blackhole bh) {
+        for (ByteBuffer buffer : buffers) {
+            bh.consume(formatter.format(buffer));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void visibleLines(Blackhole bh) {
+        for (ByteBuffer buffer : buffers) {
+            int digits = HexFormatter.offsetDigits(buffer.remaining());
+            int lines = Math.min(VISIBLE_LINES, HexFormatter.lineCount(buffer.remaining()));
+            for (int i = 0; i < lines; i++) {
+                bh.consume(new String(line, 0, HexFormatter.formatLine(buffer, i, digits, line, 0)));
+            }
+        }
+    }
+
+    private static String formatHex(byte[] data) {
+        if (data == null || data.length == 0) return "";
+
+        StringBuilder sb = new StringBuilder();
+
+        // iterate in chunks of 16 bytes
+        for (int i = 0; i < data.length; i += 16) {
+            // offset
+            sb.append(String.format("%04X   ", i));
+
+            StringBuilder hexPart = new StringBuilder();
+            StringBuilder textPart = new StringBuilder();
+
+            for (int j = 0; j < 16; j++) {
+                if (i + j < data.length) {
+                    byte b = data[i + j];
+
+                    hexPart.append(String.format("%02X ", b));
+
+                    if (b >= 32 && b <= 126) {
+                        textPart.append((char) b);
+                    } else {
+                        textPart.append(".");
+                    }
+                }
+                else {
+                    hexPart.append("   ");
+                }
+            }
+            sb.append(hexPart);
+            sb.append("   ");
+            sb.append(textPart);
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+}
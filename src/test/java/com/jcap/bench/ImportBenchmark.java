@@ -0,0 +1,67 @@
+package com.jcap.bench;
+
+import com.jcap.model.PacketStore;
+import com.jcap.service.PcapFileReader;
+import com.jcap.service.PcapFiles;
+import com.jcap.service.Progress;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a 256 MB pcap file: the memory-mapped reader walking its records, and a full import
+ * through the capture pipeline into a store. Scores are in MB/s, so 1000 is about 1 GB/s. The file
+ * is written once to the temporary directory and is in the page cache after the first iteration.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ImportBenchmark {
+
+    private static final int MEGABYTES = 256;
+
+    private Path path;
+
+    @Setup
+    public void setup() throws IOException {
+        path = Traffic.pcap(MEGABYTES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MEGABYTES)
+    public long read() throws IOException {
+        long[] sum = new long[1];
+        try (PcapFileReader reader = PcapFileReader.open(path)) {
+            reader.read((buffer, offset, captured, original, timestamp, index) -> sum[0] += buffer.get(offset + 12),
+                    () -> false);
+        }
+        return sum[0];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MEGABYTES)
+    public int importFile() throws IOException {
+        PacketStore store = PcapFiles.importFile(path, Progress.NONE);
+        try {
+            return store.size();
+        }
+        finally {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.jcap.bench;
+
+import com.jcap.service.ApplicationFields;
+import com.jcap.service.ApplicationLayer;
+import com.jcap.service.HeaderDecoder;
+import com.jcap.service.PacketFormatter;
+import com.jcap.service.PacketHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.pcap4j.packet.ArpPacket;
+import org.pcap4j.packet.EthernetPacket;
+import org.pcap4j.packet.IcmpV4CommonPacket;
+import org.pcap4j.packet.IcmpV6CommonPacket;
+import org.pcap4j.packet.IpV4Packet;
+import org.pcap4j.packet.Packet;
+import org.pcap4j.packet.TcpPacket;
+import org.pcap4j.packet.UdpPacket;
+import org.pcap4j.packet.namednumber.ArpOperation;
+import org.pcap4j.packet.namednumber.IcmpV4Type;
+import org.pcap4j.packet.namednumber.IcmpV6Type;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The source, destination and info columns of a frame: parsed with pcap4j and rendered by the
+ * original {@code SnifferService.getInfoString}, against {@link HeaderDecoder} and
+ * {@link PacketFormatter} into a reused builder. Scores are per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InfoBenchmark {
+
+    private static final int FRAMES = 4096;
+
+    private byte[][] frames;
+    private final PacketHeaders headers = new PacketHeaders();
+    private final ApplicationFields fields = new ApplicationFields();
+    private final StringBuilder sb = new StringBuilder();
+
+    @Setup
+    public void setup() {
+        frames = Traffic.frames(FRAMES).toArray(new byte[0][]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void pcap4j(Blackhole bh) throws Exception {
+        for (byte[] frame : frames) {
+            Packet packet = EthernetPacket.newPacket(frame, 0, frame.length);
+            IpV4Packet ip4 = packet.get(IpV4Packet.class);
+            if (ip4 != null) {
+                bh.consume(ip4.getHeader().getSrcAddr().getHostAddress());
+                bh.consume(ip4.getHeader().getDstAddr().getHostAddress());
+            }
+            bh.consume(getInfoString(packet));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void headerDecoder(Blackhole bh) {
+        for (byte[] frame : frames) {
+            HeaderDecoder.decode(frame, 0, frame.length, HeaderDecoder.DLT_EN10MB, headers);
+            ApplicationLayer.get().dissect(headers, frame, fields);
+            sb.setLength(0);
+            PacketFormatter.appendSource(headers, sb);
+            PacketFormatter.appendDestination(headers, sb);
+            PacketFormatter.appendInfo(headers, fields, sb);
+            bh.consume(sb.toString());
+        }
+    }
+
+    /**
+     * {@code SnifferService.getInfoString} as it was before the header decoder replaced it.
+     */
+    private static String getInfoString(Packet packet) {
+        StringBuilder info = new StringBuilder();
+
+        if (packet.contains(TcpPacket.class)) {
+            TcpPacket tcp = packet.get(TcpPacket.class);
+            List<String> flags = new ArrayList<>();
+
+            if (tcp.getHeader().getSyn()) flags.add("SYN");
+            if (tcp.getHeader().getAck()) flags.add("ACK");
+            if (tcp.getHeader().getRst()) flags.add("RST");
+            if (tcp.getHeader().getFin()) flags.add("FIN");
+            if (tcp.getHeader().getPsh()) flags.add("PSH");
+            if (tcp.getHeader().getUrg()) flags.add("URG");
+
+            info.append(tcp.getHeader().getSrcPort().valueAsInt()).append(" → ").append(tcp.getHeader().getDstPort().valueAsInt());
+            info.append("  [").append(String.join(", ", flags)).append("]");
+            info.append("  Seq=").append(tcp.getHeader().getSequenceNumberAsLong());
+            info.append("  Ack=").append(tcp.getHeader().getAcknowledgmentNumberAsLong());
+            info.append("  Win=").append(tcp.getHeader().getWindowAsInt());
+
+            if (tcp.getPayload() != null && (tcp.getHeader().getDstPort().valueAsInt() == 80)) {
+                String payloadStr = new String(tcp.getPayload().getRawData());
+                int firstLineEnd = payloadStr.indexOf("\r\n");
+                if (firstLineEnd > 0) {
+                    payloadStr = payloadStr.substring(0, firstLineEnd);
+                    info.append("  [").append(payloadStr).append("]");
+                }
+            }
+        }
+        else if (packet.contains(UdpPacket.class)) {
+            UdpPacket udp = packet.get(UdpPacket.class);
+
+            info.append(udp.getHeader().getSrcPort().valueAsInt()).append(" → ").append(udp.getHeader().getDstPort().valueAsInt());
+            info.append("  Len=").append(udp.getHeader().getLength());
+
+            if (udp.getHeader().getSrcPort().valueAsInt() == 53 || udp.getHeader().getDstPort().valueAsInt() == 53) {
+                info.append("  (DNS Query/Response)");
+            }
+        }
+        else if (packet.contains(ArpPacket.class)) {
+            ArpPacket arp = packet.get(ArpPacket.class);
+            ArpOperation op = arp.getHeader().getOperation();
+
+            if (op.equals(ArpOperation.REQUEST)) {
+                info.append("Who has ").append(arp.getHeader().getDstProtocolAddr().getHostAddress())
+                        .append("? Tell ").append(arp.getHeader().getSrcProtocolAddr().getHostAddress());
+            }
+            else if (op.equals(ArpOperation.REPLY)) {
+                info.append(arp.getHeader().getSrcProtocolAddr().getHostAddress()).append(" is at ")
+                        .append(arp.getHeader().getSrcHardwareAddr());
+            }
+            else {
+                info.append(op.name());
+            }
+        }
+        else if (packet.contains(IcmpV4CommonPacket.class)) {
+            IcmpV4CommonPacket icmp = packet.get(IcmpV4CommonPacket.class);
+
+            if (icmp.getHeader().getType().equals(IcmpV4Type.ECHO)) {
+                info.append("Echo (Ping) Request");
+            } else if (icmp.getHeader().getType().equals(IcmpV4Type.ECHO_REPLY)) {
+                info.append("Echo (Ping) Reply");
+            } else {
+                info.append(icmp.getHeader().getType().name());
+            }
+        }
+        else if (packet.contains(IcmpV6CommonPacket.class)) {
+            IcmpV6Type type = packet.get(IcmpV6CommonPacket.class).getHeader().getType();
+            info.append(type.name());
+        }
+
+        return info.toString();
+    }
+}
@@ -0,0 +1,263 @@
+package com.jcap.bench;
+
+import com.jcap.service.HeaderDecoder;
+import com.jcap.service.PcapFileWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Ethernet frames shaped like a busy client network, so benchmarks run on the mix JCap sees rather
+ * than on one repeated frame: 200 flows of TLS bulk downloads with their ACKs, plain HTTP page
+ * loads and QUIC, plus DNS lookups, a little ARP and ping. Payloads are random, except for the
+ * HTTP and DNS text, so compression is measured on what real traffic leaves compressible.
+ * The same seed always gives the same frames.
+ */
+final class Traffic {
+
+    private static final long START_NANOS = 1_700_000_000_000_000_000L;
+    private static final int FLOWS = 200;
+    private static final int MSS = 1448;
+    private static final String[] NAMES = {
+            "www.example.com", "api.github.com", "fonts.gstatic.com", "cdn.jsdelivr.net", "update.microsoft.com"
+    };
+    private static final byte[] REQUEST = ("GET /index.html HTTP/1.1\r\nHost: example.com\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64)\r\nAccept: text/html\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RESPONSE;
+
+    static {
+        StringBuilder html = new StringBuilder("<html><head><title>Example</title></head><body>");
+        html.append("<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit.</p>".repeat(40)).append("</body></html>");
+        RESPONSE = ("HTTP/1.1 200 OK\r\nContent-Type: text/html\r\nContent-Length: " + html.length() + "\r\n\r\n" + html)
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private enum Kind { TLS, HTTP, QUIC }
+
+    private static final class Flow {
+        final Kind kind;
+        final int client;
+        final int server;
+        final int clientPort;
+        int clientSeq;
+        int serverSeq;
+
+        Flow(int i, Kind kind, Random random) {
+            this.kind = kind;
+            client = 0xC0A80102 + i % 50;
+            server = 0x5DB80000 | (i * 7 & 0xFF) << 8 | i * 13 & 0xFF;
+            clientPort = 40000 + i;
+            clientSeq = random.nextInt();
+            serverSeq = random.nextInt();
+        }
+
+        int serverPort() {
+            return kind == Kind.HTTP ? 80 : 443;
+        }
+    }
+
+    private final Random random;
+    private final Flow[] flows = new Flow[FLOWS];
+    private final ArrayDeque<byte[]> pending = new ArrayDeque<>();
+    private long timestamp = START_NANOS;
+    private int ident;
+
+    Traffic(long seed) {
+        random = new Random(seed);
+        for (int i = 0; i < FLOWS; i++) {
+            int r = random.nextInt(10);
+            flows[i] = new Flow(i, r < 6 ? Kind.TLS : r < 8 ? Kind.HTTP : Kind.QUIC, random);
+        }
+    }
+
+    /**
+     * The first {@code count} frames for seed 7.
+     */
+    static List<byte[]> frames(int count) {
+        Traffic traffic = new Traffic(7);
+        List<byte[]> frames = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) frames.add(traffic.next());
+        return frames;
+    }
+
+    /**
+     * A pcap file of at least {@code megabytes} of frames in the temporary directory, where a
+     * {@code clean} build does not remove it. Written once and then reused by later runs.
+     */
+    static Path pcap(int megabytes) throws IOException {
+        long bytes = (long) megabytes << 20;
+        return pcap("jcap-bench-" + megabytes + "mb.pcap", (frames, written) -> written < bytes);
+    }
+
+    /**
+     * Like {@link #pcap(int)}, with exactly {@code count} frames.
+     */
+    static Path pcapOfFrames(int count) throws IOException {
+        return pcap("jcap-bench-" + count + "-frames.pcap", (frames, written) -> frames < count);
+    }
+
+    private interface More {
+        boolean test(long frames, long bytes);
+    }
+
+    private static Path pcap(String name, More more) throws IOException {
+        Path path = Path.of(System.getProperty("java.io.tmpdir"), name);
+        if (Files.exists(path)) return path;
+
+        Path partial = path.resolveSibling(name + ".part");
+        Traffic traffic = new Traffic(7);
+        try (PcapFileWriter writer = PcapFileWriter.create(partial)) {
+            int id = writer.addInterface("bench0", HeaderDecoder.DLT_EN10MB);
+            long frames = 0;
+            for (long written = 0; more.test(frames, written); frames++) {
+                byte[] frame = traffic.next();
+                writer.write(id, traffic.timestampNanos(), frame, 0, frame.length, frame.length);
+                written += frame.length;
+            }
+        }
+        Files.move(partial, path);
+        return path;
+    }
+
+    /**
+     * Capture time of the frame last returned by {@link #next}, microseconds apart.
+     */
+    long timestampNanos() {
+        return timestamp;
+    }
+
+    byte[] next() {
+        while (pending.isEmpty()) generate();
+        timestamp += (1 + random.nextInt(200)) * 1000L;
+        return pending.poll();
+    }
+
+    private void generate() {
+        double r = random.nextDouble();
+        if (r < 0.01) {
+            arp();
+            return;
+        }
+        if (r < 0.02) {
+            ping();
+            return;
+        }
+        if (r < 0.07) {
+            dns();
+            return;
+        }
+
+        Flow f = flows[random.nextInt(FLOWS)];
+        switch (f.kind) {
+            case TLS -> {
+                for (int i = 2 + random.nextInt(7); i > 0; i--) {
+                    pending.add(tcp(f.server, f.client, f.serverPort(), f.clientPort, f.serverSeq, f.clientSeq, 0x10,
+                            randomBytes(MSS)));
+                    f.serverSeq += MSS;
+                }
+                pending.add(tcp(f.client, f.server, f.clientPort, f.serverPort(), f.clientSeq, f.serverSeq, 0x10,
+                        new byte[0]));
+            }
+            case HTTP -> {
+                pending.add(tcp(f.client, f.server, f.clientPort, 80, f.clientSeq, f.serverSeq, 0x18, REQUEST));
+                f.clientSeq += REQUEST.length;
+                for (int at = 0; at < RESPONSE.length; at += MSS) {
+                    byte[] chunk = Arrays.copyOfRange(RESPONSE, at, Math.min(RESPONSE.length, at + MSS));
+                    pending.add(tcp(f.server, f.client, 80, f.clientPort, f.serverSeq, f.clientSeq, 0x18, chunk));
+                    f.serverSeq += chunk.length;
+                }
+                pending.add(tcp(f.client, f.server, f.clientPort, 80, f.clientSeq, f.serverSeq, 0x10, new byte[0]));
+            }
+            case QUIC -> {
+                for (int i = 1 + random.nextInt(4); i > 0; i--) {
+                    int[] sizes = {40, 1200, 1250};
+                    byte[] data = randomBytes(1 + sizes[random.nextInt(3)]);
+                    data[0] = 0x40;
+                    pending.add(udp(f.server, f.client, 443, f.clientPort, data));
+                }
+            }
+        }
+    }
+
+    private void dns() {
+        int id = random.nextInt(0x10000);
+        int port = 50000 + id % 1000;
+        byte[] query = dnsQuery(NAMES[random.nextInt(NAMES.length)], id);
+        pending.add(udp(0xC0A80102, 0x08080808, port, 53, query));
+
+        ByteBuffer answer = ByteBuffer.allocate(query.length + 16).put(query);
+        answer.putShort(2, (short) 0x8180).putShort(6, (short) 1);
+        answer.putShort((short) 0xC00C).putShort((short) 1).putShort((short) 1).putInt(300).putShort((short) 4)
+                .put(randomBytes(4));
+        pending.add(udp(0x08080808, 0xC0A80102, 53, port, answer.array()));
+    }
+
+    private static byte[] dnsQuery(String name, int id) {
+        ByteBuffer b = ByteBuffer.allocate(12 + name.length() + 2 + 4);
+        b.putShort((short) id).putShort((short) 0x0100).putShort((short) 1).putShort((short) 0).putInt(0);
+        for (String label : name.split("\\.")) {
+            b.put((byte) label.length()).put(label.getBytes(StandardCharsets.US_ASCII));
+        }
+        return b.put((byte) 0).putShort((short) 1).putShort((short) 1).array();
+    }
+
+    private void arp() {
+        int target = 0xC0A80100 | 2 + random.nextInt(50);
+        ByteBuffer b = ethernet(0xFFFFFFFFFFFFL, 0x020000000001L, 0x0806, 28);
+        b.putShort((short) 1).putShort((short) 0x0800).put((byte) 6).put((byte) 4).putShort((short) 1);
+        b.putShort((short) 0x0200).putInt(1).putInt(0xC0A80101);
+        b.putShort((short) 0).putInt(0).putInt(target);
+        pending.add(b.array());
+    }
+
+    private void ping() {
+        byte[] data = new byte[8 + 56];
+        ByteBuffer.wrap(data).put((byte) 8).put((byte) 0).putShort((short) 0).putShort((short) 1)
+                .putShort((short) ident);
+        pending.add(ipv4(0xC0A80102, 0x08080808, 1, data));
+    }
+
+    private byte[] tcp(int src, int dst, int srcPort, int dstPort, int seq, int ack, int flags, byte[] data) {
+        byte[] segment = new byte[20 + data.length];
+        ByteBuffer.wrap(segment).putShort((short) srcPort).putShort((short) dstPort).putInt(seq).putInt(ack)
+                .put((byte) 0x50).put((byte) flags).putShort((short) 501).putInt(0).put(data);
+        return ipv4(src, dst, 6, segment);
+    }
+
+    private byte[] udp(int src, int dst, int srcPort, int dstPort, byte[] data) {
+        byte[] datagram = new byte[8 + data.length];
+        ByteBuffer.wrap(datagram).putShort((short) srcPort).putShort((short) dstPort)
+                .putShort((short) datagram.length).putShort((short) 0).put(data);
+        return ipv4(src, dst, 17, datagram);
+    }
+
+    private byte[] ipv4(int src, int dst, int protocol, byte[] payload) {
+        ByteBuffer b = ethernet(0x020000000000L | (dst & 0xFFFF), 0x020000000000L | (src & 0xFFFF), 0x0800,
+                20 + payload.length);
+        b.put((byte) 0x45).put((byte) 0).putShort((short) (20 + payload.length)).putShort((short) ident++)
+                .putShort((short) 0x4000).put((byte) 64).put((byte) protocol).putShort((short) 0)
+                .putInt(src).putInt(dst).put(payload);
+        return b.array();
+    }
+
+    private static ByteBuffer ethernet(long dst, long src, int type, int length) {
+        ByteBuffer b = ByteBuffer.allocate(14 + length);
+        b.putShort((short) (dst >>> 32)).putInt((int) dst).putShort((short) (src >>> 32)).putInt((int) src)
+                .putShort((short) type);
+        return b;
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,78 @@
+package com.jcap.controller;
+
+import com.jcap.model.PacketModel;
+import com.jcap.model.PacketStore;
+import com.jcap.model.Protocols;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PacketListTest {
+
+    /**
+     * A store whose rows from {@code firstMissing} on have not been read yet.
+     */
+    private static final class PartlyLoadedStore extends PacketStore {
+        final int firstMissing;
+        final List<Integer> prefetched = new ArrayList<>();
+
+        PartlyLoadedStore(int rows, int firstMissing) {
+            this.firstMissing = firstMissing;
+            for (int number = 1; number <= rows; number++) {
+                newRow(number, 0, 60, Protocols.UDP);
+                commitRow();
+            }
+        }
+
+        @Override
+        public boolean isLoaded(int row) {
+            return row < firstMissing;
+        }
+
+        @Override
+        public void prefetch(int row) {
+            prefetched.add(row);
+        }
+
+        @Override
+        public int getNumber(int row) {
+            if (!isLoaded(row)) throw new AssertionError("row " + row + " read before it was loaded");
+            return super.getNumber(row);
+        }
+    }
+
+    @Test
+    void standsInForRowsThatAreNotLoaded() {
+        PartlyLoadedStore store = new PartlyLoadedStore(10, 5);
+        PacketList list = new PacketList(store);
+        list.sync();
+
+        PacketModel loaded = list.get(4);
+        assertTrue(loaded.isLoaded());
+        assertEquals(5, loaded.getNumber());
+        assertTrue(store.prefetched.isEmpty());
+
+        PacketModel missing = list.get(7);
+        assertFalse(missing.isLoaded());
+        assertEquals(7, missing.getRow());
+        assertEquals(0, missing.getNumber());
+        assertEquals("", missing.getInfo());
+        assertEquals(List.of(7), store.prefetched);
+    }
+
+    @Test
+    void asksForTheStoreRowOfAFilteredIndex() {
+        PartlyLoadedStore store = new PartlyLoadedStore(10, 5);
+        PacketList list = new PacketList(store);
+        list.sync();
+        list.applyFilter(store, new int[] {2, 8}, 2, false);
+
+        assertFalse(list.get(1).isLoaded());
+        assertEquals(List.of(8), store.prefetched);
+    }
+}
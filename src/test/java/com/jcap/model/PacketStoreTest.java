@@ -0,0 +1,127 @@
+package com.jcap.model;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class PacketStoreTest {
+
+    // rows per chunk, and chunks the first column table has room for
+    private static final int CHUNK_ROWS = 1 << 14;
+    private static final int INITIAL_CHUNKS = 16;
+
+    private final PacketStore store = new PacketStore();
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    private int append(int number) {
+        int row = store.newRow(number, 1_000L * number, 60 + number % 1000, Protocols.TCP);
+        store.setSource(row, Addresses.IPV4, 0, number);
+        store.setPorts(row, number & 0xFFFF, 443);
+        store.commitRow();
+        return row;
+    }
+
+    @Test
+    void keepsRowsWhileGrowingChunksAndTheTablesHoldingThem() {
+        int rows = INITIAL_CHUNKS * CHUNK_ROWS + 3;
+        for (int number = 1; number <= rows; number++) {
+            append(number);
+        }
+
+        assertEquals(rows, store.size());
+        for (int row : new int[] {0, CHUNK_ROWS - 1, CHUNK_ROWS, INITIAL_CHUNKS * CHUNK_ROWS - 1, rows - 1}) {
+            int number = row + 1;
+            assertEquals(number, store.getNumber(row));
+            assertEquals(1_000L * number, store.getTimestampNanos(row));
+            assertEquals(60 + number % 1000, store.getLength(row));
+            assertEquals(number, store.getSourceLo(row));
+            assertEquals(number & 0xFFFF, store.getSourcePort(row));
+            assertEquals(443, store.getDestinationPort(row));
+        }
+        assertEquals(CHUNK_ROWS, store.findRow(CHUNK_ROWS + 1));
+        assertEquals(-1, store.findRow(rows + 1));
+    }
+
+    @Test
+    void onlyRowsWithInfoStoreIt() {
+        append(1);
+        int row = store.newRow(2, 0, 60, Protocols.UDP);
+        store.setInfo(row, "Standard query A example.com");
+        store.commitRow();
+        append(3);
+
+        assertEquals("", store.getInfo(0));
+        assertEquals("Standard query A example.com", store.getInfo(1));
+        // the chunk has an info column now, but the rows that set none still have none
+        assertEquals("", store.getInfo(2));
+
+        store.setInfoRenderer((s, r, sb) -> sb.append("rendered ").append(s.getNumber(r)));
+        assertEquals("rendered 1", store.getInfo(0));
+        assertEquals("Standard query A example.com", store.getInfo(1));
+        StringBuilder sb = new StringBuilder();
+        store.appendInfo(2, sb);
+        assertEquals("rendered 3", sb.toString());
+    }
+
+    @Test
+    void storesTheHighHalfOfAddressesOnlyForRowsThatHaveOne() {
+        append(1);
+        int row = store.newRow(2, 0, 80, Protocols.UDP);
+        store.setSource(row, Addresses.IPV6, 0x20010DB800000000L, 1);
+        store.setDestination(row, Addresses.IPV6, 0x20010DB800000000L, 2);
+        store.commitRow();
+        append(3);
+
+        assertEquals(0, store.getSourceHi(0));
+        assertEquals(0x20010DB800000000L, store.getSourceHi(1));
+        assertEquals(0x20010DB800000000L, store.getDestinationHi(1));
+        assertEquals("2001:db8:0:0:0:0:0:1", store.getSource(1));
+        assertEquals(0, store.getSourceHi(2));
+        assertEquals(0, store.getDestinationHi(2));
+        assertEquals("0.0.0.3", store.getSource(2));
+    }
+
+    @Test
+    void cutsLongInfoAtTheLastWholeCharacter() {
+        String twoByte = "a".repeat(Character.MAX_VALUE - 1) + "é";
+        String threeByte = "a".repeat(Character.MAX_VALUE - 2) + "€";
+        int first = store.newRow(1, 0, 60, Protocols.TCP);
+        store.setInfo(first, twoByte);
+        store.commitRow();
+        int second = store.newRow(2, 0, 60, Protocols.TCP);
+        store.setInfo(second, threeByte);
+        store.commitRow();
+        int third = store.newRow(3, 0, 60, Protocols.TCP);
+        store.setInfo(third, "Grüße — ok");
+        store.commitRow();
+
+        assertEquals(twoByte.substring(0, twoByte.length() - 1), store.getInfo(first));
+        assertEquals(threeByte.substring(0, threeByte.length() - 1), store.getInfo(second));
+        assertEquals("Grüße — ok", store.getInfo(third));
+    }
+
+    @Test
+    void returnsPayloadsWithoutCopying() {
+        byte[] frame = {1, 2, 3, 4, 5, 6};
+        int row = store.newRow(1, 0, frame.length, Protocols.TCP);
+        store.setPayload(row, frame, 1, 4);
+        store.commitRow();
+        append(2);
+
+        ByteBuffer payload = store.getPayload(row);
+        assertEquals(4, payload.remaining());
+        assertEquals(2, payload.get(0));
+        assertArrayEquals(new byte[] {2, 3, 4, 5}, store.copyPayload(row));
+        assertSame(store.getPayload(1), store.getPayload(1));
+        assertEquals(0, store.getPayload(1).remaining());
+    }
+}
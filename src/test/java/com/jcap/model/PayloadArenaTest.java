@@ -0,0 +1,99 @@
+package com.jcap.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PayloadArenaTest {
+
+    private static final int SEGMENT_SIZE = 64 << 20;
+
+    @TempDir
+    Path spillDirectory;
+
+    private static byte[] frame(int i, int length) {
+        byte[] frame = new byte[length];
+        for (int j = 0; j < length; j++) frame[j] = (byte) (i * 31 + j);
+        return frame;
+    }
+
+    private static void assertFrame(int i, int length, ByteBuffer slice) {
+        assertEquals(length, slice.remaining());
+        assertTrue(slice.isReadOnly());
+        for (int j = 0; j < length; j += 997) assertEquals((byte) (i * 31 + j), slice.get(j));
+        assertEquals((byte) (i * 31 + length - 1), slice.get(length - 1));
+    }
+
+    private long spillFiles() throws IOException {
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    void keepsFramesInMemoryWithinTheBudget() throws IOException {
+        try (PayloadArena arena = new PayloadArena(SEGMENT_SIZE, spillDirectory)) {
+            long address = arena.append(frame(1, 1500), 0, 1500);
+            assertFrame(1, 1500, arena.slice(address, 1500));
+            assertEquals(1500, arena.getUsedBytes());
+            assertEquals(0, arena.getSpilledBytes());
+            assertEquals(0, spillFiles());
+        }
+    }
+
+    @Test
+    void spillsToAMappedFileOnceTheBudgetIsUsed() throws IOException {
+        int length = 61_000;
+        int count = SEGMENT_SIZE / length + 10;
+        long[] addresses = new long[count];
+
+        PayloadArena arena = new PayloadArena(SEGMENT_SIZE, spillDirectory);
+        try {
+            byte[] frame = new byte[length];
+            for (int i = 0; i < count; i++) {
+                byte[] f = frame(i, length);
+                System.arraycopy(f, 0, frame, 0, length);
+                addresses[i] = arena.append(frame, 0, length);
+                assertTrue(addresses[i] >= 0);
+            }
+
+            assertEquals((long) count * length, arena.getUsedBytes());
+            assertEquals(SEGMENT_SIZE, arena.getSpilledBytes());
+            assertEquals(1, spillFiles());
+            // a frame never straddles two segments
+            assertEquals(1, addresses[count - 1] >>> 32);
+            for (int i = 0; i < count; i++) {
+                assertFrame(i, length, arena.slice(addresses[i], length));
+            }
+        }
+        finally {
+            arena.close();
+        }
+        assertEquals(0, spillFiles());
+    }
+
+    @Test
+    void refusesAFrameLargerThanASegment() {
+        try (PayloadArena arena = new PayloadArena(0, spillDirectory)) {
+            assertThrows(IllegalArgumentException.class, () -> arena.append(new byte[1], 0, SEGMENT_SIZE + 1));
+        }
+    }
+
+    @Test
+    void storesNothingOnceClosed() throws IOException {
+        PayloadArena arena = new PayloadArena(0, spillDirectory);
+        arena.close();
+        assertEquals(-1, arena.append(new byte[10], 0, 10));
+        assertFalse(spillFiles() > 0);
+    }
+}
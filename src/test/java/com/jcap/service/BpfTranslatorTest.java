@@ -0,0 +1,109 @@
+package com.jcap.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BpfTranslatorTest {
+
+    private static BpfTranslator.Translation translate(String text) throws FilterSyntaxException {
+        return BpfTranslator.translate(FilterParser.parse(text));
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = ';', value = {
+            "tcp                          ; tcp",
+            "ipv6                         ; ip6",
+            "icmp                         ; icmp",
+            "tcp.port == 443              ; tcp port 443",
+            "udp.dstport == 53            ; udp dst port 53",
+            "tcp.port != 22               ; tcp and not tcp port 22",
+            "tcp.srcport > 1023           ; tcp src portrange 1024-65535",
+            "udp.port <= 53               ; udp portrange 0-53",
+            "tcp.port < 0                 ; tcp and not tcp",
+            "ip.src == 10.1.2.3           ; ip src host 10.1.2.3",
+            "ip.addr == 10.1.2.3/8        ; ip net 10.0.0.0/8",
+            "ip.dst != 192.168.0.0/16     ; ip and not ip dst net 192.168.0.0/16",
+            "ipv6.addr == 2001:db8::1/32  ; ip6 net 2001:db8:0:0:0:0:0:0/32",
+            "len >= 0x100                 ; len >= 256",
+            "tcp || udp                   ; (tcp) or (udp)",
+            "!arp                         ; not (arp)",
+            "tcp && tcp.port == 80        ; (tcp) and (tcp port 80)",
+    })
+    void translatesExactly(String text, String bpf) throws FilterSyntaxException {
+        BpfTranslator.Translation translation = translate(text);
+        assertNotNull(translation);
+        assertEquals(bpf, translation.bpf());
+        assertTrue(translation.exact());
+    }
+
+    @Test
+    void keepsTheTranslatablePartOfAnAnd() throws FilterSyntaxException {
+        BpfTranslator.Translation translation = translate("tcp.port == 80 && http.host == \"example.com\"");
+        assertNotNull(translation);
+        assertEquals("tcp port 80", translation.bpf());
+        assertFalse(translation.exact());
+    }
+
+    @Test
+    void approximatesTcpFlagsOverIpV6() throws FilterSyntaxException {
+        BpfTranslator.Translation translation = translate("tcp.flags.syn");
+        assertNotNull(translation);
+        assertEquals("(ip and tcp[tcpflags] & tcp-syn != 0) or (ip6 and tcp)", translation.bpf());
+        assertFalse(translation.exact());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "http", "info contains \"x\"", "tcp || http", "!tcp.flags.syn", "ip.src == fe80::1",
+            "tcp.port == 70000", "ip.src == 10.0.0.0/40",
+    })
+    void leavesTheRestToJCap(String text) throws FilterSyntaxException {
+        assertNull(translate(text));
+    }
+
+    @Test
+    void repeatsTheTranslationBehindAVlanTagOnEthernet() throws FilterSyntaxException {
+        BpfTranslator.Translation translation = translate("tcp.port == 443");
+        assertEquals("(tcp port 443) or (vlan and (tcp port 443))", translation.bpf(HeaderDecoder.DLT_EN10MB));
+        assertEquals("tcp port 443", translation.bpf(HeaderDecoder.LINKTYPE_RAW));
+        assertTrue(translation.exact(HeaderDecoder.DLT_EN10MB));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"!arp", "tcp.port != 22", "ip.dst != 10.0.0.0/8", "udp || !tcp"})
+    void refinesNegationsOnEthernetOnly(String text) throws FilterSyntaxException {
+        // the untagged copy of a negation passes every tagged frame
+        BpfTranslator.Translation translation = translate(text);
+        assertFalse(translation.exact(HeaderDecoder.DLT_EN10MB));
+        assertTrue(translation.exact(HeaderDecoder.LINKTYPE_RAW));
+    }
+
+    @Test
+    void usesDisplayFilterSyntaxOnlyForWhatParses() {
+        CaptureFilter bpf = CaptureFilter.parse("port 53 and not host 10.0.0.1");
+        assertEquals("port 53 and not host 10.0.0.1", bpf.getBpf(HeaderDecoder.DLT_EN10MB));
+        assertNull(bpf.getDisplayFilter(HeaderDecoder.DLT_EN10MB));
+
+        CaptureFilter refined = CaptureFilter.parse("udp.port == 53 && dns");
+        assertEquals("(udp port 53) or (vlan and (udp port 53))", refined.getBpf(HeaderDecoder.DLT_EN10MB));
+        assertNotNull(refined.getDisplayFilter(HeaderDecoder.DLT_EN10MB));
+
+        CaptureFilter negated = CaptureFilter.parse("!arp");
+        assertNotNull(negated.getDisplayFilter(HeaderDecoder.DLT_EN10MB));
+        assertNull(negated.getDisplayFilter(HeaderDecoder.LINKTYPE_RAW));
+
+        CaptureFilter untranslatable = CaptureFilter.parse("http");
+        assertNull(untranslatable.getBpf(HeaderDecoder.DLT_EN10MB));
+        assertNotNull(untranslatable.getDisplayFilter(HeaderDecoder.DLT_EN10MB));
+
+        assertNull(CaptureFilter.parse("  "));
+    }
+}
@@ -0,0 +1,42 @@
+package com.jcap.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConnectionPoolTest {
+
+    private final ConnectionPool pool = new ConnectionPool("jdbc:sqlite::memory:", 1, List.of(), 100);
+
+    @AfterEach
+    void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    void handsOutAReturnedConnectionAgain() throws SQLException {
+        Connection first;
+        try (ConnectionPool.Lease lease = pool.acquire()) {
+            first = lease.connection();
+        }
+        try (ConnectionPool.Lease lease = pool.acquire()) {
+            assertSame(first, lease.connection());
+        }
+    }
+
+    @Test
+    void givesUpWaitingForAFreeConnection() throws SQLException {
+        try (ConnectionPool.Lease held = pool.acquire()) {
+            long start = System.nanoTime();
+            assertThrows(SQLException.class, pool::acquire);
+            assertTrue(System.nanoTime() - start >= 100_000_000L);
+        }
+    }
+}
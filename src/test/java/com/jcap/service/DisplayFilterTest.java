@@ -0,0 +1,71 @@
+package com.jcap.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DisplayFilterTest {
+
+    private static final byte[] SYN = Frames.tcp(Frames.CLIENT, Frames.SERVER, 40000, 443, 1,
+            PacketHeaders.TCP_SYN, new byte[0]);
+    private static final byte[] GET = Frames.tcp(Frames.CLIENT, Frames.SERVER, 40001, 80, 1,
+            PacketHeaders.TCP_PSH | PacketHeaders.TCP_ACK,
+            "GET /index.html HTTP/1.1\r\nHost: Example.com\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+    private static final byte[] DNS = Frames.udp(Frames.CLIENT, 0x08080808, 50000, 53, new byte[] {
+            0x12, 0x34, 0x01, 0x00, 0, 1, 0, 0, 0, 0, 0, 0,
+            3, 'w', 'w', 'w', 7, 'e', 'x', 'a', 'm', 'p', 'l', 'e', 3, 'c', 'o', 'm', 0, 0, 1, 0, 1
+    });
+
+    @ParameterizedTest
+    @CsvSource(delimiter = ';', value = {
+            "tcp                                        ; true  ; true  ; false",
+            "udp || arp                                 ; false ; false ; true",
+            "!tcp                                       ; false ; false ; true",
+            "tcp.port == 443                            ; true  ; false ; false",
+            "tcp.port != 443                            ; false ; true  ; false",
+            "tcp.dstport >= 80 && tcp.dstport < 443     ; false ; true  ; false",
+            "udp.port == 53                             ; false ; false ; true",
+            "tcp.flags.syn                              ; true  ; false ; false",
+            "tcp.flags.ack == 1                         ; false ; true  ; false",
+            "tcp.flags == 0x02                          ; true  ; false ; false",
+            "ip.src == 192.168.1.2                      ; true  ; true  ; true",
+            "ip.dst == 93.184.216.0/24                  ; true  ; true  ; false",
+            "ip.addr == 8.8.8.8                         ; false ; false ; true",
+            "ip.addr != 8.8.8.8                         ; true  ; true  ; false",
+            "ipv6                                       ; false ; false ; false",
+            "len > 60                                   ; false ; true  ; true",
+            "http                                       ; false ; true  ; false",
+            "http.host == \"Example.com\"               ; false ; true  ; false",
+            "dns.qry.name == \"www.example.com\"        ; false ; false ; true",
+            "info contains \"→ 443\"                    ; true  ; false ; false",
+            "info matches \"get /INDEX\"                ; false ; true  ; false",
+            "(tcp.port == 443 || udp) && !tcp.flags.ack ; true  ; false ; true",
+    })
+    void matchesDecodedFields(String text, boolean syn, boolean get, boolean dns) throws FilterSyntaxException {
+        DisplayFilter filter = DisplayFilter.compile(text);
+        assertEquals(syn, filter.test(Frames.view(SYN)), "SYN");
+        assertEquals(get, filter.test(Frames.view(GET)), "GET");
+        assertEquals(dns, filter.test(Frames.view(DNS)), "DNS");
+    }
+
+    @Test
+    void matchesTaggedFramesLikeUntaggedOnes() throws FilterSyntaxException {
+        DisplayFilter filter = DisplayFilter.compile("tcp.port == 443 && ip.src == 192.168.1.2");
+        assertEquals(true, filter.test(Frames.view(Frames.vlan(SYN, 100))));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "", "   ", "tcp.bogus == 1", "nosuchprotocol", "ip.src == 300.1.1.1", "ip.src == 10.0.0.0/33",
+            "ip.src > 10.0.0.1", "tcp.port == http", "info > 3", "info matches \"(\"", "tcp.port contains 4",
+    })
+    void rejectsWhatItCannotEvaluate(String text) {
+        assertThrows(FilterSyntaxException.class, () -> DisplayFilter.compile(text));
+    }
+}
@@ -0,0 +1,89 @@
+package com.jcap.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FilterParserTest {
+
+    @ParameterizedTest
+    @CsvSource(delimiter = ';', value = {
+            "tcp                                   ; tcp",
+            "tcp.port == 443                       ; tcp.port == 443",
+            "tcp.port eq 443                       ; tcp.port == 443",
+            "len >= 1000 and len le 1500           ; (len >= 1000 && len <= 1500)",
+            "a || b && c                           ; (a || (b && c))",
+            "(a || b) && c                         ; ((a || b) && c)",
+            "a && b && c                           ; ((a && b) && c)",
+            "!tcp                                  ; !tcp",
+            "not not udp                           ; !!udp",
+            "! (udp or arp)                        ; !(udp || arp)",
+            "ip.src != 10.0.0.0/8                  ; ip.src != 10.0.0.0/8",
+            "ipv6.addr == fe80::1                  ; ipv6.addr == fe80::1",
+            "TCP.Port GT 0x10                      ; tcp.port > 0x10",
+            "info contains SYN                     ; info contains SYN",
+            "info matches \"^GET /\"               ; info matches ^GET /",
+    })
+    void parsesWithPrecedence(String text, String expected) throws FilterSyntaxException {
+        assertEquals(expected, FilterParser.parse(text).toString());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "tcp", "(a || (b && c))", "!(udp || arp)", "((len >= 1000 && len <= 1500) || !tcp.flags.syn)",
+            "ip.addr == 192.168.1.0/24", "tcp.port != 22",
+    })
+    void roundTripsThroughItsText(String text) throws FilterSyntaxException {
+        FilterExpression parsed = FilterParser.parse(text);
+        assertEquals(parsed.toString(), FilterParser.parse(parsed.toString()).toString());
+    }
+
+    @Test
+    void keepsQuotedValuesVerbatim() throws FilterSyntaxException {
+        FilterExpression.Compare compare = assertInstanceOf(FilterExpression.Compare.class,
+                FilterParser.parse("http.host == \"Example.COM \\\"x\\\" && y\""));
+        assertEquals("http.host", compare.field());
+        assertEquals("Example.COM \"x\" && y", compare.value());
+        assertEquals(13, compare.valuePosition());
+    }
+
+    @Test
+    void allowsAnEmptyQuotedValue() throws FilterSyntaxException {
+        FilterExpression.Compare compare = assertInstanceOf(FilterExpression.Compare.class,
+                FilterParser.parse("info == \"\""));
+        assertEquals("", compare.value());
+    }
+
+    @Test
+    void lowerCasesFieldsIndependentOfTheDefaultLocale() throws FilterSyntaxException {
+        Locale saved = Locale.getDefault();
+        Locale.setDefault(Locale.forLanguageTag("tr"));
+        try {
+            assertEquals("ip.src == 10.0.0.1", FilterParser.parse("IP.SRC == 10.0.0.1").toString());
+        } finally {
+            Locale.setDefault(saved);
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = ';', value = {
+            "(tcp                  ; 4",
+            "tcp &&                ; 6",
+            "tcp.port ==           ; 11",
+            "tcp )                 ; 4",
+            "tcp udp               ; 4",
+            "info contains \"abc   ; 14",
+            "== 80                 ; 0",
+    })
+    void reportsWhereItFailed(String text, int position) {
+        FilterSyntaxException e = assertThrows(FilterSyntaxException.class, () -> FilterParser.parse(text));
+        assertEquals(position, e.getPosition(), e.getMessage());
+    }
+}
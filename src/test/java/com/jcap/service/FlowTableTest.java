@@ -0,0 +1,295 @@
+package com.jcap.service;
+
+import com.jcap.model.Addresses;
+import com.jcap.model.Protocols;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlowTableTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    // 10.0.0.1 is the lower endpoint, so it is A of every flow below
+    private static final int CLIENT = 0x0A000001;
+    private static final int SERVER = 0x0A000002;
+
+    // slots in a stripe's index before it grows
+    private static final int INITIAL_SLOTS = 512;
+
+    private final FlowTable table = new FlowTable(5 * SECOND, 30 * SECOND);
+
+    private static void udp(FlowTable table, long timestamp, int sourcePort, int destinationPort) {
+        table.add(timestamp, 60, Protocols.UDP, Addresses.IPV4, 0, CLIENT, 0, SERVER,
+                sourcePort, destinationPort, 0, 0, 0);
+    }
+
+    private void udp(long timestamp, int sourcePort) {
+        udp(table, timestamp, sourcePort, 53);
+    }
+
+    private void tcp(long timestamp, boolean fromClient, int flags, long seq, int segmentLength) {
+        if (fromClient) {
+            table.add(timestamp, 54 + segmentLength, Protocols.TCP, Addresses.IPV4, 0, CLIENT, 0, SERVER,
+                    40000, 80, flags, seq, segmentLength);
+        }
+        else {
+            table.add(timestamp, 54 + segmentLength, Protocols.TCP, Addresses.IPV4, 0, SERVER, 0, CLIENT,
+                    80, 40000, flags, seq, segmentLength);
+        }
+    }
+
+    private static int hash(int sourcePort, int destinationPort) {
+        return FlowTable.hash(0, CLIENT, 0, SERVER, sourcePort << 16 | destinationPort,
+                Protocols.UDP << 8 | Addresses.IPV4);
+    }
+
+    private static FlowTable.Conversation find(List<FlowTable.Conversation> conversations, int portA) {
+        FlowTable.Conversation found = null;
+        for (FlowTable.Conversation c : conversations) {
+            if (c.portA() == portA && !c.ended()) {
+                assertTrue(found == null, "port " + portA + " is open twice");
+                found = c;
+            }
+        }
+        assertNotNull(found, "no open conversation on port " + portA);
+        return found;
+    }
+
+    private static Map<Long, Integer> countById(List<FlowTable.Conversation> conversations) {
+        Map<Long, Integer> counts = new HashMap<>();
+        for (FlowTable.Conversation c : conversations) {
+            counts.merge(c.id(), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    @Test
+    void mapsBothDirectionsToOneConversation() {
+        // the server answers first, so it is the initiator even though it is the higher address
+        table.add(0, 100, Protocols.UDP, Addresses.IPV4, 0, SERVER, 0, CLIENT, 53, 50000, 0, 0, 0);
+        table.add(1, 70, Protocols.UDP, Addresses.IPV4, 0, CLIENT, 0, SERVER, 50000, 53, 0, 0, 0);
+        table.add(2, 90, Protocols.UDP, Addresses.IPV4, 0, SERVER, 0, CLIENT, 53, 50000, 0, 0, 0);
+
+        List<FlowTable.Conversation> conversations = table.snapshot();
+        assertEquals(1, conversations.size());
+        FlowTable.Conversation c = conversations.get(0);
+        assertEquals("10.0.0.2", c.addressA());
+        assertEquals(53, c.portA());
+        assertEquals("10.0.0.1", c.addressB());
+        assertEquals(50000, c.portB());
+        assertEquals(2, c.packetsAToB());
+        assertEquals(190, c.bytesAToB());
+        assertEquals(1, c.packetsBToA());
+        assertEquals(70, c.bytesBToA());
+        assertEquals(0, c.firstNanos());
+        assertEquals(2, c.lastNanos());
+        assertEquals(1, table.getOpenCount());
+    }
+
+    @Test
+    void findsFlowsThatProbedPastARemovedOneAcrossTheEndOfTheIndex() {
+        // two flows whose home is the last slot of one stripe and two whose home is the first
+        Map<Integer, List<Integer>> lastSlot = new HashMap<>();
+        Map<Integer, List<Integer>> firstSlot = new HashMap<>();
+        int[] ports = null;
+        for (int port = 1; port < 65536 && ports == null; port++) {
+            int hash = hash(port, 53);
+            int stripe = hash >>> 28;
+            int slot = hash & (INITIAL_SLOTS - 1);
+            if (slot == INITIAL_SLOTS - 1) lastSlot.computeIfAbsent(stripe, s -> new ArrayList<>()).add(port);
+            else if (slot == 0) firstSlot.computeIfAbsent(stripe, s -> new ArrayList<>()).add(port);
+            else continue;
+
+            List<Integer> last = lastSlot.get(stripe);
+            List<Integer> first = firstSlot.get(stripe);
+            if (last != null && last.size() >= 2 && first != null && first.size() >= 2) {
+                ports = new int[] {last.get(0), first.get(0), first.get(1), last.get(1)};
+            }
+        }
+        assertNotNull(ports);
+
+        // slot 511, then 0 and 1 at home or past it, and 2 after wrapping around
+        for (int i = 0; i < ports.length; i++) {
+            udp(i * SECOND / 10, ports[i]);
+        }
+        List<FlowTable.Conversation> before = table.snapshot();
+
+        // the first flow ends: the two at home stay, the wrapped one shifts back over the end
+        table.expire(5 * SECOND + SECOND / 20);
+        assertEquals(3, table.getOpenCount());
+        udp(5 * SECOND + SECOND / 10, ports[1]);
+        udp(5 * SECOND + 2 * SECOND / 10, ports[2]);
+        udp(5 * SECOND + 2 * SECOND / 10, ports[3]);
+
+        // then one of the two sharing the first slot
+        table.expire(10 * SECOND + 12 * SECOND / 100);
+        assertEquals(2, table.getOpenCount());
+        udp(10 * SECOND + 15 * SECOND / 100, ports[2]);
+        udp(10 * SECOND + 15 * SECOND / 100, ports[3]);
+
+        List<FlowTable.Conversation> after = table.snapshot();
+        assertEquals(4, after.size());
+        assertEquals(4, table.getConversationCount());
+        int ended = ports[1];
+        assertEquals(2, after.stream().filter(c -> c.portA() == ended).findFirst().orElseThrow().packets());
+        for (int i : new int[] {2, 3}) {
+            FlowTable.Conversation c = find(after, ports[i]);
+            assertEquals(find(before, ports[i]).id(), c.id());
+            assertEquals(3, c.packetsAToB());
+        }
+    }
+
+    @Test
+    void expiresOnlyTheFlowsThatTimedOut() {
+        udp(0, 1);
+        udp(SECOND, 2);
+        udp(2 * SECOND, 3);
+        // the first flow started first, but has the most recent packet
+        udp(3 * SECOND, 1);
+
+        table.expire(13 * SECOND / 2);
+        List<FlowTable.Conversation> ended = table.snapshot().stream().filter(FlowTable.Conversation::ended).toList();
+        assertEquals(1, ended.size());
+        assertEquals(2, ended.get(0).portA());
+        assertEquals(2, table.getOpenCount());
+
+        udp(7 * SECOND, 1);
+        table.expire(7 * SECOND + SECOND / 2);
+        assertEquals(1, table.getOpenCount());
+
+        // the first flow keeps sending until it has been open too long, a newer one stays
+        udp(11 * SECOND, 1);
+        udp(15 * SECOND, 1);
+        udp(19 * SECOND, 1);
+        udp(23 * SECOND, 1);
+        udp(27 * SECOND, 1);
+        udp(29 * SECOND, 4);
+        table.expire(30 * SECOND);
+        assertEquals(1, table.getOpenCount());
+        List<FlowTable.Conversation> conversations = table.snapshot();
+        assertEquals(29 * SECOND, find(conversations, 4).firstNanos());
+        FlowTable.Conversation first = conversations.stream().filter(c -> c.portA() == 1).findFirst().orElseThrow();
+        assertTrue(first.ended());
+        assertEquals(8, first.packets());
+    }
+
+    @Test
+    void aSynReopensAClosedPortPair() {
+        tcp(0, true, PacketHeaders.TCP_SYN, 100, 0);
+        // the SYN sent again is the same conversation
+        tcp(1, true, PacketHeaders.TCP_SYN, 100, 0);
+        tcp(2, false, PacketHeaders.TCP_SYN | PacketHeaders.TCP_ACK, 500, 0);
+        tcp(3, true, PacketHeaders.TCP_ACK, 101, 0);
+        assertEquals(FlowTable.TcpState.ESTABLISHED, table.snapshot().get(0).state());
+
+        tcp(4, true, PacketHeaders.TCP_FIN | PacketHeaders.TCP_ACK, 101, 0);
+        tcp(5, false, PacketHeaders.TCP_FIN | PacketHeaders.TCP_ACK, 501, 0);
+        tcp(6, true, PacketHeaders.TCP_ACK, 102, 0);
+        List<FlowTable.Conversation> closed = table.snapshot();
+        assertEquals(1, closed.size());
+        assertEquals(FlowTable.TcpState.CLOSED, closed.get(0).state());
+        assertEquals(1, closed.get(0).retransmissions());
+
+        tcp(7, true, PacketHeaders.TCP_SYN, 9000, 0);
+        List<FlowTable.Conversation> conversations = table.snapshot();
+        assertEquals(2, conversations.size());
+        FlowTable.Conversation old = conversations.get(0);
+        FlowTable.Conversation reopened = conversations.get(1);
+        assertTrue(old.ended());
+        assertEquals(FlowTable.TcpState.CLOSED, old.state());
+        assertEquals(7, old.packets());
+        assertFalse(reopened.ended());
+        assertNotEquals(old.id(), reopened.id());
+        assertEquals(FlowTable.TcpState.SYN_SENT, reopened.state());
+        assertEquals(1, reopened.packets());
+        assertEquals(7, reopened.firstNanos());
+        assertEquals(0, reopened.retransmissions());
+    }
+
+    @Test
+    void doesNotCountKeepAlivesAsRetransmissions() {
+        tcp(0, true, PacketHeaders.TCP_SYN, 100, 0);
+        tcp(1, false, PacketHeaders.TCP_SYN | PacketHeaders.TCP_ACK, 500, 0);
+        tcp(2, true, PacketHeaders.TCP_ACK, 101, 0);
+        tcp(3, true, PacketHeaders.TCP_ACK, 101, 100);
+        tcp(4, false, PacketHeaders.TCP_ACK, 501, 0);
+
+        // the byte before the window, and the same without a byte
+        tcp(5, true, PacketHeaders.TCP_ACK, 200, 1);
+        tcp(6, true, PacketHeaders.TCP_ACK, 200, 0);
+        tcp(7, false, PacketHeaders.TCP_ACK, 500, 1);
+        assertEquals(0, table.snapshot().get(0).retransmissions());
+
+        // data sent again is a retransmission
+        tcp(8, true, PacketHeaders.TCP_ACK, 101, 100);
+        tcp(9, true, PacketHeaders.TCP_ACK, 150, 1);
+        FlowTable.Conversation c = table.snapshot().get(0);
+        assertEquals(2, c.retransmissions());
+        assertEquals(FlowTable.TcpState.ESTABLISHED, c.state());
+    }
+
+    @Test
+    void reportsEachChangedOrEndedFlowOnce() {
+        udp(0, 1);
+        udp(0, 2);
+        udp(0, 3);
+        assertEquals(3, table.snapshot().size());
+        assertTrue(table.changes().isEmpty());
+
+        udp(4 * SECOND, 1);
+        udp(4 * SECOND, 1);
+        udp(4 * SECOND, 2);
+        table.expire(11 * SECOND / 2);
+        List<FlowTable.Conversation> changes = table.changes();
+        assertEquals(3, changes.size());
+        assertTrue(countById(changes).values().stream().allMatch(n -> n == 1));
+        assertEquals(3, find(changes, 1).packets());
+        assertEquals(2, find(changes, 2).packets());
+        assertTrue(changes.stream().anyMatch(c -> c.portA() == 3 && c.ended()));
+        assertTrue(table.changes().isEmpty());
+
+        // changed and then ended is reported once, as ended
+        udp(6 * SECOND, 1);
+        table.expire(20 * SECOND);
+        changes = table.changes();
+        assertEquals(2, changes.size());
+        assertTrue(changes.stream().allMatch(FlowTable.Conversation::ended));
+        assertEquals(2, countById(changes).size());
+
+        // a new flow once the others ended
+        udp(21 * SECOND, 4);
+        changes = table.changes();
+        assertEquals(1, changes.size());
+        assertEquals(4, changes.get(0).portA());
+        assertTrue(table.changes().isEmpty());
+    }
+
+    @Test
+    void dropsTheOldestEndedConversations() {
+        // four ended conversations kept per stripe
+        FlowTable small = new FlowTable(SECOND, 30 * SECOND, 64);
+        int flows = 1000;
+        for (int port = 1; port <= flows; port++) {
+            udp(small, 0, port, 53);
+        }
+        small.expire(2 * SECOND);
+
+        assertEquals(0, small.getOpenCount());
+        assertEquals(flows, small.getConversationCount());
+        List<FlowTable.Conversation> kept = small.snapshot();
+        assertTrue(kept.size() <= 64, kept.size() + " kept");
+        assertTrue(kept.size() >= 16 * 2);
+        // the ones kept are the last to end in each stripe
+        assertTrue(kept.stream().allMatch(FlowTable.Conversation::ended));
+    }
+}
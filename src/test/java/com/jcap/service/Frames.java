@@ -0,0 +1,94 @@
+package com.jcap.service;
+
+import com.jcap.model.PacketStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Builds the Ethernet frames the tests feed to decoders, filters and files, and dissects them
+ * into a {@link PacketView} the way the capture pipeline does.
+ */
+final class Frames {
+
+    static final int CLIENT = 0xC0A80102;
+    static final int SERVER = 0x5DB8D822;
+
+    private Frames() {
+    }
+
+    static byte[] tcp(int src, int dst, int srcPort, int dstPort, long seq, int flags, byte[] data) {
+        byte[] segment = new byte[20 + data.length];
+        ByteBuffer.wrap(segment).putShort((short) srcPort).putShort((short) dstPort).putInt((int) seq).putInt(0)
+                .put((byte) 0x50).put((byte) flags).putShort((short) 501).putInt(0).put(data);
+        return ipv4(src, dst, 6, segment);
+    }
+
+    static byte[] udp(int src, int dst, int srcPort, int dstPort, byte[] data) {
+        byte[] datagram = new byte[8 + data.length];
+        ByteBuffer.wrap(datagram).putShort((short) srcPort).putShort((short) dstPort)
+                .putShort((short) datagram.length).putShort((short) 0).put(data);
+        return ipv4(src, dst, 17, datagram);
+    }
+
+    static byte[] ipv4(int src, int dst, int protocol, byte[] payload) {
+        ByteBuffer b = ethernet(0x0800, 20 + payload.length);
+        b.put((byte) 0x45).put((byte) 0).putShort((short) (20 + payload.length)).putShort((short) 1)
+                .putShort((short) 0x4000).put((byte) 64).put((byte) protocol).putShort((short) 0)
+                .putInt(src).putInt(dst).put(payload);
+        return b.array();
+    }
+
+    /**
+     * An IPv6 packet from 2001:db8::1 to 2001:db8::2 whose first header after the fixed one is
+     * {@code next}; {@code payload} holds any extension headers and the transport header.
+     */
+    static byte[] ipv6(int next, byte[] payload) {
+        ByteBuffer b = ethernet(0x86DD, 40 + payload.length);
+        b.putInt(0x60000000).putShort((short) payload.length).put((byte) next).put((byte) 64)
+                .putLong(0x20010DB800000000L).putLong(1).putLong(0x20010DB800000000L).putLong(2).put(payload);
+        return b.array();
+    }
+
+    /**
+     * {@code frame} with an 802.1Q tag for {@code vlan} inserted after the MAC addresses.
+     */
+    static byte[] vlan(byte[] frame, int vlan) {
+        ByteBuffer b = ByteBuffer.allocate(frame.length + 4);
+        b.put(frame, 0, 12).putShort((short) 0x8100).putShort((short) vlan).put(frame, 12, frame.length - 12);
+        return b.array();
+    }
+
+    private static ByteBuffer ethernet(int type, int length) {
+        ByteBuffer b = ByteBuffer.allocate(14 + length);
+        b.putShort((short) 0x0200).putInt(2).putShort((short) 0x0200).putInt(1).putShort((short) type);
+        return b;
+    }
+
+    /**
+     * The frame as the capture pipeline sees it once a dissector worker has decoded it.
+     */
+    static PacketView view(byte[] frame) {
+        CaptureFrame captured = new CaptureFrame();
+        captured.copyFrom(frame, frame.length, frame.length, 0);
+        captured.linkType = HeaderDecoder.DLT_EN10MB;
+        new PacketDissector(HeaderDecoder.DLT_EN10MB).dissect(captured);
+        return captured;
+    }
+
+    /**
+     * Writes the frames to {@code file}, one microsecond apart, and imports it into a store.
+     */
+    static PacketStore store(Path file, List<byte[]> frames) throws IOException {
+        try (PcapFileWriter writer = PcapFileWriter.create(file)) {
+            int id = writer.addInterface("eth0", HeaderDecoder.DLT_EN10MB);
+            for (int i = 0; i < frames.size(); i++) {
+                byte[] frame = frames.get(i);
+                writer.write(id, 1_000L * i, frame, 0, frame.length, frame.length);
+            }
+        }
+        return PcapFiles.importFile(file, Progress.NONE);
+    }
+}
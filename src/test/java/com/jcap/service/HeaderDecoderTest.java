@@ -0,0 +1,162 @@
+package com.jcap.service;
+
+import com.jcap.model.Protocols;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HeaderDecoderTest {
+
+    private static final byte[] DATA = {1, 2, 3, 4, 5};
+    private static final byte[] SYN_ACK = Frames.tcp(Frames.CLIENT, Frames.SERVER, 40000, 443, 7,
+            PacketHeaders.TCP_SYN | PacketHeaders.TCP_ACK, DATA);
+
+    private final PacketHeaders headers = new PacketHeaders();
+
+    private boolean decode(byte[] frame) {
+        return decode(frame, frame.length);
+    }
+
+    private boolean decode(byte[] frame, int length) {
+        return HeaderDecoder.decode(frame, 0, length, HeaderDecoder.DLT_EN10MB, headers);
+    }
+
+    private static byte[] udp(int srcPort, int dstPort, byte[] data) {
+        return ByteBuffer.allocate(8 + data.length).putShort((short) srcPort).putShort((short) dstPort)
+                .putShort((short) (8 + data.length)).putShort((short) 0).put(data).array();
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteBuffer b = ByteBuffer.allocate(Arrays.stream(parts).mapToInt(p -> p.length).sum());
+        for (byte[] part : parts) b.put(part);
+        return b.array();
+    }
+
+    @Test
+    void decodesTcpOverIpv4() {
+        assertTrue(decode(SYN_ACK));
+        assertEquals(PacketHeaders.L3_IPV4, headers.l3);
+        assertEquals(Protocols.TCP, headers.protocol);
+        assertEquals(Frames.CLIENT, headers.ipSrc);
+        assertEquals(Frames.SERVER, headers.ipDst);
+        assertTrue(headers.hasTransport);
+        assertEquals(40000, headers.srcPort);
+        assertEquals(443, headers.dstPort);
+        assertEquals(7, headers.seq);
+        assertEquals(PacketHeaders.TCP_SYN | PacketHeaders.TCP_ACK, headers.tcpFlags);
+        assertEquals(54, headers.payloadOffset);
+        assertEquals(DATA.length, headers.payloadLength);
+    }
+
+    @Test
+    void rejectsAFrameShorterThanAnEthernetHeader() {
+        assertFalse(decode(SYN_ACK, 13));
+        assertEquals(Protocols.UNKNOWN, headers.protocol);
+    }
+
+    @Test
+    void keepsTheEthernetHeaderOfATruncatedIpPacket() {
+        assertTrue(decode(SYN_ACK, 14 + 10));
+        assertEquals(Protocols.ETHERNET, headers.protocol);
+        assertEquals(PacketHeaders.L3_NONE, headers.l3);
+        assertEquals(0x0800, headers.etherType);
+    }
+
+    @Test
+    void leavesTheTransportOutWhenItsHeaderIsCut() {
+        assertTrue(decode(SYN_ACK, 14 + 20 + 10));
+        assertEquals(Protocols.TCP, headers.protocol);
+        assertFalse(headers.hasTransport);
+        assertEquals(0, headers.srcPort);
+    }
+
+    @Test
+    void boundsThePayloadByTheCapturedLength() {
+        byte[] frame = Frames.tcp(Frames.CLIENT, Frames.SERVER, 40000, 80, 1, PacketHeaders.TCP_ACK, new byte[100]);
+        assertTrue(decode(frame, 54 + 30));
+        assertEquals(54, headers.payloadOffset);
+        assertEquals(30, headers.payloadLength);
+    }
+
+    @Test
+    void boundsThePayloadByTheIpTotalLength() {
+        // Ethernet pads short frames; the padding is not payload
+        assertTrue(decode(Arrays.copyOf(SYN_ACK, SYN_ACK.length + 10)));
+        assertEquals(DATA.length, headers.payloadLength);
+    }
+
+    @Test
+    void readsThroughVlanTags() {
+        assertTrue(decode(Frames.vlan(SYN_ACK, 100)));
+        assertEquals(100, headers.vlanId);
+        assertEquals(Protocols.TCP, headers.protocol);
+        assertEquals(443, headers.dstPort);
+        assertEquals(58, headers.payloadOffset);
+
+        // stacked tags keep the outer VLAN
+        assertTrue(decode(Frames.vlan(Frames.vlan(SYN_ACK, 200), 100)));
+        assertEquals(100, headers.vlanId);
+        assertEquals(443, headers.dstPort);
+        assertEquals(62, headers.payloadOffset);
+    }
+
+    @Test
+    void stopsAtATruncatedVlanTag() {
+        assertTrue(decode(Frames.vlan(SYN_ACK, 100), 16));
+        assertEquals(Protocols.ETHERNET, headers.protocol);
+        assertEquals(PacketHeaders.L3_NONE, headers.l3);
+        assertFalse(headers.hasTransport);
+    }
+
+    @Test
+    void skipsIpv6ExtensionHeaders() {
+        byte[] hopByHop = {60, 0, 1, 4, 0, 0, 0, 0};
+        byte[] destination = {17, 0, 1, 4, 0, 0, 0, 0};
+        assertTrue(decode(Frames.ipv6(0, concat(hopByHop, destination, udp(50000, 53, DATA)))));
+
+        assertEquals(PacketHeaders.L3_IPV6, headers.l3);
+        assertEquals(0x20010DB800000000L, headers.ip6SrcHi);
+        assertEquals(1, headers.ip6SrcLo);
+        assertEquals(2, headers.ip6DstLo);
+        assertEquals(Protocols.UDP, headers.protocol);
+        assertTrue(headers.hasTransport);
+        assertEquals(53, headers.dstPort);
+        assertEquals(14 + 40 + 16 + 8, headers.payloadOffset);
+        assertEquals(DATA.length, headers.payloadLength);
+    }
+
+    @Test
+    void decodesTheTransportOfTheFirstIpv6FragmentOnly() {
+        byte[] first = {17, 0, 0, 1, 0, 0, 0, 9}; // offset 0, more fragments
+        assertTrue(decode(Frames.ipv6(44, concat(first, udp(50000, 53, DATA)))));
+        assertEquals(Protocols.UDP, headers.protocol);
+        assertTrue(headers.hasTransport);
+        assertEquals(53, headers.dstPort);
+
+        byte[] later = {17, 0, 0, 8, 0, 0, 0, 9}; // offset 1 (8 bytes)
+        assertTrue(decode(Frames.ipv6(44, concat(later, DATA, DATA))));
+        assertEquals(Protocols.UDP, headers.protocol);
+        assertFalse(headers.hasTransport);
+    }
+
+    @Test
+    void stopsAtAnIpv6ExtensionHeaderLongerThanThePacket() {
+        byte[] hopByHop = {17, 10, 1, 4, 0, 0, 0, 0}; // claims 88 bytes
+        assertTrue(decode(Frames.ipv6(0, concat(hopByHop, udp(50000, 53, DATA)))));
+        assertEquals(PacketHeaders.L3_IPV6, headers.l3);
+        assertEquals(Protocols.UDP, headers.protocol);
+        assertFalse(headers.hasTransport);
+    }
+
+    @Test
+    void ignoresATruncatedIpv6Header() {
+        assertTrue(decode(Frames.ipv6(17, udp(50000, 53, DATA)), 14 + 39));
+        assertEquals(PacketHeaders.L3_NONE, headers.l3);
+        assertEquals(0x86DD, headers.etherType);
+    }
+}
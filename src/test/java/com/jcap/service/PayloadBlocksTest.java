@@ -0,0 +1,254 @@
+package com.jcap.service;
+
+import com.jcap.model.PacketStore;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PayloadBlocksTest {
+
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void initialize() {
+        DatabaseService.initialize();
+    }
+
+    /**
+     * Small frames first, so a block fills up by count, then full-size ones that fill blocks by
+     * bytes. Three flows take turns: HTTP requests that repeat most of the previous one, DNS
+     * queries, and TLS records whose bodies are random.
+     */
+    private static List<byte[]> mixedFlows() {
+        Random random = new Random(15);
+        List<byte[]> frames = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            boolean large = i >= 300;
+            switch (i % 3) {
+                case 0 -> {
+                    String request = "GET /static/app-" + (i % 7) + ".js HTTP/1.1\r\nHost: example.com\r\n"
+                            + "User-Agent: jcap-test\r\nAccept: */*\r\n" + (large ? "X-Pad: " + "a".repeat(900) + "\r\n" : "") + "\r\n";
+                    frames.add(Frames.tcp(Frames.CLIENT, Frames.SERVER, 40001, 80, 1000L * i, PacketHeaders.TCP_ACK,
+                            request.getBytes(StandardCharsets.US_ASCII)));
+                }
+                case 1 -> {
+                    byte[] query = new byte[large ? 40 : 30];
+                    query[0] = (byte) i;
+                    frames.add(Frames.udp(Frames.CLIENT, Frames.SERVER, 50000 + i % 4, 53, query));
+                }
+                default -> {
+                    byte[] record = new byte[large ? 1400 : 400];
+                    random.nextBytes(record);
+                    record[0] = 0x17;
+                    record[1] = 0x03;
+                    record[2] = 0x03;
+                    frames.add(Frames.tcp(Frames.SERVER, Frames.CLIENT, 443, 40002, 5000L * i, PacketHeaders.TCP_ACK, record));
+                }
+            }
+        }
+        // a frame without transport payload
+        frames.add(Frames.tcp(Frames.CLIENT, Frames.SERVER, 40001, 80, 1, PacketHeaders.TCP_ACK, new byte[0]));
+        return frames;
+    }
+
+    private static int sessionId(ConnectionPool.Lease lease, String name) throws SQLException {
+        PreparedStatement find = lease.prepare("SELECT id FROM sessions WHERE name = ?");
+        find.setString(1, name);
+        try (ResultSet rs = find.executeQuery()) {
+            assertTrue(rs.next());
+            return rs.getInt(1);
+        }
+    }
+
+    /**
+     * Bytes of a block kept out of its deflate stream: what follows the three varints and the stream.
+     */
+    private static int verbatimBytes(byte[] block) {
+        int position = 0;
+        int[] values = new int[3];
+        for (int i = 0; i < values.length; i++) {
+            for (int shift = 0; ; shift += 7) {
+                byte b = block[position++];
+                values[i] |= (b & 0x7F) << shift;
+                if (b >= 0) break;
+            }
+        }
+        return block.length - position - values[2];
+    }
+
+    private static void assertPayloads(PacketStore expected, PacketStore actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int row = 0; row < expected.size(); row++) {
+            assertArrayEquals(expected.copyPayload(row), actual.copyPayload(row), "row " + row);
+        }
+    }
+
+    @Test
+    void restoresEveryFrameOfMixedFlowsAcrossBlocks() throws IOException, SQLException {
+        String name = "blocks-" + System.nanoTime();
+        try (PacketStore store = Frames.store(dir.resolve("mixed.pcap"), mixedFlows())) {
+            assertTrue(DatabaseService.saveCapture(name, store, Progress.NONE, true));
+
+            List<byte[]> decoded = new ArrayList<>();
+            List<Integer> counts = new ArrayList<>();
+            long rawBytes = 0;
+            long storedBytes = 0;
+            long verbatimBytes = 0;
+            try (ConnectionPool.Lease lease = DatabaseService.connect()) {
+                PreparedStatement blocks = lease.prepare("SELECT codec, count, data FROM payload_blocks WHERE session_id = ? ORDER BY block");
+                blocks.setInt(1, sessionId(lease, name));
+                try (ResultSet rs = blocks.executeQuery()) {
+                    while (rs.next()) {
+                        byte[] data = rs.getBytes(3);
+                        byte[][] frames = PayloadBlocks.decode(rs.getInt(1), data);
+                        assertEquals(rs.getInt(2), frames.length);
+                        counts.add(frames.length);
+                        for (byte[] frame : frames) {
+                            decoded.add(frame);
+                            rawBytes += frame.length;
+                        }
+                        storedBytes += data.length;
+                        verbatimBytes += verbatimBytes(data);
+                    }
+                }
+            }
+
+            // full by count, then blocks full by bytes
+            assertEquals(PayloadBlocks.BLOCK_PACKETS, counts.get(0));
+            assertTrue(counts.size() > 3);
+            assertTrue(counts.get(2) < PayloadBlocks.BLOCK_PACKETS);
+            assertEquals(store.size(), decoded.size());
+            for (int row = 0; row < store.size(); row++) {
+                assertArrayEquals(store.copyPayload(row), decoded.get(row), "row " + row);
+            }
+            // the repeated headers shrink, the random bodies are kept as they are
+            assertTrue(storedBytes < rawBytes);
+            assertTrue(verbatimBytes >= 100 * 300);
+
+            try (PacketStore opened = DatabaseService.openCapture(name, Progress.NONE)) {
+                assertPayloads(store, opened);
+                // out of order, so blocks are decoded again rather than taken from the last one
+                assertArrayEquals(store.copyPayload(550), opened.copyPayload(550));
+                assertArrayEquals(store.copyPayload(3), opened.copyPayload(3));
+            }
+        } finally {
+            DatabaseService.deleteCapture(name);
+        }
+    }
+
+    @Test
+    void blocksHoldAtMostTheirPacketCount() throws IOException, SQLException {
+        String name = "block-count-" + System.nanoTime();
+        List<byte[]> frames = new ArrayList<>();
+        for (int i = 0; i < PayloadBlocks.BLOCK_PACKETS + 1; i++) {
+            frames.add(Frames.udp(Frames.CLIENT, Frames.SERVER, 50000, 53, new byte[] {(byte) i}));
+        }
+        try (PacketStore store = Frames.store(dir.resolve("count.pcap"), frames)) {
+            assertTrue(DatabaseService.saveCapture(name, store, Progress.NONE, true));
+            try (ConnectionPool.Lease lease = DatabaseService.connect()) {
+                PreparedStatement blocks = lease.prepare("SELECT count FROM payload_blocks WHERE session_id = ? ORDER BY block");
+                blocks.setInt(1, sessionId(lease, name));
+                List<Integer> counts = new ArrayList<>();
+                try (ResultSet rs = blocks.executeQuery()) {
+                    while (rs.next()) counts.add(rs.getInt(1));
+                }
+                assertEquals(List.of(PayloadBlocks.BLOCK_PACKETS, 1), counts);
+            }
+            try (PacketStore opened = DatabaseService.openCapture(name, Progress.NONE)) {
+                assertPayloads(store, opened);
+            }
+        } finally {
+            DatabaseService.deleteCapture(name);
+        }
+    }
+
+    @Test
+    void keepsRawPayloadsWithoutCompression() throws IOException, SQLException {
+        String name = "raw-" + System.nanoTime();
+        try (PacketStore store = Frames.store(dir.resolve("raw.pcap"), mixedFlows())) {
+            assertTrue(DatabaseService.saveCapture(name, store, Progress.NONE, false));
+
+            try (ConnectionPool.Lease lease = DatabaseService.connect()) {
+                int sessionId = sessionId(lease, name);
+                PreparedStatement blocks = lease.prepare("SELECT count(*) FROM payload_blocks WHERE session_id = ?");
+                blocks.setInt(1, sessionId);
+                try (ResultSet rs = blocks.executeQuery()) {
+                    assertTrue(rs.next());
+                    assertEquals(0, rs.getInt(1));
+                }
+                PreparedStatement rows = lease.prepare("SELECT count(*) FROM packets WHERE session_id = ? AND block IS NULL AND payload IS NOT NULL");
+                rows.setInt(1, sessionId);
+                try (ResultSet rs = rows.executeQuery()) {
+                    assertTrue(rs.next());
+                    assertEquals(store.size(), rs.getInt(1));
+                }
+            }
+
+            try (PacketStore opened = DatabaseService.openCapture(name, Progress.NONE)) {
+                assertPayloads(store, opened);
+            }
+        } finally {
+            DatabaseService.deleteCapture(name);
+        }
+    }
+
+    @Test
+    void decodesPortsFromThePayloadOfRowsSavedBeforeTheirColumns() throws SQLException {
+        String name = "old-rows-" + System.nanoTime();
+        byte[] syn = Frames.tcp(Frames.CLIENT, Frames.SERVER, 40003, 8080, 7, PacketHeaders.TCP_SYN, new byte[0]);
+        byte[] dns = Frames.udp(Frames.CLIENT, Frames.SERVER, 50001, 53, new byte[600]);
+        try {
+            // the columns a session had before ports, flags and payload blocks were added
+            try (ConnectionPool.Lease lease = DatabaseService.connect()) {
+                int sessionId = DatabaseService.createSession(lease, name);
+                PreparedStatement insert = lease.prepare("INSERT INTO packets(session_id, num, time, src, dst, proto, len, info, payload, iface) " +
+                        "VALUES(?,?,?,?,?,?,?,?,?,?)");
+                byte[][] frames = {syn, dns};
+                String[] protocols = {"TCP", "UDP"};
+                for (int i = 0; i < frames.length; i++) {
+                    insert.setInt(1, sessionId);
+                    insert.setInt(2, i + 1);
+                    insert.setString(3, i + ".000000");
+                    insert.setString(4, "192.168.1.2");
+                    insert.setString(5, "93.184.216.34");
+                    insert.setString(6, protocols[i]);
+                    insert.setInt(7, frames[i].length);
+                    insert.setString(8, "old row " + i);
+                    insert.setBytes(9, frames[i]);
+                    insert.setString(10, "eth0");
+                    insert.executeUpdate();
+                }
+            }
+
+            try (PacketStore opened = DatabaseService.openCapture(name, Progress.NONE)) {
+                assertEquals(2, opened.size());
+                assertEquals(40003, opened.getSourcePort(0));
+                assertEquals(8080, opened.getDestinationPort(0));
+                assertEquals(PacketHeaders.TCP_SYN, opened.getTcpFlags(0));
+                assertEquals(50001, opened.getSourcePort(1));
+                assertEquals(53, opened.getDestinationPort(1));
+                assertEquals("old row 1", opened.getInfo(1));
+                // the payload comes from the row, not from a block
+                assertArrayEquals(syn, opened.copyPayload(0));
+                assertArrayEquals(dns, opened.copyPayload(1));
+            }
+        } finally {
+            DatabaseService.deleteCapture(name);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.jcap.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PcapFileReaderTest {
+
+    @TempDir
+    Path dir;
+
+    private record Record(int interfaceIndex, long timestampNanos, byte[] data, int originalLength) {
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"capture.pcap", "capture.pcapng"})
+    void readsBackWhatWasWritten(String name) throws IOException {
+        Random random = new Random(3);
+        List<Record> written = new ArrayList<>();
+        long timestamp = 1_700_000_000_123_456_789L;
+        for (int i = 0; i < 2000; i++) {
+            // empty, odd-sized and jumbo frames, some of them cut short by the snap length
+            byte[] data = new byte[i % 100 == 0 ? 0 : i % 500 == 7 ? 9000 : 1 + random.nextInt(1514)];
+            random.nextBytes(data);
+            int original = i % 3 == 0 ? data.length + random.nextInt(100) : data.length;
+            timestamp += random.nextInt(1_000_000);
+            written.add(new Record(0, timestamp, data, original));
+        }
+
+        Path path = dir.resolve(name);
+        try (PcapFileWriter writer = PcapFileWriter.create(path)) {
+            int id = writer.addInterface("eth0", HeaderDecoder.DLT_EN10MB);
+            for (Record r : written) writer.write(id, r.timestampNanos, r.data, 0, r.data.length, r.originalLength);
+            assertEquals(written.size(), writer.getWrittenCount());
+        }
+
+        try (PcapFileReader reader = PcapFileReader.open(path)) {
+            assertEquals(name.endsWith(".pcapng"), reader.isPcapng());
+            List<Record> read = readAll(reader);
+            assertEquals(reader.getSize(), reader.getPosition());
+            assertEquals(HeaderDecoder.DLT_EN10MB, reader.getInterface(0).linkType());
+            assertRecords(written, read);
+        }
+    }
+
+    @Test
+    void keepsInterfacesApartInPcapng() throws IOException {
+        Path path = dir.resolve("two.pcapng");
+        List<Record> written = List.of(
+                new Record(0, 1_000, new byte[] {1, 2, 3}, 3),
+                new Record(1, 2_000, new byte[] {0x45, 0, 0, 20}, 4),
+                new Record(0, 3_000, new byte[] {4, 5}, 60));
+        try (PcapFileWriter writer = PcapFileWriter.create(path)) {
+            assertEquals(0, writer.addInterface("eth0", HeaderDecoder.DLT_EN10MB));
+            assertEquals(1, writer.addInterface("tun0", HeaderDecoder.LINKTYPE_RAW));
+            for (Record r : written) writer.write(r.interfaceIndex, r.timestampNanos, r.data, 0, r.data.length, r.originalLength);
+        }
+
+        try (PcapFileReader reader = PcapFileReader.open(path)) {
+            List<Record> read = readAll(reader);
+            assertEquals(2, reader.getInterfaces().size());
+            assertEquals("eth0", reader.getInterface(0).name());
+            assertEquals(HeaderDecoder.LINKTYPE_RAW, reader.getInterface(1).linkType());
+            assertRecords(written, read);
+        }
+    }
+
+    @Test
+    void refusesASecondLinkTypeInPcap() throws IOException {
+        try (PcapFileWriter writer = PcapFileWriter.create(dir.resolve("one.pcap"))) {
+            writer.addInterface("eth0", HeaderDecoder.DLT_EN10MB);
+            assertThrows(IOException.class, () -> writer.addInterface("tun0", HeaderDecoder.LINKTYPE_RAW));
+        }
+    }
+
+    @Test
+    void readsAnEmptyCapture() throws IOException {
+        for (String name : new String[] {"empty.pcap", "empty.pcapng"}) {
+            Path path = dir.resolve(name);
+            try (PcapFileWriter writer = PcapFileWriter.create(path)) {
+                writer.addInterface("eth0", HeaderDecoder.DLT_EN10MB);
+            }
+            try (PcapFileReader reader = PcapFileReader.open(path)) {
+                assertTrue(readAll(reader).isEmpty(), name);
+            }
+        }
+    }
+
+    @Test
+    void rejectsFilesThatAreNotCaptures() throws IOException {
+        Path path = dir.resolve("notes.pcap");
+        Files.writeString(path, "This is not a capture file at all.");
+        assertThrows(IOException.class, () -> PcapFileReader.open(path).close());
+    }
+
+    @Test
+    void rejectsARecordLongerThanTheFile() throws IOException {
+        Path path = dir.resolve("cut.pcap");
+        try (PcapFileWriter writer = PcapFileWriter.create(path)) {
+            int id = writer.addInterface("eth0", HeaderDecoder.DLT_EN10MB);
+            writer.write(id, 0, new byte[100], 0, 100, 100);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 10);
+        }
+
+        try (PcapFileReader reader = PcapFileReader.open(path)) {
+            assertThrows(IOException.class, () -> readAll(reader));
+        }
+    }
+
+    @Test
+    void readsSimplePacketBlocks() throws IOException {
+        // the block is padded, its original length says where the frame ends
+        Path path = simplePacket(new byte[] {1, 2, 3, 4, 5}, 5);
+        try (PcapFileReader reader = PcapFileReader.open(path)) {
+            List<Record> read = readAll(reader);
+            assertEquals(1, read.size());
+            assertArrayEquals(new byte[] {1, 2, 3, 4, 5}, read.get(0).data);
+            assertEquals(5, read.get(0).originalLength);
+        }
+    }
+
+    @Test
+    void rejectsASimplePacketBlockWithANegativeLength() throws IOException {
+        Path path = simplePacket(new byte[] {1, 2, 3, 4}, -1);
+        try (PcapFileReader reader = PcapFileReader.open(path)) {
+            IOException e = assertThrows(IOException.class, () -> readAll(reader));
+            assertTrue(e.getMessage().startsWith("Corrupt packet block at offset "), e.getMessage());
+        }
+    }
+
+    /**
+     * A pcapng file whose one packet is a simple packet block, which JCap does not write itself.
+     */
+    private Path simplePacket(byte[] data, int originalLength) throws IOException {
+        Path path = dir.resolve("simple.pcapng");
+        try (PcapFileWriter writer = PcapFileWriter.create(path)) {
+            writer.addInterface("eth0", HeaderDecoder.DLT_EN10MB);
+        }
+
+        // the section header says which byte order the rest of the file is in
+        ByteBuffer header = ByteBuffer.wrap(Files.readAllBytes(path), 8, 4);
+        ByteOrder order = header.order(ByteOrder.BIG_ENDIAN).getInt() == 0x1A2B3C4D
+                ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+
+        int padded = (data.length + 3) & ~3;
+        ByteBuffer block = ByteBuffer.allocate(16 + padded).order(order);
+        block.putInt(3).putInt(16 + padded).putInt(originalLength).put(data);
+        block.position(12 + padded);
+        block.putInt(16 + padded);
+        Files.write(path, block.array(), StandardOpenOption.APPEND);
+        return path;
+    }
+
+    @Test
+    void stopsWhenCancelled() throws IOException {
+        Path path = dir.resolve("many.pcap");
+        try (PcapFileWriter writer = PcapFileWriter.create(path)) {
+            int id = writer.addInterface("eth0", HeaderDecoder.DLT_EN10MB);
+            for (int i = 0; i < 10_000; i++) writer.write(id, i, new byte[60], 0, 60, 60);
+        }
+        try (PcapFileReader reader = PcapFileReader.open(path)) {
+            long read = reader.read((buffer, offset, captured, original, timestamp, index) -> {
+            }, () -> true);
+            assertEquals(0, read);
+            assertFalse(reader.getPosition() >= reader.getSize());
+        }
+    }
+
+    private static List<Record> readAll(PcapFileReader reader) throws IOException {
+        List<Record> records = new ArrayList<>();
+        reader.read((ByteBuffer buffer, int offset, int captured, int original, long timestamp, int index) -> {
+            byte[] data = new byte[captured];
+            buffer.get(offset, data);
+            records.add(new Record(index, timestamp, data, original));
+        }, () -> false);
+        return records;
+    }
+
+    private static void assertRecords(List<Record> expected, List<Record> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Record e = expected.get(i);
+            Record a = actual.get(i);
+            assertEquals(e.interfaceIndex, a.interfaceIndex, "interface of record " + i);
+            assertEquals(e.timestampNanos, a.timestampNanos, "timestamp of record " + i);
+            assertEquals(e.originalLength, a.originalLength, "original length of record " + i);
+            assertArrayEquals(e.data, a.data, "bytes of record " + i);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.jcap.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PostingListTest {
+
+    @Test
+    void roundTripsThroughItsEncoding() {
+        // deltas across every varint length, up to the largest row number
+        int[] rows = {0, 1, 127, 128, 255, 16_384, 16_511, 2_097_152, 268_435_456, Integer.MAX_VALUE - 1, Integer.MAX_VALUE};
+        PostingList list = new PostingList();
+        for (int row : rows) list.add(row);
+
+        assertEquals(rows.length, list.size());
+        assertArrayEquals(rows, list.toArray());
+
+        PostingList decoded = new PostingList(list.toBytes(), list.size());
+        assertArrayEquals(rows, decoded.toArray());
+    }
+
+    @Test
+    void encodesDenseRowsInOneByteEach() {
+        PostingList list = new PostingList();
+        for (int row = 0; row < 1000; row++) list.add(row);
+        assertEquals(1000, list.toBytes().length);
+    }
+
+    @Test
+    void ignoresRowsOutOfOrderOrRepeated() {
+        PostingList list = new PostingList();
+        list.add(5);
+        list.add(5);
+        list.add(3);
+        list.add(9);
+        assertArrayEquals(new int[] {5, 9}, list.toArray());
+    }
+
+    @Test
+    void isEmptyWithoutRows() {
+        PostingList list = new PostingList();
+        assertEquals(0, list.toBytes().length);
+        assertArrayEquals(new int[0], new PostingList(list.toBytes(), 0).toArray());
+        assertEquals(0, list.retainIn(new int[] {1, 2, 3}, 3));
+    }
+
+    @Test
+    void retainsTheIntersection() {
+        Random random = new Random(1);
+        for (int round = 0; round < 50; round++) {
+            int[] a = sortedRandom(random, random.nextInt(300));
+            int[] b = sortedRandom(random, random.nextInt(300));
+
+            PostingList list = new PostingList();
+            for (int row : a) list.add(row);
+            PostingList decoded = new PostingList(list.toBytes(), list.size());
+
+            int[] rows = b.clone();
+            int kept = decoded.retainIn(rows, rows.length);
+            int[] expected = Arrays.stream(b).filter(row -> Arrays.binarySearch(a, row) >= 0).toArray();
+            assertArrayEquals(expected, Arrays.copyOf(rows, kept));
+        }
+    }
+
+    @Test
+    void retainsOnlyTheGivenPrefix() {
+        PostingList list = new PostingList();
+        for (int row : new int[] {1, 2, 3, 4}) list.add(row);
+        int[] rows = {2, 3, 4};
+        assertEquals(1, list.retainIn(rows, 1));
+        assertEquals(2, rows[0]);
+    }
+
+    private static int[] sortedRandom(Random random, int count) {
+        return random.ints(count, 0, 1000).sorted().distinct().toArray();
+    }
+}
@@ -0,0 +1,232 @@
+package com.jcap.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RotatingFileWriterTest {
+
+    private static final long SECOND = 1_000_000_000L;
+    private static final long START = 1_700_000_000L * SECOND;
+
+    // pcap file header and record header
+    private static final int HEADER = 24;
+    private static final int RECORD = 16;
+
+    @TempDir
+    Path dir;
+
+    private static byte[] frame(int number, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) data[i] = (byte) (number + i);
+        return data;
+    }
+
+    private static RotatingFileWriter.Segment segment(Path path, long firstNanos, long lastNanos, long frames, long bytes) {
+        return new RotatingFileWriter.Segment(path, firstNanos, lastNanos, frames, bytes);
+    }
+
+    private List<Path> files() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(".pcap")).sorted().toList();
+        }
+    }
+
+    private static List<byte[]> read(Path path) throws IOException {
+        List<byte[]> frames = new ArrayList<>();
+        try (PcapFileReader reader = PcapFileReader.open(path)) {
+            reader.read((ByteBuffer buffer, int offset, int captured, int original, long timestamp, int index) -> {
+                byte[] data = new byte[captured];
+                buffer.get(offset, data);
+                frames.add(data);
+            }, () -> false);
+            assertEquals(reader.getSize(), reader.getPosition());
+        }
+        return frames;
+    }
+
+    // the I/O thread lists a file in the manifest once it has finished it
+    private static List<RotatingFileWriter.Segment> awaitFinished(RotatingFileWriter writer, int count)
+            throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + 10 * SECOND;
+        while (System.nanoTime() < deadline) {
+            if (Files.exists(writer.getManifestPath())) {
+                List<RotatingFileWriter.Segment> segments = RotatingFileWriter.readManifest(writer.getManifestPath());
+                if (segments.size() >= count) return segments;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError(count + " files were not finished");
+    }
+
+    private static void assertFrames(List<Path> files, int[] lengths, int... framesPerFile) throws IOException {
+        assertEquals(framesPerFile.length, files.size());
+        int number = 0;
+        for (int i = 0; i < files.size(); i++) {
+            List<byte[]> frames = read(files.get(i));
+            assertEquals(framesPerFile[i], frames.size(), files.get(i).getFileName().toString());
+            for (byte[] data : frames) {
+                assertArrayEquals(frame(number, lengths[number]), data);
+                number++;
+            }
+        }
+    }
+
+    @Test
+    void startsTheNextFileAfterANumberOfFrames() throws IOException {
+        int[] lengths = {100, 100, 100, 100, 100, 100, 100};
+        try (RotatingFileWriter writer = new RotatingFileWriter(dir.resolve("capture.pcap"),
+                new RotatingFileWriter.Limits(0, 0, 3))) {
+            int id = writer.addInterface("eth0", HeaderDecoder.DLT_EN10MB);
+            for (int i = 0; i < lengths.length; i++) {
+                writer.write(id, START + i, frame(i, lengths[i]), 0, lengths[i], lengths[i]);
+            }
+            assertEquals(3, writer.getFileCount());
+        }
+
+        List<Path> files = files();
+        assertFrames(files, lengths, 3, 3, 1);
+        assertTrue(files.get(0).getFileName().toString().startsWith("capture_00001_"));
+        assertEquals(HEADER + 3 * (RECORD + 100), Files.size(files.get(0)));
+    }
+
+    @Test
+    void startsTheNextFileAtASize() throws IOException {
+        int[] lengths = new int[12];
+        Arrays.fill(lengths, 184);
+        try (RotatingFileWriter writer = new RotatingFileWriter(dir.resolve("capture.pcap"),
+                new RotatingFileWriter.Limits(1000, 0, 0))) {
+            int id = writer.addInterface("eth0", HeaderDecoder.DLT_EN10MB);
+            for (int i = 0; i < lengths.length; i++) {
+                writer.write(id, START + i, frame(i, lengths[i]), 0, lengths[i], lengths[i]);
+            }
+        }
+
+        // the file that reaches the size is full: 24 + 5 * 200 bytes
+        List<Path> files = files();
+        assertFrames(files, lengths, 5, 5, 2);
+        assertEquals(HEADER + 5 * (RECORD + 184), Files.size(files.get(1)));
+    }
+
+    @Test
+    void startsTheNextFileAfterAStretchOfCaptureTime() throws IOException {
+        int[] lengths = {60, 60, 60, 60, 60};
+        long[] times = {0, SECOND / 2, SECOND, SECOND + 7 * SECOND / 10, 5 * SECOND / 2};
+        try (RotatingFileWriter writer = new RotatingFileWriter(dir.resolve("capture.pcap"),
+                new RotatingFileWriter.Limits(0, SECOND, 0))) {
+            int id = writer.addInterface("eth0", HeaderDecoder.DLT_EN10MB);
+            for (int i = 0; i < lengths.length; i++) {
+                writer.write(id, START + times[i], frame(i, lengths[i]), 0, lengths[i], lengths[i]);
+            }
+        }
+
+        List<Path> files = files();
+        assertFrames(files, lengths, 2, 2, 1);
+        List<RotatingFileWriter.Segment> segments = RotatingFileWriter.readManifest(dir.resolve("capture.manifest"));
+        assertEquals(START + SECOND, segments.get(1).firstNanos());
+        assertEquals(START + times[3], segments.get(1).lastNanos());
+    }
+
+    @Test
+    void keepsAtMostMaxFilesCountingTheOneBeingWritten() throws IOException {
+        int[] lengths = {80, 80, 80, 80, 80};
+        try (RotatingFileWriter writer = new RotatingFileWriter(dir.resolve("capture.pcap"),
+                new RotatingFileWriter.Limits(0, 0, 1), new RotatingFileWriter.Retention(2, 0))) {
+            int id = writer.addInterface("eth0", HeaderDecoder.DLT_EN10MB);
+            for (int i = 0; i < lengths.length; i++) {
+                writer.write(id, START + i, frame(i, lengths[i]), 0, lengths[i], lengths[i]);
+            }
+            assertEquals(5, writer.getFileCount());
+        }
+
+        List<Path> files = files();
+        assertEquals(2, files.size());
+        assertTrue(files.get(0).getFileName().toString().startsWith("capture_00004_"));
+        assertTrue(files.get(1).getFileName().toString().startsWith("capture_00005_"));
+        assertArrayEquals(frame(3, 80), read(files.get(0)).get(0));
+        assertArrayEquals(frame(4, 80), read(files.get(1)).get(0));
+        assertEquals(files, RotatingFileWriter.readManifest(dir.resolve("capture.manifest")).stream()
+                .map(RotatingFileWriter.Segment::path).toList());
+    }
+
+    @Test
+    void writesOverTheOldestFilesToStayWithinMaxBytes() throws Exception {
+        int[] lengths = {1000, 1000, 2000, 100};
+        Path first = null;
+        Object firstKey = null;
+        try (RotatingFileWriter writer = new RotatingFileWriter(dir.resolve("capture.pcap"),
+                new RotatingFileWriter.Limits(0, 0, 1), new RotatingFileWriter.Retention(0, 4200))) {
+            int id = writer.addInterface("eth0", HeaderDecoder.DLT_EN10MB);
+            for (int i = 0; i < lengths.length; i++) {
+                writer.write(id, START + i, frame(i, lengths[i]), 0, lengths[i], lengths[i]);
+                // the second frame starts the second file, so the first one is finished
+                if (i == 1) {
+                    first = awaitFinished(writer, 1).get(0).path();
+                    firstKey = Files.readAttributes(first, BasicFileAttributes.class).fileKey();
+                }
+            }
+        }
+
+        // 1040 + 1040 + 2040 bytes kept, and the fourth file counts as large as the third: the first
+        // file is written over and the second deleted
+        List<Path> files = files();
+        assertEquals(2, files.size());
+        assertFalse(Files.exists(first));
+        assertTrue(files.get(0).getFileName().toString().startsWith("capture_00003_"));
+        assertTrue(files.get(1).getFileName().toString().startsWith("capture_00004_"));
+        assertEquals(firstKey, Files.readAttributes(files.get(1), BasicFileAttributes.class).fileKey());
+
+        // cut to what the new segment holds
+        assertEquals(HEADER + RECORD + 100, Files.size(files.get(1)));
+        List<byte[]> frames = read(files.get(1));
+        assertEquals(1, frames.size());
+        assertArrayEquals(frame(3, 100), frames.get(0));
+    }
+
+    @Test
+    void readsBackTheManifest() throws Exception {
+        int[] lengths = {50, 60, 70, 80, 90};
+        Path manifest;
+        try (RotatingFileWriter writer = new RotatingFileWriter(dir.resolve("capture.pcap"),
+                new RotatingFileWriter.Limits(0, 0, 2))) {
+            manifest = writer.getManifestPath();
+            assertEquals(dir.resolve("capture.manifest"), manifest);
+            int id = writer.addInterface("eth0", HeaderDecoder.DLT_EN10MB);
+            for (int i = 0; i < lengths.length; i++) {
+                writer.write(id, START + i * SECOND, frame(i, lengths[i]), 0, lengths[i], lengths[i]);
+            }
+
+            // the last frame is still buffered, the two files before it are finished
+            assertEquals(2, awaitFinished(writer, 2).size());
+        }
+
+        List<Path> files = files();
+        List<RotatingFileWriter.Segment> expected = List.of(
+                segment(files.get(0), START, START + SECOND, 2, HEADER + 2 * RECORD + 50 + 60),
+                segment(files.get(1), START + 2 * SECOND, START + 3 * SECOND, 2, HEADER + 2 * RECORD + 70 + 80),
+                segment(files.get(2), START + 4 * SECOND, START + 4 * SECOND, 1, HEADER + RECORD + 90));
+        assertEquals(expected, RotatingFileWriter.readManifest(manifest));
+        for (RotatingFileWriter.Segment segment : expected) {
+            assertEquals(Files.size(segment.path()), segment.bytes());
+        }
+
+        // a file still being written is listed without its numbers and not read back
+        assertFalse(Files.readString(manifest).contains("open"));
+        Files.writeString(manifest, Files.readString(manifest) + "capture_00004_20240131120000.pcap\topen\n");
+        assertEquals(expected, RotatingFileWriter.readManifest(manifest));
+    }
+}
@@ -0,0 +1,128 @@
+package com.jcap.service;
+
+import com.jcap.model.PacketStore;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionStoreTest {
+
+    private static final int PAGE_ROWS = 1 << 14;
+    private static final int ROWS = 2 * PAGE_ROWS + 50;
+
+    private static final String SESSION = "session-store-" + System.nanoTime();
+
+    @TempDir
+    static Path dir;
+
+    private static PacketStore saved;
+
+    @BeforeAll
+    static void save() throws IOException {
+        List<byte[]> frames = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            byte[] data = {(byte) i, (byte) (i >> 8), (byte) (i >> 16)};
+            frames.add(i % 2 == 0
+                    ? Frames.tcp(Frames.CLIENT, Frames.SERVER, 40000 + i % 1000, 443, i, PacketHeaders.TCP_ACK, data)
+                    : Frames.udp(Frames.SERVER, Frames.CLIENT, 53, 50000 + i % 1000, data));
+        }
+        saved = Frames.store(dir.resolve("session.pcap"), frames);
+
+        DatabaseService.initialize();
+        assertTrue(DatabaseService.saveCapture(SESSION, saved, Progress.NONE));
+    }
+
+    @AfterAll
+    static void delete() {
+        DatabaseService.deleteCapture(SESSION);
+        saved.close();
+    }
+
+    private static void assertRow(PacketStore store, int row) {
+        assertEquals(saved.getNumber(row), store.getNumber(row));
+        assertEquals(saved.getSource(row), store.getSource(row));
+        assertEquals(saved.getDestination(row), store.getDestination(row));
+        assertEquals(saved.getSourcePort(row), store.getSourcePort(row));
+        assertEquals(saved.getDestinationPort(row), store.getDestinationPort(row));
+        assertEquals(saved.getProtocol(row), store.getProtocol(row));
+        assertEquals(saved.getInfo(row), store.getInfo(row));
+        assertArrayEquals(saved.copyPayload(row), store.copyPayload(row));
+    }
+
+    @Test
+    void readsRowsOfEveryPage() throws SQLException {
+        try (PacketStore store = DatabaseService.openCapture(SESSION, Progress.NONE)) {
+            assertEquals(ROWS, store.size());
+            for (int row : new int[] {0, 1, PAGE_ROWS - 1, PAGE_ROWS, 2 * PAGE_ROWS, ROWS - 1}) {
+                assertRow(store, row);
+            }
+            assertEquals(PAGE_ROWS + 7, store.findRow(saved.getNumber(PAGE_ROWS + 7)));
+        }
+    }
+
+    @Test
+    void prefetchesPagesInTheBackground() throws Exception {
+        try (PacketStore store = DatabaseService.openCapture(SESSION, Progress.NONE)) {
+            int row = PAGE_ROWS + 3;
+            assertFalse(store.isLoaded(row));
+
+            CountDownLatch loaded = new CountDownLatch(1);
+            store.setOnRowsLoaded(loaded::countDown);
+            store.prefetch(row);
+            // a second miss on the same page does not read it again
+            store.prefetch(row + 1);
+            assertTrue(loaded.await(10, TimeUnit.SECONDS));
+
+            assertTrue(store.isLoaded(row));
+            assertTrue(store.isLoaded(PAGE_ROWS));
+            assertFalse(store.isLoaded(0));
+            assertFalse(store.isLoaded(2 * PAGE_ROWS));
+            assertRow(store, row);
+        }
+    }
+
+    @Test
+    void stopsReadingOnceClosed() throws SQLException {
+        PacketStore store = DatabaseService.openCapture(SESSION, Progress.NONE);
+        store.close();
+        store.prefetch(0);
+        assertFalse(store.isLoaded(0));
+        assertThrows(IllegalStateException.class, () -> store.getNumber(0));
+    }
+
+    @Test
+    void refusesToDeleteAnOpenCapture() throws IOException, SQLException {
+        String name = "open-" + System.nanoTime();
+        try (PacketStore small = Frames.store(dir.resolve("open.pcap"),
+                List.of(Frames.udp(Frames.CLIENT, Frames.SERVER, 50000, 53, new byte[] {1, 2, 3})))) {
+            assertTrue(DatabaseService.saveCapture(name, small, Progress.NONE));
+        }
+
+        PacketStore first = DatabaseService.openCapture(name, Progress.NONE);
+        PacketStore second = DatabaseService.openCapture(name, Progress.NONE);
+        assertThrows(IllegalStateException.class, () -> DatabaseService.deleteCapture(name));
+        first.close();
+        assertThrows(IllegalStateException.class, () -> DatabaseService.deleteCapture(name));
+        assertEquals(1, second.getNumber(0));
+
+        second.close();
+        second.close();
+        DatabaseService.deleteCapture(name);
+        assertFalse(DatabaseService.getCaptureNames().contains(name));
+    }
+}
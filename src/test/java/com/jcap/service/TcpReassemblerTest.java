@@ -0,0 +1,201 @@
+package com.jcap.service;
+
+import com.jcap.model.Addresses;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TcpReassemblerTest {
+
+    private static final int CLIENT_PORT = 40000;
+    private static final int SERVER_PORT = 80;
+    private static final long CLIENT_ISN = 1000;
+    private static final long SERVER_ISN = 5000;
+    private static final long CLIENT = Frames.CLIENT & 0xFFFFFFFFL;
+    private static final long SERVER = Frames.SERVER & 0xFFFFFFFFL;
+
+    private final ByteArrayOutputStream toServer = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream toClient = new ByteArrayOutputStream();
+    private final List<String> events = new ArrayList<>();
+    private TcpReassembler reassembler;
+    private long time;
+
+    private final TcpReassembler.Listener listener = new TcpReassembler.Listener() {
+        @Override
+        public void data(TcpReassembler.Stream stream, boolean fromClient, byte[] data, int offset, int length) {
+            (fromClient ? toServer : toClient).write(data, offset, length);
+        }
+
+        @Override
+        public void gap(TcpReassembler.Stream stream, boolean fromClient, long length) {
+            events.add("gap " + (fromClient ? "client " : "server ") + length);
+        }
+
+        @Override
+        public void closed(TcpReassembler.Stream stream) {
+            events.add("closed");
+        }
+    };
+
+    @BeforeEach
+    void setUp() {
+        reassembler = new TcpReassembler(listener);
+    }
+
+    private TcpReassembler.Stream client(long seq, int flags, String data) {
+        byte[] bytes = data.getBytes(StandardCharsets.US_ASCII);
+        return reassembler.add(time++, Addresses.IPV4, 0, CLIENT, 0, SERVER, CLIENT_PORT, SERVER_PORT,
+                flags, seq & 0xFFFFFFFFL, bytes, 0, bytes.length);
+    }
+
+    private TcpReassembler.Stream server(long seq, int flags, String data) {
+        byte[] bytes = data.getBytes(StandardCharsets.US_ASCII);
+        return reassembler.add(time++, Addresses.IPV4, 0, SERVER, 0, CLIENT, SERVER_PORT, CLIENT_PORT,
+                flags, seq & 0xFFFFFFFFL, bytes, 0, bytes.length);
+    }
+
+    private void handshake() {
+        client(CLIENT_ISN, PacketHeaders.TCP_SYN, "");
+        server(SERVER_ISN, PacketHeaders.TCP_SYN | PacketHeaders.TCP_ACK, "");
+        client(CLIENT_ISN + 1, PacketHeaders.TCP_ACK, "");
+    }
+
+    private static String text(ByteArrayOutputStream stream) {
+        return stream.toString(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    void deliversBothDirectionsInOrder() {
+        handshake();
+        TcpReassembler.Stream stream = client(CLIENT_ISN + 1, PacketHeaders.TCP_ACK | PacketHeaders.TCP_PSH, "GET / HTTP/1.1\r\n");
+        client(CLIENT_ISN + 17, PacketHeaders.TCP_ACK | PacketHeaders.TCP_PSH, "\r\n");
+        server(SERVER_ISN + 1, PacketHeaders.TCP_ACK, "HTTP/1.1 200 OK");
+
+        assertEquals("GET / HTTP/1.1\r\n\r\n", text(toServer));
+        assertEquals("HTTP/1.1 200 OK", text(toClient));
+        assertEquals(SERVER_PORT, stream.getServerPort());
+        assertEquals("192.168.1.2", stream.getClientAddress());
+        assertEquals(18, stream.getBytes(true));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    void holdsEarlySegmentsUntilTheGapIsFilled() {
+        handshake();
+        client(CLIENT_ISN + 11, PacketHeaders.TCP_ACK, "klmno");
+        client(CLIENT_ISN + 6, PacketHeaders.TCP_ACK, "fghij");
+        assertEquals("", text(toServer));
+        assertTrue(reassembler.getMemoryUsed() > 0);
+
+        client(CLIENT_ISN + 1, PacketHeaders.TCP_ACK, "abcde");
+        assertEquals("abcdefghijklmno", text(toServer));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    void reassemblesAnyArrivalOrder() {
+        byte[] sent = new byte[20_000];
+        new Random(5).nextBytes(sent);
+        List<long[]> segments = new ArrayList<>();
+        for (int at = 0; at < sent.length; at += 700) segments.add(new long[] {at, Math.min(700, sent.length - at)});
+        Collections.shuffle(segments, new Random(9));
+
+        handshake();
+        for (long[] segment : segments) {
+            reassembler.add(time++, Addresses.IPV4, 0, CLIENT, 0, SERVER, CLIENT_PORT, SERVER_PORT,
+                    PacketHeaders.TCP_ACK, CLIENT_ISN + 1 + segment[0], sent, (int) segment[0], (int) segment[1]);
+        }
+        assertArrayEquals(sent, toServer.toByteArray());
+    }
+
+    @Test
+    void keepsTheFirstCopyOfOverlappingBytes() {
+        handshake();
+        TcpReassembler.Stream stream = client(CLIENT_ISN + 1, PacketHeaders.TCP_ACK, "AAAAAAAAAA");
+        // starts inside what was delivered; only its last five bytes are new
+        client(CLIENT_ISN + 6, PacketHeaders.TCP_ACK, "BBBBBBBBBB");
+        assertEquals("AAAAAAAAAABBBBB", text(toServer));
+        assertEquals(5, stream.getRetransmitted(true));
+
+        // held segments overlap each other and the one that fills the gap overlaps them both
+        client(CLIENT_ISN + 26, PacketHeaders.TCP_ACK, "CCCCCCCCCC");
+        client(CLIENT_ISN + 21, PacketHeaders.TCP_ACK, "DDDDDDDDDD");
+        client(CLIENT_ISN + 16, PacketHeaders.TCP_ACK, "EEEEEEEEEEEEEEE");
+        assertEquals("AAAAAAAAAABBBBBEEEEEDDDDDCCCCCCCCCC", text(toServer));
+        assertEquals(5 + 5 + 10, stream.getRetransmitted(true));
+    }
+
+    @Test
+    void dropsRetransmissions() {
+        handshake();
+        client(CLIENT_ISN + 1, PacketHeaders.TCP_ACK, "hello");
+        TcpReassembler.Stream stream = client(CLIENT_ISN + 1, PacketHeaders.TCP_ACK, "hello");
+        client(CLIENT_ISN + 3, PacketHeaders.TCP_ACK, "ll");
+        assertEquals("hello", text(toServer));
+        assertEquals(7, stream.getRetransmitted(true));
+    }
+
+    @Test
+    void followsTheSequenceNumberAcrossItsWrap() {
+        long isn = 0xFFFFFFFAL;
+        client(isn, PacketHeaders.TCP_SYN, "");
+        client(isn + 11, PacketHeaders.TCP_ACK, "world");
+        client(isn + 1, PacketHeaders.TCP_ACK, "hello ----");
+        assertEquals("hello ----world", text(toServer));
+    }
+
+    @Test
+    void skipsAGapWhenTheStreamCloses() {
+        handshake();
+        client(CLIENT_ISN + 1, PacketHeaders.TCP_ACK, "abc");
+        client(CLIENT_ISN + 8, PacketHeaders.TCP_ACK, "hij");
+        reassembler.closeAll();
+
+        assertEquals("abchij", text(toServer));
+        assertEquals(List.of("gap client 4", "closed"), events);
+        assertEquals(0, reassembler.getOpenCount());
+        assertEquals(0, reassembler.getMemoryUsed());
+    }
+
+    @Test
+    void givesUpOnAGapPastTheStreamCap() {
+        reassembler = new TcpReassembler(1 << 20, 8, Long.MAX_VALUE, listener);
+        handshake();
+        client(CLIENT_ISN + 11, PacketHeaders.TCP_ACK, "12345");
+        client(CLIENT_ISN + 16, PacketHeaders.TCP_ACK, "6789");
+        assertEquals("123456789", text(toServer));
+        assertEquals(List.of("gap client 10"), events);
+    }
+
+    @Test
+    void closesOnFinFromBothSidesOrReset() {
+        handshake();
+        client(CLIENT_ISN + 1, PacketHeaders.TCP_ACK | PacketHeaders.TCP_FIN, "bye");
+        assertEquals(1, reassembler.getOpenCount());
+        server(SERVER_ISN + 1, PacketHeaders.TCP_ACK | PacketHeaders.TCP_FIN, "");
+        assertEquals(List.of("closed"), events);
+        assertEquals(0, reassembler.getOpenCount());
+
+        TcpReassembler.Stream reset = client(7777, PacketHeaders.TCP_ACK, "data");
+        server(0, PacketHeaders.TCP_RST, "");
+        assertTrue(reset.isReset());
+        assertEquals(0, reassembler.getOpenCount());
+    }
+
+    @Test
+    void ignoresABareAckOfAnUnknownConnection() {
+        assertNull(client(1, PacketHeaders.TCP_ACK, ""));
+        assertEquals(0, reassembler.getOpenCount());
+    }
+}
@@ -0,0 +1,109 @@
+package com.jcap.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class TrafficStatisticsTest {
+
+    private static final byte[] REQUEST =
+            "GET /index.html HTTP/1.1\r\nHost: Example.com\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static int indexOf(String name) {
+        List<ApplicationDissector> dissectors = ApplicationLayer.get().getDissectors();
+        for (int i = 0; i < dissectors.size(); i++) {
+            if (dissectors.get(i).name().equals(name)) return i;
+        }
+        throw new AssertionError(name);
+    }
+
+    @Test
+    void classifiesLikeTheDissectorThatTakesThePayload() {
+        byte[] byPort = Frames.tcp(Frames.CLIENT, Frames.SERVER, 40001, 80, 1, PacketHeaders.TCP_ACK, REQUEST);
+        byte[] byHeuristic = Frames.tcp(Frames.CLIENT, Frames.SERVER, 40001, 9000, 1, PacketHeaders.TCP_ACK, REQUEST);
+        byte[] unknown = Frames.udp(Frames.CLIENT, Frames.SERVER, 40001, 9000, new byte[] {1, 2, 3});
+
+        for (byte[] frame : new byte[][] {byPort, byHeuristic, unknown}) {
+            PacketView view = Frames.view(frame);
+            int expected = frame == unknown ? -1 : indexOf("http");
+            assertEquals(expected, ((CaptureFrame) view).applicationIndex());
+            assertEquals(expected, view.application().dissectorIndex());
+        }
+    }
+
+    @Test
+    void countsLiveFramesWithoutDissectingThem() {
+        CaptureFrame frame = (CaptureFrame) Frames.view(
+                Frames.tcp(Frames.CLIENT, Frames.SERVER, 40001, 80, 1, PacketHeaders.TCP_ACK, REQUEST));
+        TrafficStatistics statistics = new TrafficStatistics();
+        statistics.add(frame, frame.applicationIndex(), frame.timestampNanos);
+
+        assertFalse(frame.applicationDecoded);
+        TrafficStatistics.ProtocolNode tcp = statistics.snapshot(1).protocols().children().get(0).children().get(0);
+        assertEquals("TCP", tcp.name());
+        assertEquals(ApplicationLayer.get().getDissectors().get(indexOf("http")).title(), tcp.children().get(0).name());
+    }
+
+    @Test
+    void dropsIntervalsThatFallOutOfTheHistory() {
+        PacketView view = Frames.view(Frames.udp(Frames.CLIENT, Frames.SERVER, 40001, 9000, new byte[10]));
+        TrafficStatistics statistics = new TrafficStatistics(1000, 4);
+        for (long nanos : new long[] {0, 1500, 1600, 4000, 3000}) {
+            statistics.add(view, nanos);
+        }
+        // interval 4 took the slot of interval 0, so a late packet of 0 is not counted in 4
+        statistics.add(view, 200);
+
+        TrafficStatistics.Series series = statistics.snapshot(1).series();
+        assertEquals(1000, series.startNanos());
+        assertArrayEquals(new long[] {2, 0, 1, 1}, series.packets());
+    }
+
+    @Test
+    void countsEveryPacketOfConcurrentWriters() throws Exception {
+        PacketView view = Frames.view(Frames.udp(Frames.CLIENT, Frames.SERVER, 40001, 9000, new byte[10]));
+        int threads = 4;
+        int perThread = 50_000;
+        int intervals = 16;
+        int history = 4;
+        TrafficStatistics statistics = new TrafficStatistics(1000, history);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            Future<?>[] done = new Future<?>[threads];
+            for (int t = 0; t < threads; t++) {
+                done[t] = executor.submit(() -> {
+                    start.await();
+                    // every thread moves through the intervals in the same order, racing to reopen each
+                    // slot while the others may still be adding to the interval it held
+                    for (int i = 0; i < perThread; i++) {
+                        statistics.add(view, (long) i * intervals / perThread * 1000);
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+            for (Future<?> f : done) f.get();
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        long[] packets = statistics.snapshot(1).series().packets();
+        // a packet of an interval that has left the history must not land in the one after it
+        assertEquals(history, packets.length);
+        for (long p : packets) {
+            assertEquals((long) threads * perThread / intervals, p);
+        }
+    }
+}